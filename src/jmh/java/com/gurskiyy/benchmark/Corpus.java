@@ -0,0 +1,35 @@
+package com.gurskiyy.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checked-in benchmark pages: {@code small} (~5 KB), {@code medium} (~90 KB) and {@code huge} (~550 KB)
+ * documentation-style pages with navigation, tables, code blocks, inline scripts and styles, and a mix of
+ * absolute, relative and fragment links.
+ */
+public final class Corpus {
+
+    public static final String TARGET = "https://quarkus.io";
+    public static final String PROXY_BASE_URI = "http://localhost:8080/?target=https://quarkus.io";
+
+    private Corpus() {
+    }
+
+    public static byte[] bytes(String page) {
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + page + ".html")) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown corpus page: " + page);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static String html(String page) {
+        return new String(bytes(page), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,191 @@
+package com.gurskiyy.parser;
+
+import com.gurskiyy.benchmark.Corpus;
+import com.gurskiyy.metrics.ProxyMetrics;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the corpus pages in both modes and times the per-node and per-link work on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HtmlModifierBenchmark {
+
+    private static final Pattern SIX_LETTER_WORD_PATTERN = Pattern.compile("\\b([A-Za-z]{6})\\b");
+
+    @Param({"small", "medium", "huge"})
+    public String page;
+
+    private final HtmlModifier htmlModifier = new HtmlModifier();
+    private final HtmlModifier uncachedModifier = new HtmlModifier(ProxyMetrics.disabled(), LinkCache.disabled());
+    private final RewriteContext context = new RewriteContext(Corpus.PROXY_BASE_URI, Corpus.TARGET);
+    private final RewriteContext cachedContext = new RewriteContext(Corpus.PROXY_BASE_URI, Corpus.TARGET,
+            new LinkCache(LinkCache.DEFAULT_MAX_ENTRIES));
+    private String html;
+    private byte[] bytes;
+    private List<String> texts;
+    private List<String> absoluteHrefs;
+    private List<String> relativeHrefs;
+
+    @Setup
+    public void setUp() {
+        html = Corpus.html(page);
+        bytes = Corpus.bytes(page);
+        texts = new ArrayList<>();
+        NodeTraversor.traverse((node, depth) -> {
+            if (node instanceof TextNode textNode) {
+                texts.add(textNode.getWholeText());
+            }
+        }, Jsoup.parse(html));
+        absoluteHrefs = new ArrayList<>();
+        relativeHrefs = new ArrayList<>();
+        Jsoup.parse(html).select("a[href]").eachAttr("href").forEach(href -> {
+            if (href.startsWith("http://") || href.startsWith("https://")) {
+                absoluteHrefs.add(href);
+            } else if (href.startsWith("/")) {
+                relativeHrefs.add(href);
+            }
+        });
+    }
+
+    @Benchmark
+    public String modifyHtmlDom() {
+        return htmlModifier.modifyHtml(html, Corpus.PROXY_BASE_URI, Corpus.TARGET);
+    }
+
+    /**
+     * The DOM rewrite as the proxy runs it, from the upstream bytes to the response bytes.
+     */
+    @Benchmark
+    public byte[] modifyHtmlDomBytes() throws IOException {
+        return htmlModifier.modifyHtml(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8, Corpus.PROXY_BASE_URI,
+                Corpus.TARGET);
+    }
+
+    /**
+     * The byte rewrite without remembering links across pages, kept as a baseline.
+     */
+    @Benchmark
+    public byte[] modifyHtmlDomBytesUncached() throws IOException {
+        return uncachedModifier.modifyHtml(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8,
+                Corpus.PROXY_BASE_URI, Corpus.TARGET);
+    }
+
+    /**
+     * The same work through whole-page strings, as the proxy did before decoding from bytes, kept as a baseline.
+     */
+    @Benchmark
+    public byte[] modifyHtmlDomString() {
+        String page = new String(bytes, StandardCharsets.UTF_8);
+        return htmlModifier.modifyHtml(page, Corpus.PROXY_BASE_URI, Corpus.TARGET).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void modifyHtmlStreaming(Blackhole blackhole) throws IOException {
+        htmlModifier.modifyHtml(new StringReader(html), new BlackholeWriter(blackhole), Corpus.PROXY_BASE_URI,
+                Corpus.TARGET);
+    }
+
+    @Benchmark
+    public void processText(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(htmlModifier.processText(text));
+        }
+    }
+
+    /**
+     * The regex {@link HtmlModifier#processText(String)} used before the hand-written scanner, kept as a baseline.
+     */
+    @Benchmark
+    public void processTextRegex(Blackhole blackhole) {
+        for (String text : texts) {
+            blackhole.consume(SIX_LETTER_WORD_PATTERN.matcher(text).replaceAll("$1\u2122"));
+        }
+    }
+
+    @Benchmark
+    public void rewriteAbsoluteUrl(Blackhole blackhole) {
+        for (String href : absoluteHrefs) {
+            blackhole.consume(context.rewriteUrl(href));
+        }
+    }
+
+    /**
+     * Every link after the first page is a hit, as for pages of one site sharing their navigation.
+     */
+    @Benchmark
+    public void rewriteAbsoluteUrlCached(Blackhole blackhole) {
+        for (String href : absoluteHrefs) {
+            blackhole.consume(cachedContext.rewriteUrl(href));
+        }
+    }
+
+    @Benchmark
+    public void rewriteRelativeUrl(Blackhole blackhole) {
+        for (String href : relativeHrefs) {
+            blackhole.consume(context.rewriteUrl(href));
+        }
+    }
+
+    private static final class BlackholeWriter extends Writer {
+
+        private final Blackhole blackhole;
+
+        BlackholeWriter(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int c) {
+            blackhole.consume(c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            blackhole.consume(chars);
+            blackhole.consume(length);
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            blackhole.consume(text);
+            blackhole.consume(length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.gurskiyy.parser;
+
+import com.gurskiyy.benchmark.Corpus;
+import com.gurskiyy.metrics.ProxyMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the page size from which rewriting a parsed page on a fork-join pool beats rewriting it on the calling
+ * thread. Each corpus page is repeated {@code copies} times to reach multi-megabyte documents, and rewritten from
+ * its bytes to the response bytes, as the proxy does in DOM mode. {@code threads = 1} is the sequential rewrite,
+ * larger values rewrite every page on a pool of that many threads. Only the rewrite is spread over the pool, parsing
+ * and serializing stay on the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelRewriteBenchmark {
+
+    @Param({"medium", "huge"})
+    public String page;
+
+    @Param({"1", "4", "16"})
+    public int copies;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private HtmlModifier htmlModifier;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        bytes = Corpus.html(page).repeat(copies).getBytes(StandardCharsets.UTF_8);
+        htmlModifier = threads == 1
+                ? new HtmlModifier(ProxyMetrics.disabled(), LinkCache.disabled())
+                : new HtmlModifier(ProxyMetrics.disabled(), LinkCache.disabled(), 1, threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        htmlModifier.close();
+    }
+
+    @Benchmark
+    public byte[] modifyHtmlDomBytes() throws IOException {
+        return htmlModifier.modifyHtml(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8, Corpus.PROXY_BASE_URI,
+                Corpus.TARGET);
+    }
+}
@@ -0,0 +1,49 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.benchmark.Corpus;
+import org.jboss.resteasy.specimpl.ResteasyUriInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the target URI built for every proxied request, for a bare path and for a path with several query
+ * parameters to copy over. The target is parsed once and looked up in the {@link TargetIndex} on later requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildTargetUriBenchmark {
+
+    @Param({"/guides/getting-started", "/guides/config-reference?lang=en&page=3&q=rest%20client&target=x"})
+    public String requestPath;
+
+    private ProxyResource resource;
+    private ResteasyUriInfo uriInfo;
+
+    @Setup
+    public void setUp() {
+        resource = new ProxyResource(null, null, null, null, null, null, TargetIndex.any(), null, null, 0, null, null,
+                null, null);
+        uriInfo = new ResteasyUriInfo("http://localhost:8080" + requestPath, "");
+    }
+
+    @Benchmark
+    public URI buildTargetUri() {
+        return resource.buildTargetUri(uriInfo, Corpus.TARGET);
+    }
+}
@@ -0,0 +1,125 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.benchmark.Corpus;
+import com.gurskiyy.admission.AdmissionController;
+import com.gurskiyy.cache.DiskCache;
+import com.gurskiyy.cache.RequestCoalescer;
+import com.gurskiyy.cache.ResponseCache;
+import com.gurskiyy.client.HttpProxyClient;
+import com.gurskiyy.parser.HtmlModifier;
+import com.gurskiyy.parser.RewriteMode;
+import com.gurskiyy.support.StubResponse;
+import com.gurskiyy.support.StubUpstream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.jboss.resteasy.specimpl.ResteasyUriInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpClient;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proxies the corpus pages end to end, from the upstream request to the rewritten body written out, against a local
+ * stub upstream. Cache and coalescing are off so every operation goes upstream and gets rewritten.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(8)
+public class ProxyThroughputBenchmark {
+
+    @Param({"small", "medium", "huge"})
+    public String page;
+
+    @Param({"STREAMING", "DOM"})
+    public RewriteMode rewriteMode;
+
+    @Param({"WORKER", "ASYNC"})
+    public ExecutionMode executionMode;
+
+    private StubUpstream upstream;
+    private ExecutorService rewriteExecutor;
+    private ExecutorService virtualExecutor;
+    private ProxyResource resource;
+    private ResteasyUriInfo uriInfo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        upstream = StubUpstream.start();
+        upstream.route("/" + page, StubResponse.ok("text/html; charset=UTF-8", Corpus.bytes(page)));
+        rewriteExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        virtualExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        resource = new ProxyResource(new HtmlModifier(), new HttpProxyClient(httpClient),
+                new ResponseCache(false, 0, 0, Duration.ZERO, Map.of(), Clock.systemUTC(), new SimpleMeterRegistry()),
+                DiskCache.disabled(), new RequestCoalescer(false, 0, Duration.ZERO, new SimpleMeterRegistry()), AdmissionController.disabled(),
+                TargetIndex.any(), EarlyHints.disabled(), rewriteMode, 8192,
+                Duration.ofSeconds(30), executionMode, rewriteExecutor, virtualExecutor);
+        uriInfo = new ResteasyUriInfo("http://localhost:8080/" + page + "?target=" + upstream.baseUrl(), "");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        upstream.close();
+        rewriteExecutor.shutdownNow();
+        virtualExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public long proxyGet() throws Exception {
+        try (Response response = resource.proxyGet(upstream.baseUrl(), null, null, null, null, uriInfo).toCompletableFuture()
+                .get(30, TimeUnit.SECONDS)) {
+            if (response.getStatus() != 200) {
+                throw new IllegalStateException("Unexpected status " + response.getStatus());
+            }
+            CountingOutputStream out = new CountingOutputStream();
+            if (response.getEntity() instanceof StreamingOutput streamingOutput) {
+                streamingOutput.write(out);
+            } else if (response.getEntity() instanceof byte[] body) {
+                out.write(body);
+            } else {
+                out.write(response.getEntity().toString().getBytes());
+            }
+            return out.count;
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+}
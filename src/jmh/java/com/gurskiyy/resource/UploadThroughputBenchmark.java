@@ -0,0 +1,153 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.admission.AdmissionController;
+import com.gurskiyy.cache.DiskCache;
+import com.gurskiyy.cache.RequestCoalescer;
+import com.gurskiyy.cache.ResponseCache;
+import com.gurskiyy.client.HttpProxyClient;
+import com.gurskiyy.parser.HtmlModifier;
+import com.gurskiyy.parser.RewriteMode;
+import com.gurskiyy.support.StubResponse;
+import com.gurskiyy.support.StubUpstream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.jboss.resteasy.specimpl.ResteasyHttpHeaders;
+import org.jboss.resteasy.specimpl.ResteasyUriInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts large request bodies through the proxy to a local stub upstream that reads and discards them. Bodies are
+ * generated as they are read, so the heap only ever holds what the proxy itself buffers; run with
+ * {@code -prof gc} to see the allocation per upload stay flat as the body grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(4)
+public class UploadThroughputBenchmark {
+
+    private static final byte[] ACCEPTED = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"65536", "1048576", "16777216"})
+    public long bodyBytes;
+
+    @Param({"WORKER", "ASYNC"})
+    public ExecutionMode executionMode;
+
+    private StubUpstream upstream;
+    private ExecutorService rewriteExecutor;
+    private ExecutorService virtualExecutor;
+    private ProxyResource resource;
+    private ResteasyUriInfo uriInfo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        upstream = StubUpstream.start();
+        upstream.route("/upload", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                body.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return StubResponse.ok("application/json", ACCEPTED);
+        });
+        rewriteExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        virtualExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        resource = new ProxyResource(new HtmlModifier(), new HttpProxyClient(httpClient),
+                new ResponseCache(false, 0, 0, Duration.ZERO, Map.of(), Clock.systemUTC(), new SimpleMeterRegistry()),
+                DiskCache.disabled(), new RequestCoalescer(false, 0, Duration.ZERO, new SimpleMeterRegistry()),
+                AdmissionController.disabled(), TargetIndex.any(), EarlyHints.disabled(), RewriteMode.STREAMING, 8192,
+                Duration.ofSeconds(30), executionMode, rewriteExecutor, virtualExecutor);
+        uriInfo = new ResteasyUriInfo("http://localhost:8080/upload?target=" + upstream.baseUrl(), "");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        upstream.close();
+        rewriteExecutor.shutdownNow();
+        virtualExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public long upload() throws Exception {
+        MultivaluedHashMap<String, String> headers = new MultivaluedHashMap<>();
+        headers.add("Content-Type", "application/octet-stream");
+        headers.add("Content-Length", String.valueOf(bodyBytes));
+        try (Response response = resource.proxyPost(upstream.baseUrl(), null, new ResteasyHttpHeaders(headers),
+                uriInfo, new GeneratedBody(bodyBytes)).toCompletableFuture().get(60, TimeUnit.SECONDS)) {
+            if (response.getStatus() != 200) {
+                throw new IllegalStateException("Unexpected status " + response.getStatus());
+            }
+            // reading the answer releases the upstream connection
+            if (response.getEntity() instanceof StreamingOutput output) {
+                output.write(OutputStream.nullOutputStream());
+            }
+            return bodyBytes;
+        }
+    }
+
+    /**
+     * A body of the given length that is produced as it is read, like one arriving over a client connection.
+     */
+    private static final class GeneratedBody extends InputStream {
+
+        private long remaining;
+
+        GeneratedBody(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return 'x';
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = (int) Math.min(length, remaining);
+            Arrays.fill(buffer, offset, offset + count, (byte) 'x');
+            remaining -= count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.gurskiyy.admission;
+
+import com.gurskiyy.exception.ServiceUnavailableException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control in front of upstream fetches. Pages, which are rewritten, and static assets, which are passed
+ * through, each have their own lane with an adaptive {@link VegasLimit}, so a burst of one kind cannot crowd out the
+ * other. A request over the limit waits up to {@code proxy.admission.max-wait} for a slot, at most as many requests
+ * as the limit wait, and everything beyond is refused with {@code 503} before any work is done. Requests admitted with
+ * {@link #tryAdmit} wait in a queue rather than on a thread.
+ */
+@ApplicationScoped
+public class AdmissionController {
+
+    public enum Lane {
+        PAGE, ASSET;
+
+        private static final Set<String> ASSET_EXTENSIONS = Set.of("js", "mjs", "json", "map", "png", "jpg", "jpeg",
+                "gif", "webp", "avif", "svg", "ico", "woff", "woff2", "ttf", "otf", "eot", "mp4", "webm", "mp3", "pdf",
+                "zip", "wasm");
+
+        /**
+         * Requests are classified before the upstream answers, so the lane is guessed from the path's extension.
+         */
+        public static Lane of(String path) {
+            if (path == null) {
+                return PAGE;
+            }
+            int dot = path.lastIndexOf('.');
+            if (dot < 0 || dot < path.lastIndexOf('/')) {
+                return PAGE;
+            }
+            return ASSET_EXTENSIONS.contains(path.substring(dot + 1).toLowerCase(Locale.ROOT)) ? ASSET : PAGE;
+        }
+    }
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final boolean enabled;
+    private final Duration maxWait;
+    private final Map<Lane, LaneLimiter> lanes = new EnumMap<>(Lane.class);
+
+    @Inject
+    public AdmissionController(@ConfigProperty(name = "proxy.admission.enabled", defaultValue = "true") boolean enabled,
+                               @ConfigProperty(name = "proxy.admission.initial-limit", defaultValue = "100")
+                               int initialLimit,
+                               @ConfigProperty(name = "proxy.admission.min-limit", defaultValue = "10") int minLimit,
+                               @ConfigProperty(name = "proxy.admission.max-limit", defaultValue = "2000") int maxLimit,
+                               @ConfigProperty(name = "proxy.admission.max-wait", defaultValue = "50ms")
+                               Duration maxWait,
+                               MeterRegistry registry) {
+        this.enabled = enabled;
+        this.maxWait = maxWait;
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneLimiter(new VegasLimit(initialLimit, minLimit, maxLimit), registry, lane));
+        }
+    }
+
+    /**
+     * Lets every request through, for components created outside the container.
+     */
+    public static AdmissionController disabled() {
+        return new AdmissionController(false, 1, 1, 1, Duration.ZERO, new CompositeMeterRegistry());
+    }
+
+    /**
+     * Takes a slot in {@code lane}, waiting for one if the lane is full.
+     *
+     * @throws ServiceUnavailableException when no slot became free in time
+     */
+    public Ticket admit(Lane lane) {
+        if (!enabled) {
+            return Ticket.UNLIMITED;
+        }
+        return lanes.get(lane).acquire(maxWait);
+    }
+
+    /**
+     * Takes a slot in {@code lane} without blocking: the result completes at once when a slot is free, otherwise
+     * when one frees up, and fails with {@link ServiceUnavailableException} when none did in time.
+     */
+    public CompletableFuture<Ticket> tryAdmit(Lane lane) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(Ticket.UNLIMITED);
+        }
+        return lanes.get(lane).acquireAsync(maxWait);
+    }
+
+    int limit(Lane lane) {
+        return lanes.get(lane).limit.limit();
+    }
+
+    /**
+     * A slot held by one request, to be released exactly once when its response is ready.
+     */
+    public interface Ticket {
+
+        Ticket UNLIMITED = sampled -> {
+        };
+
+        /**
+         * @param sampled whether the request's duration says something about the proxy's load; fast failures,
+         *                such as a refused upstream, would make the limit believe it can grow
+         */
+        void release(boolean sampled);
+    }
+
+    private static final class LaneLimiter {
+
+        private final VegasLimit limit;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition slotFreed = lock.newCondition();
+        private final Deque<Queued> queued = new ArrayDeque<>();
+        private final LongAdder rejected = new LongAdder();
+        private final Timer queueTime;
+        private int inFlight;
+        private int waiting;
+
+        LaneLimiter(VegasLimit limit, MeterRegistry registry, Lane lane) {
+            this.limit = limit;
+            String tag = lane.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("proxy.admission.limit", limit, VegasLimit::limit).tag("lane", tag).register(registry);
+            Gauge.builder("proxy.admission.in.flight", this, LaneLimiter::inFlight).tag("lane", tag)
+                    .register(registry);
+            FunctionCounter.builder("proxy.admission.rejected", rejected, LongAdder::sum).tag("lane", tag)
+                    .register(registry);
+            this.queueTime = Timer.builder("proxy.admission.queue.duration")
+                    .description("Time requests waited for a free slot")
+                    .tag("lane", tag)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofSeconds(1))
+                    .register(registry);
+        }
+
+        Ticket acquire(Duration maxWait) {
+            long start = System.nanoTime();
+            lock.lock();
+            try {
+                if (inFlight >= limit.limit()) {
+                    if (waiting + queued.size() >= limit.limit() || maxWait.isZero()) {
+                        throw reject();
+                    }
+                    waiting++;
+                    try {
+                        long remaining = maxWait.toNanos();
+                        while (inFlight >= limit.limit() && remaining > 0) {
+                            remaining = slotFreed.awaitNanos(remaining);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw reject();
+                    } finally {
+                        waiting--;
+                    }
+                    if (inFlight >= limit.limit()) {
+                        throw reject();
+                    }
+                }
+                inFlight++;
+            } finally {
+                lock.unlock();
+            }
+            long admitted = System.nanoTime();
+            queueTime.record(admitted - start, TimeUnit.NANOSECONDS);
+            return new LaneTicket(admitted);
+        }
+
+        CompletableFuture<Ticket> acquireAsync(Duration maxWait) {
+            long start = System.nanoTime();
+            Queued waiter;
+            lock.lock();
+            try {
+                if (inFlight < limit.limit()) {
+                    inFlight++;
+                    queueTime.record(0, TimeUnit.NANOSECONDS);
+                    return CompletableFuture.completedFuture(new LaneTicket(start));
+                }
+                if (waiting + queued.size() >= limit.limit() || maxWait.isZero()) {
+                    return CompletableFuture.failedFuture(reject());
+                }
+                waiter = new Queued(new CompletableFuture<>(), start);
+                queued.addLast(waiter);
+            } finally {
+                lock.unlock();
+            }
+            CompletableFuture.delayedExecutor(maxWait.toNanos(), TimeUnit.NANOSECONDS).execute(() -> expire(waiter));
+            return waiter.ticket();
+        }
+
+        private void expire(Queued waiter) {
+            lock.lock();
+            try {
+                if (!queued.remove(waiter)) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            waiter.ticket().completeExceptionally(reject());
+        }
+
+        /**
+         * Hands free slots to queued requests first, then wakes blocked ones for what is left. Called with the lock
+         * held, the returned requests are completed once it is released.
+         */
+        private List<Queued> handOver() {
+            List<Queued> admitted = new ArrayList<>();
+            while (inFlight < limit.limit() && !queued.isEmpty()) {
+                inFlight++;
+                admitted.add(queued.pollFirst());
+            }
+            if (waiting > 0 && inFlight < limit.limit()) {
+                slotFreed.signalAll();
+            }
+            return admitted;
+        }
+
+        private void admit(List<Queued> handedOver) {
+            for (Queued waiter : handedOver) {
+                long now = System.nanoTime();
+                queueTime.record(now - waiter.start(), TimeUnit.NANOSECONDS);
+                LaneTicket ticket = new LaneTicket(now);
+                if (!waiter.ticket().complete(ticket)) {
+                    // given up on by the caller
+                    ticket.release(false);
+                }
+            }
+        }
+
+        /**
+         * A grown limit frees more than the one slot a release signals.
+         */
+        private void wakeWaiters() {
+            List<Queued> handedOver;
+            lock.lock();
+            try {
+                handedOver = handOver();
+            } finally {
+                lock.unlock();
+            }
+            admit(handedOver);
+        }
+
+        private int inFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ServiceUnavailableException reject() {
+            rejected.increment();
+            return new ServiceUnavailableException("Proxy is overloaded, try again later", RETRY_AFTER);
+        }
+
+        private record Queued(CompletableFuture<Ticket> ticket, long start) {
+        }
+
+        private final class LaneTicket implements Ticket {
+
+            private final long admitted;
+            private boolean released;
+
+            LaneTicket(long admitted) {
+                this.admitted = admitted;
+            }
+
+            @Override
+            public void release(boolean sampled) {
+                int current;
+                List<Queued> handedOver;
+                lock.lock();
+                try {
+                    if (released) {
+                        return;
+                    }
+                    released = true;
+                    current = inFlight--;
+                    handedOver = handOver();
+                } finally {
+                    lock.unlock();
+                }
+                admit(handedOver);
+                if (sampled) {
+                    int before = limit.limit();
+                    limit.onSample(System.nanoTime() - admitted, current);
+                    if (limit.limit() > before) {
+                        wakeWaiters();
+                    }
+                }
+            }
+        }
+    }
+}
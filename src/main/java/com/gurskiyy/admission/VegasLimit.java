@@ -0,0 +1,53 @@
+package com.gurskiyy.admission;
+
+/**
+ * A concurrency limit that follows TCP Vegas: the shortest response time seen stands for the time without queueing,
+ * and {@code limit * (1 - shortest / latest)} estimates how many requests are queued. The limit grows while that
+ * estimate is small and shrinks once it grows, in steps of {@code log10(limit)}.
+ */
+final class VegasLimit {
+
+    /**
+     * Forget the shortest response time this often, so a limit learned on an idle service can adapt upwards.
+     */
+    static final int PROBE_INTERVAL = 1_000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile double limit;
+    private long noLoadNanos;
+    private int samples;
+
+    VegasLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.clamp(initialLimit, minLimit, maxLimit);
+    }
+
+    int limit() {
+        return (int) limit;
+    }
+
+    /**
+     * @param inFlight requests in flight when this one completed, a limit that is not used is not grown
+     */
+    synchronized void onSample(long nanos, int inFlight) {
+        if (++samples % PROBE_INTERVAL == 0 || noLoadNanos == 0 || nanos < noLoadNanos) {
+            noLoadNanos = Math.max(1, nanos);
+        }
+        double current = limit;
+        if (inFlight * 2 < current) {
+            return;
+        }
+        double step = Math.max(1, Math.log10(current));
+        double queued = Math.ceil(current * (1 - (double) noLoadNanos / Math.max(nanos, noLoadNanos)));
+        if (queued <= step) {
+            current += 6 * step;
+        } else if (queued < 3 * step) {
+            current += step;
+        } else if (queued > 6 * step) {
+            current -= step;
+        }
+        limit = Math.clamp(current, minLimit, maxLimit);
+    }
+}
@@ -0,0 +1,47 @@
+package com.gurskiyy.cache;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+
+record CacheControl(boolean noStore, boolean noCache, boolean isPrivate, Duration maxAge, Duration sharedMaxAge) {
+
+    static CacheControl parse(List<String> headerValues) {
+        boolean noStore = false;
+        boolean noCache = false;
+        boolean isPrivate = false;
+        Duration maxAge = null;
+        Duration sharedMaxAge = null;
+        for (String headerValue : headerValues) {
+            for (String directive : headerValue.split(",")) {
+                String[] parts = directive.trim().split("=", 2);
+                String name = parts[0].trim().toLowerCase(Locale.ROOT);
+                String argument = parts.length > 1 ? unquote(parts[1].trim()) : null;
+                switch (name) {
+                    case "no-store" -> noStore = true;
+                    case "no-cache" -> noCache = true;
+                    case "private" -> isPrivate = true;
+                    case "max-age" -> maxAge = seconds(argument);
+                    case "s-maxage" -> sharedMaxAge = seconds(argument);
+                    default -> {
+                        // directives that do not affect a shared cache of rewritten pages
+                    }
+                }
+            }
+        }
+        return new CacheControl(noStore, noCache, isPrivate, maxAge, sharedMaxAge);
+    }
+
+    private static Duration seconds(String argument) {
+        try {
+            return argument == null ? Duration.ZERO : Duration.ofSeconds(Math.max(0, Long.parseLong(argument)));
+        } catch (NumberFormatException e) {
+            return Duration.ZERO;
+        }
+    }
+
+    private static String unquote(String value) {
+        return value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")
+                ? value.substring(1, value.length() - 1) : value;
+    }
+}
@@ -0,0 +1,22 @@
+package com.gurskiyy.cache;
+
+import com.gurskiyy.client.Validators;
+
+public record CachedResponse(String contentType, byte[] body, long storedAt, long expiresAt, Validators validators) {
+
+    public boolean isFresh(long now) {
+        return now < expiresAt;
+    }
+
+    public RewrittenPage page() {
+        return new RewrittenPage(contentType, body);
+    }
+
+    CachedResponse withExpiry(long now, long expiresAt, Validators validators) {
+        return new CachedResponse(contentType, body, now, expiresAt, validators.orElse(this.validators));
+    }
+
+    long weight() {
+        return body.length + contentType.length();
+    }
+}
@@ -0,0 +1,52 @@
+package com.gurskiyy.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Copies everything written to the client into a side buffer until {@code limit} bytes, so a streamed
+ * response can be cached once it completes.
+ */
+public class CapturingOutputStream extends FilterOutputStream {
+
+    private final long limit;
+    private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+    public CapturingOutputStream(OutputStream out, long limit) {
+        super(out);
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (captured != null && captured.size() < limit) {
+            captured.write(b);
+        } else {
+            captured = null;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        capture(b, off, len);
+    }
+
+    public byte[] captured() {
+        return captured != null ? captured.toByteArray() : null;
+    }
+
+    private void capture(byte[] b, int off, int len) {
+        if (captured == null) {
+            return;
+        }
+        if (captured.size() + len > limit) {
+            captured = null;
+            return;
+        }
+        captured.write(b, off, len);
+    }
+}
@@ -0,0 +1,77 @@
+package com.gurskiyy.cache;
+
+import com.gurskiyy.client.Validators;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The binary form of a {@link CachedResponse} in a {@link RewrittenContentStore}: a version byte, when it was stored
+ * and when it expires, the {@code Content-Type} it is served with, the upstream {@code ETag} and
+ * {@code Last-Modified} when present, and the rewritten body. Strings are written as modified UTF-8 with a two byte
+ * length, so a record takes 24 bytes besides its body and header values, and two more per validator.
+ */
+final class ContentRecord {
+
+    private static final byte VERSION = 1;
+    private static final int ETAG = 1;
+    private static final int LAST_MODIFIED = 2;
+
+    private ContentRecord() {
+    }
+
+    /**
+     * @return the record, or {@code null} when a header is too long to be written
+     */
+    static byte[] encode(CachedResponse cached) {
+        Validators validators = cached.validators();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(cached.body().length + 256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(cached.storedAt());
+            out.writeLong(cached.expiresAt());
+            out.writeUTF(cached.contentType());
+            out.writeByte((validators.etag() != null ? ETAG : 0)
+                    | (validators.lastModified() != null ? LAST_MODIFIED : 0));
+            if (validators.etag() != null) {
+                out.writeUTF(validators.etag());
+            }
+            if (validators.lastModified() != null) {
+                out.writeUTF(validators.lastModified());
+            }
+            out.writeInt(cached.body().length);
+            out.write(cached.body());
+        } catch (IOException e) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the response, or {@code null} when the record is truncated or written by another version
+     */
+    static CachedResponse decode(byte[] record) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            long storedAt = in.readLong();
+            long expiresAt = in.readLong();
+            String contentType = in.readUTF();
+            int flags = in.readByte();
+            String etag = (flags & ETAG) != 0 ? in.readUTF() : null;
+            String lastModified = (flags & LAST_MODIFIED) != 0 ? in.readUTF() : null;
+            int length = in.readInt();
+            if (length < 0 || length != in.available()) {
+                return null;
+            }
+            byte[] body = in.readNBytes(length);
+            return new CachedResponse(contentType, body, storedAt, expiresAt, new Validators(etag, lastModified));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
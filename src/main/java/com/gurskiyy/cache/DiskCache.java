@@ -0,0 +1,727 @@
+package com.gurskiyy.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Second cache tier for upstream bodies that are passed through as they are, such as images, fonts and script
+ * bundles, which are too large and too many to keep on the heap. Bodies are appended to segment files on local
+ * disk and only a small record per entry stays in memory. Once the segments outgrow {@code proxy.disk-cache.max-bytes}
+ * the oldest one is dropped, after the entries read since it was written have been copied forward, so assets that
+ * keep being requested stay while one-off downloads age out.
+ * <p>
+ * A record is written body first and header last, and carries a CRC-32C of its body. A record whose write failed is
+ * marked as skipped. Once the application started the segments are scanned in the background, and every lookup
+ * misses until that is done. Each segment is cut off at the first record that is incomplete or does not match its
+ * checksum, which is where a crash interrupted a write.
+ */
+@ApplicationScoped
+public class DiskCache {
+
+    private static final int MAGIC = 0x50585931;
+    // header of a range whose write failed, followed by as many bytes as its body length says
+    private static final int SKIPPED_MAGIC = 0x50585930;
+    // magic, body checksum, key length, metadata length, body length
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+    private static final int MAX_NAME_BYTES = 64 * 1024;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final long maxEntryBytes;
+    private final ResponseCache freshness;
+    private final Clock clock;
+
+    private final Map<String, Entry> index = new HashMap<>();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId;
+    private long totalBytes;
+    private volatile boolean ready;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder discardedBytes = new LongAdder();
+
+    @Inject
+    public DiskCache(@ConfigProperty(name = "proxy.disk-cache.enabled", defaultValue = "false") boolean enabled,
+                     @ConfigProperty(name = "proxy.disk-cache.directory") Optional<String> directory,
+                     @ConfigProperty(name = "proxy.disk-cache.max-bytes", defaultValue = "1073741824") long maxBytes,
+                     @ConfigProperty(name = "proxy.disk-cache.segment-bytes", defaultValue = "67108864")
+                     long segmentBytes,
+                     @ConfigProperty(name = "proxy.disk-cache.max-entry-bytes", defaultValue = "67108864")
+                     long maxEntryBytes,
+                     ResponseCache freshness, MeterRegistry registry) {
+        this(enabled, Path.of(directory.orElseGet(() -> System.getProperty("java.io.tmpdir") + "/proxy-disk-cache")),
+                maxBytes, segmentBytes, maxEntryBytes, freshness, Clock.systemUTC(), registry);
+    }
+
+    public DiskCache(boolean enabled, Path directory, long maxBytes, long segmentBytes, long maxEntryBytes,
+                     ResponseCache freshness, Clock clock, MeterRegistry registry) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        this.freshness = freshness;
+        this.clock = clock;
+        registerMetrics(registry);
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (enabled) {
+            Thread.ofPlatform().name("proxy-disk-cache-recovery").daemon(true).start(this::recover);
+        }
+    }
+
+    /**
+     * A cache that stores nothing, for components created outside the container.
+     */
+    public static DiskCache disabled() {
+        return new DiskCache(false, Path.of(""), 0, 0, 0, null, Clock.systemUTC(), new CompositeMeterRegistry());
+    }
+
+    /**
+     * @return the entry, with its segment held open until the entry is {@linkplain Entry#close() closed}, so it can
+     * still be read once it is evicted
+     */
+    public Entry get(URI targetUri) {
+        if (!enabled) {
+            return null;
+        }
+        if (!ready) {
+            misses.increment();
+            return null;
+        }
+        String key = targetUri.toString();
+        synchronized (this) {
+            Entry entry = index.get(key);
+            // the index only holds entries of segments the cache has not retired, which keeps them open
+            if (entry != null && entry.expiresAt > clock.millis() && entry.segment.retain()) {
+                entry.referenced = true;
+                hits.increment();
+                return entry;
+            }
+            if (entry != null) {
+                index.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores a body that was read into memory.
+     */
+    public void put(URI targetUri, HttpHeaders headers, String contentType, String contentEncoding, byte[] body) {
+        long expiresAt = expiresAt(targetUri, headers);
+        if (expiresAt < 0 || body.length > maxEntryBytes) {
+            return;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        try {
+            append(targetUri.toString(), contentType, contentEncoding, expiresAt, body.length, (int) crc.getValue(),
+                    (target, position) -> writeFully(target, ByteBuffer.wrap(body), position));
+        } catch (IOException e) {
+            // the body is served anyway, it just is not cached
+        }
+    }
+
+    /**
+     * Starts storing a body that is streamed to the client, for as long as it stays within
+     * {@code proxy.disk-cache.max-entry-bytes}.
+     *
+     * @return the recorder to copy the body to, or {@code null} when the response should not be cached
+     */
+    public Recorder record(URI targetUri, HttpHeaders headers, String contentType, String contentEncoding) {
+        long expiresAt = expiresAt(targetUri, headers);
+        long declaredLength = headers.firstValueAsLong("Content-Length").orElse(0);
+        if (expiresAt < 0 || declaredLength > maxEntryBytes) {
+            return null;
+        }
+        try {
+            Path temp = Files.createTempFile(directory.resolve("tmp"), "body", ".tmp");
+            return new Recorder(targetUri.toString(), contentType, contentEncoding, expiresAt, temp);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return when a response with {@code headers} stops being fresh, or {@code -1} when it must not be stored
+     */
+    private long expiresAt(URI targetUri, HttpHeaders headers) {
+        if (!enabled || !ready) {
+            return -1;
+        }
+        Duration ttl = freshness.ttl(targetUri, headers).orElse(Duration.ZERO);
+        return ttl.isZero() ? -1 : clock.millis() + ttl.toMillis();
+    }
+
+    private Entry append(String key, String contentType, String contentEncoding, long expiresAt, long length, int crc,
+                         BodyWriter body) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] metaBytes = (contentType + "\n" + (contentEncoding != null ? contentEncoding : "") + "\n" + expiresAt)
+                .getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > MAX_NAME_BYTES || metaBytes.length > MAX_NAME_BYTES) {
+            return null;
+        }
+        long recordBytes = HEADER_BYTES + keyBytes.length + metaBytes.length + length;
+        Segment segment;
+        long offset;
+        synchronized (this) {
+            segment = activeSegment(recordBytes);
+            offset = segment.size;
+            segment.size += recordBytes;
+            totalBytes += recordBytes;
+            segment.retain();
+        }
+        List<Entry> survivors;
+        Entry entry;
+        try {
+            long bodyOffset = offset + HEADER_BYTES + keyBytes.length + metaBytes.length;
+            try {
+                body.write(segment.channel, bodyOffset);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + keyBytes.length + metaBytes.length)
+                        .putInt(MAGIC).putInt(crc).putInt(keyBytes.length).putInt(metaBytes.length).putLong(length)
+                        .put(keyBytes).put(metaBytes)
+                        .flip();
+                writeFully(segment.channel, header, offset);
+            } catch (IOException e) {
+                skip(segment.channel, offset, recordBytes);
+                throw e;
+            }
+            entry = new Entry(key, segment, bodyOffset, length, contentType, contentEncoding, expiresAt, crc);
+            synchronized (this) {
+                if (!segment.retired) {
+                    index.put(key, entry);
+                }
+                survivors = evict();
+            }
+        } finally {
+            segment.release();
+        }
+        copyForward(survivors);
+        return entry;
+    }
+
+    /**
+     * Marks a reserved range as skipped, so the scan on the next start goes on with the records after it.
+     */
+    private static void skip(FileChannel channel, long offset, long recordBytes) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(SKIPPED_MAGIC).putInt(0).putInt(0).putInt(0).putLong(recordBytes - HEADER_BYTES)
+                .flip();
+        try {
+            writeFully(channel, header, offset);
+        } catch (IOException e) {
+            // the segment is cut off here on the next start
+        }
+    }
+
+    private Segment activeSegment(long recordBytes) throws IOException {
+        Segment active = segments.peekLast();
+        if (active == null || active.size > 0 && active.size + recordBytes > segmentBytes) {
+            active = Segment.open(directory.resolve(String.format("%016d%s", nextSegmentId++, SEGMENT_SUFFIX)));
+            segments.addLast(active);
+        }
+        return active;
+    }
+
+    /**
+     * Drops the oldest segments while the cache is too large. The entries of a dropped segment that were read since
+     * they were written are returned, with the segment still open, to be written again as new.
+     */
+    private List<Entry> evict() {
+        List<Entry> survivors = new ArrayList<>();
+        long now = clock.millis();
+        while (totalBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.pollFirst();
+            totalBytes -= oldest.size;
+            evictions.increment();
+            index.values().removeIf(entry -> {
+                if (entry.segment != oldest) {
+                    return false;
+                }
+                if (entry.referenced && entry.expiresAt > now && oldest.retain()) {
+                    survivors.add(entry);
+                }
+                return true;
+            });
+            oldest.retire();
+        }
+        return survivors;
+    }
+
+    private void copyForward(List<Entry> survivors) {
+        for (Entry entry : survivors) {
+            try {
+                synchronized (this) {
+                    if (index.containsKey(entry.key)) {
+                        // stored again in the meantime
+                        continue;
+                    }
+                }
+                append(entry.key, entry.contentType, entry.contentEncoding, entry.expiresAt, entry.length, entry.crc,
+                        (target, position) -> transferFully(entry.segment.channel, entry.bodyOffset, entry.length,
+                                target, position));
+            } catch (IOException e) {
+                // the entry is dropped with its segment
+            } finally {
+                entry.segment.release();
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index from the segments on disk, and removes what an interrupted write left behind. Until it is
+     * done every lookup misses and nothing is stored.
+     */
+    public void recover() {
+        try {
+            Files.createDirectories(directory.resolve("tmp"));
+            try (Stream<Path> temps = Files.list(directory.resolve("tmp"))) {
+                for (Path temp : temps.toList()) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            List<Path> files;
+            try (Stream<Path> list = Files.list(directory)) {
+                files = list.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+            }
+            for (Path file : files) {
+                Segment segment = Segment.open(file);
+                long size = scan(segment);
+                String name = file.getFileName().toString();
+                long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                synchronized (this) {
+                    segment.size = size;
+                    segments.addLast(segment);
+                    totalBytes += size;
+                    nextSegmentId = Math.max(nextSegmentId, id + 1);
+                }
+            }
+            List<Entry> survivors;
+            synchronized (this) {
+                survivors = evict();
+            }
+            copyForward(survivors);
+            ready = true;
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("Cannot open disk cache in " + directory, e);
+        }
+    }
+
+    /**
+     * Indexes the records of {@code segment} and truncates it after the last intact one.
+     *
+     * @return the length of the intact part
+     */
+    private long scan(Segment segment) throws IOException {
+        FileChannel channel = segment.channel;
+        long size = channel.size();
+        long now = clock.millis();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int magic = header.getInt();
+            int crc = header.getInt();
+            int keyLength = header.getInt();
+            int metaLength = header.getInt();
+            long length = header.getLong();
+            if (magic == SKIPPED_MAGIC && length >= 0 && position + HEADER_BYTES + length <= size) {
+                discardedBytes.add(HEADER_BYTES + length);
+                position += HEADER_BYTES + length;
+                continue;
+            }
+            long bodyOffset = position + HEADER_BYTES + keyLength + metaLength;
+            if (magic != MAGIC || keyLength <= 0 || keyLength > MAX_NAME_BYTES || metaLength <= 0
+                    || metaLength > MAX_NAME_BYTES || length < 0 || bodyOffset + length > size) {
+                break;
+            }
+            ByteBuffer names = ByteBuffer.allocate(keyLength + metaLength);
+            readFully(channel, names, position + HEADER_BYTES);
+            String key = new String(names.array(), 0, keyLength, StandardCharsets.UTF_8);
+            String[] meta = new String(names.array(), keyLength, metaLength, StandardCharsets.UTF_8).split("\n", -1);
+            if (meta.length != 3 || checksum(channel, bodyOffset, length) != crc) {
+                break;
+            }
+            long expiresAt = Long.parseLong(meta[2]);
+            synchronized (this) {
+                if (expiresAt > now) {
+                    index.put(key, new Entry(key, segment, bodyOffset, length, meta[0],
+                            meta[1].isEmpty() ? null : meta[1], expiresAt, crc));
+                } else {
+                    index.remove(key);
+                }
+            }
+            position = bodyOffset + length;
+        }
+        if (position < size) {
+            discardedBytes.add(size - position);
+            channel.truncate(position);
+        }
+        return position;
+    }
+
+    private static int checksum(FileChannel channel, long position, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_BYTES, Math.max(length, 1)));
+        long end = position + length;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(channel, buffer, position);
+            buffer.flip();
+            position += buffer.remaining();
+            crc.update(buffer);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Copies between files in the kernel where the platform supports it.
+     */
+    private static void transferFully(FileChannel source, long sourcePosition, long length, FileChannel target,
+                                      long position) throws IOException {
+        long done = 0;
+        source.position(sourcePosition);
+        while (done < length) {
+            long transferred = target.transferFrom(source, position + done, length - done);
+            if (transferred <= 0) {
+                throw new EOFException();
+            }
+            done += transferred;
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        for (Segment segment : segments) {
+            segment.release();
+        }
+        segments.clear();
+        index.clear();
+    }
+
+    private synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    private synchronized int size() {
+        return index.size();
+    }
+
+    private void registerMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("proxy.disk.cache.requests", hits, LongAdder::sum).tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("proxy.disk.cache.requests", misses, LongAdder::sum).tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("proxy.disk.cache.evictions", evictions, LongAdder::sum)
+                .description("Segments dropped to stay within the size limit").register(registry);
+        FunctionCounter.builder("proxy.disk.cache.discarded", discardedBytes, LongAdder::sum).baseUnit("bytes")
+                .description("Bytes of incomplete or skipped records dropped on startup").register(registry);
+        Gauge.builder("proxy.disk.cache.size", this, DiskCache::totalBytes).baseUnit("bytes").register(registry);
+        Gauge.builder("proxy.disk.cache.entries", this, DiskCache::size).register(registry);
+    }
+
+    @FunctionalInterface
+    private interface BodyWriter {
+        void write(FileChannel target, long position) throws IOException;
+    }
+
+    /**
+     * A cached body, readable until it is closed. Each {@link DiskCache#get} of an entry is closed once.
+     */
+    public static final class Entry implements AutoCloseable {
+
+        private final String key;
+        private final Segment segment;
+        private final long bodyOffset;
+        private final long length;
+        private final String contentType;
+        private final String contentEncoding;
+        private final long expiresAt;
+        private final int crc;
+        private volatile boolean referenced;
+
+        private Entry(String key, Segment segment, long bodyOffset, long length, String contentType,
+                      String contentEncoding, long expiresAt, int crc) {
+            this.key = key;
+            this.segment = segment;
+            this.bodyOffset = bodyOffset;
+            this.length = length;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.expiresAt = expiresAt;
+            this.crc = crc;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public String contentEncoding() {
+            return contentEncoding;
+        }
+
+        public long length() {
+            return length;
+        }
+
+        /**
+         * Releases the segment {@link DiskCache#get} held open.
+         */
+        @Override
+        public void close() {
+            segment.release();
+        }
+
+        /**
+         * Sends {@code count} bytes of the body from {@code position} on, straight from the file channel.
+         */
+        public void transferTo(long position, long count, OutputStream out) throws IOException {
+            if (!segment.retain()) {
+                throw new IOException("Cached body was evicted");
+            }
+            try {
+                WritableByteChannel target = Channels.newChannel(out);
+                long offset = bodyOffset + position;
+                long end = offset + count;
+                while (offset < end) {
+                    long sent = segment.channel.transferTo(offset, end - offset, target);
+                    if (sent <= 0) {
+                        throw new EOFException();
+                    }
+                    offset += sent;
+                }
+            } finally {
+                segment.release();
+            }
+        }
+
+        /**
+         * Opens the body for reading, for bodies that are decoded on the way to the client.
+         */
+        public InputStream openStream() throws IOException {
+            if (!segment.retain()) {
+                throw new IOException("Cached body was evicted");
+            }
+            return new InputStream() {
+                private long position = bodyOffset;
+                private boolean closed;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] single = new byte[1];
+                    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    long remaining = bodyOffset + length - position;
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    int read = segment.channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+                    if (read > 0) {
+                        position += read;
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() {
+                    if (!closed) {
+                        closed = true;
+                        segment.release();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Copies a streamed body to a temporary file, and appends it to the cache once the whole body went through.
+     * Failing to store never fails the response, the body is just not cached.
+     */
+    public final class Recorder {
+
+        private final String key;
+        private final String contentType;
+        private final String contentEncoding;
+        private final long expiresAt;
+        private final Path temp;
+        private final FileChannel channel;
+        private final CRC32C crc = new CRC32C();
+        private long length;
+        private boolean done;
+
+        private Recorder(String key, String contentType, String contentEncoding, long expiresAt, Path temp)
+                throws IOException {
+            this.key = key;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.expiresAt = expiresAt;
+            this.temp = temp;
+            this.channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        public void write(byte[] bytes, int offset, int count) {
+            if (done) {
+                return;
+            }
+            if (length + count > maxEntryBytes) {
+                abort();
+                return;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, count);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                crc.update(bytes, offset, count);
+                length += count;
+            } catch (IOException e) {
+                abort();
+            }
+        }
+
+        public void commit() {
+            if (done) {
+                return;
+            }
+            try {
+                append(key, contentType, contentEncoding, expiresAt, length, (int) crc.getValue(),
+                        (target, position) -> transferFully(channel, 0, length, target, position));
+            } catch (IOException e) {
+                // not cached
+            } finally {
+                abort();
+            }
+        }
+
+        public void abort() {
+            done = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // the temporary file is deleted on close or on the next start
+            }
+        }
+    }
+
+    /**
+     * One append-only file. Readers retain the segment while they read, so an evicted segment is closed and
+     * deleted only after the last of them is done.
+     */
+    private static final class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private volatile boolean retired;
+        // guarded by the cache
+        private long size;
+
+        private Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        static Segment open(Path path) throws IOException {
+            return new Segment(path, FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE));
+        }
+
+        boolean retain() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                try {
+                    channel.close();
+                    if (retired) {
+                        Files.deleteIfExists(path);
+                    }
+                } catch (IOException e) {
+                    // a leftover segment is read back on the next start and evicted again
+                }
+            }
+        }
+
+        /**
+         * Drops the cache's own reference, the file goes away with the last reader.
+         */
+        void retire() {
+            retired = true;
+            release();
+        }
+    }
+}
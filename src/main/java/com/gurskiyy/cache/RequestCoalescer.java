@@ -0,0 +1,71 @@
+package com.gurskiyy.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-flight layer in front of upstream fetches, so a burst of requests for the same page costs one fetch
+ * and one rewrite. Followers give up waiting after {@code proxy.coalescing.max-wait} and fetch on their own. A
+ * leader's flight ends after the same time even when its response is never written, so a later request for the page
+ * leads a new one instead of waiting on it.
+ */
+@ApplicationScoped
+public class RequestCoalescer {
+
+    private final boolean enabled;
+    private final long maxPageBytes;
+    private final Duration maxWait;
+    private final SingleFlight<String, RewrittenPage> flights = new SingleFlight<>();
+
+    @Inject
+    public RequestCoalescer(@ConfigProperty(name = "proxy.coalescing.enabled", defaultValue = "true") boolean enabled,
+                            @ConfigProperty(name = "proxy.coalescing.max-page-bytes", defaultValue = "2097152")
+                            long maxPageBytes,
+                            @ConfigProperty(name = "proxy.coalescing.max-wait", defaultValue = "10s") Duration maxWait,
+                            MeterRegistry registry) {
+        this.enabled = enabled;
+        this.maxPageBytes = maxPageBytes;
+        this.maxWait = maxWait;
+        FunctionCounter.builder("proxy.coalescing.requests", flights, SingleFlight::leaders).tag("result", "leader")
+                .register(registry);
+        FunctionCounter.builder("proxy.coalescing.requests", flights, SingleFlight::collapsed).tag("result", "collapsed")
+                .register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long maxPageBytes() {
+        return maxPageBytes;
+    }
+
+    public Duration maxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Joins the flight for {@code key}. A follower's result completes with {@code null} when the leader could not
+     * share its page or did not finish within the wait limit.
+     */
+    public SingleFlight.Flight<RewrittenPage> join(String key) {
+        SingleFlight.Flight<RewrittenPage> flight = flights.join(key);
+        if (flight.leader()) {
+            flight.result().completeOnTimeout(null, maxWait.toMillis(), TimeUnit.MILLISECONDS);
+            return flight;
+        }
+        return new SingleFlight.Flight<>(false, flight.result()
+                .exceptionally(error -> null)
+                .completeOnTimeout(null, maxWait.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    public long collapsed() {
+        return flights.collapsed();
+    }
+}
@@ -0,0 +1,402 @@
+package com.gurskiyy.cache;
+
+import com.gurskiyy.client.Validators;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.configuration.DurationConverter;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-memory cache of rewritten HTML keyed on the upstream URI. Entries are evicted least recently used
+ * first once their combined size exceeds {@code proxy.cache.max-bytes}. Stale entries that carry an upstream
+ * {@code ETag} or {@code Last-Modified} are kept so they can be revalidated instead of fetched and rewritten again.
+ * <p>
+ * With {@code proxy.cache.shared.enabled} this cache is the near-cache of a {@link RewrittenContentStore} shared by
+ * all replicas: pages stored or revalidated here are written through to it, a local miss is looked up there, and a
+ * local copy is dropped when another replica replaces or removes it. A failing shared store only costs misses.
+ */
+@ApplicationScoped
+public class ResponseCache {
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Duration defaultTtl;
+    private final Map<String, Duration> ttlOverrides;
+    private final Clock clock;
+    private final RewrittenContentStore shared;
+    private final Duration keepStale;
+
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder sharedErrors = new LongAdder();
+
+    @Inject
+    public ResponseCache(@ConfigProperty(name = "proxy.cache.enabled", defaultValue = "true") boolean enabled,
+                         @ConfigProperty(name = "proxy.cache.max-bytes", defaultValue = "67108864") long maxBytes,
+                         @ConfigProperty(name = "proxy.cache.max-entry-bytes", defaultValue = "2097152") long maxEntryBytes,
+                         @ConfigProperty(name = "proxy.cache.default-ttl", defaultValue = "60s") Duration defaultTtl,
+                         @ConfigProperty(name = "proxy.cache.ttl-overrides") Optional<List<String>> ttlOverrides,
+                         @ConfigProperty(name = "proxy.cache.shared.enabled", defaultValue = "false") boolean shared,
+                         @ConfigProperty(name = "proxy.cache.shared.keep-stale", defaultValue = "10m")
+                         Duration keepStale,
+                         Instance<RewrittenContentStore> stores,
+                         MeterRegistry registry) {
+        this(enabled, maxBytes, maxEntryBytes, defaultTtl, parseOverrides(ttlOverrides.orElse(List.of())),
+                Clock.systemUTC(), shared ? sharedStore(stores) : RewrittenContentStore.NONE, keepStale, registry);
+    }
+
+    public ResponseCache(boolean enabled, long maxBytes, long maxEntryBytes, Duration defaultTtl,
+                         Map<String, Duration> ttlOverrides, Clock clock, MeterRegistry registry) {
+        this(enabled, maxBytes, maxEntryBytes, defaultTtl, ttlOverrides, clock, RewrittenContentStore.NONE,
+                Duration.ZERO, registry);
+    }
+
+    /**
+     * @param keepStale how long the shared store keeps a page past its freshness when it can be revalidated
+     */
+    public ResponseCache(boolean enabled, long maxBytes, long maxEntryBytes, Duration defaultTtl,
+                         Map<String, Duration> ttlOverrides, Clock clock, RewrittenContentStore shared,
+                         Duration keepStale, MeterRegistry registry) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        this.defaultTtl = defaultTtl;
+        this.ttlOverrides = Map.copyOf(ttlOverrides);
+        this.clock = clock;
+        this.shared = shared;
+        this.keepStale = keepStale;
+        registerMetrics(registry);
+        shared.onInvalidated(this::drop);
+    }
+
+    public CachedResponse get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        CachedResponse cached = getNear(key);
+        return cached != null ? cached : getFreshShared(key);
+    }
+
+    /**
+     * Like {@link #get}, but looks the shared store up on {@code executor}, for callers that must not block on it.
+     */
+    public CompletableFuture<CachedResponse> getAsync(String key, Executor executor) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CachedResponse cached = getNear(key);
+        if (cached != null || shared == RewrittenContentStore.NONE) {
+            return CompletableFuture.completedFuture(cached != null ? cached : getFreshShared(key));
+        }
+        return CompletableFuture.supplyAsync(() -> getFreshShared(key), executor);
+    }
+
+    private CachedResponse getNear(String key) {
+        synchronized (this) {
+            CachedResponse cached = entries.get(key);
+            if (cached != null && cached.isFresh(clock.millis())) {
+                hits.increment();
+                return cached;
+            }
+            if (cached != null && cached.validators().isEmpty()) {
+                remove(key);
+            }
+        }
+        return null;
+    }
+
+    private CachedResponse getFreshShared(String key) {
+        CachedResponse fromShared = getShared(key);
+        if (fromShared != null && fromShared.isFresh(clock.millis())) {
+            sharedHits.increment();
+            return fromShared;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Returns the stale entry for {@code key} if it can be revalidated with a conditional request.
+     */
+    public CachedResponse getStale(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (this) {
+            CachedResponse cached = entries.get(key);
+            return cached != null && !cached.validators().isEmpty() ? cached : null;
+        }
+    }
+
+    /**
+     * Refreshes a stale entry after the upstream answered 304 Not Modified with {@code headers}. The returned
+     * entry is served even when the new headers no longer allow storing it.
+     */
+    public CachedResponse revalidate(String key, URI targetUri, HttpHeaders headers, CachedResponse stale) {
+        revalidations.increment();
+        Optional<Duration> ttl = ttl(targetUri, headers);
+        long now = clock.millis();
+        CachedResponse refreshed = stale.withExpiry(now, now + ttl.orElse(Duration.ZERO).toMillis(),
+                Validators.from(headers));
+        synchronized (this) {
+            remove(key);
+            if (ttl.isPresent()) {
+                store(key, refreshed);
+            }
+        }
+        if (ttl.isPresent()) {
+            putShared(key, refreshed, ttl.get());
+        } else {
+            removeShared(key);
+        }
+        return refreshed;
+    }
+
+    /**
+     * Drops the page stored under {@code key} here, in the shared store and in the near-cache of every replica.
+     */
+    public void invalidate(String key) {
+        drop(key);
+        removeShared(key);
+    }
+
+    public boolean isCacheable(URI targetUri, HttpHeaders headers) {
+        return enabled && ttl(targetUri, headers).map(ttl -> isStorable(ttl, headers)).orElse(false);
+    }
+
+    public long maxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public void put(String key, URI targetUri, HttpHeaders headers, String contentType, byte[] body) {
+        Optional<Duration> ttl = ttl(targetUri, headers);
+        if (!enabled || ttl.isEmpty() || !isStorable(ttl.get(), headers)) {
+            return;
+        }
+        long now = clock.millis();
+        CachedResponse cached = new CachedResponse(contentType, body, now, now + ttl.get().toMillis(),
+                Validators.from(headers));
+        if (cached.weight() > maxEntryBytes) {
+            return;
+        }
+        synchronized (this) {
+            remove(key);
+            store(key, cached);
+        }
+        putShared(key, cached, ttl.get());
+    }
+
+    public static String key(URI targetUri, String proxyBaseUri) {
+        return targetUri + " " + proxyBaseUri;
+    }
+
+    Optional<Duration> ttl(URI targetUri, HttpHeaders headers) {
+        if (isPrivate(headers)) {
+            return Optional.empty();
+        }
+        CacheControl cacheControl = CacheControl.parse(headers.allValues("Cache-Control"));
+        Duration override = targetUri.getHost() != null ? ttlOverrides.get(targetUri.getHost()) : null;
+        if (override != null) {
+            return Optional.of(override);
+        }
+        if (cacheControl.noCache()) {
+            return Optional.of(Duration.ZERO);
+        }
+        if (cacheControl.sharedMaxAge() != null) {
+            return Optional.of(cacheControl.sharedMaxAge());
+        }
+        if (cacheControl.maxAge() != null) {
+            return Optional.of(cacheControl.maxAge());
+        }
+        return headers.firstValue("Expires").map(expires -> untilExpires(expires, headers)).or(() -> Optional.of(defaultTtl));
+    }
+
+    /**
+     * Entries are keyed on the URL alone, so a response selected by client headers such as {@code Cookie} or
+     * {@code Accept-Language} must not be stored. {@code Accept-Encoding} is always the proxy's own.
+     */
+    /**
+     * Whether a response is meant only for the client that asked for it: marked {@code private} or
+     * {@code no-store}, setting a cookie, or chosen by request headers other than {@code Accept-Encoding}. Such a
+     * response is neither stored nor handed to other clients.
+     */
+    public static boolean isPrivate(HttpHeaders headers) {
+        CacheControl cacheControl = CacheControl.parse(headers.allValues("Cache-Control"));
+        return cacheControl.noStore() || cacheControl.isPrivate() || headers.firstValue("Set-Cookie").isPresent()
+                || variesOnClientHeaders(headers);
+    }
+
+    private static boolean variesOnClientHeaders(HttpHeaders headers) {
+        for (String vary : headers.allValues("Vary")) {
+            for (String name : vary.split(",")) {
+                String trimmed = name.trim();
+                if (!trimmed.isEmpty() && !trimmed.equalsIgnoreCase("Accept-Encoding")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isStorable(Duration ttl, HttpHeaders headers) {
+        return !ttl.isZero() || !Validators.from(headers).isEmpty();
+    }
+
+    private Duration untilExpires(String expires, HttpHeaders headers) {
+        try {
+            ZonedDateTime expiresAt = ZonedDateTime.parse(expires, DateTimeFormatter.RFC_1123_DATE_TIME);
+            ZonedDateTime date = headers.firstValue("Date")
+                    .map(value -> ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME))
+                    .orElse(ZonedDateTime.now(clock));
+            Duration ttl = Duration.between(date, expiresAt);
+            return ttl.isNegative() ? Duration.ZERO : ttl;
+        } catch (DateTimeParseException e) {
+            return Duration.ZERO;
+        }
+    }
+
+    /**
+     * Looks a page up in the shared store and keeps a copy here, also of a stale page that can be revalidated.
+     */
+    private CachedResponse getShared(String key) {
+        if (shared == RewrittenContentStore.NONE) {
+            return null;
+        }
+        byte[] record;
+        try {
+            record = shared.get(key);
+        } catch (RuntimeException e) {
+            sharedErrors.increment();
+            return null;
+        }
+        CachedResponse cached = record != null ? ContentRecord.decode(record) : null;
+        if (cached == null || cached.weight() > maxEntryBytes
+                || (!cached.isFresh(clock.millis()) && cached.validators().isEmpty())) {
+            return null;
+        }
+        synchronized (this) {
+            remove(key);
+            store(key, cached);
+        }
+        return cached;
+    }
+
+    private void putShared(String key, CachedResponse cached, Duration ttl) {
+        if (shared == RewrittenContentStore.NONE) {
+            return;
+        }
+        byte[] record = ContentRecord.encode(cached);
+        if (record == null) {
+            return;
+        }
+        try {
+            shared.put(key, record, cached.validators().isEmpty() ? ttl : ttl.plus(keepStale));
+        } catch (RuntimeException e) {
+            sharedErrors.increment();
+        }
+    }
+
+    private void removeShared(String key) {
+        try {
+            shared.remove(key);
+        } catch (RuntimeException e) {
+            sharedErrors.increment();
+        }
+    }
+
+    private synchronized void drop(String key) {
+        remove(key);
+    }
+
+    private void remove(String key) {
+        CachedResponse removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.weight();
+        }
+    }
+
+    private void store(String key, CachedResponse cached) {
+        entries.put(key, cached);
+        currentBytes += cached.weight();
+        evict();
+    }
+
+    private void evict() {
+        Iterator<CachedResponse> eldest = entries.values().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().weight();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private synchronized long currentBytes() {
+        return currentBytes;
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private void registerMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("proxy.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(registry);
+        FunctionCounter.builder("proxy.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(registry);
+        FunctionCounter.builder("proxy.cache.requests", revalidations, LongAdder::sum).tag("result", "revalidated")
+                .register(registry);
+        FunctionCounter.builder("proxy.cache.requests", sharedHits, LongAdder::sum).tag("result", "shared-hit")
+                .register(registry);
+        FunctionCounter.builder("proxy.cache.evictions", evictions, LongAdder::sum).register(registry);
+        FunctionCounter.builder("proxy.cache.shared.errors", sharedErrors, LongAdder::sum)
+                .description("Shared store lookups and writes that failed and were skipped")
+                .register(registry);
+        Gauge.builder("proxy.cache.size", this, ResponseCache::currentBytes).baseUnit("bytes").register(registry);
+        Gauge.builder("proxy.cache.entries", this, ResponseCache::size).register(registry);
+    }
+
+    private static RewrittenContentStore sharedStore(Instance<RewrittenContentStore> stores) {
+        if (!stores.isResolvable()) {
+            throw new IllegalStateException("proxy.cache.shared.enabled needs exactly one RewrittenContentStore bean");
+        }
+        return stores.get();
+    }
+
+    private static Map<String, Duration> parseOverrides(List<String> overrides) {
+        Map<String, Duration> parsed = new HashMap<>();
+        for (String override : overrides) {
+            String[] parts = override.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected host=duration in proxy.cache.ttl-overrides: " + override);
+            }
+            parsed.put(parts[0].trim(), DurationConverter.parseDuration(parts[1].trim()));
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,53 @@
+package com.gurskiyy.cache;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * A store of rewritten pages shared by every replica of the proxy, such as Redis or Infinispan, with the
+ * {@link ResponseCache} of each replica as a near-cache in front of it. Records are opaque bytes to the store. An
+ * implementation is provided as a CDI bean and used when {@code proxy.cache.shared.enabled} is set.
+ */
+public interface RewrittenContentStore {
+
+    RewrittenContentStore NONE = new RewrittenContentStore() {
+        @Override
+        public byte[] get(String key) {
+            return null;
+        }
+
+        @Override
+        public void put(String key, byte[] record, Duration timeToLive) {
+        }
+
+        @Override
+        public void remove(String key) {
+        }
+
+        @Override
+        public void onInvalidated(Consumer<String> listener) {
+        }
+    };
+
+    /**
+     * @return the record stored under {@code key}, or {@code null}
+     */
+    byte[] get(String key);
+
+    /**
+     * Replaces the record stored under {@code key} and tells the other replicas their copy is out of date.
+     *
+     * @param timeToLive how long the store keeps the record
+     */
+    void put(String key, byte[] record, Duration timeToLive);
+
+    /**
+     * Removes the record stored under {@code key} and tells the other replicas to drop their copy.
+     */
+    void remove(String key);
+
+    /**
+     * @param listener called with the key of every record another replica put or removed
+     */
+    void onInvalidated(Consumer<String> listener);
+}
@@ -0,0 +1,4 @@
+package com.gurskiyy.cache;
+
+public record RewrittenPage(String contentType, byte[] body) {
+}
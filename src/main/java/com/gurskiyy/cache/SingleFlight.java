@@ -0,0 +1,44 @@
+package com.gurskiyy.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses concurrent calls for the same key into one. The first caller becomes the leader and completes the
+ * shared result, every caller arriving while it is in flight follows that result instead of doing the work again.
+ * Keys are tracked in a {@link ConcurrentHashMap}, so unrelated keys never contend on a common lock.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+
+    public Flight<V> join(K key) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            collapsed.increment();
+            return new Flight<>(false, existing.copy());
+        }
+        leaders.increment();
+        created.whenComplete((value, error) -> inFlight.remove(key, created));
+        return new Flight<>(true, created);
+    }
+
+    public long leaders() {
+        return leaders.sum();
+    }
+
+    public long collapsed() {
+        return collapsed.sum();
+    }
+
+    /**
+     * A leader must complete {@link #result()}, followers only observe it.
+     */
+    public record Flight<V>(boolean leader, CompletableFuture<V> result) {
+    }
+}
@@ -0,0 +1,126 @@
+package com.gurskiyy.client;
+
+import java.time.Duration;
+
+/**
+ * Stops sending requests to a host whose recent exchanges mostly failed. Once the last {@code window} exchanges
+ * reach the failure rate the circuit opens and requests fail fast; after {@code openDuration} a single probe is let
+ * through, which closes the circuit again on success and reopens it on failure.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    enum Admission {
+        ALLOWED, PROBE, REJECTED
+    }
+
+    /**
+     * @param window             number of recent exchanges the failure rate is computed over, {@code 0} disables
+     *                           the breaker
+     * @param failureRatePercent share of failed exchanges in the window that opens the circuit
+     * @param openDuration       how long an open circuit rejects requests before probing the host
+     */
+    public record Settings(int window, int failureRatePercent, Duration openDuration) {
+
+        public static final Settings DISABLED = new Settings(0, 100, Duration.ZERO);
+    }
+
+    private final Settings settings;
+    private final boolean[] failed;
+    private int next;
+    private int recorded;
+    private int failures;
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing;
+
+    CircuitBreaker(Settings settings) {
+        this.settings = settings;
+        this.failed = new boolean[settings.window()];
+    }
+
+    Admission tryAcquire() {
+        if (failed.length == 0 || state == State.CLOSED) {
+            return Admission.ALLOWED;
+        }
+        synchronized (this) {
+            return admitWhileOpen();
+        }
+    }
+
+    private Admission admitWhileOpen() {
+        if (state == State.CLOSED) {
+            return Admission.ALLOWED;
+        }
+        if (state == State.OPEN && System.nanoTime() - openedAt >= settings.openDuration().toNanos()) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return Admission.PROBE;
+        }
+        return Admission.REJECTED;
+    }
+
+    /**
+     * Records the outcome of an exchange. While half-open only the probe counts.
+     */
+    synchronized void record(boolean failure, boolean probe) {
+        if (failed.length == 0) {
+            return;
+        }
+        if (probe) {
+            probing = false;
+            if (failure) {
+                open();
+            } else {
+                state = State.CLOSED;
+                next = 0;
+                recorded = 0;
+                failures = 0;
+            }
+        } else if (state == State.CLOSED) {
+            if (recorded == failed.length && failed[next]) {
+                failures--;
+            }
+            failed[next] = failure;
+            if (failure) {
+                failures++;
+            }
+            next = (next + 1) % failed.length;
+            recorded = Math.min(recorded + 1, failed.length);
+            if (recorded == failed.length && failures * 100 >= settings.failureRatePercent() * failed.length) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Gives back the probe slot of an exchange that ended without an outcome.
+     */
+    synchronized void cancel(boolean probe) {
+        if (probe) {
+            probing = false;
+        }
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * @return how long an open circuit keeps rejecting requests, at least one second
+     */
+    synchronized Duration retryAfter() {
+        long remaining = settings.openDuration().toNanos() - (System.nanoTime() - openedAt);
+        return Duration.ofSeconds(Math.max(1, (long) Math.ceil(remaining / 1e9)));
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+}
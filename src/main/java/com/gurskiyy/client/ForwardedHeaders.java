@@ -0,0 +1,179 @@
+package com.gurskiyy.client;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The end-to-end headers of a client request, sent on upstream. Hop-by-hop headers (RFC 9110, section 7.6.1),
+ * the ones a {@code Connection} header names, and those the proxy or the HTTP client set themselves are left out.
+ * Names and values are copied once into a flat array and looked up case-insensitively without lowercasing them.
+ * Only the target's own cookies and credentials are sent, see {@link TargetCookies}.
+ */
+public final class ForwardedHeaders {
+
+    public static final ForwardedHeaders NONE = new ForwardedHeaders(new String[0], 0, -1, false);
+
+    private static final Set<String> HOP_BY_HOP = caseInsensitive("Connection", "Keep-Alive", "Proxy-Authenticate",
+            "Proxy-Authorization", "Proxy-Connection", "TE", "Trailer", "Transfer-Encoding", "Upgrade", "HTTP2-Settings");
+    /**
+     * Set from the target URI, the body, or the proxy's own coding and range handling. {@code Referer} would
+     * carry the proxy's URL rather than the site's.
+     */
+    private static final Set<String> MANAGED = caseInsensitive("Host", "Content-Length", "Expect", "Accept-Encoding",
+            "Range", "If-Range", "Referer");
+    private static final Set<String> CONDITIONALS = caseInsensitive("If-None-Match", "If-Modified-Since");
+
+    private final String[] namesAndValues;
+    private final int size;
+    private final long contentLength;
+    private final boolean chunked;
+
+    private ForwardedHeaders(String[] namesAndValues, int size, long contentLength, boolean chunked) {
+        this.namesAndValues = namesAndValues;
+        this.size = size;
+        this.contentLength = contentLength;
+        this.chunked = chunked;
+    }
+
+    /**
+     * @param headers      the client's request headers, {@code null} for none
+     * @param proxyOrigin  origin of the proxy, for example {@code http://localhost:8080}
+     * @param targetOrigin origin of the proxied site, which an {@code Origin} header of the proxy is changed to
+     *                     and whose cookies are sent on
+     */
+    public static ForwardedHeaders from(Map<String, List<String>> headers, String proxyOrigin, String targetOrigin) {
+        if (headers == null || headers.isEmpty()) {
+            return NONE;
+        }
+        Set<String> connectionOptions = connectionOptions(headers.get("Connection"));
+        String targetHost = URI.create(targetOrigin).getHost();
+        String authorizedTarget = null;
+        int values = 0;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            values += header.getValue().size();
+            if ("Cookie".equalsIgnoreCase(header.getKey())) {
+                for (String value : header.getValue()) {
+                    String authorized = TargetCookies.authorizedTarget(value);
+                    authorizedTarget = authorized != null ? authorized : authorizedTarget;
+                }
+            }
+        }
+        String[] namesAndValues = new String[values * 2];
+        int size = 0;
+        long contentLength = -1;
+        boolean chunked = false;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            String name = header.getKey();
+            if ("Content-Length".equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+                contentLength = parseLength(header.getValue().get(0));
+            } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                chunked = true;
+            }
+            if (HOP_BY_HOP.contains(name) || MANAGED.contains(name)
+                    || connectionOptions != null && connectionOptions.contains(name)
+                    || "Authorization".equalsIgnoreCase(name) && !targetOrigin.equalsIgnoreCase(authorizedTarget)) {
+                continue;
+            }
+            boolean origin = "Origin".equalsIgnoreCase(name);
+            boolean cookie = "Cookie".equalsIgnoreCase(name);
+            for (String value : header.getValue()) {
+                String forwarded = cookie ? TargetCookies.toUpstream(value, targetHost) : value;
+                if (forwarded == null) {
+                    continue;
+                }
+                namesAndValues[size++] = name;
+                namesAndValues[size++] = origin && value.equals(proxyOrigin) ? targetOrigin : forwarded;
+            }
+        }
+        return new ForwardedHeaders(namesAndValues, size, contentLength, chunked);
+    }
+
+    /**
+     * @return the first value of {@code name}, or {@code null}
+     */
+    public String first(String name) {
+        for (int i = 0; i < size; i += 2) {
+            if (namesAndValues[i].equalsIgnoreCase(name)) {
+                return namesAndValues[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Requests with cookies or credentials may get a response meant for that client only.
+     */
+    public boolean hasCredentials() {
+        return first("Cookie") != null || hasAuthorization();
+    }
+
+    /**
+     * Responses to requests with {@code Authorization} must not be stored by a shared cache, RFC 9111 section 3.5.
+     */
+    public boolean hasAuthorization() {
+        return first("Authorization") != null;
+    }
+
+    /**
+     * @return the declared length of the request body, or {@code -1} when none was declared
+     */
+    public long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Whether the body was sent without a declared length.
+     */
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * @param conditionals whether to send the client's own validators, which are left out when the proxy
+     *                     revalidates its cached copy with validators of its own
+     */
+    void applyTo(HttpRequest.Builder builder, boolean conditionals) {
+        for (int i = 0; i < size; i += 2) {
+            if (conditionals || !CONDITIONALS.contains(namesAndValues[i])) {
+                builder.header(namesAndValues[i], namesAndValues[i + 1]);
+            }
+        }
+    }
+
+    int size() {
+        return size / 2;
+    }
+
+    private static Set<String> connectionOptions(List<String> connection) {
+        if (connection == null || connection.isEmpty()) {
+            return null;
+        }
+        Set<String> options = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (String value : connection) {
+            for (String option : value.split(",")) {
+                options.add(option.trim());
+            }
+        }
+        return options;
+    }
+
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Set<String> caseInsensitive(String... names) {
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(Arrays.asList(names));
+        return Collections.unmodifiableSet(set);
+    }
+}
@@ -0,0 +1,51 @@
+package com.gurskiyy.client;
+
+import com.gurskiyy.exception.ProxyException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.http.HttpRequest;
+
+/**
+ * The method, headers and body of a client request, sent on upstream. The body is streamed from the client
+ * connection as the upstream reads it and can only be sent once.
+ */
+public record ForwardedRequest(String method, ForwardedHeaders headers, InputStream body) {
+
+    public static final ForwardedRequest GET = new ForwardedRequest("GET", ForwardedHeaders.NONE, null);
+
+    public static ForwardedRequest get(ForwardedHeaders headers) {
+        return headers == ForwardedHeaders.NONE ? GET : new ForwardedRequest("GET", headers, null);
+    }
+
+    public boolean isGet() {
+        return "GET".equals(method);
+    }
+
+    /**
+     * A body is only sent when the client has one, so requests such as a plain {@code DELETE} do not go upstream
+     * with an empty chunked body. Without a declared length, as over HTTP/2 and HTTP/3 where neither
+     * {@code Content-Length} nor chunking frames a body, the first byte of the stream tells whether there is one.
+     */
+    HttpRequest.BodyPublisher bodyPublisher() {
+        if (body == null || headers.contentLength() == 0) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        if (headers.contentLength() > 0) {
+            return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() -> body),
+                    headers.contentLength());
+        }
+        PushbackInputStream stream = new PushbackInputStream(body);
+        try {
+            int first = stream.read();
+            if (first < 0) {
+                return HttpRequest.BodyPublishers.noBody();
+            }
+            stream.unread(first);
+        } catch (IOException e) {
+            throw new ProxyException("Error reading request body: " + e.getMessage(), e);
+        }
+        return HttpRequest.BodyPublishers.ofInputStream(() -> stream);
+    }
+}
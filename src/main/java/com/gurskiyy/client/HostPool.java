@@ -0,0 +1,196 @@
+package com.gurskiyy.client;
+
+import com.gurskiyy.exception.ProxyException;
+import com.gurskiyy.exception.UpstreamUnavailableException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The client and connection budget of one upstream host. A request holds a permit from the moment it is sent
+ * until its body has been read or closed, so {@link #active()} tracks the connections the host is using. Requests
+ * are refused without waiting while the host's {@link CircuitBreaker} is open.
+ */
+public class HostPool {
+
+    private static final Duration SATURATED_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final String host;
+    private final HttpClient client;
+    private final int maxConnections;
+    private final Semaphore permits;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CircuitBreaker breaker;
+    private final Duration minHedgeDelay;
+    private final LatencyWindow latency = new LatencyWindow();
+    final LongAdder rejectedOpen = new LongAdder();
+    final LongAdder rejectedSaturated = new LongAdder();
+    final LongAdder hedgesSent = new LongAdder();
+    final LongAdder hedgesWon = new LongAdder();
+
+    /**
+     * @param minHedgeDelay the least time to wait before hedging a request, {@code null} to never hedge
+     */
+    HostPool(String host, HttpClient client, int maxConnections, CircuitBreaker.Settings breaker,
+             Duration minHedgeDelay) {
+        this.host = host;
+        this.client = client;
+        this.maxConnections = maxConnections;
+        this.permits = new Semaphore(maxConnections);
+        this.breaker = new CircuitBreaker(breaker);
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    public HttpClient client() {
+        return client;
+    }
+
+    public int active() {
+        return maxConnections - permits.availablePermits();
+    }
+
+    public int pending() {
+        return pending.get();
+    }
+
+    public CircuitBreaker.State circuit() {
+        return breaker.state();
+    }
+
+    Permit acquire(Duration timeout) {
+        boolean probe = admit();
+        pending.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                breaker.cancel(probe);
+                throw saturated();
+            }
+            return new Permit(probe);
+        } catch (InterruptedException e) {
+            breaker.cancel(probe);
+            Thread.currentThread().interrupt();
+            throw new ProxyException("Interrupted: " + e.getMessage(), e);
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    Permit tryAcquire() {
+        boolean probe = admit();
+        if (!permits.tryAcquire()) {
+            breaker.cancel(probe);
+            throw saturated();
+        }
+        return new Permit(probe);
+    }
+
+    /**
+     * A permit for a second attempt of a slow request, only while the circuit is closed and a connection is free.
+     *
+     * @return the permit, or {@code null} when the request should not be hedged
+     */
+    Permit tryAcquireHedge() {
+        if (breaker.state() != CircuitBreaker.State.CLOSED || !permits.tryAcquire()) {
+            return null;
+        }
+        hedgesSent.increment();
+        return new Permit(false);
+    }
+
+    /**
+     * @return how long to wait for a response before hedging it, the larger of the host's recent 95th percentile
+     * and the configured minimum, or {@code null} when hedging is off or too few responses were seen yet
+     */
+    Duration hedgeDelay() {
+        if (minHedgeDelay == null) {
+            return null;
+        }
+        long p95 = latency.p95Nanos();
+        return p95 < 0 ? null : Duration.ofNanos(Math.max(p95, minHedgeDelay.toNanos()));
+    }
+
+    private boolean admit() {
+        CircuitBreaker.Admission admission = breaker.tryAcquire();
+        if (admission == CircuitBreaker.Admission.REJECTED) {
+            rejectedOpen.increment();
+            throw new UpstreamUnavailableException("Circuit open for " + host, breaker.retryAfter());
+        }
+        return admission == CircuitBreaker.Admission.PROBE;
+    }
+
+    private ProxyException saturated() {
+        rejectedSaturated.increment();
+        return new UpstreamUnavailableException("Too many concurrent requests to " + host, SATURATED_RETRY_AFTER);
+    }
+
+    /**
+     * 502, 503 and 504 say the host itself is in trouble, other statuses are answers of a healthy host.
+     */
+    static boolean isUnavailable(int status) {
+        return status == 502 || status == 503 || status == 504;
+    }
+
+    final class Permit {
+
+        private final boolean probe;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        private Permit(boolean probe) {
+            this.probe = probe;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+
+        /**
+         * Records that response headers arrived, which is what the failure rate and the hedge delay are based on.
+         */
+        void succeeded(int status) {
+            if (settled.compareAndSet(false, true)) {
+                latency.record(System.nanoTime() - start);
+                breaker.record(isUnavailable(status), probe);
+            }
+        }
+
+        void failed() {
+            if (settled.compareAndSet(false, true)) {
+                breaker.record(true, probe);
+            }
+        }
+
+        /**
+         * The exchange was cancelled or interrupted on the proxy's side and says nothing about the host.
+         */
+        void abandoned() {
+            if (settled.compareAndSet(false, true)) {
+                breaker.cancel(probe);
+            }
+        }
+
+        InputStream releaseOnClose(InputStream body) {
+            return new FilterInputStream(body) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        release();
+                    }
+                }
+            };
+        }
+    }
+}
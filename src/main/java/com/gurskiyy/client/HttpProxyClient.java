@@ -1,33 +1,324 @@
 package com.gurskiyy.client;
 
+import com.gurskiyy.encoding.ContentCoding;
 import com.gurskiyy.exception.ProxyException;
+import com.gurskiyy.metrics.ProxyMetrics;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 @ApplicationScoped
 public class HttpProxyClient {
 
-    private final HttpClient client;
+    private static final String ERROR_OUTCOME = "error";
+
+    private final UpstreamClients clients;
+    private final ProxyMetrics metrics;
 
     @Inject
+    public HttpProxyClient(UpstreamClients clients, ProxyMetrics metrics) {
+        this.clients = clients;
+        this.metrics = metrics;
+    }
+
+    public HttpProxyClient(UpstreamClients clients) {
+        this(clients, ProxyMetrics.disabled());
+    }
+
     public HttpProxyClient(HttpClient client) {
-        this.client = client;
+        this(UpstreamClients.shared(client));
+    }
+
+    public HttpResponse<InputStream> sendRequest(URI targetUri) {
+        return sendRequest(targetUri, Validators.NONE);
+    }
+
+    public HttpResponse<InputStream> sendRequest(URI targetUri, Validators validators) {
+        return sendRequest(targetUri, validators, RangeRequest.NONE);
+    }
+
+    public HttpResponse<InputStream> sendRequest(URI targetUri, Validators validators, RangeRequest range) {
+        return sendRequest(targetUri, ForwardedRequest.GET, validators, range);
+    }
+
+    public HttpResponse<InputStream> sendRequest(URI targetUri, ForwardedRequest forwarded, Validators validators,
+                                                 RangeRequest range) {
+        long start = System.nanoTime();
+        String outcome = ERROR_OUTCOME;
+        try {
+            HttpResponse<InputStream> response = send(targetUri, forwarded, validators, range);
+            outcome = ProxyMetrics.statusClass(response.statusCode());
+            return response;
+        } finally {
+            metrics.recordUpstream(targetUri.getHost(), outcome, System.nanoTime() - start);
+        }
     }
 
-    public HttpResponse<byte[]> sendRequest(URI targetUri) {
+    private HttpResponse<InputStream> send(URI targetUri, ForwardedRequest forwarded, Validators validators,
+                                           RangeRequest range) {
+        HostPool pool = clients.forHost(targetUri);
+        HostPool.Permit permit = pool.acquire(clients.acquireTimeout());
         try {
-            HttpRequest request = HttpRequest.newBuilder().uri(targetUri).GET().build();
-            return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            HttpRequest request = buildRequest(targetUri, forwarded, validators, range);
+            // a request body is streamed from the client and cannot be sent twice
+            Duration hedgeDelay = forwarded.isGet() ? pool.hedgeDelay() : null;
+            if (hedgeDelay != null) {
+                return sendHedged(pool, permit, request, hedgeDelay);
+            }
+            HttpResponse<InputStream> response = pool.client().send(request, bodyHandler(permit));
+            permit.succeeded(response.statusCode());
+            return response;
         } catch (InterruptedException e) {
+            permit.abandoned();
+            permit.release();
             Thread.currentThread().interrupt();
             throw new ProxyException("Interrupted: " + e.getMessage(), e);
         } catch (IOException e) {
+            permit.failed();
+            permit.release();
             throw new ProxyException("Error forwarding request: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            permit.abandoned();
+            permit.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends {@code request} a second time when its response takes longer than {@code hedgeDelay}, and returns
+     * whichever response arrives first. The other attempt is cancelled, or its body closed if it arrived as well.
+     */
+    private HttpResponse<InputStream> sendHedged(HostPool pool, HostPool.Permit permit, HttpRequest request,
+                                                 Duration hedgeDelay) throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<InputStream>> first = attempt(pool, permit, request);
+        try {
+            return first.get(hedgeDelay.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // slower than usual for this host
+        } catch (InterruptedException e) {
+            discard(first);
+            throw e;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+        HostPool.Permit hedgePermit = pool.tryAcquireHedge();
+        CompletableFuture<HttpResponse<InputStream>> second = hedgePermit != null
+                ? attempt(pool, hedgePermit, request) : null;
+        CompletableFuture<HttpResponse<InputStream>> winner = second != null ? firstSuccessful(first, second) : first;
+        try {
+            HttpResponse<InputStream> response = winner.get();
+            // cancelling the winner has no effect, a late response of the loser is closed by firstSuccessful
+            first.cancel(true);
+            if (second != null) {
+                second.cancel(true);
+            }
+            if (second != null && second.isDone() && !second.isCompletedExceptionally() && second.join() == response) {
+                pool.hedgesWon.increment();
+            }
+            return response;
+        } catch (InterruptedException e) {
+            discard(first);
+            if (second != null) {
+                discard(second);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private CompletableFuture<HttpResponse<InputStream>> attempt(HostPool pool, HostPool.Permit permit,
+                                                                 HttpRequest request) {
+        CompletableFuture<HttpResponse<InputStream>> response = pool.client().sendAsync(request, bodyHandler(permit));
+        response.whenComplete((result, error) -> {
+            if (error == null) {
+                permit.succeeded(result.statusCode());
+                return;
+            }
+            if (error instanceof CancellationException) {
+                permit.abandoned();
+            } else {
+                permit.failed();
+            }
+            permit.release();
+        });
+        return response;
+    }
+
+    /**
+     * @return the first response of the two attempts, or the last failure when both failed
+     */
+    private static CompletableFuture<HttpResponse<InputStream>> firstSuccessful(
+            CompletableFuture<HttpResponse<InputStream>> first, CompletableFuture<HttpResponse<InputStream>> second) {
+        CompletableFuture<HttpResponse<InputStream>> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        BiConsumer<HttpResponse<InputStream>, Throwable> settle = (response, error) -> {
+            if (error == null) {
+                if (!winner.complete(response)) {
+                    closeQuietly(response.body());
+                }
+            } else if (failures.incrementAndGet() == 2) {
+                winner.completeExceptionally(error);
+            }
+        };
+        first.whenComplete(settle);
+        second.whenComplete(settle);
+        return winner;
+    }
+
+    /**
+     * Cancels an attempt whose response nobody will read, or closes the body if it already arrived.
+     */
+    private static void discard(CompletableFuture<HttpResponse<InputStream>> attempt) {
+        if (!attempt.cancel(true)) {
+            attempt.thenAccept(response -> closeQuietly(response.body()));
+        }
+    }
+
+    private static HttpResponse.BodyHandler<InputStream> bodyHandler(HostPool.Permit permit) {
+        return info -> HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(),
+                permit::releaseOnClose);
+    }
+
+    /**
+     * Widens the body type without mapping it, since the client reads the body of a mapping subscriber on its
+     * executor rather than where it arrives.
+     */
+    @SuppressWarnings("unchecked")
+    private static HttpResponse.BodySubscriber<Object> anyBody(HttpResponse.BodySubscriber<?> subscriber) {
+        return (HttpResponse.BodySubscriber<Object>) subscriber;
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        return e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            // the connection is discarded anyway
+        }
+    }
+
+    public CompletableFuture<HttpResponse<byte[]>> sendRequestAsync(URI targetUri) {
+        return sendRequestAsync(targetUri, Validators.NONE);
+    }
+
+    public CompletableFuture<HttpResponse<byte[]>> sendRequestAsync(URI targetUri, Validators validators) {
+        return sendRequestAsync(targetUri, validators, RangeRequest.NONE);
+    }
+
+    public CompletableFuture<HttpResponse<byte[]>> sendRequestAsync(URI targetUri, Validators validators,
+                                                                    RangeRequest range) {
+        return sendRequestAsync(targetUri, ForwardedRequest.GET, validators, range);
+    }
+
+    public CompletableFuture<HttpResponse<byte[]>> sendRequestAsync(URI targetUri, ForwardedRequest forwarded,
+                                                                    Validators validators, RangeRequest range) {
+        return sendAsync(targetUri, forwarded, validators, range,
+                permit -> HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Completes once the response headers arrived. The body is a {@code byte[]} read into memory first when
+     * {@code buffered} accepts the headers, any other is an {@link InputStream} that holds its connection until it
+     * is closed.
+     */
+    public CompletableFuture<HttpResponse<Object>> sendRequestAsync(URI targetUri, ForwardedRequest forwarded,
+                                                                    Validators validators, RangeRequest range,
+                                                                    Predicate<HttpHeaders> buffered) {
+        return sendAsync(targetUri, forwarded, validators, range, permit -> info -> buffered.test(info.headers())
+                ? anyBody(HttpResponse.BodySubscribers.ofByteArray())
+                : anyBody(HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(),
+                        permit::releaseOnClose)));
+    }
+
+    /**
+     * A streamed body releases the permit once it is closed, any other once the response completed.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(URI targetUri, ForwardedRequest forwarded,
+                                                             Validators validators, RangeRequest range,
+                                                             Function<HostPool.Permit, HttpResponse.BodyHandler<T>>
+                                                                     bodyHandler) {
+        long start = System.nanoTime();
+        HostPool pool = clients.forHost(targetUri);
+        HostPool.Permit permit;
+        try {
+            permit = pool.tryAcquire();
+        } catch (ProxyException e) {
+            metrics.recordUpstream(targetUri.getHost(), ERROR_OUTCOME, System.nanoTime() - start);
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<HttpResponse<T>> response;
+        try {
+            response = pool.client().sendAsync(buildRequest(targetUri, forwarded, validators, range),
+                    bodyHandler.apply(permit));
+        } catch (RuntimeException e) {
+            permit.abandoned();
+            permit.release();
+            metrics.recordUpstream(targetUri.getHost(), ERROR_OUTCOME, System.nanoTime() - start);
+            throw e;
+        }
+        return response.whenComplete((result, error) -> {
+            if (error == null) {
+                permit.succeeded(result.statusCode());
+            } else {
+                permit.failed();
+            }
+            if (error != null || !(result.body() instanceof InputStream)) {
+                permit.release();
+            }
+            metrics.recordUpstream(targetUri.getHost(),
+                    error == null ? ProxyMetrics.statusClass(result.statusCode()) : ERROR_OUTCOME,
+                    System.nanoTime() - start);
+        }).exceptionallyCompose(e -> CompletableFuture.failedFuture(toProxyException(e)));
+    }
+
+    /**
+     * Ranges are asked for in the identity coding, a slice of a compressed body cannot be decoded on its own. The
+     * proxy's own validators take the place of the client's.
+     */
+    private HttpRequest buildRequest(URI targetUri, ForwardedRequest forwarded, Validators validators,
+                                     RangeRequest range) {
+        String acceptEncoding = range.isEmpty() ? ContentCoding.UPSTREAM_ACCEPT_ENCODING : ContentCoding.IDENTITY;
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(targetUri)
+                .method(forwarded.method(), forwarded.bodyPublisher())
+                .header("Accept-Encoding", acceptEncoding);
+        if (clients.requestTimeout() != null) {
+            builder.timeout(clients.requestTimeout());
+        }
+        forwarded.headers().applyTo(builder, validators.isEmpty());
+        validators.applyTo(builder);
+        range.applyTo(builder);
+        return builder.build();
+    }
+
+    private ProxyException toProxyException(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof ProxyException proxyException) {
+            return proxyException;
         }
+        return new ProxyException("Error forwarding request: " + cause.getMessage(), cause);
     }
 }
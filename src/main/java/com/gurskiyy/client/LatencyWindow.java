@@ -0,0 +1,40 @@
+package com.gurskiyy.client;
+
+import java.util.Arrays;
+
+/**
+ * The 95th percentile of the last {@value #SIZE} upstream response times of a host, recomputed every
+ * {@value #REFRESH_EVERY} samples so that reading it costs nothing.
+ */
+final class LatencyWindow {
+
+    static final int SIZE = 128;
+    static final int MIN_SAMPLES = 20;
+    private static final int REFRESH_EVERY = 16;
+
+    private final long[] samples = new long[SIZE];
+    private int next;
+    private int count;
+    private int sinceRefresh;
+    private volatile long p95Nanos = -1;
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % SIZE;
+        count = Math.min(count + 1, SIZE);
+        sinceRefresh++;
+        if (count >= MIN_SAMPLES && (count < SIZE || sinceRefresh >= REFRESH_EVERY)) {
+            sinceRefresh = 0;
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            p95Nanos = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+        }
+    }
+
+    /**
+     * @return the 95th percentile in nanoseconds, or {@code -1} before {@value #MIN_SAMPLES} samples
+     */
+    long p95Nanos() {
+        return p95Nanos;
+    }
+}
@@ -0,0 +1,29 @@
+package com.gurskiyy.client;
+
+import java.net.http.HttpRequest;
+
+/**
+ * The {@code Range} and {@code If-Range} headers of a client request, forwarded so the upstream sends only the
+ * part of a large body the client asked for.
+ */
+public record RangeRequest(String range, String ifRange) {
+
+    public static final RangeRequest NONE = new RangeRequest(null, null);
+
+    public static RangeRequest of(String range, String ifRange) {
+        return range == null || range.isBlank() ? NONE : new RangeRequest(range, ifRange);
+    }
+
+    public boolean isEmpty() {
+        return range == null;
+    }
+
+    void applyTo(HttpRequest.Builder builder) {
+        if (range != null) {
+            builder.header("Range", range);
+        }
+        if (range != null && ifRange != null) {
+            builder.header("If-Range", ifRange);
+        }
+    }
+}
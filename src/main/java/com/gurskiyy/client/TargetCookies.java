@@ -0,0 +1,88 @@
+package com.gurskiyy.client;
+
+import java.util.Locale;
+
+/**
+ * Keeps the cookies of every target apart in the single cookie jar a browser keeps for the proxy's origin. A cookie a
+ * target sets gets the target's host in front of its name and loses its {@code Domain}, and a request only takes the
+ * cookies of its own target upstream, under the names the target gave them. {@code Authorization} is only sent to the
+ * target whose challenge the client answered, which the proxy remembers in a cookie of its own.
+ */
+public final class TargetCookies {
+
+    public static final String AUTHORIZED_TARGET = "proxy-authorized-target";
+
+    private static final char SEPARATOR = '~';
+
+    private TargetCookies() {
+    }
+
+    /**
+     * @return a {@code Set-Cookie} of the target, scoped to it within the proxy's origin
+     */
+    public static String toClient(String setCookie, String targetHost) {
+        String[] parts = setCookie.split(";");
+        StringBuilder result = new StringBuilder(setCookie.length() + 32)
+                .append(prefix(targetHost)).append(parts[0].trim());
+        for (int i = 1; i < parts.length; i++) {
+            String attribute = parts[i].trim();
+            // a cookie scoped to the site's domain would be dropped by a browser talking to the proxy
+            if (!attribute.regionMatches(true, 0, "Domain=", 0, 7)) {
+                result.append("; ").append(attribute);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return the {@code Set-Cookie} that lets the client's {@code Authorization} through to {@code targetOrigin}
+     */
+    public static String authorizing(String targetOrigin) {
+        return AUTHORIZED_TARGET + "=" + targetOrigin + "; Path=/; HttpOnly; SameSite=Lax";
+    }
+
+    /**
+     * @return the cookies of the target in a client's {@code Cookie} header, named as the target set them, or
+     * {@code null} when there are none
+     */
+    static String toUpstream(String cookies, String targetHost) {
+        String prefix = prefix(targetHost);
+        StringBuilder result = null;
+        for (String cookie : cookies.split(";")) {
+            String trimmed = cookie.trim();
+            if (trimmed.length() > prefix.length() && trimmed.startsWith(prefix)) {
+                result = result == null ? new StringBuilder(cookies.length()) : result.append("; ");
+                result.append(trimmed, prefix.length(), trimmed.length());
+            }
+        }
+        return result != null ? result.toString() : null;
+    }
+
+    /**
+     * @return the origin named by the proxy's own cookie in a client's {@code Cookie} header, or {@code null}
+     */
+    static String authorizedTarget(String cookies) {
+        for (String cookie : cookies.split(";")) {
+            String trimmed = cookie.trim();
+            if (trimmed.startsWith(AUTHORIZED_TARGET) && trimmed.length() > AUTHORIZED_TARGET.length()
+                    && trimmed.charAt(AUTHORIZED_TARGET.length()) == '=') {
+                return trimmed.substring(AUTHORIZED_TARGET.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cookie names are tokens, so characters a host may have but a token may not, as in an IPv6 literal, are
+     * replaced.
+     */
+    private static String prefix(String targetHost) {
+        String host = targetHost != null ? targetHost.toLowerCase(Locale.ROOT) : "";
+        StringBuilder prefix = new StringBuilder(host.length() + 1);
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            prefix.append((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-' ? c : '_');
+        }
+        return prefix.append(SEPARATOR).toString();
+    }
+}
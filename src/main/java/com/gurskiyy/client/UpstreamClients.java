@@ -0,0 +1,114 @@
+package com.gurskiyy.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * One {@link HttpClient}, and therefore one connection pool, per upstream host, so a slow site can only use up its
+ * own connections. Hosts beyond {@code maxHosts} share a single overflow pool, which also keeps the number of
+ * metric tags bounded. Each pool also has its own circuit breaker and response time window for hedging.
+ */
+public class UpstreamClients implements AutoCloseable {
+
+    static final String OVERFLOW_HOST = "other";
+
+    private final Function<String, HttpClient> clientFactory;
+    private final int maxConnectionsPerHost;
+    private final Duration acquireTimeout;
+    private final Duration requestTimeout;
+    private final int maxHosts;
+    private final CircuitBreaker.Settings breaker;
+    private final Duration minHedgeDelay;
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String, HostPool> pools = new ConcurrentHashMap<>();
+
+    public UpstreamClients(Function<String, HttpClient> clientFactory, int maxConnectionsPerHost,
+                           Duration acquireTimeout, Duration requestTimeout, int maxHosts, MeterRegistry registry) {
+        this(clientFactory, maxConnectionsPerHost, acquireTimeout, requestTimeout, maxHosts,
+                CircuitBreaker.Settings.DISABLED, null, registry);
+    }
+
+    /**
+     * @param minHedgeDelay the least time to wait before hedging a slow GET, {@code null} to never hedge
+     */
+    public UpstreamClients(Function<String, HttpClient> clientFactory, int maxConnectionsPerHost,
+                           Duration acquireTimeout, Duration requestTimeout, int maxHosts,
+                           CircuitBreaker.Settings breaker, Duration minHedgeDelay, MeterRegistry registry) {
+        this.clientFactory = clientFactory;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.acquireTimeout = acquireTimeout;
+        this.requestTimeout = requestTimeout;
+        this.maxHosts = maxHosts;
+        this.breaker = breaker;
+        this.minHedgeDelay = minHedgeDelay;
+        this.registry = registry;
+    }
+
+    /**
+     * All hosts share {@code client} without connection limits or metrics.
+     */
+    public static UpstreamClients shared(HttpClient client) {
+        return new UpstreamClients(host -> client, Integer.MAX_VALUE, Duration.ZERO, null, 0, null);
+    }
+
+    public HostPool forHost(URI targetUri) {
+        String host = targetUri.getHost() != null ? targetUri.getHost() : OVERFLOW_HOST;
+        HostPool pool = pools.get(host);
+        if (pool != null) {
+            return pool;
+        }
+        if (pools.size() >= maxHosts) {
+            host = OVERFLOW_HOST;
+        }
+        return pools.computeIfAbsent(host, this::createPool);
+    }
+
+    public Duration acquireTimeout() {
+        return acquireTimeout;
+    }
+
+    /**
+     * @return the timeout until response headers arrive, or {@code null} for none
+     */
+    public Duration requestTimeout() {
+        return requestTimeout;
+    }
+
+    @Override
+    public void close() {
+        pools.values().stream().map(HostPool::client).distinct().forEach(HttpClient::close);
+    }
+
+    private HostPool createPool(String host) {
+        HostPool pool = new HostPool(host, clientFactory.apply(host), maxConnectionsPerHost, breaker, minHedgeDelay);
+        if (registry != null) {
+            Gauge.builder("proxy.upstream.connections", pool, HostPool::active)
+                    .tag("host", host).tag("state", "active").register(registry);
+            Gauge.builder("proxy.upstream.connections", pool, HostPool::pending)
+                    .tag("host", host).tag("state", "pending").register(registry);
+            for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                Gauge.builder("proxy.upstream.circuit", pool, p -> p.circuit() == state ? 1 : 0)
+                        .tag("host", host).tag("state", state.name().toLowerCase(Locale.ROOT)).register(registry);
+            }
+            counter("proxy.upstream.rejected", host, "reason", "circuit_open", pool.rejectedOpen);
+            counter("proxy.upstream.rejected", host, "reason", "saturated", pool.rejectedSaturated);
+            counter("proxy.upstream.hedges", host, "result", "sent", pool.hedgesSent);
+            counter("proxy.upstream.hedges", host, "result", "won", pool.hedgesWon);
+        }
+        return pool;
+    }
+
+    private void counter(String name, String host, String key, String value, LongAdder count) {
+        FunctionCounter.builder(name, count, LongAdder::sum).tag("host", host).tag(key, value).register(registry);
+    }
+}
@@ -0,0 +1,33 @@
+package com.gurskiyy.client;
+
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+
+/**
+ * Upstream cache validators of a previously fetched response, sent back as conditional request headers.
+ */
+public record Validators(String etag, String lastModified) {
+
+    public static final Validators NONE = new Validators(null, null);
+
+    public static Validators from(HttpHeaders headers) {
+        return new Validators(headers.firstValue("ETag").orElse(null), headers.firstValue("Last-Modified").orElse(null));
+    }
+
+    public boolean isEmpty() {
+        return etag == null && lastModified == null;
+    }
+
+    public Validators orElse(Validators previous) {
+        return isEmpty() ? previous : this;
+    }
+
+    void applyTo(HttpRequest.Builder builder) {
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+    }
+}
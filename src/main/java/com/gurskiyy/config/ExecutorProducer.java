@@ -0,0 +1,61 @@
+package com.gurskiyy.config;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Disposes;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Named;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class ExecutorProducer {
+
+    public static final String REWRITE_EXECUTOR = "rewrite-executor";
+    public static final String VIRTUAL_EXECUTOR = "virtual-executor";
+    public static final String UPSTREAM_EXECUTOR = "upstream-executor";
+
+    @Produces
+    @ApplicationScoped
+    @Named(REWRITE_EXECUTOR)
+    public ExecutorService createRewriteExecutor(
+            @ConfigProperty(name = "proxy.rewrite.threads") Optional<Integer> threads,
+            @ConfigProperty(name = "proxy.rewrite.queue-size", defaultValue = "1024") int queueSize) {
+        int size = threads.orElse(Runtime.getRuntime().availableProcessors());
+        return new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                Thread.ofPlatform().name("proxy-rewrite-", 0).daemon(true).factory());
+    }
+
+    public void closeRewriteExecutor(@Disposes @Named(REWRITE_EXECUTOR) ExecutorService executor) {
+        executor.shutdown();
+    }
+
+    @Produces
+    @ApplicationScoped
+    @Named(VIRTUAL_EXECUTOR)
+    public ExecutorService createVirtualExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("proxy-virtual-", 0).factory());
+    }
+
+    public void closeVirtualExecutor(@Disposes @Named(VIRTUAL_EXECUTOR) ExecutorService executor) {
+        executor.shutdown();
+    }
+
+    @Produces
+    @ApplicationScoped
+    @Named(UPSTREAM_EXECUTOR)
+    public ExecutorService createUpstreamExecutor(
+            @ConfigProperty(name = "proxy.upstream.threads") Optional<Integer> threads) {
+        // shared by the HttpClient of every upstream host instead of one cached pool per client
+        int size = threads.orElse(Runtime.getRuntime().availableProcessors());
+        return Executors.newFixedThreadPool(size, Thread.ofPlatform().name("proxy-upstream-", 0).daemon(true).factory());
+    }
+
+    public void closeUpstreamExecutor(@Disposes @Named(UPSTREAM_EXECUTOR) ExecutorService executor) {
+        executor.shutdown();
+    }
+}
@@ -1,15 +1,52 @@
 package com.gurskiyy.config;
 
+import com.gurskiyy.client.CircuitBreaker;
+import com.gurskiyy.client.UpstreamClients;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Disposes;
 import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Named;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
 
 public class HttpClientProducer {
 
     @Produces
     @ApplicationScoped
-    public HttpClient createHttpClient() {
-        return HttpClient.newHttpClient();
+    public UpstreamClients createUpstreamClients(
+            @ConfigProperty(name = "proxy.upstream.connect-timeout", defaultValue = "5s") Duration connectTimeout,
+            @ConfigProperty(name = "proxy.upstream.request-timeout", defaultValue = "30s") Duration requestTimeout,
+            @ConfigProperty(name = "proxy.upstream.http-version", defaultValue = "HTTP_2") HttpClient.Version version,
+            @ConfigProperty(name = "proxy.upstream.max-connections-per-host", defaultValue = "64")
+            int maxConnectionsPerHost,
+            @ConfigProperty(name = "proxy.upstream.acquire-timeout", defaultValue = "2s") Duration acquireTimeout,
+            @ConfigProperty(name = "proxy.upstream.max-hosts", defaultValue = "256") int maxHosts,
+            @ConfigProperty(name = "proxy.upstream.circuit-breaker.window", defaultValue = "20") int breakerWindow,
+            @ConfigProperty(name = "proxy.upstream.circuit-breaker.failure-rate", defaultValue = "50")
+            int breakerFailureRate,
+            @ConfigProperty(name = "proxy.upstream.circuit-breaker.open-duration", defaultValue = "10s")
+            Duration breakerOpenDuration,
+            @ConfigProperty(name = "proxy.upstream.hedging.enabled", defaultValue = "false") boolean hedging,
+            @ConfigProperty(name = "proxy.upstream.hedging.min-delay", defaultValue = "50ms") Duration minHedgeDelay,
+            @Named(ExecutorProducer.UPSTREAM_EXECUTOR) ExecutorService executor,
+            MeterRegistry registry) {
+        // HTTP_2 negotiates h2 via ALPN or h2c upgrade and falls back to HTTP/1.1 per connection
+        return new UpstreamClients(host -> HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .version(version)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(executor)
+                .build(),
+                maxConnectionsPerHost, acquireTimeout, requestTimeout, maxHosts,
+                new CircuitBreaker.Settings(breakerWindow, breakerFailureRate, breakerOpenDuration),
+                hedging ? minHedgeDelay : null, registry);
+    }
+
+    public void closeUpstreamClients(@Disposes UpstreamClients clients) {
+        clients.close();
     }
 }
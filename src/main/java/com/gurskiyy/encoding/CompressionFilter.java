@@ -0,0 +1,105 @@
+package com.gurskiyy.encoding;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.Provider;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips text responses for clients that accept it. Bodies that already carry a {@code Content-Encoding}, such as
+ * compressed upstream bodies passed through as they are, are left alone. Every other body of a compressible type
+ * varies on {@code Accept-Encoding}, compressed or not. The gzip stream is sync flushed, so streamed pages still reach
+ * the client chunk by chunk.
+ */
+@Provider
+public class CompressionFilter implements ContainerResponseFilter, WriterInterceptor {
+
+    private static final String COMPRESS = CompressionFilter.class.getName() + ".compress";
+    private static final int PARTIAL_CONTENT = Response.Status.PARTIAL_CONTENT.getStatusCode();
+
+    private final boolean enabled;
+    private final int level;
+    private final List<String> mediaTypes;
+
+    @Inject
+    public CompressionFilter(@ConfigProperty(name = "proxy.compression.enabled", defaultValue = "true") boolean enabled,
+                             @ConfigProperty(name = "proxy.compression.level", defaultValue = "6") int level,
+                             @ConfigProperty(name = "proxy.compression.media-types",
+                                     defaultValue = "text/html,text/css,text/plain,application/javascript,application/json")
+                             List<String> mediaTypes) {
+        this.enabled = enabled;
+        this.level = level;
+        this.mediaTypes = mediaTypes;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        // a byte range is a part of the identity body, compressing it would make Content-Range wrong
+        if (!enabled || !response.hasEntity() || response.getStatus() == PARTIAL_CONTENT
+                || response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)
+                || !isCompressible(response.getMediaType())) {
+            return;
+        }
+        // the identity body a client without gzip gets must not be served from a cache to one with it, or back
+        response.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (!ContentCoding.accepts(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING), ContentCoding.GZIP)) {
+            return;
+        }
+        response.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, ContentCoding.GZIP);
+        response.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+        request.setProperty(COMPRESS, Boolean.TRUE);
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        if (context.getProperty(COMPRESS) == null) {
+            context.proceed();
+            return;
+        }
+        OutputStream original = context.getOutputStream();
+        LevelGzipOutputStream gzip = new LevelGzipOutputStream(original, level);
+        context.setOutputStream(gzip);
+        try {
+            context.proceed();
+            gzip.finish();
+        } finally {
+            gzip.release();
+            context.setOutputStream(original);
+        }
+    }
+
+    private boolean isCompressible(MediaType mediaType) {
+        if (mediaType == null) {
+            return false;
+        }
+        String type = mediaType.getType() + "/" + mediaType.getSubtype();
+        return mediaTypes.stream().anyMatch(type::equalsIgnoreCase);
+    }
+
+    private static final class LevelGzipOutputStream extends GZIPOutputStream {
+
+        LevelGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192, true);
+            def.setLevel(level);
+        }
+
+        /**
+         * Frees the native deflater without closing the container's stream.
+         */
+        void release() {
+            def.end();
+        }
+    }
+}
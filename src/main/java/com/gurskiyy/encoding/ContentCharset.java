@@ -0,0 +1,248 @@
+package com.gurskiyy.encoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+
+/**
+ * Works out the character encoding of an HTML page or style sheet the way browsers do: a byte order mark wins, then
+ * the {@code charset} of the {@code Content-Type} header, then a {@code <meta>} declaration or {@code @charset} rule in
+ * the first {@value #PRESCAN_BYTES} bytes, and UTF-8 otherwise.
+ */
+public final class ContentCharset {
+
+    public static final int PRESCAN_BYTES = 1024;
+
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    private ContentCharset() {
+    }
+
+    /**
+     * Peeks at the start of {@code body} without consuming it.
+     *
+     * @param body a stream that supports {@link InputStream#mark(int)}
+     */
+    public static Charset detect(InputStream body, String contentType) throws IOException {
+        // with a declared charset only a byte order mark can override it, so the start of a slow page is not held
+        // back waiting for more bytes
+        int prescan = fromContentType(contentType) != null ? 3 : PRESCAN_BYTES;
+        body.mark(prescan);
+        byte[] prefix;
+        try {
+            prefix = body.readNBytes(prescan);
+        } finally {
+            body.reset();
+        }
+        return detect(prefix, prefix.length, contentType);
+    }
+
+    public static Charset detect(byte[] body, String contentType) {
+        return detect(body, Math.min(body.length, PRESCAN_BYTES), contentType);
+    }
+
+    /**
+     * @return {@code contentType} with its {@code charset} parameter set to {@code charset}
+     */
+    public static String withCharset(String contentType, Charset charset) {
+        StringBuilder result = new StringBuilder(contentType.length() + 20);
+        String[] parts = contentType.split(";");
+        result.append(parts[0].trim());
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (!parameter.isEmpty() && !parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+                result.append("; ").append(parameter);
+            }
+        }
+        return result.append("; charset=").append(charset.name()).toString();
+    }
+
+    static Charset detect(byte[] prefix, int length, String contentType) {
+        Charset charset = fromByteOrderMark(prefix, length);
+        if (charset == null) {
+            charset = fromContentType(contentType);
+        }
+        if (charset == null) {
+            charset = contentType != null && contentType.toLowerCase(Locale.ROOT).contains("text/css")
+                    ? fromCharsetRule(prefix, length) : fromMeta(prefix, length);
+        }
+        return charset != null ? charset : StandardCharsets.UTF_8;
+    }
+
+    static Charset fromByteOrderMark(byte[] prefix, int length) {
+        if (length >= 3 && (prefix[0] & 0xFF) == 0xEF && (prefix[1] & 0xFF) == 0xBB && (prefix[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (length >= 2 && (prefix[0] & 0xFF) == 0xFE && (prefix[1] & 0xFF) == 0xFF) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (length >= 2 && (prefix[0] & 0xFF) == 0xFF && (prefix[1] & 0xFF) == 0xFE) {
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    static Charset fromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String[] parts = contentType.split(";");
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+                return forLabel(parameter.substring(8));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A simplified version of the HTML prescan: finds the first {@code <meta charset>} or
+     * {@code <meta http-equiv="Content-Type" content="...; charset=...">} outside comments.
+     */
+    static Charset fromMeta(byte[] prefix, int length) {
+        String head = new String(prefix, 0, length, StandardCharsets.ISO_8859_1);
+        String lower = head.toLowerCase(Locale.ROOT);
+        int i = 0;
+        while ((i = lower.indexOf('<', i)) >= 0) {
+            if (lower.startsWith("<!--", i)) {
+                int end = lower.indexOf("-->", i + 4);
+                if (end < 0) {
+                    return null;
+                }
+                i = end + 3;
+            } else if (lower.startsWith("<meta", i) && i + 5 < lower.length()
+                    && (isSpace(lower.charAt(i + 5)) || lower.charAt(i + 5) == '/')) {
+                int end = lower.indexOf('>', i);
+                if (end < 0) {
+                    return null;
+                }
+                Charset charset = fromMetaAttributes(head.substring(i + 5, end));
+                if (charset != null) {
+                    return charset;
+                }
+                i = end + 1;
+            } else {
+                i++;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads {@code @charset "name";}, which only counts as the very first bytes of a style sheet.
+     */
+    static Charset fromCharsetRule(byte[] prefix, int length) {
+        String head = new String(prefix, 0, length, StandardCharsets.ISO_8859_1);
+        if (!head.startsWith("@charset \"")) {
+            return null;
+        }
+        int end = head.indexOf("\";", 10);
+        return end > 0 ? declared(head.substring(10, end)) : null;
+    }
+
+    private static Charset fromMetaAttributes(String attributes) {
+        String charset = null;
+        String content = null;
+        boolean contentType = false;
+        int i = 0;
+        int length = attributes.length();
+        while (i < length) {
+            while (i < length && (isSpace(attributes.charAt(i)) || attributes.charAt(i) == '/')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < length && !isSpace(attributes.charAt(i)) && attributes.charAt(i) != '='
+                    && attributes.charAt(i) != '/') {
+                i++;
+            }
+            String name = attributes.substring(nameStart, i).toLowerCase(Locale.ROOT);
+            while (i < length && isSpace(attributes.charAt(i))) {
+                i++;
+            }
+            String value = "";
+            if (i < length && attributes.charAt(i) == '=') {
+                i++;
+                while (i < length && isSpace(attributes.charAt(i))) {
+                    i++;
+                }
+                char quote = i < length && (attributes.charAt(i) == '"' || attributes.charAt(i) == '\'')
+                        ? attributes.charAt(i) : 0;
+                int valueStart = quote != 0 ? i + 1 : i;
+                int valueEnd = valueStart;
+                while (valueEnd < length && (quote != 0 ? attributes.charAt(valueEnd) != quote
+                        : !isSpace(attributes.charAt(valueEnd)))) {
+                    valueEnd++;
+                }
+                value = attributes.substring(valueStart, valueEnd);
+                i = quote != 0 ? valueEnd + 1 : valueEnd;
+            }
+            switch (name) {
+                case "charset" -> charset = charset == null ? value : charset;
+                case "content" -> content = content == null ? value : content;
+                case "http-equiv" -> contentType |= "content-type".equalsIgnoreCase(value.strip());
+                default -> {
+                    // not relevant for the encoding
+                }
+            }
+        }
+        if (charset != null) {
+            return declared(charset);
+        }
+        if (contentType && content != null) {
+            int index = content.toLowerCase(Locale.ROOT).indexOf("charset");
+            if (index >= 0) {
+                String rest = content.substring(index + 7).strip();
+                if (rest.startsWith("=")) {
+                    rest = rest.substring(1).strip();
+                    int end = 0;
+                    while (end < rest.length() && !isSpace(rest.charAt(end)) && rest.charAt(end) != ';') {
+                        end++;
+                    }
+                    return declared(rest.substring(0, end).replace("\"", "").replace("'", ""));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A declaration inside the document was read as ASCII to find it, so a declared UTF-16 is really UTF-8.
+     */
+    private static Charset declared(String label) {
+        Charset charset = forLabel(label);
+        return charset == StandardCharsets.UTF_16 || charset == StandardCharsets.UTF_16BE
+                || charset == StandardCharsets.UTF_16LE ? StandardCharsets.UTF_8 : charset;
+    }
+
+    /**
+     * Resolves an encoding label, treating the Latin-1 and ASCII labels as windows-1252 like browsers do.
+     */
+    static Charset forLabel(String label) {
+        String name = label.strip();
+        if (name.length() >= 2 && (name.charAt(0) == '"' || name.charAt(0) == '\'')
+                && name.charAt(name.length() - 1) == name.charAt(0)) {
+            name = name.substring(1, name.length() - 1).strip();
+        }
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "iso-8859-1", "iso8859-1", "latin1", "l1", "us-ascii", "ascii", "cp1252" -> {
+                return WINDOWS_1252;
+            }
+            default -> {
+                try {
+                    return name.isEmpty() ? null : Charset.forName(name);
+                } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
@@ -0,0 +1,88 @@
+package com.gurskiyy.encoding;
+
+import com.gurskiyy.exception.ProxyException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * HTTP content codings the proxy can decode, and {@code Accept-Encoding} negotiation.
+ */
+public final class ContentCoding {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String IDENTITY = "identity";
+
+    /**
+     * Sent upstream, limited to the codings that can be decoded before HTML is rewritten.
+     */
+    public static final String UPSTREAM_ACCEPT_ENCODING = GZIP + ", " + DEFLATE;
+
+    private ContentCoding() {
+    }
+
+    public static boolean isIdentity(String contentEncoding) {
+        return contentEncoding == null || contentEncoding.isBlank() || IDENTITY.equalsIgnoreCase(contentEncoding.trim());
+    }
+
+    /**
+     * Wraps {@code body} so it reads decoded bytes. {@code body} is closed when it cannot be decoded.
+     */
+    public static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if (isIdentity(contentEncoding)) {
+            return body;
+        }
+        try {
+            return switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+                case GZIP, "x-gzip" -> new GZIPInputStream(body);
+                case DEFLATE -> new InflaterInputStream(body);
+                default -> throw new ProxyException("Unsupported content encoding: " + contentEncoding, null);
+            };
+        } catch (IOException | RuntimeException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Whether {@code coding} is acceptable according to an {@code Accept-Encoding} header, honouring
+     * {@code q=0} and the {@code *} wildcard.
+     */
+    public static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null || coding == null) {
+            return false;
+        }
+        String wanted = coding.trim().toLowerCase(Locale.ROOT);
+        Boolean wildcard = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean acceptable = quality(parts) > 0;
+            if (name.equals(wanted) || ("x-gzip".equals(name) && GZIP.equals(wanted))) {
+                return acceptable;
+            }
+            if ("*".equals(name)) {
+                wildcard = acceptable;
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,11 @@
+package com.gurskiyy.exception;
+
+/**
+ * A {@code target} outside {@code proxy.targets.allowed}, answered with {@code 403 Forbidden}.
+ */
+public class ForbiddenTargetException extends InvalidTargetException {
+
+    public ForbiddenTargetException(String message) {
+        super(message, null);
+    }
+}
@@ -0,0 +1,11 @@
+package com.gurskiyy.exception;
+
+/**
+ * A {@code target} that is not an absolute {@code http} or {@code https} URI, answered with {@code 400 Bad Request}.
+ */
+public class InvalidTargetException extends ProxyException {
+
+    public InvalidTargetException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -1,16 +1,46 @@
 package com.gurskiyy.exception;
 
 
+import com.gurskiyy.metrics.ProxyMetrics;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.ext.ExceptionMapper;
 import jakarta.ws.rs.ext.Provider;
 
+import java.net.http.HttpTimeoutException;
+
+/**
+ * Refused upstream requests become {@code 503} with {@code Retry-After}, targets that are not allowed {@code 403},
+ * invalid targets {@code 400}, upstream timeouts {@code 504}, and all other failures {@code 500}.
+ */
 @Provider
 public class ProxyExceptionMapper implements ExceptionMapper<ProxyException> {
 
+    private final ProxyMetrics metrics;
+
+    @Inject
+    public ProxyExceptionMapper(ProxyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public Response toResponse(ProxyException exception) {
-        return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+        metrics.recordError(exception);
+        if (exception instanceof ServiceUnavailableException unavailable) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, unavailable.retryAfter().toSeconds())
+                    .entity(exception.getMessage())
+                    .build();
+        }
+        if (exception instanceof InvalidTargetException) {
+            Response.Status status = exception instanceof ForbiddenTargetException
+                    ? Response.Status.FORBIDDEN : Response.Status.BAD_REQUEST;
+            return Response.status(status).entity(exception.getMessage()).build();
+        }
+        Response.Status status = exception.getCause() instanceof HttpTimeoutException
+                ? Response.Status.GATEWAY_TIMEOUT : Response.Status.INTERNAL_SERVER_ERROR;
+        return Response.status(status)
                 .entity(exception.getMessage())
                 .build();
     }
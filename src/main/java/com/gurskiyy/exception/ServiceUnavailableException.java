@@ -0,0 +1,25 @@
+package com.gurskiyy.exception;
+
+import java.time.Duration;
+
+/**
+ * A request the proxy refused to work on for now, answered with {@code 503 Service Unavailable} and a
+ * {@code Retry-After} header.
+ */
+public class ServiceUnavailableException extends ProxyException {
+
+    private final Duration retryAfter;
+
+    public ServiceUnavailableException(String message, Duration retryAfter) {
+        this(message, retryAfter, null);
+    }
+
+    public ServiceUnavailableException(String message, Duration retryAfter, Throwable cause) {
+        super(message, cause);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,13 @@
+package com.gurskiyy.exception;
+
+import java.time.Duration;
+
+/**
+ * The proxy refused to contact an upstream host, because its circuit is open or it has no connection to spare.
+ */
+public class UpstreamUnavailableException extends ServiceUnavailableException {
+
+    public UpstreamUnavailableException(String message, Duration retryAfter) {
+        super(message, retryAfter);
+    }
+}
@@ -0,0 +1,155 @@
+package com.gurskiyy.metrics;
+
+import com.gurskiyy.exception.ProxyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and counters for each proxy stage. Target hosts become tags only when they are on the configured
+ * allow-list or, without one, among the first {@code max-hosts} hosts seen; all others are tagged {@code other}.
+ */
+@ApplicationScoped
+public class ProxyMetrics {
+
+    public static final String OTHER_HOST = "other";
+    public static final String STAGE_PARSE = "parse";
+    public static final String STAGE_REWRITE = "rewrite";
+    public static final String STAGE_SERIALIZE = "serialize";
+    public static final String STAGE_STREAM = "stream";
+    public static final String STAGE_CSS = "css";
+
+    private static final double[] SIZE_BUCKETS = {1024, 16 * 1024, 128 * 1024, 1024 * 1024, 8 * 1024 * 1024};
+
+    private final MeterRegistry registry;
+    private final Set<String> allowedHosts;
+    private final int maxHosts;
+    private final Set<String> seenHosts = ConcurrentHashMap.newKeySet();
+    private final Map<String, Timer> stages = new ConcurrentHashMap<>();
+
+    @Inject
+    public ProxyMetrics(MeterRegistry registry,
+                        @ConfigProperty(name = "proxy.metrics.hosts") Optional<List<String>> allowedHosts,
+                        @ConfigProperty(name = "proxy.metrics.max-hosts", defaultValue = "50") int maxHosts) {
+        this.registry = registry;
+        this.allowedHosts = allowedHosts.map(Set::copyOf).orElse(null);
+        this.maxHosts = maxHosts;
+    }
+
+    /**
+     * Metrics that are recorded nowhere, for components created outside the container.
+     */
+    public static ProxyMetrics disabled() {
+        return new ProxyMetrics(new CompositeMeterRegistry(), Optional.empty(), 0);
+    }
+
+    public String hostTag(String host) {
+        if (host == null || host.isEmpty()) {
+            return OTHER_HOST;
+        }
+        if (allowedHosts != null) {
+            return allowedHosts.contains(host) ? host : OTHER_HOST;
+        }
+        if (seenHosts.contains(host)) {
+            return host;
+        }
+        synchronized (seenHosts) {
+            if (seenHosts.size() < maxHosts) {
+                seenHosts.add(host);
+                return host;
+            }
+        }
+        return OTHER_HOST;
+    }
+
+    public Timer rewriteStage(String stage) {
+        return stages.computeIfAbsent(stage, name -> Timer.builder("proxy.rewrite.duration")
+                .description("Time spent in each phase of rewriting an HTML page")
+                .tag("stage", name)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry));
+    }
+
+    /**
+     * @param outcome the status class of the upstream response, or {@code error} when none arrived
+     */
+    public void recordUpstream(String host, String outcome, long nanos) {
+        Timer.builder("proxy.upstream.duration")
+                .description("Time until the upstream response arrived")
+                .tags("host", hostTag(host), "outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordResponse(String host, int status, String contentType, long bytes) {
+        String hostTag = hostTag(host);
+        String type = contentTypeTag(contentType);
+        Counter.builder("proxy.responses")
+                .description("Responses sent to clients")
+                .tags("host", hostTag, "status", statusClass(status), "content_type", type)
+                .register(registry)
+                .increment();
+        DistributionSummary.builder("proxy.response.size")
+                .description("Bytes written to clients per response")
+                .baseUnit("bytes")
+                .tags("host", hostTag, "content_type", type)
+                .serviceLevelObjectives(SIZE_BUCKETS)
+                .register(registry)
+                .record(bytes);
+    }
+
+    public void recordError(Throwable error) {
+        Throwable cause = error.getCause();
+        Counter.builder("proxy.errors")
+                .description("Proxy failures by underlying cause")
+                .tag("cause", cause != null ? cause.getClass().getSimpleName()
+                        : error.getClass() != ProxyException.class ? error.getClass().getSimpleName() : "none")
+                .register(registry)
+                .increment();
+    }
+
+    public static String statusClass(int status) {
+        return status >= 100 && status < 600 ? (status / 100) + "xx" : "unknown";
+    }
+
+    static String contentTypeTag(String contentType) {
+        if (contentType == null || contentType.isEmpty()) {
+            return "none";
+        }
+        String type = contentType.toLowerCase();
+        if (type.startsWith("text/html")) {
+            return "html";
+        } else if (type.startsWith("text/css")) {
+            return "css";
+        } else if (type.contains("javascript")) {
+            return "javascript";
+        } else if (type.contains("json")) {
+            return "json";
+        } else if (type.startsWith("image/")) {
+            return "image";
+        } else if (type.startsWith("font/")) {
+            return "font";
+        } else if (type.startsWith("text/")) {
+            return "text";
+        }
+        return "other";
+    }
+}
@@ -0,0 +1,101 @@
+package com.gurskiyy.metrics;
+
+import com.gurskiyy.resource.ProxyResource;
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.ext.Provider;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * Counts responses by target host, status class and content type, and records the bytes written to the client.
+ * The interceptor runs outside the compression interceptor, so sizes are those that went over the wire.
+ */
+@Provider
+@Priority(Priorities.HEADER_DECORATOR)
+public class ResponseMetricsFilter implements ContainerResponseFilter, WriterInterceptor {
+
+    private static final String RESPONSE = ResponseMetricsFilter.class.getName() + ".response";
+
+    private final ProxyMetrics metrics;
+
+    @Inject
+    public ResponseMetricsFilter(ProxyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        ResponseInfo info = new ResponseInfo(targetHost(request.getUriInfo().getQueryParameters().getFirst("target")),
+                response.getStatus(), response.getHeaderString(HttpHeaders.CONTENT_TYPE));
+        if (response.hasEntity()) {
+            request.setProperty(RESPONSE, info);
+        } else {
+            metrics.recordResponse(info.host(), info.status(), info.contentType(), 0);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        if (!(context.getProperty(RESPONSE) instanceof ResponseInfo info)) {
+            context.proceed();
+            return;
+        }
+        OutputStream original = context.getOutputStream();
+        CountingOutputStream counting = new CountingOutputStream(original);
+        context.setOutputStream(counting);
+        try {
+            context.proceed();
+        } finally {
+            context.setOutputStream(original);
+            metrics.recordResponse(info.host(), info.status(), info.contentType(), counting.count);
+        }
+    }
+
+    static String targetHost(String target) {
+        try {
+            return URI.create(target == null || target.isEmpty() ? ProxyResource.DEFAULT_TARGET : target).getHost();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private record ResponseInfo(String host, int status, String contentType) {
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void close() {
+            // the container owns the underlying stream
+        }
+    }
+}
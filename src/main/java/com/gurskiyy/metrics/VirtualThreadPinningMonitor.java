@@ -0,0 +1,54 @@
+package com.gurskiyy.metrics;
+
+import com.gurskiyy.resource.ExecutionMode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jdk.jfr.consumer.RecordingStream;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+
+@Startup
+@ApplicationScoped
+public class VirtualThreadPinningMonitor {
+
+    static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final Timer pinned;
+    private final RecordingStream recording;
+
+    @Inject
+    public VirtualThreadPinningMonitor(MeterRegistry registry,
+                                       @ConfigProperty(name = "proxy.execution.mode", defaultValue = "worker")
+                                       ExecutionMode executionMode,
+                                       @ConfigProperty(name = "proxy.virtual.pinning-threshold", defaultValue = "20ms")
+                                       Duration threshold) {
+        this.pinned = Timer.builder("proxy.virtual.thread.pinned")
+                .description("Time virtual threads spent pinned to their carrier thread")
+                .register(registry);
+        this.recording = executionMode == ExecutionMode.VIRTUAL ? startRecording(threshold) : null;
+    }
+
+    private RecordingStream startRecording(Duration threshold) {
+        RecordingStream stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(PINNED_EVENT, event -> pinned.record(event.getDuration()));
+        stream.startAsync();
+        return stream;
+    }
+
+    public long pinnedCount() {
+        return pinned.count();
+    }
+
+    @PreDestroy
+    void close() {
+        if (recording != null) {
+            recording.close();
+        }
+    }
+}
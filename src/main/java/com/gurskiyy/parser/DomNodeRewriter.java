@@ -0,0 +1,65 @@
+package com.gurskiyy.parser;
+
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+/**
+ * Rewrites one parsed node at a time: annotates text, routes URL attributes through the proxy and rewrites the
+ * contents of {@code <style>} elements. A node is only ever changed in place, never moved, so nodes can be rewritten
+ * in any order and by several rewriters at once. A rewriter itself is not thread-safe.
+ */
+final class DomNodeRewriter {
+
+    private final RewriteContext context;
+    private final SixLetterWordAnnotator annotator = new SixLetterWordAnnotator();
+
+    DomNodeRewriter(RewriteContext context) {
+        this.context = context;
+    }
+
+    void rewrite(Node node) {
+        if (node instanceof TextNode textNode && isProcessable(node)) {
+            String text = textNode.getWholeText();
+            CharSequence annotated = annotator.annotate(text);
+            if (annotated != text) {
+                textNode.text(annotated.toString());
+            }
+        } else if (node instanceof Element element && element.attributesSize() > 0) {
+            rewriteAttributes(element);
+        } else if (node instanceof DataNode dataNode && isStyle(node.parent())) {
+            String css = dataNode.getWholeData();
+            String rewritten = StreamingCssRewriter.rewrite(css, context);
+            if (rewritten != css) {
+                dataNode.setWholeData(rewritten);
+            }
+        }
+    }
+
+    private static boolean isProcessable(Node node) {
+        return !(node.parent() instanceof Element element &&
+                ("script".equalsIgnoreCase(element.nodeName()) || "style".equalsIgnoreCase(element.nodeName())));
+    }
+
+    private static boolean isStyle(Node node) {
+        return node instanceof Element element && "style".equals(element.normalName());
+    }
+
+    private void rewriteAttributes(Element element) {
+        String tagName = element.normalName();
+        for (String attributeName : UrlAttributes.NAMES) {
+            UrlAttributes.Kind kind = UrlAttributes.kind(tagName, attributeName);
+            if (kind == null || !element.hasAttr(attributeName)
+                    || (kind == UrlAttributes.Kind.REFRESH
+                    && !UrlAttributes.isRefresh(element.attr(UrlAttributes.HTTP_EQUIV)))) {
+                continue;
+            }
+            String value = element.attr(attributeName);
+            String rewritten = UrlAttributes.rewrite(kind, value, context);
+            if (!rewritten.equals(value)) {
+                element.attr(attributeName, rewritten);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.gurskiyy.parser;
+
+import java.io.IOException;
+
+/**
+ * Told about the {@code <head>} of a page while the streaming rewriter passes through it, so the part naming the
+ * style sheets and scripts can reach the client before the rest of the page has arrived from upstream.
+ */
+public interface HeadListener {
+
+    HeadListener NONE = new HeadListener() {
+    };
+
+    /**
+     * A style sheet or script referenced from the head, with its URL already routed through the proxy.
+     *
+     * @param destination the {@code as} value for a preload of it, {@code style} or {@code script}
+     */
+    default void preload(String url, String destination) {
+    }
+
+    /**
+     * The head is complete and has been written to the rewriter's output, which is not flushed yet.
+     */
+    default void end() throws IOException {
+    }
+}
@@ -1,89 +1,239 @@
 package com.gurskiyy.parser;
 
+import com.gurskiyy.metrics.ProxyMetrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
-import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeFilter.FilterResult;
 import org.jsoup.select.NodeTraversor;
-import org.jsoup.select.NodeVisitor;
 
-import java.net.URI;
-import java.net.URLEncoder;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
 @ApplicationScoped
 public class HtmlModifier {
 
-    private static final Pattern SIX_LETTER_WORD_PATTERN = Pattern.compile("\\b([A-Za-z]{6})\\b");
-    private static final String TARGET_PARAM = "target";
+    private static final int MIN_LEAF_NODES = 512;
+    private static final int LEAVES_PER_THREAD = 4;
+
+    private final Timer parseTimer;
+    private final Timer rewriteTimer;
+    private final Timer serializeTimer;
+    private final Timer streamTimer;
+    private final Timer cssTimer;
+    private final LinkCache links;
+    private final int parallelThreshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param parallelThreshold the number of parsed nodes from which a page is rewritten on a fork-join pool, or
+     *                          {@code 0} to always rewrite on the calling thread
+     * @param parallelism       the size of a pool of its own to rewrite on, or {@code 0} for the common pool
+     */
+    @Inject
+    public HtmlModifier(ProxyMetrics metrics, LinkCache links,
+                        @ConfigProperty(name = "proxy.html.dom.parallel-threshold", defaultValue = "0")
+                        int parallelThreshold,
+                        @ConfigProperty(name = "proxy.html.dom.parallelism", defaultValue = "0") int parallelism) {
+        this.links = links;
+        this.parallelThreshold = parallelThreshold;
+        if (parallelThreshold <= 0) {
+            this.pool = null;
+        } else {
+            this.pool = parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+        }
+        this.parseTimer = metrics.rewriteStage(ProxyMetrics.STAGE_PARSE);
+        this.rewriteTimer = metrics.rewriteStage(ProxyMetrics.STAGE_REWRITE);
+        this.serializeTimer = metrics.rewriteStage(ProxyMetrics.STAGE_SERIALIZE);
+        this.streamTimer = metrics.rewriteStage(ProxyMetrics.STAGE_STREAM);
+        this.cssTimer = metrics.rewriteStage(ProxyMetrics.STAGE_CSS);
+    }
+
+    /**
+     * A modifier that rewrites parsed pages on the calling thread only.
+     */
+    public HtmlModifier(ProxyMetrics metrics, LinkCache links) {
+        this(metrics, links, 0, 0);
+    }
+
+    public HtmlModifier() {
+        this(ProxyMetrics.disabled(), new LinkCache(LinkCache.DEFAULT_MAX_ENTRIES));
+    }
 
     public String modifyHtml(String html, String proxyBaseUri, String targetDomain) {
+        long start = System.nanoTime();
         Document doc = Jsoup.parse(html, targetDomain);
+        start = record(parseTimer, start);
+        rewrite(doc, proxyBaseUri, targetDomain);
+        start = record(rewriteTimer, start);
 
-        NodeTraversor.traverse(new NodeVisitor() {
-            @Override
-            public void head(Node node, int depth) {
-                if (node instanceof TextNode textNode && isProcessable(node)) {
-                    textNode.text(processText(textNode.getWholeText()));
-                }
-            }
+        String result = doc.outerHtml();
+        record(serializeTimer, start);
+        return result;
+    }
 
-            @Override
-            public void tail(Node node, int depth) {
-                //ignore
-            }
-        }, doc);
-
-        for (Element link : doc.select("a[href]")) {
-            String href = link.attr("href");
-            if (href.startsWith("http://") || href.startsWith("https://")) {
-                link.attr("href", rewriteAbsoluteUrl(href, proxyBaseUri));
-            } else if (href.startsWith("/")) {
-                link.attr("href", rewriteRelativeUrl(href, proxyBaseUri, targetDomain));
-            }
-        }
-        return doc.outerHtml();
+    /**
+     * Parses the page straight from its bytes and serializes it back in the same {@code charset}, so neither the
+     * input nor the output exists as a whole string. Characters the charset cannot represent are written as
+     * character references.
+     */
+    public byte[] modifyHtml(InputStream html, Charset charset, String proxyBaseUri, String targetDomain)
+            throws IOException {
+        long start = System.nanoTime();
+        Document doc = Jsoup.parse(html, charset.name(), targetDomain);
+        start = record(parseTimer, start);
+        rewrite(doc, proxyBaseUri, targetDomain);
+        start = record(rewriteTimer, start);
+
+        doc.outputSettings().charset(charset);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(8192);
+        // jsoup appends many short strings, which an unbuffered encoder would wrap one by one
+        Writer writer = new BufferedWriter(new OutputStreamWriter(result, charset), 8192);
+        doc.html(writer);
+        writer.flush();
+        record(serializeTimer, start);
+        return result.toByteArray();
     }
 
-    String processText(String text) {
-        return SIX_LETTER_WORD_PATTERN.matcher(text).replaceAll("$1\u2122");
+    public void modifyHtml(Reader html, Writer out, String proxyBaseUri, String targetDomain) throws IOException {
+        modifyHtml(html, out, StandardCharsets.UTF_8, proxyBaseUri, targetDomain);
     }
 
-    private boolean isProcessable(Node node) {
-        return !(node.parent() instanceof Element element &&
-                ("script".equalsIgnoreCase(element.nodeName()) || "style".equalsIgnoreCase(element.nodeName())));
+    /**
+     * Parsing, annotation, link rewriting and output happen interleaved in one pass, so they are timed together,
+     * including the time spent waiting on {@code html} and {@code out}.
+     *
+     * @param outputCharset the encoding {@code out} writes, characters it cannot represent are written as character
+     *                      references
+     */
+    public void modifyHtml(Reader html, Writer out, Charset outputCharset, String proxyBaseUri, String targetDomain)
+            throws IOException {
+        modifyHtml(html, out, outputCharset, proxyBaseUri, targetDomain, HeadListener.NONE);
     }
 
-    private String rewriteAbsoluteUrl(String href, String proxyBaseUri) {
+    /**
+     * @param head told of the style sheets and scripts in the page's head, and of where the head ends
+     */
+    public void modifyHtml(Reader html, Writer out, Charset outputCharset, String proxyBaseUri, String targetDomain,
+                           HeadListener head) throws IOException {
+        long start = System.nanoTime();
         try {
-            URI uri = URI.create(href);
-            String originalDomain = uri.getScheme() + "://" + uri.getHost();
-            if (uri.getPort() != -1) {
-                originalDomain += ":" + uri.getPort();
-            }
-            String path = uri.getPath();
-            String query = uri.getQuery();
-            String newHref = (path != null ? path : "") + (query != null && !query.isEmpty() ? "?" + query : "");
-            String base = removeTrailingSlash(proxyBaseUri.split("\\?")[0]);
-            String encodedOriginalDomain = URLEncoder.encode(originalDomain, StandardCharsets.UTF_8);
-            String connector = newHref.contains("?") ? "&" : "?";
-            return base + newHref + connector + TARGET_PARAM + "=" + encodedOriginalDomain;
-        } catch (Exception e) {
-            return href;
+            RewriteContext context = new RewriteContext(proxyBaseUri, targetDomain, links);
+            new StreamingHtmlRewriter(out, context, outputCharset, head).rewrite(html);
+        } finally {
+            record(streamTimer, start);
+        }
+    }
+
+    /**
+     * Rewrites the {@code url(...)} and {@code @import} references of a style sheet in one streaming pass.
+     */
+    public void modifyCss(Reader css, Writer out, String proxyBaseUri, String targetDomain) throws IOException {
+        long start = System.nanoTime();
+        try {
+            new StreamingCssRewriter(out, new RewriteContext(proxyBaseUri, targetDomain, links)).rewrite(css);
+        } finally {
+            record(cssTimer, start);
         }
     }
 
-    private String rewriteRelativeUrl(String href, String proxyBaseUri, String targetDomain) {
-        String base = removeTrailingSlash(proxyBaseUri.split("\\?")[0]);
-        String encodedTarget = URLEncoder.encode(targetDomain, StandardCharsets.UTF_8);
-        String connector = href.contains("?") ? "&" : "?";
-        return base + href + connector + TARGET_PARAM + "=" + encodedTarget;
+    public String modifyCss(String css, String proxyBaseUri, String targetDomain) {
+        long start = System.nanoTime();
+        String result = StreamingCssRewriter.rewrite(css, new RewriteContext(proxyBaseUri, targetDomain, links));
+        record(cssTimer, start);
+        return result;
     }
 
-    private String removeTrailingSlash(String uri) {
-        return uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+    String processText(String text) {
+        return new SixLetterWordAnnotator().annotate(text);
+    }
+
+    private void rewrite(Document doc, String proxyBaseUri, String targetDomain) {
+        RewriteContext context = new RewriteContext(proxyBaseUri, targetDomain, links);
+        if (parallelThreshold <= 0 || !hasNodes(doc, parallelThreshold)) {
+            DomNodeRewriter rewriter = new DomNodeRewriter(context);
+            NodeTraversor.traverse((node, depth) -> rewriter.rewrite(node), doc);
+            return;
+        }
+        // nodes are only changed in place, so document order can be split into runs rewritten independently
+        List<Node> nodes = new ArrayList<>(parallelThreshold);
+        NodeTraversor.traverse((node, depth) -> nodes.add(node), doc);
+        int leafSize = Math.max(MIN_LEAF_NODES, nodes.size() / (pool.getParallelism() * LEAVES_PER_THREAD));
+        pool.invoke(new RewriteTask(nodes, 0, nodes.size(), leafSize, context));
+    }
+
+    /**
+     * Counts the nodes of {@code doc} in document order, stopping as soon as there are {@code count} of them.
+     */
+    private static boolean hasNodes(Document doc, int count) {
+        int[] seen = {0};
+        NodeTraversor.filter((node, depth) -> ++seen[0] < count ? FilterResult.CONTINUE : FilterResult.STOP, doc);
+        return seen[0] >= count;
+    }
+
+    private static long record(Timer timer, long start) {
+        long now = System.nanoTime();
+        timer.record(now - start, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    @PreDestroy
+    void close() {
+        if (pool != null && pool != ForkJoinPool.commonPool()) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Rewrites a run of nodes in document order, halving it until it is at most {@code leafSize} nodes long.
+     */
+    private static final class RewriteTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Node> nodes;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+        private final RewriteContext context;
+
+        RewriteTask(List<Node> nodes, int from, int to, int leafSize, RewriteContext context) {
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+            this.context = context;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                DomNodeRewriter rewriter = new DomNodeRewriter(context);
+                for (int i = from; i < to; i++) {
+                    rewriter.rewrite(nodes.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RewriteTask(nodes, from, middle, leafSize, context),
+                    new RewriteTask(nodes, middle, to, leafSize, context));
+        }
     }
 }
@@ -0,0 +1,176 @@
+package com.gurskiyy.parser;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers rewritten absolute links and URL-encoded origins across requests, since most pages of a site share the
+ * same navigation and footer links. Both memos are bounded: once one grows past its size, entries not read since the
+ * previous sweep are evicted until it is back under 90% of it. Lookups never lock.
+ */
+@ApplicationScoped
+public class LinkCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private static final int MAX_ORIGINS = 1024;
+    private static final LinkCache DISABLED = new LinkCache(0);
+
+    private final Memo<Link, String> links;
+    private final Memo<String, String> origins;
+
+    @Inject
+    public LinkCache(@ConfigProperty(name = "proxy.link-cache.max-entries", defaultValue = "10000") int maxEntries,
+                     MeterRegistry registry) {
+        this.links = new Memo<>(maxEntries);
+        this.origins = new Memo<>(maxEntries > 0 ? Math.min(maxEntries, MAX_ORIGINS) : 0);
+        links.register(registry, "links");
+        origins.register(registry, "origins");
+    }
+
+    /**
+     * A cache whose hit ratios are not reported, for components created outside the container.
+     */
+    public LinkCache(int maxEntries) {
+        this(maxEntries, new CompositeMeterRegistry());
+    }
+
+    /**
+     * A cache that remembers nothing.
+     */
+    public static LinkCache disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * @return the rewrite of an absolute {@code href} through {@code proxyBase}, or {@code null} when it is not known
+     */
+    String rewritten(String proxyBase, String href) {
+        return links.get(new Link(proxyBase, href));
+    }
+
+    void remember(String proxyBase, String href, String rewritten) {
+        links.put(new Link(proxyBase, href), rewritten);
+    }
+
+    String encodedOrigin(String origin) {
+        String encoded = origins.get(origin);
+        if (encoded == null) {
+            encoded = URLEncoder.encode(origin, StandardCharsets.UTF_8);
+            origins.put(origin, encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * The rewrite of an absolute link only depends on the proxy base and the link, not on the page's target.
+     */
+    private record Link(String proxyBase, String href) {
+    }
+
+    private static final class Memo<K, V> {
+
+        private final int maxEntries;
+        private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+        private final ReentrantLock sweeping = new ReentrantLock();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        Memo(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        V get(K key) {
+            if (maxEntries == 0) {
+                return null;
+            }
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.value;
+        }
+
+        void put(K key, V value) {
+            if (maxEntries > 0 && entries.putIfAbsent(key, new Entry<>(value)) == null
+                    && entries.size() > maxEntries) {
+                sweep();
+            }
+        }
+
+        /**
+         * Second chance eviction: an entry read since the last sweep loses its mark and stays, the others go. One
+         * thread sweeps while the rest carry on, the map may briefly hold a few entries more than its bound.
+         */
+        private void sweep() {
+            if (!sweeping.tryLock()) {
+                return;
+            }
+            try {
+                int target = maxEntries - maxEntries / 10;
+                Iterator<Entry<V>> iterator = entries.values().iterator();
+                while (entries.size() > target) {
+                    if (!iterator.hasNext()) {
+                        iterator = entries.values().iterator();
+                    }
+                    Entry<V> entry = iterator.next();
+                    if (entry.referenced) {
+                        entry.referenced = false;
+                    } else {
+                        iterator.remove();
+                        evictions.increment();
+                    }
+                }
+            } finally {
+                sweeping.unlock();
+            }
+        }
+
+        private double hitRatio() {
+            long hitCount = hits.sum();
+            long total = hitCount + misses.sum();
+            return total == 0 ? 0 : (double) hitCount / total;
+        }
+
+        void register(MeterRegistry registry, String name) {
+            FunctionCounter.builder("proxy.link.cache.requests", hits, LongAdder::sum)
+                    .tags("cache", name, "result", "hit").register(registry);
+            FunctionCounter.builder("proxy.link.cache.requests", misses, LongAdder::sum)
+                    .tags("cache", name, "result", "miss").register(registry);
+            FunctionCounter.builder("proxy.link.cache.evictions", evictions, LongAdder::sum)
+                    .tag("cache", name).register(registry);
+            Gauge.builder("proxy.link.cache.entries", entries, ConcurrentHashMap::size)
+                    .tag("cache", name).register(registry);
+            Gauge.builder("proxy.link.cache.hit.ratio", this, Memo::hitRatio)
+                    .tag("cache", name).register(registry);
+        }
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private volatile boolean referenced;
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+}
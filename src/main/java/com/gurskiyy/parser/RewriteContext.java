@@ -0,0 +1,199 @@
+package com.gurskiyy.parser;
+
+import java.net.URI;
+
+/**
+ * Everything a page rewrite needs about the proxy and the target, worked out once per request instead of once per
+ * link: the proxy base without query or trailing slash, and the URL-encoded target. Absolute links are looked up in
+ * the {@link LinkCache} shared by all requests before they are parsed.
+ */
+final class RewriteContext {
+
+    private static final String TARGET_PARAM = "target";
+
+    private final String base;
+    private final String targetDomain;
+    private final String encodedTarget;
+    private final String targetScheme;
+    private final LinkCache links;
+
+    RewriteContext(String proxyBaseUri, String targetDomain) {
+        this(proxyBaseUri, targetDomain, LinkCache.disabled());
+    }
+
+    RewriteContext(String proxyBaseUri, String targetDomain, LinkCache links) {
+        int query = proxyBaseUri.indexOf('?');
+        this.base = removeTrailingSlash(query >= 0 ? proxyBaseUri.substring(0, query) : proxyBaseUri);
+        this.targetDomain = targetDomain;
+        this.links = links;
+        this.encodedTarget = links.encodedOrigin(targetDomain);
+        int colon = targetDomain.indexOf(':');
+        this.targetScheme = colon > 0 ? targetDomain.substring(0, colon) : "https";
+    }
+
+    /**
+     * Routes absolute http(s), protocol-relative and root-relative URLs through the proxy; anything else, such as
+     * page-relative paths, fragments or {@code data:} URLs, is returned as it is.
+     */
+    String rewriteUrl(String url) {
+        if (url.startsWith("http://") || url.startsWith("https://")) {
+            return rewriteAbsoluteUrl(url);
+        } else if (url.startsWith("//")) {
+            return rewriteAbsoluteUrl(targetScheme + ":" + url);
+        } else if (url.startsWith("/")) {
+            return rewriteRelativeUrl(url);
+        }
+        return url;
+    }
+
+    /**
+     * Rewrites each image candidate URL of a {@code srcset}, keeping descriptors and separators as they were.
+     */
+    String rewriteSrcset(String srcset) {
+        StringBuilder result = new StringBuilder(srcset.length() + 64);
+        int length = srcset.length();
+        int i = 0;
+        while (i < length) {
+            int separatorStart = i;
+            while (i < length && (isWhitespace(srcset.charAt(i)) || srcset.charAt(i) == ',')) {
+                i++;
+            }
+            result.append(srcset, separatorStart, i);
+            if (i == length) {
+                break;
+            }
+            int urlStart = i;
+            while (i < length && !isWhitespace(srcset.charAt(i))) {
+                i++;
+            }
+            int urlEnd = i;
+            while (urlEnd > urlStart && srcset.charAt(urlEnd - 1) == ',') {
+                urlEnd--;
+            }
+            result.append(rewriteUrl(srcset.substring(urlStart, urlEnd)));
+            if (urlEnd < i) {
+                // a trailing comma ends the candidate, it has no descriptors
+                result.append(srcset, urlEnd, i);
+                continue;
+            }
+            int descriptorsStart = i;
+            int depth = 0;
+            while (i < length && (srcset.charAt(i) != ',' || depth > 0)) {
+                char c = srcset.charAt(i);
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')' && depth > 0) {
+                    depth--;
+                }
+                i++;
+            }
+            result.append(srcset, descriptorsStart, i);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Rewrites the URL of a {@code <meta http-equiv="refresh">} content value such as {@code 5; url='/next'}.
+     */
+    String rewriteRefresh(String content) {
+        int length = content.length();
+        int i = skipWhitespace(content, 0);
+        while (i < length && (isAsciiDigit(content.charAt(i)) || content.charAt(i) == '.')) {
+            i++;
+        }
+        i = skipWhitespace(content, i);
+        if (i < length && (content.charAt(i) == ';' || content.charAt(i) == ',')) {
+            i = skipWhitespace(content, i + 1);
+        } else if (i < length) {
+            return content;
+        }
+        if (content.regionMatches(true, i, "url", 0, 3)) {
+            int equals = skipWhitespace(content, i + 3);
+            if (equals < length && content.charAt(equals) == '=') {
+                i = skipWhitespace(content, equals + 1);
+            }
+        }
+        char quote = i < length && (content.charAt(i) == '"' || content.charAt(i) == '\'') ? content.charAt(i) : 0;
+        int urlStart = quote != 0 ? i + 1 : i;
+        int urlEnd = quote != 0 ? content.indexOf(quote, urlStart) : length;
+        if (urlEnd < 0) {
+            urlEnd = length;
+        }
+        while (quote == 0 && urlEnd > urlStart && isWhitespace(content.charAt(urlEnd - 1))) {
+            urlEnd--;
+        }
+        if (urlStart >= urlEnd) {
+            return content;
+        }
+        String url = content.substring(urlStart, urlEnd);
+        String rewritten = rewriteUrl(url);
+        if (rewritten.equals(url)) {
+            return content;
+        }
+        return content.substring(0, urlStart) + rewritten + content.substring(urlEnd);
+    }
+
+    /**
+     * Whether {@code url} is one this context routed through the proxy.
+     */
+    boolean isProxied(String url) {
+        return url.startsWith(base) && url.length() > base.length() && "/?".indexOf(url.charAt(base.length())) >= 0
+                && url.contains(TARGET_PARAM + "=");
+    }
+
+    private String rewriteAbsoluteUrl(String href) {
+        String rewritten = links.rewritten(base, href);
+        if (rewritten == null) {
+            rewritten = parseAbsoluteUrl(href);
+            links.remember(base, href, rewritten);
+        }
+        return rewritten;
+    }
+
+    private String parseAbsoluteUrl(String href) {
+        try {
+            URI uri = URI.create(href);
+            String originalDomain = uri.getScheme() + "://" + uri.getHost();
+            if (uri.getPort() != -1) {
+                originalDomain += ":" + uri.getPort();
+            }
+            String path = uri.getPath();
+            String query = uri.getQuery();
+            String newHref = (path != null ? path : "") + (query != null && !query.isEmpty() ? "?" + query : "");
+            String encodedOriginalDomain = originalDomain.equals(targetDomain)
+                    ? encodedTarget : links.encodedOrigin(originalDomain);
+            return withTarget(newHref, encodedOriginalDomain);
+        } catch (Exception e) {
+            return href;
+        }
+    }
+
+    private String rewriteRelativeUrl(String href) {
+        return withTarget(href, encodedTarget);
+    }
+
+    private String withTarget(String path, String encodedDomain) {
+        String connector = path.indexOf('?') >= 0 ? "&" : "?";
+        return base + path + connector + TARGET_PARAM + "=" + encodedDomain;
+    }
+
+    private static String removeTrailingSlash(String uri) {
+        return uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+    }
+
+    private static int skipWhitespace(String value, int from) {
+        int i = from;
+        while (i < value.length() && isWhitespace(value.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,6 @@
+package com.gurskiyy.parser;
+
+public enum RewriteMode {
+    STREAMING,
+    DOM
+}
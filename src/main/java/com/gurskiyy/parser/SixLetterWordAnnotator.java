@@ -0,0 +1,120 @@
+package com.gurskiyy.parser;
+
+/**
+ * Appends a trademark sign to every six-letter word, matching {@code \b([A-Za-z]{6})\b} exactly without a regex.
+ * <p>
+ * A match is a maximal run of six ASCII letters whose neighbours are not word characters in the sense of
+ * {@link java.util.regex.Pattern}'s {@code \b}: ASCII letters, digits and underscore, plus a non-spacing mark that
+ * follows a letter or digit. Instances reuse one buffer and are not thread-safe.
+ */
+final class SixLetterWordAnnotator {
+
+    static final char TRADEMARK = '\u2122';
+    static final int WORD_LENGTH = 6;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * Returns {@code text} itself when it contains no six-letter word, otherwise the annotated text held in this
+     * annotator's buffer, which is only valid until the next call.
+     */
+    CharSequence annotate(CharSequence text) {
+        int match = nextMatch(text, 0);
+        if (match < 0) {
+            return text;
+        }
+        buffer.setLength(0);
+        int copied = 0;
+        while (match >= 0) {
+            int end = match + WORD_LENGTH;
+            buffer.append(text, copied, end).append(TRADEMARK);
+            copied = end;
+            match = nextMatch(text, end);
+        }
+        return buffer.append(text, copied, text.length());
+    }
+
+    /**
+     * Returns {@code text} itself when it contains no six-letter word, otherwise a new annotated string.
+     */
+    String annotate(String text) {
+        CharSequence annotated = annotate((CharSequence) text);
+        return annotated == text ? text : annotated.toString();
+    }
+
+    static int nextMatch(CharSequence text, int from) {
+        int length = text.length();
+        int i = from;
+        while (i < length) {
+            if (!isAsciiLetter(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && isAsciiLetter(text.charAt(i))) {
+                i++;
+            }
+            if (i - start == WORD_LENGTH && isBoundaryBefore(text, start) && isBoundaryAfter(text, i)) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBoundaryBefore(CharSequence text, int index) {
+        if (index == 0) {
+            return true;
+        }
+        int codePoint = Character.codePointBefore(text, index);
+        if (isAsciiWord(codePoint)) {
+            return false;
+        }
+        return !(isMark(codePoint) && hasBaseCharacter(text, index - 1));
+    }
+
+    private static boolean isBoundaryAfter(CharSequence text, int index) {
+        if (index == text.length()) {
+            return true;
+        }
+        // the preceding letter is always a base character, so any non-spacing mark continues the word
+        int codePoint = Character.codePointAt(text, index);
+        return !isAsciiWord(codePoint) && !isMark(codePoint);
+    }
+
+    /**
+     * Mirrors {@code Pattern.hasBaseCharacter}: walks back over non-spacing marks, one char at a time, looking for a
+     * letter or digit.
+     */
+    private static boolean hasBaseCharacter(CharSequence text, int index) {
+        for (int i = index; i >= 0; i--) {
+            int codePoint = Character.codePointAt(text, i);
+            if (!isMark(codePoint)) {
+                return isBase(codePoint, false);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The same walk run forwards: whether a non-spacing mark following {@code codePoint} has a base character, given
+     * whether one following the code point before it had. The walk back from such a mark stops at the low surrogate of
+     * a supplementary code point, so nothing after one has a base.
+     */
+    static boolean isBase(int codePoint, boolean baseBefore) {
+        return Character.isBmpCodePoint(codePoint)
+                && (Character.isLetterOrDigit(codePoint) || (baseBefore && isMark(codePoint)));
+    }
+
+    static boolean isMark(int codePoint) {
+        return Character.getType(codePoint) == Character.NON_SPACING_MARK;
+    }
+
+    static boolean isAsciiWord(int codePoint) {
+        return codePoint < 128 && (isAsciiLetter((char) codePoint) || (codePoint >= '0' && codePoint <= '9')
+                || codePoint == '_');
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,403 @@
+package com.gurskiyy.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Single forward pass over a CSS character stream that sends {@code url(...)} and {@code @import "..."} references
+ * through {@link RewriteContext#rewriteUrl(String)}. Everything else, including comments and other strings, is copied
+ * through as it arrives. Only a URL that may be rewritten is held back, and at most {@link #MAX_URL_LENGTH}
+ * characters of it, so memory stays bounded on large bundles full of inlined {@code data:} fonts and images.
+ */
+final class StreamingCssRewriter {
+
+    static final int MAX_URL_LENGTH = 4096;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_KEYWORD_LENGTH = "@import".length();
+
+    private enum State {
+        CODE, ESCAPE, SLASH, COMMENT, STRING, STRING_ESCAPE, URL_START, URL, URL_ESCAPE, URL_HEX_ESCAPE,
+        URL_SKIP, URL_SKIP_ESCAPE
+    }
+
+    private final Writer out;
+    private final RewriteContext context;
+    private final StringBuilder keyword = new StringBuilder(MAX_KEYWORD_LENGTH);
+    private final StringBuilder value = new StringBuilder();
+
+    private State state = State.CODE;
+    private boolean keywordOverflow;
+    private boolean afterImport;
+    private boolean commentStar;
+    private char quote;
+    private boolean capture;
+    private int hexDigits;
+
+    StreamingCssRewriter(Writer out, RewriteContext context) {
+        this.out = out;
+        this.context = context;
+    }
+
+    /**
+     * Rewrites a complete style sheet, {@code <style>} body or {@code style} attribute value.
+     *
+     * @return {@code css} itself when no reference was rewritten
+     */
+    static String rewrite(String css, RewriteContext context) {
+        if (css.indexOf('(') < 0 && css.indexOf('@') < 0) {
+            return css;
+        }
+        StringWriter result = new StringWriter(css.length() + 64);
+        StreamingCssRewriter rewriter = new StreamingCssRewriter(result, context);
+        try {
+            for (int i = 0; i < css.length(); i++) {
+                rewriter.write(css.charAt(i));
+            }
+            rewriter.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String rewritten = result.toString();
+        return rewritten.equals(css) ? css : rewritten;
+    }
+
+    void rewrite(Reader in) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                write(buffer[i]);
+            }
+        }
+        finish();
+    }
+
+    void write(char c) throws IOException {
+        switch (state) {
+            case CODE -> code(c);
+            case ESCAPE -> {
+                out.write(c);
+                appendKeyword(c);
+                state = State.CODE;
+            }
+            case SLASH -> slash(c);
+            case COMMENT -> comment(c);
+            case STRING -> string(c);
+            case STRING_ESCAPE -> {
+                append(c);
+                state = State.STRING;
+            }
+            case URL_START -> urlStart(c);
+            case URL -> url(c);
+            case URL_ESCAPE -> urlEscape(c);
+            case URL_HEX_ESCAPE -> urlHexEscape(c);
+            case URL_SKIP -> urlSkip(c);
+            case URL_SKIP_ESCAPE -> {
+                out.write(c);
+                state = State.URL_SKIP;
+            }
+        }
+    }
+
+    /**
+     * Writes out whatever is still held back, unchanged when the input ended inside a reference.
+     */
+    void finish() throws IOException {
+        if (capture) {
+            out.append(value);
+            value.setLength(0);
+            capture = false;
+        }
+        state = State.CODE;
+        out.flush();
+    }
+
+    private void code(char c) throws IOException {
+        if (c == '(' && isKeyword("url")) {
+            out.write(c);
+            resetKeyword();
+            afterImport = false;
+            state = State.URL_START;
+            return;
+        }
+        if (isNameCharacter(c) || c == '@') {
+            if (c == '@') {
+                resetKeyword();
+            }
+            out.write(c);
+            appendKeyword(c);
+            return;
+        }
+        if (isKeyword("@import")) {
+            afterImport = true;
+        }
+        resetKeyword();
+        if (c == '\\') {
+            out.write(c);
+            state = State.ESCAPE;
+        } else if (c == '/') {
+            out.write(c);
+            state = State.SLASH;
+        } else if (c == '"' || c == '\'') {
+            out.write(c);
+            quote = c;
+            startValue(afterImport);
+            afterImport = false;
+            state = State.STRING;
+        } else {
+            out.write(c);
+            if (!isWhitespace(c)) {
+                afterImport = false;
+            }
+        }
+    }
+
+    private void slash(char c) throws IOException {
+        if (c == '*') {
+            out.write(c);
+            commentStar = false;
+            state = State.COMMENT;
+        } else {
+            afterImport = false;
+            state = State.CODE;
+            code(c);
+        }
+    }
+
+    private void comment(char c) throws IOException {
+        out.write(c);
+        if (c == '/' && commentStar) {
+            state = State.CODE;
+        }
+        commentStar = c == '*';
+    }
+
+    private void string(char c) throws IOException {
+        if (c == quote) {
+            endValue(true);
+            out.write(c);
+            state = State.CODE;
+        } else if (c == '\n' || c == '\r' || c == '\f') {
+            // an unescaped newline makes a bad string, which is never rewritten
+            abandonValue();
+            out.write(c);
+            state = State.CODE;
+        } else {
+            append(c);
+            if (c == '\\') {
+                state = State.STRING_ESCAPE;
+            }
+        }
+    }
+
+    private void urlStart(char c) throws IOException {
+        if (isWhitespace(c)) {
+            out.write(c);
+        } else if (c == '"' || c == '\'') {
+            out.write(c);
+            quote = c;
+            startValue(true);
+            state = State.STRING;
+        } else if (c == ')') {
+            out.write(c);
+            state = State.CODE;
+        } else {
+            quote = 0;
+            startValue(true);
+            state = State.URL;
+            url(c);
+        }
+    }
+
+    private void url(char c) throws IOException {
+        if (c == ')') {
+            endValue(false);
+            out.write(c);
+            state = State.CODE;
+        } else if (isWhitespace(c)) {
+            endValue(false);
+            out.write(c);
+            state = State.URL_SKIP;
+        } else if (c == '"' || c == '\'' || c == '(') {
+            // makes a bad URL, which is never rewritten
+            abandonValue();
+            out.write(c);
+            state = State.URL_SKIP;
+        } else {
+            append(c);
+            if (c == '\\') {
+                state = capture ? State.URL_ESCAPE : State.URL_SKIP_ESCAPE;
+            } else if (!capture) {
+                state = State.URL_SKIP;
+            }
+        }
+    }
+
+    private void urlEscape(char c) throws IOException {
+        append(c);
+        if (isHexDigit(c)) {
+            hexDigits = 1;
+            state = State.URL_HEX_ESCAPE;
+        } else {
+            state = State.URL;
+        }
+    }
+
+    /**
+     * A hex escape takes up to six digits and one following whitespace character, which does not end the URL.
+     */
+    private void urlHexEscape(char c) throws IOException {
+        if (isHexDigit(c) && hexDigits < 6) {
+            append(c);
+            hexDigits++;
+        } else if (isWhitespace(c)) {
+            append(c);
+            state = State.URL;
+        } else {
+            state = State.URL;
+            url(c);
+        }
+    }
+
+    private void urlSkip(char c) throws IOException {
+        out.write(c);
+        if (c == ')') {
+            state = State.CODE;
+        } else if (c == '\\') {
+            state = State.URL_SKIP_ESCAPE;
+        }
+    }
+
+    private void startValue(boolean rewritable) {
+        value.setLength(0);
+        capture = rewritable;
+    }
+
+    /**
+     * Holds back characters of a reference that may still be rewritten. The first character already tells whether
+     * {@link RewriteContext#rewriteUrl(String)} could change it, so anything else, such as a {@code data:} URL,
+     * streams straight through.
+     */
+    private void append(char c) throws IOException {
+        if (!capture) {
+            out.write(c);
+            return;
+        }
+        if (value.isEmpty() && c != '/' && c != 'h' && c != 'H' && c != '\\') {
+            abandonValue();
+            out.write(c);
+            return;
+        }
+        value.append(c);
+        if (value.length() > MAX_URL_LENGTH) {
+            abandonValue();
+        }
+    }
+
+    private void abandonValue() throws IOException {
+        if (capture) {
+            out.append(value);
+            value.setLength(0);
+            capture = false;
+        }
+    }
+
+    private void endValue(boolean quoted) throws IOException {
+        if (!capture) {
+            return;
+        }
+        capture = false;
+        String raw = value.toString();
+        value.setLength(0);
+        String url = unescape(raw);
+        String rewritten = context.rewriteUrl(url);
+        if (rewritten.equals(url)) {
+            out.write(raw);
+        } else {
+            writeEscaped(rewritten, quoted);
+        }
+    }
+
+    private void writeEscaped(String url, boolean quoted) throws IOException {
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\f' || (!quoted && (c == ' ' || c == '\t'))) {
+                out.write('\\');
+                out.write(Integer.toHexString(c));
+                out.write(' ');
+            } else if (c == '\\' || (quoted ? c == quote : c == '"' || c == '\'' || c == '(' || c == ')')) {
+                out.write('\\');
+                out.write(c);
+            } else {
+                out.write(c);
+            }
+        }
+    }
+
+    private boolean isKeyword(String name) {
+        return !keywordOverflow && keyword.length() == name.length()
+                && keyword.toString().equalsIgnoreCase(name);
+    }
+
+    private void appendKeyword(char c) {
+        if (keyword.length() < MAX_KEYWORD_LENGTH) {
+            keyword.append(c);
+        } else {
+            keywordOverflow = true;
+        }
+    }
+
+    private void resetKeyword() {
+        keyword.setLength(0);
+        keywordOverflow = false;
+    }
+
+    static String unescape(String value) {
+        int backslash = value.indexOf('\\');
+        if (backslash < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        result.append(value, 0, backslash);
+        int i = backslash;
+        while (i < value.length()) {
+            char c = value.charAt(i++);
+            if (c != '\\') {
+                result.append(c);
+            } else if (i < value.length() && isHexDigit(value.charAt(i))) {
+                int end = i;
+                while (end < value.length() && end - i < 6 && isHexDigit(value.charAt(end))) {
+                    end++;
+                }
+                int codePoint = Integer.parseInt(value, i, end, 16);
+                result.appendCodePoint(codePoint == 0 || codePoint > Character.MAX_CODE_POINT
+                        || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)
+                        ? '\uFFFD' : codePoint);
+                i = end < value.length() && isWhitespace(value.charAt(end)) ? end + 1 : end;
+            } else if (i < value.length() && value.charAt(i) == '\n') {
+                // an escaped newline inside a string is a line continuation
+                i++;
+            } else if (i < value.length()) {
+                result.append(value.charAt(i++));
+            }
+        }
+        return result.toString();
+    }
+
+    private static boolean isNameCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_'
+                || c >= 0x80;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
@@ -0,0 +1,707 @@
+package com.gurskiyy.parser;
+
+import org.jsoup.parser.Parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Single forward pass over an HTML character stream that applies the same rewrites as the jsoup based
+ * {@link HtmlModifier#modifyHtml(String, String, String)}: "™" after every six-letter word in text content
+ * and proxying of the URL attributes listed in {@link UrlAttributes} and of the references in {@code <style>} bodies.
+ * Markup is copied through untouched, so memory is bounded by the read buffer plus the longest tag instead of by the
+ * page size. A {@link HeadListener} hears of the style sheets and scripts of the head and of where the head ends.
+ */
+final class StreamingHtmlRewriter {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_TAG_LENGTH = 16384;
+    private static final int MAX_REFERENCE_LENGTH = 32;
+    private static final int HTTP_EQUIV_SEEN = 1 << UrlAttributes.NAMES.size();
+
+    private static final Set<String> RAW_TEXT_TAGS = Set.of("script", "style");
+    private static final Set<String> ANNOTATED_RAW_TEXT_TAGS = Set.of("xmp", "iframe", "noembed", "noframes");
+    private static final Set<String> RCDATA_TAGS = Set.of("title", "textarea");
+    private static final Set<String> HEAD_TAGS = Set.of("html", "head", "title", "base", "link", "meta", "style",
+            "script", "noscript", "template");
+
+    private enum State {
+        DATA, RCDATA, RAW_TEXT, PLAINTEXT, REFERENCE, TAG_OPEN, END_TAG_OPEN, TAG, TAG_OVERFLOW, DECLARATION,
+        COMMENT, CDATA, BOGUS_COMMENT, RAW_TEXT_END_TAG
+    }
+
+    private final Writer out;
+    private final RewriteContext context;
+    private final HeadListener head;
+    private final CharsetEncoder encoder;
+    private final String trademark;
+    private final StringBuilder markup = new StringBuilder();
+
+    private State state = State.DATA;
+    private State textState = State.DATA;
+    private String rawTextTag;
+    private boolean annotateRawText;
+    private StreamingCssRewriter css;
+    private char quote;
+    private boolean afterEquals;
+    private boolean headOpen;
+
+    private boolean inWord;
+    private boolean lettersOnly;
+    private int letters;
+    private boolean markHasBase;
+    private char highSurrogate;
+
+    /**
+     * @param outputCharset the encoding {@code out} writes; characters it cannot represent, such as "™" in
+     *                      ISO-8859-2, are written as character references
+     */
+    StreamingHtmlRewriter(Writer out, RewriteContext context, Charset outputCharset) {
+        this(out, context, outputCharset, HeadListener.NONE);
+    }
+
+    StreamingHtmlRewriter(Writer out, RewriteContext context, Charset outputCharset, HeadListener head) {
+        this.out = out;
+        this.context = context;
+        this.head = head;
+        this.headOpen = head != HeadListener.NONE;
+        this.encoder = outputCharset.name().startsWith("UTF-") ? null : outputCharset.newEncoder();
+        this.trademark = canEncode(SixLetterWordAnnotator.TRADEMARK)
+                ? String.valueOf(SixLetterWordAnnotator.TRADEMARK) : characterReference(SixLetterWordAnnotator.TRADEMARK);
+    }
+
+    void rewrite(Reader in) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                accept(buffer[i]);
+            }
+        }
+        finish();
+    }
+
+    private void accept(char c) throws IOException {
+        switch (state) {
+            case DATA -> data(c);
+            case RCDATA -> rcdata(c);
+            case REFERENCE -> reference(c);
+            case TAG_OPEN -> tagOpen(c);
+            case END_TAG_OPEN -> endTagOpen(c);
+            case TAG -> tag(c);
+            case TAG_OVERFLOW -> tagOverflow(c);
+            case DECLARATION -> declaration(c);
+            case COMMENT -> comment(c);
+            case CDATA -> cdata(c);
+            case BOGUS_COMMENT -> bogusComment(c);
+            case RAW_TEXT -> rawText(c);
+            case RAW_TEXT_END_TAG -> rawTextEndTag(c);
+            case PLAINTEXT -> text(c, true);
+        }
+    }
+
+    private void data(char c) throws IOException {
+        if (c == '<') {
+            openMarkup(c, State.TAG_OPEN);
+        } else if (c == '&') {
+            openMarkup(c, State.REFERENCE);
+        } else {
+            text(c, true);
+        }
+    }
+
+    private void rcdata(char c) throws IOException {
+        if (c == '<') {
+            openMarkup(c, State.RAW_TEXT_END_TAG);
+        } else if (c == '&') {
+            openMarkup(c, State.REFERENCE);
+        } else {
+            text(c, true);
+        }
+    }
+
+    private void rawText(char c) throws IOException {
+        if (c == '<') {
+            openMarkup(c, State.RAW_TEXT_END_TAG);
+        } else {
+            text(c, annotateRawText);
+        }
+    }
+
+    private void openMarkup(char c, State next) throws IOException {
+        flushHighSurrogate();
+        if (c == '<') {
+            endWord();
+            markHasBase = false;
+        }
+        markup.setLength(0);
+        markup.append(c);
+        state = next;
+    }
+
+    private void reference(char c) throws IOException {
+        if (c == ';' && markup.length() > 1) {
+            markup.append(c);
+            state = textState;
+            characterReference(markup.toString());
+        } else if ((isAsciiLetter(c) || isAsciiDigit(c) || (c == '#' && markup.length() == 1))
+                && markup.length() < MAX_REFERENCE_LENGTH) {
+            markup.append(c);
+        } else {
+            state = textState;
+            annotateMarkup();
+            accept(c);
+        }
+    }
+
+    private void characterReference(String reference) throws IOException {
+        String decoded = Parser.unescapeEntities(reference, false);
+        if (decoded.equals(reference) || decoded.codePointCount(0, decoded.length()) != 1) {
+            annotateMarkup();
+            return;
+        }
+        classify(decoded.codePointAt(0));
+        flushMarkup();
+    }
+
+    private void tagOpen(char c) throws IOException {
+        if (isAsciiLetter(c)) {
+            startTag(c);
+        } else if (c == '/') {
+            markup.append(c);
+            state = State.END_TAG_OPEN;
+        } else if (c == '!') {
+            markup.append(c);
+            state = State.DECLARATION;
+        } else if (c == '?') {
+            markup.append(c);
+            flushMarkup();
+            state = State.BOGUS_COMMENT;
+        } else {
+            state = State.DATA;
+            text('<', true);
+            accept(c);
+        }
+    }
+
+    private void endTagOpen(char c) throws IOException {
+        if (isAsciiLetter(c)) {
+            startTag(c);
+        } else {
+            markup.append(c);
+            flushMarkup();
+            state = c == '>' ? State.DATA : State.BOGUS_COMMENT;
+        }
+    }
+
+    private void startTag(char c) {
+        markup.append(c);
+        quote = 0;
+        afterEquals = false;
+        state = State.TAG;
+    }
+
+    private void tag(char c) throws IOException {
+        markup.append(c);
+        if (quote != 0) {
+            if (c == quote) {
+                quote = 0;
+            }
+        } else if (c == '>') {
+            completeTag();
+            return;
+        } else if (c == '=') {
+            afterEquals = true;
+        } else if ((c == '"' || c == '\'') && afterEquals) {
+            quote = c;
+            afterEquals = false;
+        } else if (!Character.isWhitespace(c)) {
+            afterEquals = false;
+        }
+        if (markup.length() > MAX_TAG_LENGTH) {
+            flushMarkup();
+            state = State.TAG_OVERFLOW;
+        }
+    }
+
+    private void tagOverflow(char c) throws IOException {
+        out.write(c);
+        if (quote != 0) {
+            if (c == quote) {
+                quote = 0;
+            }
+        } else if (c == '>') {
+            state = textState = State.DATA;
+        } else if (c == '=') {
+            afterEquals = true;
+        } else if ((c == '"' || c == '\'') && afterEquals) {
+            quote = c;
+            afterEquals = false;
+        } else if (!Character.isWhitespace(c)) {
+            afterEquals = false;
+        }
+    }
+
+    private void completeTag() throws IOException {
+        String tag = markup.toString();
+        boolean endTag = tag.charAt(1) == '/';
+        int nameStart = endTag ? 2 : 1;
+        int nameEnd = nameStart;
+        while (nameEnd < tag.length() && !isTagNameTerminator(tag.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        String name = tag.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT);
+        if (!endTag) {
+            tag = rewriteAttributes(tag, name, nameEnd);
+        }
+        out.write(tag);
+        markup.setLength(0);
+        state = textState = State.DATA;
+        if (headOpen) {
+            passHead(tag, name, endTag, nameEnd);
+        }
+        if (endTag) {
+            return;
+        }
+        if (RAW_TEXT_TAGS.contains(name) || ANNOTATED_RAW_TEXT_TAGS.contains(name)) {
+            enterText(State.RAW_TEXT, name, ANNOTATED_RAW_TEXT_TAGS.contains(name));
+        } else if (RCDATA_TAGS.contains(name)) {
+            enterText(State.RCDATA, name, true);
+        } else if ("plaintext".equals(name)) {
+            enterText(State.PLAINTEXT, name, true);
+        }
+    }
+
+    /**
+     * The head ends with its end tag or with the first start tag that belongs in the body, as browsers parse it.
+     */
+    private void passHead(String tag, String name, boolean endTag, int nameEnd) throws IOException {
+        if (endTag ? "head".equals(name) : !HEAD_TAGS.contains(name)) {
+            headOpen = false;
+            head.end();
+        } else if (!endTag && "script".equals(name)) {
+            // module scripts would need a modulepreload rather than a preload
+            if (!"module".equalsIgnoreCase(attribute(tag, nameEnd, "type"))) {
+                preload(attribute(tag, nameEnd, "src"), "script");
+            }
+        } else if (!endTag && "link".equals(name)) {
+            String rel = attribute(tag, nameEnd, "rel");
+            if (rel != null && hasToken(rel, "stylesheet") && !hasToken(rel, "alternate")) {
+                preload(attribute(tag, nameEnd, "href"), "style");
+            }
+        }
+    }
+
+    private void preload(String url, String destination) {
+        if (url != null && context.isProxied(url)) {
+            head.preload(url, destination);
+        }
+    }
+
+    private void enterText(State next, String name, boolean annotate) {
+        if ("style".equals(name)) {
+            css = new StreamingCssRewriter(out, context);
+        }
+        rawTextTag = name;
+        annotateRawText = annotate;
+        state = textState = next;
+    }
+
+    private String rewriteAttributes(String tag, String tagName, int from) {
+        List<Replacement> replacements = null;
+        boolean refresh = false;
+        int seen = 0;
+        AttributeScanner attributes = new AttributeScanner(tag, from);
+        while (attributes.next()) {
+            String attributeName = attributes.name();
+            int index = UrlAttributes.NAMES.indexOf(attributeName);
+            // only the first occurrence of an attribute counts, as in the DOM
+            boolean first = index >= 0 && (seen & (1 << index)) == 0;
+            if (first) {
+                seen |= 1 << index;
+            }
+            if (!attributes.hasValue()) {
+                continue;
+            }
+            if (UrlAttributes.HTTP_EQUIV.equals(attributeName) && (seen & HTTP_EQUIV_SEEN) == 0) {
+                seen |= HTTP_EQUIV_SEEN;
+                refresh = UrlAttributes.isRefresh(attributes.value());
+            }
+            UrlAttributes.Kind kind = first ? UrlAttributes.kind(tagName, attributeName) : null;
+            if (kind != null) {
+                if (replacements == null) {
+                    replacements = new ArrayList<>(2);
+                }
+                replacements.add(new Replacement(kind, attributes.valueQuote, attributes.valueStart,
+                        attributes.valueEnd));
+            }
+        }
+        return replacements == null ? tag : replaceValues(tag, replacements, refresh);
+    }
+
+    private String replaceValues(String tag, List<Replacement> replacements, boolean refresh) {
+        StringBuilder result = null;
+        int copied = 0;
+        for (Replacement replacement : replacements) {
+            if (replacement.kind() == UrlAttributes.Kind.REFRESH && !refresh) {
+                continue;
+            }
+            String value = Parser.unescapeEntities(tag.substring(replacement.valueStart(), replacement.valueEnd()), true);
+            String rewritten = UrlAttributes.rewrite(replacement.kind(), value, context);
+            if (rewritten.equals(value)) {
+                continue;
+            }
+            char valueQuote = replacement.quote();
+            char outputQuote = valueQuote != 0 ? valueQuote : '"';
+            int replaceStart = valueQuote != 0 ? replacement.valueStart() - 1 : replacement.valueStart();
+            int replaceEnd = valueQuote != 0 ? replacement.valueEnd() + 1 : replacement.valueEnd();
+            if (result == null) {
+                result = new StringBuilder(tag.length() + rewritten.length());
+            }
+            result.append(tag, copied, replaceStart).append(outputQuote);
+            appendEscapedAttribute(result, rewritten, outputQuote);
+            result.append(outputQuote);
+            copied = replaceEnd;
+        }
+        return result == null ? tag : result.append(tag, copied, tag.length()).toString();
+    }
+
+    private void appendEscapedAttribute(StringBuilder result, String value, char attributeQuote) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '&') {
+                result.append("&amp;");
+            } else if (c == attributeQuote) {
+                result.append(c == '"' ? "&quot;" : "&#39;");
+            } else if (!canEncode(c)) {
+                int codePoint = value.codePointAt(i);
+                result.append(characterReference(codePoint));
+                i += Character.charCount(codePoint) - 1;
+            } else {
+                result.append(c);
+            }
+        }
+    }
+
+    private boolean canEncode(char c) {
+        return c < 0x80 || encoder == null || (!Character.isSurrogate(c) && encoder.canEncode(c));
+    }
+
+    private static String characterReference(int codePoint) {
+        // the same form jsoup uses, so both rewrite modes agree
+        return "&#x" + Integer.toHexString(codePoint) + ";";
+    }
+
+    private void declaration(char c) throws IOException {
+        markup.append(c);
+        String opened = markup.toString();
+        if ("<!--".equals(opened)) {
+            flushMarkup();
+            markup.setLength(0);
+            state = State.COMMENT;
+        } else if ("<![CDATA[".equals(opened)) {
+            flushMarkup();
+            markup.setLength(0);
+            state = State.CDATA;
+        } else if (!"<!-".startsWith(opened) && !"<![CDATA[".startsWith(opened)) {
+            flushMarkup();
+            state = c == '>' ? State.DATA : State.BOGUS_COMMENT;
+        }
+    }
+
+    private void comment(char c) throws IOException {
+        out.write(c);
+        markup.append(c);
+        int length = markup.length();
+        if (c == '>' && (length == 1 || (length == 2 && markup.charAt(0) == '-')
+                || (length >= 3 && markup.charAt(length - 2) == '-' && markup.charAt(length - 3) == '-'))) {
+            markup.setLength(0);
+            state = State.DATA;
+        } else if (length > 3) {
+            markup.delete(0, length - 3);
+        }
+    }
+
+    private void cdata(char c) throws IOException {
+        text(c, true);
+        markup.append(c);
+        int length = markup.length();
+        if (c == '>' && length >= 3 && markup.charAt(length - 2) == ']' && markup.charAt(length - 3) == ']') {
+            markup.setLength(0);
+            state = State.DATA;
+        } else if (length > 3) {
+            markup.delete(0, length - 3);
+        }
+    }
+
+    private void bogusComment(char c) throws IOException {
+        out.write(c);
+        if (c == '>') {
+            state = State.DATA;
+        }
+    }
+
+    private void rawTextEndTag(char c) throws IOException {
+        int position = markup.length();
+        boolean matches = position == 1 ? c == '/'
+                : position - 2 < rawTextTag.length()
+                ? Character.toLowerCase(c) == rawTextTag.charAt(position - 2)
+                : Character.isWhitespace(c) || c == '/' || c == '>';
+        if (!matches) {
+            String pending = markup.toString();
+            state = textState;
+            text(pending.charAt(0), false);
+            for (int i = 1; i < pending.length(); i++) {
+                accept(pending.charAt(i));
+            }
+            accept(c);
+        } else if (position - 2 == rawTextTag.length()) {
+            finishCss();
+            state = State.TAG;
+            quote = 0;
+            afterEquals = false;
+            tag(c);
+        } else {
+            markup.append(c);
+        }
+    }
+
+    /**
+     * Classifies annotated text by code point, as the annotator does, so a high surrogate waits for the char after it.
+     */
+    private void text(char c, boolean annotate) throws IOException {
+        if (annotate) {
+            if (highSurrogate != 0 && Character.isLowSurrogate(c)) {
+                classify(Character.toCodePoint(highSurrogate, c));
+                write(highSurrogate);
+                highSurrogate = 0;
+                write(c);
+                return;
+            }
+            flushHighSurrogate();
+            if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+                return;
+            }
+            classify(c);
+        }
+        write(c);
+    }
+
+    private void flushHighSurrogate() throws IOException {
+        if (highSurrogate != 0) {
+            classify(highSurrogate);
+            write(highSurrogate);
+            highSurrogate = 0;
+        }
+    }
+
+    private void write(char c) throws IOException {
+        if (css != null) {
+            css.write(c);
+        } else {
+            out.write(c);
+        }
+    }
+
+    private void finishCss() throws IOException {
+        if (css != null) {
+            css.finish();
+            css = null;
+        }
+    }
+
+    private void classify(int codePoint) throws IOException {
+        boolean asciiLetter = codePoint < 128 && isAsciiLetter((char) codePoint);
+        boolean word = SixLetterWordAnnotator.isAsciiWord(codePoint)
+                || (markHasBase && SixLetterWordAnnotator.isMark(codePoint));
+        markHasBase = SixLetterWordAnnotator.isBase(codePoint, markHasBase);
+        if (!word) {
+            endWord();
+            return;
+        }
+        if (!inWord) {
+            inWord = true;
+            lettersOnly = true;
+            letters = 0;
+        }
+        if (asciiLetter) {
+            letters++;
+        } else {
+            lettersOnly = false;
+        }
+        if (!Character.isBmpCodePoint(codePoint)) {
+            // a mark in a surrogate pair continues the word, but the regex looks back at its low surrogate alone
+            inWord = false;
+        }
+    }
+
+    private void endWord() throws IOException {
+        if (inWord && lettersOnly && letters == SixLetterWordAnnotator.WORD_LENGTH) {
+            out.write(trademark);
+        }
+        inWord = false;
+    }
+
+    private void finish() throws IOException {
+        flushHighSurrogate();
+        finishCss();
+        switch (state) {
+            case REFERENCE -> annotateMarkup();
+            case TAG_OPEN, END_TAG_OPEN, TAG, DECLARATION, RAW_TEXT_END_TAG -> flushMarkup();
+            default -> {
+                // nothing buffered
+            }
+        }
+        endWord();
+        out.flush();
+    }
+
+    private void annotateMarkup() throws IOException {
+        for (int i = 0; i < markup.length(); i++) {
+            text(markup.charAt(i), true);
+        }
+        markup.setLength(0);
+    }
+
+    private void flushMarkup() throws IOException {
+        out.append(markup);
+        markup.setLength(0);
+    }
+
+    /**
+     * @return the unescaped value of the first {@code name} attribute, empty when it has none, or {@code null} when
+     * the tag lacks the attribute
+     */
+    private static String attribute(String tag, int from, String name) {
+        AttributeScanner attributes = new AttributeScanner(tag, from);
+        while (attributes.next()) {
+            if (attributes.nameIs(name)) {
+                return attributes.value();
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasToken(String list, String token) {
+        for (String candidate : list.split("\\s+")) {
+            if (candidate.equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isTagNameTerminator(char c) {
+        return Character.isWhitespace(c) || c == '/' || c == '>';
+    }
+
+    private static boolean isAttributeNameTerminator(char c) {
+        return Character.isWhitespace(c) || c == '/' || c == '>' || c == '=';
+    }
+
+    private record Replacement(UrlAttributes.Kind kind, char quote, int valueStart, int valueEnd) {
+    }
+
+    /**
+     * Steps through the attributes of a buffered tag, from after its name to before its closing {@code >}. A value
+     * runs to its closing quote, or to the next whitespace when it is unquoted.
+     */
+    private static final class AttributeScanner {
+
+        private final String tag;
+        private final int length;
+        private int position;
+        private int nameStart;
+        private int nameEnd;
+        private char valueQuote;
+        private int valueStart;
+        // -1 for an attribute without a value
+        private int valueEnd;
+
+        AttributeScanner(String tag, int from) {
+            this.tag = tag;
+            this.length = tag.length() - 1;
+            this.position = from;
+        }
+
+        /**
+         * @return whether there is another attribute, which the scanner then stands on
+         */
+        boolean next() {
+            int i = position;
+            while (i < length) {
+                while (i < length && (Character.isWhitespace(tag.charAt(i)) || tag.charAt(i) == '/')) {
+                    i++;
+                }
+                nameStart = i;
+                while (i < length && !isAttributeNameTerminator(tag.charAt(i))) {
+                    i++;
+                }
+                if (i == nameStart) {
+                    i++;
+                    continue;
+                }
+                nameEnd = i;
+                while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                    i++;
+                }
+                if (i >= length || tag.charAt(i) != '=') {
+                    valueQuote = 0;
+                    valueStart = valueEnd = -1;
+                    position = i;
+                    return true;
+                }
+                i++;
+                while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                    i++;
+                }
+                valueQuote = i < length && (tag.charAt(i) == '"' || tag.charAt(i) == '\'') ? tag.charAt(i) : 0;
+                valueStart = valueQuote != 0 ? i + 1 : i;
+                valueEnd = valueStart;
+                while (valueEnd < length && (valueQuote != 0 ? tag.charAt(valueEnd) != valueQuote
+                        : !Character.isWhitespace(tag.charAt(valueEnd)))) {
+                    valueEnd++;
+                }
+                position = valueQuote != 0 ? valueEnd + 1 : valueEnd;
+                return true;
+            }
+            position = i;
+            return false;
+        }
+
+        String name() {
+            return tag.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT);
+        }
+
+        boolean nameIs(String name) {
+            return nameEnd - nameStart == name.length() && tag.regionMatches(true, nameStart, name, 0, name.length());
+        }
+
+        boolean hasValue() {
+            return valueEnd >= 0;
+        }
+
+        /**
+         * @return the unescaped value, empty for an attribute without one
+         */
+        String value() {
+            return hasValue() ? Parser.unescapeEntities(tag.substring(valueStart, valueEnd), true) : "";
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.gurskiyy.parser;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The attributes that carry URLs to keep inside the proxy, including inline {@code style} declarations, shared by
+ * the DOM and the streaming rewrite so both modes rewrite exactly the same places.
+ */
+final class UrlAttributes {
+
+    enum Kind {
+        URL, SRCSET, REFRESH, CSS
+    }
+
+    static final String HTTP_EQUIV = "http-equiv";
+
+    private static final Set<String> SRC_TAGS = Set.of("img", "script", "iframe", "frame", "embed", "source", "track",
+            "audio", "video", "input");
+
+    /**
+     * Every attribute name {@link #kind(String, String)} may accept, for lookups on a parsed element.
+     */
+    static final List<String> NAMES = List.of("href", "src", "srcset", "action", "poster", "content", "style");
+
+    private UrlAttributes() {
+    }
+
+    /**
+     * @param tagName       lower case element name
+     * @param attributeName lower case attribute name
+     * @return how to rewrite the attribute's value, or {@code null} to leave it alone; {@link Kind#REFRESH} only
+     * applies when the element also has {@code http-equiv="refresh"}
+     */
+    static Kind kind(String tagName, String attributeName) {
+        return switch (attributeName) {
+            case "src" -> SRC_TAGS.contains(tagName) ? Kind.URL : null;
+            case "href" -> "a".equals(tagName) || "area".equals(tagName) || "link".equals(tagName) ? Kind.URL : null;
+            case "srcset" -> "img".equals(tagName) || "source".equals(tagName) ? Kind.SRCSET : null;
+            case "action" -> "form".equals(tagName) ? Kind.URL : null;
+            case "poster" -> "video".equals(tagName) ? Kind.URL : null;
+            case "content" -> "meta".equals(tagName) ? Kind.REFRESH : null;
+            case "style" -> Kind.CSS;
+            default -> null;
+        };
+    }
+
+    static boolean isRefresh(String httpEquiv) {
+        return "refresh".equalsIgnoreCase(httpEquiv.strip());
+    }
+
+    static String rewrite(Kind kind, String value, RewriteContext context) {
+        return switch (kind) {
+            case URL -> context.rewriteUrl(value);
+            case SRCSET -> context.rewriteSrcset(value);
+            case REFRESH -> context.rewriteRefresh(value);
+            case CSS -> StreamingCssRewriter.rewrite(value, context);
+        };
+    }
+}
@@ -0,0 +1,76 @@
+package com.gurskiyy.resource;
+
+/**
+ * A single byte range of a {@code Range} header, resolved against a body of known length. Headers asking for
+ * several ranges, or that cannot be parsed, are ignored and the whole body is sent, as RFC 9110 allows.
+ */
+record ByteRange(long first, long last) {
+
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * @return the range, {@link #UNSATISFIABLE} when it lies past the end of the body, or {@code null} when the
+     * header should be ignored
+     */
+    static ByteRange parse(String header, long length) {
+        if (header == null || !header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+        String spec = header.substring(BYTES_UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        String firstDigits = spec.substring(0, dash).trim();
+        String lastDigits = spec.substring(dash + 1).trim();
+        if (firstDigits.isEmpty()) {
+            // a suffix range, the last bytes of the body
+            long suffix = parseLong(lastDigits);
+            if (suffix < 0) {
+                return null;
+            }
+            return suffix == 0 || length == 0 ? UNSATISFIABLE : new ByteRange(Math.max(0, length - suffix), length - 1);
+        }
+        long first = parseLong(firstDigits);
+        long last = lastDigits.isEmpty() ? length - 1 : parseLong(lastDigits);
+        if (first < 0 || !lastDigits.isEmpty() && last < first) {
+            return null;
+        }
+        if (first >= length) {
+            return UNSATISFIABLE;
+        }
+        return new ByteRange(first, Math.min(last, length - 1));
+    }
+
+    boolean isSatisfiable() {
+        return first >= 0;
+    }
+
+    long length() {
+        return last - first + 1;
+    }
+
+    String contentRange(long total) {
+        return isSatisfiable() ? "bytes " + first + "-" + last + "/" + total : "bytes */" + total;
+    }
+
+    /**
+     * @return the digits as a number, or {@code -1} when empty or not a number
+     */
+    private static long parseLong(String digits) {
+        if (digits.isEmpty() || digits.length() > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
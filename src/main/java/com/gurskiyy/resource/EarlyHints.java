@@ -0,0 +1,186 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.parser.HeadListener;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.quarkus.vertx.http.runtime.CurrentVertxRequest;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Gets the style sheets and scripts of a page to the browser before the page itself. With
+ * {@code proxy.html.flush-head} the rewritten head is flushed as soon as it is complete, instead of when the write
+ * buffer fills up. With {@code proxy.html.early-hints.enabled} the style sheets and scripts found in a page's head
+ * are remembered, and the next request for the page is answered with a {@code 103 Early Hints} listing them as
+ * {@code Link: rel=preload} while the page is fetched, and with the same {@code Link} header on the page.
+ */
+@ApplicationScoped
+public class EarlyHints {
+
+    private static final Consumer<String> NO_CLIENT = link -> {
+    };
+
+    private final boolean flushHead;
+    private final boolean enabled;
+    private final int maxLinks;
+    private final int maxPages;
+    private final Supplier<Consumer<String>> clients;
+    private final Map<String, String> links = new ConcurrentHashMap<>();
+    private final LongAdder sent = new LongAdder();
+
+    @Inject
+    public EarlyHints(@ConfigProperty(name = "proxy.html.flush-head", defaultValue = "true") boolean flushHead,
+                      @ConfigProperty(name = "proxy.html.early-hints.enabled", defaultValue = "false") boolean enabled,
+                      @ConfigProperty(name = "proxy.html.early-hints.max-links", defaultValue = "8") int maxLinks,
+                      @ConfigProperty(name = "proxy.html.early-hints.max-pages", defaultValue = "4096") int maxPages,
+                      CurrentVertxRequest currentRequest, MeterRegistry registry) {
+        this(flushHead, enabled, maxLinks, maxPages, () -> {
+            RoutingContext context = currentRequest.getCurrent();
+            return link -> writeEarlyHints(context, link);
+        }, registry);
+    }
+
+    /**
+     * @param clients binds a sender, which writes a {@code 103} response with the given {@code Link} header, to the
+     *                client of the current request; only called on the thread the request arrived on
+     */
+    EarlyHints(boolean flushHead, boolean enabled, int maxLinks, int maxPages, Supplier<Consumer<String>> clients,
+               MeterRegistry registry) {
+        this.flushHead = flushHead;
+        this.enabled = enabled;
+        this.maxLinks = maxLinks;
+        this.maxPages = maxPages;
+        this.clients = clients;
+        FunctionCounter.builder("proxy.early.hints.sent", sent, LongAdder::sum)
+                .description("103 Early Hints responses sent ahead of a page")
+                .register(registry);
+    }
+
+    /**
+     * Neither flushes the head nor sends hints, for components created outside the container.
+     */
+    public static EarlyHints disabled() {
+        return new EarlyHints(false, false, 0, 0, () -> NO_CLIENT, new CompositeMeterRegistry());
+    }
+
+    /**
+     * @param page the cache key of the page, or {@code null} when its links must not be remembered, such as for
+     *             the response to a POST
+     * @param out  where the rewritten page is written
+     */
+    HeadListener listener(String page, Writer out) {
+        if (!flushHead && (!enabled || page == null)) {
+            return HeadListener.NONE;
+        }
+        return new Head(page, out);
+    }
+
+    /**
+     * @return the {@code Link} header learned from the page's head, or {@code null}
+     */
+    String link(String page) {
+        return enabled ? links.get(page) : null;
+    }
+
+    /**
+     * The request context is gone once a request continues on another thread, so the client hints are sent to is
+     * looked up while it is still active.
+     *
+     * @return the sender of hints to the client of the current request
+     */
+    Consumer<String> client() {
+        return enabled ? clients.get() : NO_CLIENT;
+    }
+
+    /**
+     * Sends a {@code 103} with the links learned for the page, before its request goes upstream.
+     *
+     * @param client from {@link #client()} on the request's own thread
+     */
+    void announce(String page, Consumer<String> client) {
+        String link = link(page);
+        if (link != null) {
+            client.accept(link);
+            sent.increment();
+        }
+    }
+
+    private static void writeEarlyHints(RoutingContext context, String link) {
+        if (context == null) {
+            return;
+        }
+        HttpServerResponse response = context.response();
+        // HTTP/1.0 clients do not expect interim responses
+        if (context.request().version() != HttpVersion.HTTP_1_0 && !response.headWritten()) {
+            response.writeEarlyHints(MultiMap.caseInsensitiveMultiMap().add("Link", link));
+        }
+    }
+
+    private final class Head implements HeadListener {
+
+        private final String page;
+        private final Writer out;
+        private StringBuilder link;
+        private int count;
+
+        Head(String page, Writer out) {
+            this.page = page;
+            this.out = out;
+        }
+
+        @Override
+        public void preload(String url, String destination) {
+            if (!enabled || page == null || count >= maxLinks || !isHeaderSafe(url)) {
+                return;
+            }
+            if (link == null) {
+                link = new StringBuilder(256);
+            } else {
+                link.append(", ");
+            }
+            link.append('<').append(url).append(">; rel=preload; as=").append(destination);
+            count++;
+        }
+
+        @Override
+        public void end() throws IOException {
+            if (enabled && page != null) {
+                if (link == null) {
+                    links.remove(page);
+                } else if (links.size() < maxPages || links.containsKey(page)) {
+                    links.put(page, link.toString());
+                }
+            }
+            if (flushHead) {
+                out.flush();
+            }
+        }
+
+        /**
+         * Link targets are written between angle brackets in a header, which takes printable ASCII only.
+         */
+        private static boolean isHeaderSafe(String url) {
+            for (int i = 0; i < url.length(); i++) {
+                char c = url.charAt(i);
+                if (c <= ' ' || c >= 0x7f || c == '>') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
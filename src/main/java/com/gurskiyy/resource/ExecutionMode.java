@@ -0,0 +1,7 @@
+package com.gurskiyy.resource;
+
+public enum ExecutionMode {
+    WORKER,
+    ASYNC,
+    VIRTUAL
+}
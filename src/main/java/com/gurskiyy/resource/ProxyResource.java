@@ -1,100 +1,899 @@
 package com.gurskiyy.resource;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URI;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
-import java.util.regex.Pattern;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+import com.gurskiyy.admission.AdmissionController;
+import com.gurskiyy.cache.CachedResponse;
+import com.gurskiyy.cache.CapturingOutputStream;
+import com.gurskiyy.cache.DiskCache;
+import com.gurskiyy.cache.RequestCoalescer;
+import com.gurskiyy.cache.ResponseCache;
+import com.gurskiyy.cache.RewrittenPage;
+import com.gurskiyy.cache.SingleFlight;
+import com.gurskiyy.config.ExecutorProducer;
+import com.gurskiyy.encoding.ContentCharset;
+import com.gurskiyy.encoding.ContentCoding;
 import com.gurskiyy.parser.HtmlModifier;
+import com.gurskiyy.parser.RewriteMode;
 import com.gurskiyy.exception.ProxyException;
+import com.gurskiyy.exception.ServiceUnavailableException;
+import com.gurskiyy.client.ForwardedHeaders;
+import com.gurskiyy.client.ForwardedRequest;
 import com.gurskiyy.client.HttpProxyClient;
+import com.gurskiyy.client.RangeRequest;
+import com.gurskiyy.client.TargetCookies;
+import com.gurskiyy.client.Validators;
 import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.OPTIONS;
+import jakarta.ws.rs.PATCH;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.*;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 @Path("/{path:.*}")
 public class ProxyResource {
 
-    private static final String DEFAULT_TARGET = "https://quarkus.io";
+    public static final String DEFAULT_TARGET = "https://quarkus.io";
+    private static final int NOT_MODIFIED = Response.Status.NOT_MODIFIED.getStatusCode();
+    private static final int PARTIAL_CONTENT = Response.Status.PARTIAL_CONTENT.getStatusCode();
+    private static final int RANGE_NOT_SATISFIABLE = Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE.getStatusCode();
+    /**
+     * Headers of passed through bodies that let clients resume or split a download.
+     */
+    private static final List<String> RANGE_HEADERS =
+            List.of("Accept-Ranges", "Content-Range", "ETag", "Last-Modified");
+    /**
+     * Upstream headers a client needs to keep a session, log in or learn the allowed methods. They are never part
+     * of a cached response, since responses that set cookies are not cached.
+     */
+    private static final List<String> FORWARDED_RESPONSE_HEADERS = List.of("Set-Cookie", "WWW-Authenticate", "Allow");
 
     private final HtmlModifier htmlModifier;
     private final HttpProxyClient httpProxyClient;
+    private final RewriteMode rewriteMode;
+    private final int chunkSize;
+    private final Duration writeStartTimeout;
+    private final ExecutionMode executionMode;
+    private final Executor rewriteExecutor;
+    private final Executor virtualExecutor;
+    private final ResponseCache responseCache;
+    private final DiskCache diskCache;
+    private final RequestCoalescer requestCoalescer;
+    private final AdmissionController admission;
+    private final TargetIndex targets;
+    private final EarlyHints earlyHints;
 
     @Inject
-    public ProxyResource(HtmlModifier htmlModifier, HttpProxyClient httpProxyClient) {
+    public ProxyResource(HtmlModifier htmlModifier, HttpProxyClient httpProxyClient, ResponseCache responseCache,
+                         DiskCache diskCache, RequestCoalescer requestCoalescer, AdmissionController admission,
+                         TargetIndex targets, EarlyHints earlyHints,
+                         @ConfigProperty(name = "proxy.html.rewrite-mode", defaultValue = "streaming")
+                         RewriteMode rewriteMode,
+                         @ConfigProperty(name = "proxy.streaming.chunk-size", defaultValue = "8192") int chunkSize,
+                         @ConfigProperty(name = "proxy.streaming.write-start-timeout", defaultValue = "30s")
+                         Duration writeStartTimeout,
+                         @ConfigProperty(name = "proxy.execution.mode", defaultValue = "worker")
+                         ExecutionMode executionMode,
+                         @Named(ExecutorProducer.REWRITE_EXECUTOR) Executor rewriteExecutor,
+                         @Named(ExecutorProducer.VIRTUAL_EXECUTOR) Executor virtualExecutor) {
         this.htmlModifier = htmlModifier;
         this.httpProxyClient = httpProxyClient;
+        this.rewriteMode = rewriteMode;
+        this.chunkSize = chunkSize;
+        this.writeStartTimeout = writeStartTimeout;
+        this.executionMode = executionMode;
+        this.rewriteExecutor = rewriteExecutor;
+        this.virtualExecutor = virtualExecutor;
+        this.responseCache = responseCache;
+        this.diskCache = diskCache;
+        this.requestCoalescer = requestCoalescer;
+        this.admission = admission;
+        this.targets = targets;
+        this.earlyHints = earlyHints;
     }
 
     @GET
-    public Response proxyGet(@QueryParam("target") String targetDomain, @Context UriInfo uriInfo) {
-        final String target = (targetDomain == null || targetDomain.isEmpty()) ? DEFAULT_TARGET : targetDomain;
+    public CompletionStage<Response> proxyGet(@QueryParam("target") String targetDomain,
+                                              @HeaderParam("Accept-Encoding") String acceptEncoding,
+                                              @HeaderParam("Range") String range,
+                                              @HeaderParam("If-Range") String ifRange,
+                                              @Context jakarta.ws.rs.core.HttpHeaders requestHeaders,
+                                              @Context UriInfo uriInfo) {
+        Target target = targets.resolve(targetOrDefault(targetDomain));
         URI targetUri = buildTargetUri(uriInfo, target);
-        HttpResponse<byte[]> response = httpProxyClient.sendRequest(targetUri);
-        return processResponse(response, uriInfo, target);
+        ProxyRequest request = new ProxyRequest(targetUri, uriInfo.getBaseUri().toString(), target, acceptEncoding,
+                RangeRequest.of(range, ifRange),
+                ForwardedRequest.get(forwardedHeaders(requestHeaders, uriInfo, targetUri)), null);
+        if (!request.usesSharedCache()) {
+            return fromCacheOrUpstream(request, null, null);
+        }
+        Consumer<String> client = earlyHints.client();
+        if (executionMode == ExecutionMode.ASYNC) {
+            // the shared store is looked up over the network
+            return unwrapFailure(responseCache.getAsync(request.cacheKey(), virtualExecutor)
+                    .thenCompose(cached -> fromCacheOrUpstream(request, cached, client)));
+        }
+        return fromCacheOrUpstream(request, responseCache.get(request.cacheKey()), client);
+    }
+
+    /**
+     * @param cached the fresh page the response cache had, if any
+     * @param client where early hints for the page are sent, bound to the client while its request was current
+     */
+    private CompletionStage<Response> fromCacheOrUpstream(ProxyRequest request, CachedResponse cached,
+                                                          Consumer<String> client) {
+        if (request.usesSharedCache()) {
+            if (cached != null) {
+                return CompletableFuture.completedFuture(fromPage(cached.page(), request));
+            }
+            DiskCache.Entry stored = diskCache.get(request.targetUri());
+            if (stored != null) {
+                return CompletableFuture.completedFuture(fromDisk(stored, request));
+            }
+            earlyHints.announce(request.cacheKey(), client);
+        }
+        // a ranged request usually asks for a large asset, which is never shared, rather than for a page; a request
+        // with cookies may get a page meant for its client only
+        if (!requestCoalescer.isEnabled() || !request.range().isEmpty()
+                || request.forwarded().headers().hasCredentials()) {
+            return fetch(request);
+        }
+        SingleFlight.Flight<RewrittenPage> flight = requestCoalescer.join(request.cacheKey());
+        if (!flight.leader()) {
+            // the leader may complete on its own worker thread, a blocking fallback fetch must not run there
+            return flight.result().thenComposeAsync(page -> page != null
+                    ? CompletableFuture.completedFuture(fromPage(page, request)) : fetch(request), virtualExecutor);
+        }
+        ProxyRequest leader = request.sharingWith(flight.result());
+        try {
+            return fetch(leader).whenComplete((response, error) -> {
+                if (error != null) {
+                    leader.share(null);
+                }
+            });
+        } catch (RuntimeException e) {
+            leader.share(null);
+            throw e;
+        }
     }
 
-    private Response processResponse(HttpResponse<byte[]> response, UriInfo uriInfo, String target) {
+    @POST
+    public CompletionStage<Response> proxyPost(@QueryParam("target") String targetDomain,
+                                               @HeaderParam("Accept-Encoding") String acceptEncoding,
+                                               @Context jakarta.ws.rs.core.HttpHeaders requestHeaders,
+                                               @Context UriInfo uriInfo, InputStream body) {
+        return forward("POST", targetDomain, acceptEncoding, requestHeaders, uriInfo, body);
+    }
+
+    @PUT
+    public CompletionStage<Response> proxyPut(@QueryParam("target") String targetDomain,
+                                              @HeaderParam("Accept-Encoding") String acceptEncoding,
+                                              @Context jakarta.ws.rs.core.HttpHeaders requestHeaders,
+                                              @Context UriInfo uriInfo, InputStream body) {
+        return forward("PUT", targetDomain, acceptEncoding, requestHeaders, uriInfo, body);
+    }
+
+    @PATCH
+    public CompletionStage<Response> proxyPatch(@QueryParam("target") String targetDomain,
+                                                @HeaderParam("Accept-Encoding") String acceptEncoding,
+                                                @Context jakarta.ws.rs.core.HttpHeaders requestHeaders,
+                                                @Context UriInfo uriInfo, InputStream body) {
+        return forward("PATCH", targetDomain, acceptEncoding, requestHeaders, uriInfo, body);
+    }
+
+    @DELETE
+    public CompletionStage<Response> proxyDelete(@QueryParam("target") String targetDomain,
+                                                 @HeaderParam("Accept-Encoding") String acceptEncoding,
+                                                 @Context jakarta.ws.rs.core.HttpHeaders requestHeaders,
+                                                 @Context UriInfo uriInfo, InputStream body) {
+        return forward("DELETE", targetDomain, acceptEncoding, requestHeaders, uriInfo, body);
+    }
+
+    @OPTIONS
+    public CompletionStage<Response> proxyOptions(@QueryParam("target") String targetDomain,
+                                                  @HeaderParam("Accept-Encoding") String acceptEncoding,
+                                                  @Context jakarta.ws.rs.core.HttpHeaders requestHeaders,
+                                                  @Context UriInfo uriInfo, InputStream body) {
+        return forward("OPTIONS", targetDomain, acceptEncoding, requestHeaders, uriInfo, body);
+    }
+
+    /**
+     * Sends a request other than GET on with its headers, streaming its body from the client as the upstream reads
+     * it. These requests are never cached or shared, a page they get back is rewritten like any other.
+     */
+    private CompletionStage<Response> forward(String method, String targetDomain, String acceptEncoding,
+                                              jakarta.ws.rs.core.HttpHeaders requestHeaders, UriInfo uriInfo,
+                                              InputStream body) {
+        Target target = targets.resolve(targetOrDefault(targetDomain));
+        URI targetUri = buildTargetUri(uriInfo, target);
+        ForwardedRequest forwarded = new ForwardedRequest(method,
+                forwardedHeaders(requestHeaders, uriInfo, targetUri), body);
+        return fetch(new ProxyRequest(targetUri, uriInfo.getBaseUri().toString(), target, acceptEncoding,
+                RangeRequest.NONE, forwarded, null));
+    }
+
+    private String targetOrDefault(String targetDomain) {
+        return (targetDomain == null || targetDomain.isEmpty()) ? DEFAULT_TARGET : targetDomain;
+    }
+
+    private ForwardedHeaders forwardedHeaders(jakarta.ws.rs.core.HttpHeaders requestHeaders, UriInfo uriInfo,
+                                              URI targetUri) {
+        if (requestHeaders == null) {
+            return ForwardedHeaders.NONE;
+        }
+        return ForwardedHeaders.from(requestHeaders.getRequestHeaders(), origin(uriInfo.getBaseUri()),
+                origin(targetUri));
+    }
+
+    private static String origin(URI uri) {
+        return uri.getScheme() + "://" + uri.getRawAuthority();
+    }
+
+    /**
+     * Cache hits and coalesced followers cost next to nothing, only requests that go upstream need a slot. The slot is
+     * held until the response is ready to be written.
+     */
+    private CompletionStage<Response> fetch(ProxyRequest request) {
+        AdmissionController.Lane lane = AdmissionController.Lane.of(request.targetUri().getPath());
+        if (executionMode == ExecutionMode.ASYNC) {
+            // a request over the limit waits for a slot without holding a thread
+            return unwrapFailure(admission.tryAdmit(lane).thenCompose(ticket -> fetch(request, ticket)));
+        }
+        return fetch(request, admission.admit(lane));
+    }
+
+    private CompletionStage<Response> fetch(ProxyRequest request, AdmissionController.Ticket ticket) {
+        CompletionStage<Response> response;
+        try {
+            response = fetchUpstream(request);
+        } catch (RuntimeException e) {
+            ticket.release(false);
+            throw e;
+        }
+        return unwrapFailure(response.toCompletableFuture().whenComplete((result, error) ->
+                ticket.release(error == null)));
+    }
+
+    private CompletionStage<Response> fetchUpstream(ProxyRequest request) {
+        CachedResponse stale = request.usesSharedCache() ? responseCache.getStale(request.cacheKey()) : null;
+        Validators validators = stale != null ? stale.validators() : Validators.NONE;
+        return switch (executionMode) {
+            case ASYNC -> unwrapFailure(sendAsync(request, validators)
+                    .thenCompose(response -> processAsync(response, request, stale)));
+            case VIRTUAL -> unwrapFailure(CompletableFuture.supplyAsync(
+                    () -> processResponse(send(request, validators), request, stale), virtualExecutor));
+            case WORKER -> CompletableFuture.completedFuture(
+                    processResponse(send(request, validators), request, stale));
+        };
+    }
+
+    private HttpResponse<InputStream> send(ProxyRequest request, Validators validators) {
+        HttpResponse<InputStream> response =
+                httpProxyClient.sendRequest(request.targetUri(), request.forwarded(), validators, request.range());
+        if (!needsWholeBody(response, request)) {
+            return response;
+        }
+        closeBody(response);
+        return httpProxyClient.sendRequest(request.targetUri(), request.forwarded(), validators, RangeRequest.NONE);
+    }
+
+    /**
+     * Only pages and style sheets are read into memory before the response completes, any other body is streamed.
+     */
+    private CompletableFuture<HttpResponse<Object>> sendAsync(ProxyRequest request, Validators validators) {
+        return httpProxyClient.sendRequestAsync(request.targetUri(), request.forwarded(), validators, request.range(),
+                        this::isRewritable)
+                .thenCompose(response -> {
+                    if (!needsWholeBody(response, request)) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    if (response.body() instanceof InputStream body) {
+                        closeQuietly(body);
+                    }
+                    return httpProxyClient.sendRequestAsync(request.targetUri(), request.forwarded(), validators,
+                            RangeRequest.NONE, this::isRewritable);
+                });
+    }
+
+    /**
+     * Pages and style sheets arrived whole and are rewritten on the rewrite pool, any other body is streamed from a
+     * virtual thread, as reading it blocks.
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Response> processAsync(HttpResponse<Object> response, ProxyRequest request,
+                                                     CachedResponse stale) {
+        if (response.body() instanceof byte[] body) {
+            return CompletableFuture.supplyAsync(() -> processBufferedResponse(response, body, request, stale),
+                    rewriteExecutor);
+        }
+        HttpResponse<InputStream> streamed = (HttpResponse<InputStream>) (HttpResponse<?>) response;
+        try {
+            return CompletableFuture.supplyAsync(() -> processResponse(streamed, request, stale), virtualExecutor);
+        } catch (RejectedExecutionException e) {
+            closeBody(streamed);
+            throw e;
+        }
+    }
+
+    /**
+     * A part of a page or style sheet cannot be rewritten, and a part of a body in a coding the client does not
+     * accept cannot be decoded, so for those the range is dropped and the whole body fetched.
+     */
+    private boolean needsWholeBody(HttpResponse<?> response, ProxyRequest request) {
+        if (response.statusCode() != PARTIAL_CONTENT || request.range().isEmpty()) {
+            return false;
+        }
+        return isRewritable(response.headers()) || !isPassThrough(contentEncoding(response.headers()), request);
+    }
+
+    private boolean isRewritable(HttpHeaders headers) {
+        String contentType = contentType(headers);
+        return isHtml(contentType) || isCss(contentType);
+    }
+
+    private CompletionStage<Response> unwrapFailure(CompletableFuture<Response> stage) {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        stage.whenComplete((response, error) -> {
+            if (error == null) {
+                result.complete(response);
+            } else {
+                result.completeExceptionally(unwrap(error));
+            }
+        });
+        return result;
+    }
+
+    private Throwable unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException) {
+            return new ServiceUnavailableException("Proxy executor is saturated", Duration.ofSeconds(1), cause);
+        }
+        return cause;
+    }
+
+    private Response processResponse(HttpResponse<InputStream> response, ProxyRequest request,
+                                     CachedResponse stale) {
+        return withUpstreamHeaders(route(response, request, stale), response.headers(), request);
+    }
+
+    private Response route(HttpResponse<InputStream> response, ProxyRequest request, CachedResponse stale) {
+        int statusCode = response.statusCode();
+        if (statusCode == NOT_MODIFIED) {
+            closeBody(response);
+            return handleNotModified(response.headers(), request, stale);
+        }
+        if (isRedirect(statusCode)) {
+            closeBody(response);
+            request.share(null);
+            return handleRedirect(response.headers(), request, statusCode);
+        }
+        if (statusCode == RANGE_NOT_SATISFIABLE) {
+            closeBody(response);
+            request.share(null);
+            return rangeNotSatisfiable(response.headers());
+        }
+        return handleContent(response, request);
+    }
+
+    private Response processBufferedResponse(HttpResponse<?> response, byte[] body, ProxyRequest request,
+                                             CachedResponse stale) {
+        return withUpstreamHeaders(routeBuffered(response, body, request, stale), response.headers(), request);
+    }
+
+    /**
+     * Routes a page or style sheet read into memory.
+     */
+    private Response routeBuffered(HttpResponse<?> response, byte[] body, ProxyRequest request, CachedResponse stale) {
         int statusCode = response.statusCode();
-        return isRedirect(statusCode) ? handleRedirect(response, uriInfo, target, statusCode)
-                : handleContent(response, uriInfo, target);
+        if (statusCode == NOT_MODIFIED) {
+            return handleNotModified(response.headers(), request, stale);
+        }
+        if (isRedirect(statusCode)) {
+            request.share(null);
+            return handleRedirect(response.headers(), request, statusCode);
+        }
+        if (statusCode == RANGE_NOT_SATISFIABLE) {
+            request.share(null);
+            return rangeNotSatisfiable(response.headers());
+        }
+        String contentType = contentType(response.headers());
+        byte[] text = decode(body, contentEncoding(response.headers()));
+        Charset charset = ContentCharset.detect(text, contentType);
+        String rewrittenType = ContentCharset.withCharset(contentType, charset);
+        if (isCss(contentType)) {
+            byte[] rewritten = rewriteCss(text, charset, request);
+            publish(response, request, rewrittenType, rewritten);
+            return Response.ok(rewritten, rewrittenType).build();
+        }
+        byte[] rewritten = rewriteHtml(text, charset, request);
+        publish(response, request, rewrittenType, rewritten);
+        return withPreloads(Response.ok(rewritten, rewrittenType), request).build();
     }
 
     private boolean isRedirect(int statusCode) {
-        return statusCode >= 300 && statusCode < 400;
+        return statusCode >= 300 && statusCode < 400 && statusCode != NOT_MODIFIED;
+    }
+
+    private Response handleNotModified(HttpHeaders headers, ProxyRequest request, CachedResponse stale) {
+        if (stale == null) {
+            request.share(null);
+            return Response.notModified().build();
+        }
+        RewrittenPage page = responseCache.revalidate(request.cacheKey(), request.targetUri(), headers, stale).page();
+        request.share(page);
+        return fromPage(page, request);
+    }
+
+    /**
+     * Serves a page held in memory, or the part of it the client asked for. Rewritten pages carry no validators
+     * of their own, so a conditional range can never match and gets the whole page.
+     */
+    private Response fromPage(RewrittenPage page, ProxyRequest request) {
+        byte[] body = page.body();
+        ByteRange range = requestedRange(request, body.length);
+        if (range == null) {
+            return Response.ok(body, page.contentType()).build();
+        }
+        return part(range, body.length, page.contentType(),
+                (output, first, count) -> output.write(body, (int) first, (int) count)).build();
+    }
+
+    /**
+     * Serves a body from the disk cache, in the coding it was stored in when the client accepts it. Only bodies
+     * stored without a coding are cut into ranges, and since no validators are kept a conditional range gets the
+     * whole body. The entry is closed once its body was written.
+     */
+    private Response fromDisk(DiskCache.Entry entry, ProxyRequest request) {
+        String contentEncoding = entry.contentEncoding();
+        if (!isPassThrough(contentEncoding, request)) {
+            StreamingOutput decoded = output -> {
+                try (InputStream in = ContentCoding.decode(entry.openStream(), contentEncoding)) {
+                    copy(in, output, null);
+                }
+            };
+            return Response.ok(closingAfter(decoded, entry), entry.contentType()).build();
+        }
+        boolean identity = ContentCoding.isIdentity(contentEncoding);
+        ByteRange range = identity ? requestedRange(request, entry.length()) : null;
+        Response.ResponseBuilder builder;
+        if (range == null) {
+            StreamingOutput whole = output -> entry.transferTo(0, entry.length(), output);
+            builder = encoded(Response.ok(closingAfter(whole, entry), entry.contentType()), contentEncoding)
+                    .header("Content-Length", entry.length());
+        } else if (range.isSatisfiable()) {
+            StreamingOutput part = closingAfter(output -> entry.transferTo(range.first(), range.length(), output),
+                    entry);
+            builder = part(range, entry.length(), entry.contentType(), (output, first, count) -> part.write(output));
+        } else {
+            entry.close();
+            builder = part(range, entry.length(), entry.contentType(), null);
+        }
+        return (identity ? builder.header("Accept-Ranges", "bytes") : builder).build();
+    }
+
+    private StreamingOutput closingAfter(StreamingOutput body, DiskCache.Entry entry) {
+        return releasedIfUnwritten(output -> {
+            try {
+                body.write(output);
+            } finally {
+                entry.close();
+            }
+        }, entry::close);
     }
 
-    private Response handleRedirect(HttpResponse<byte[]> response, UriInfo uriInfo, String target, int statusCode) {
-        String originalLocation = response.headers().firstValue("Location").orElse("");
-        if (!originalLocation.isEmpty() && originalLocation.startsWith(target)) {
-            String rewrittenLocation = rewriteRedirect(originalLocation, uriInfo.getBaseUri().toString(), target);
+    private ByteRange requestedRange(ProxyRequest request, long length) {
+        return request.range().ifRange() == null ? ByteRange.parse(request.range().range(), length) : null;
+    }
+
+    private Response.ResponseBuilder part(ByteRange range, long length, String contentType, BodyPart body) {
+        if (!range.isSatisfiable()) {
+            return Response.status(RANGE_NOT_SATISFIABLE).header("Content-Range", range.contentRange(length));
+        }
+        StreamingOutput part = output -> body.write(output, range.first(), range.length());
+        return Response.status(PARTIAL_CONTENT).entity(part).type(contentType)
+                .header("Content-Range", range.contentRange(length))
+                .header("Content-Length", range.length());
+    }
+
+    private Response rangeNotSatisfiable(HttpHeaders headers) {
+        Response.ResponseBuilder builder = Response.status(RANGE_NOT_SATISFIABLE);
+        headers.firstValue("Content-Range").ifPresent(contentRange -> builder.header("Content-Range", contentRange));
+        return builder.build();
+    }
+
+    private Response handleRedirect(HttpHeaders headers, ProxyRequest request, int statusCode) {
+        String originalLocation = headers.firstValue("Location").orElse("");
+        String rewrittenLocation = request.target().redirect(originalLocation, request.proxyBaseUri());
+        if (rewrittenLocation != null) {
             return Response.status(statusCode).header("Location", rewrittenLocation).build();
         }
         return Response.status(statusCode).build();
     }
 
-    private Response handleContent(HttpResponse<byte[]> response, UriInfo uriInfo, String target) {
-        String contentType = response.headers().firstValue("Content-Type").orElse("application/octet-stream");
-        byte[] body = response.body();
+    private Response handleContent(HttpResponse<InputStream> response, ProxyRequest request) {
+        String contentType = contentType(response.headers());
+        String contentEncoding = contentEncoding(response.headers());
+        InputStream body = response.body();
+
+        if (isHtml(contentType) || isCss(contentType)) {
+            BufferedInputStream text = decodeText(body, contentEncoding);
+            Charset charset = detectCharset(text, contentType);
+            String rewrittenType = ContentCharset.withCharset(contentType, charset);
+            if (isHtml(contentType) && rewriteMode == RewriteMode.DOM) {
+                byte[] html = rewriteDom(text, charset, request);
+                publish(response, request, rewrittenType, html);
+                return Response.ok(html, rewrittenType).build();
+            }
+            // style sheets are always rewritten in a single streaming pass, whatever the HTML rewrite mode
+            if (isCss(contentType)) {
+                return Response.ok(streamRewritten(text, charset, response, request, rewrittenType, (in, out) ->
+                        htmlModifier.modifyCss(in, out, request.proxyUriWithTarget(), request.target().value())),
+                        rewrittenType).build();
+            }
+            return withPreloads(Response.ok(streamRewritten(text, charset, response, request, rewrittenType,
+                    (in, out) -> modifyHtml(in, out, charset, request)), rewrittenType), request).build();
+        }
+        request.share(null);
+        if (!isPassThrough(contentEncoding, request)) {
+            // the client cannot take the upstream coding, so the length of the decoded body is unknown
+            return Response.ok(streamBody(body, contentEncoding, null), contentType).build();
+        }
+        DiskCache.Recorder recorder = response.statusCode() == Response.Status.OK.getStatusCode()
+                && request.usesSharedCache() ? diskCache.record(request.targetUri(), response.headers(), contentType, contentEncoding) : null;
+        Response.ResponseBuilder builder = encoded(
+                passThrough(response, streamBody(body, null, recorder), contentType), contentEncoding);
+        response.headers().firstValue("Content-Length").ifPresent(length -> builder.header("Content-Length", length));
+        return builder.build();
+    }
+
+    /**
+     * An upstream body sent on as it is, a partial one with the status and range it came with.
+     */
+    private Response.ResponseBuilder passThrough(HttpResponse<?> response, Object entity, String contentType) {
+        int status = response.statusCode() == PARTIAL_CONTENT ? PARTIAL_CONTENT : Response.Status.OK.getStatusCode();
+        Response.ResponseBuilder builder = Response.status(status).entity(entity).type(contentType);
+        for (String header : RANGE_HEADERS) {
+            response.headers().firstValue(header).ifPresent(value -> builder.header(header, value));
+        }
+        return builder;
+    }
+
+    private Response withUpstreamHeaders(Response response, HttpHeaders headers, ProxyRequest request) {
+        Response.ResponseBuilder builder = null;
+        for (String name : FORWARDED_RESPONSE_HEADERS) {
+            for (String value : headers.allValues(name)) {
+                if (builder == null) {
+                    builder = Response.fromResponse(response);
+                }
+                builder.header(name, "Set-Cookie".equals(name)
+                        ? TargetCookies.toClient(value, request.targetUri().getHost()) : value);
+            }
+        }
+        if (headers.firstValue("WWW-Authenticate").isPresent()) {
+            // the credentials the client answers this challenge with are only sent on to this target
+            builder.header("Set-Cookie", TargetCookies.authorizing(origin(request.targetUri())));
+        }
+        return builder != null ? builder.build() : response;
+    }
+
+    private String contentType(HttpHeaders headers) {
+        return headers.firstValue("Content-Type").orElse("application/octet-stream");
+    }
+
+    private String contentEncoding(HttpHeaders headers) {
+        return headers.firstValue("Content-Encoding").orElse(null);
+    }
+
+    private boolean isPassThrough(String contentEncoding, ProxyRequest request) {
+        return ContentCoding.isIdentity(contentEncoding) || ContentCoding.accepts(request.acceptEncoding(), contentEncoding);
+    }
+
+    private Response.ResponseBuilder encoded(Response.ResponseBuilder builder, String contentEncoding) {
+        return ContentCoding.isIdentity(contentEncoding) ? builder : builder.header("Content-Encoding", contentEncoding);
+    }
+
+    private byte[] decode(byte[] body, String contentEncoding) {
+        if (ContentCoding.isIdentity(contentEncoding)) {
+            return body;
+        }
+        try (InputStream in = ContentCoding.decode(new ByteArrayInputStream(body), contentEncoding)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new ProxyException("Error decoding upstream response: " + e.getMessage(), e);
+        }
+    }
+
+    private boolean isHtml(String contentType) {
+        return contentType.contains("text/html");
+    }
+
+    private boolean isCss(String contentType) {
+        return contentType.contains("text/css");
+    }
+
+    private BufferedInputStream decodeText(InputStream body, String contentEncoding) {
+        try {
+            return new BufferedInputStream(ContentCoding.decode(body, contentEncoding),
+                    Math.max(chunkSize, ContentCharset.PRESCAN_BYTES));
+        } catch (IOException e) {
+            throw new ProxyException("Error decoding upstream response: " + e.getMessage(), e);
+        }
+    }
+
+    private Charset detectCharset(InputStream text, String contentType) {
+        try {
+            return ContentCharset.detect(text, contentType);
+        } catch (IOException e) {
+            closeQuietly(text);
+            throw new ProxyException("Error reading upstream response: " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] rewriteDom(InputStream html, Charset charset, ProxyRequest request) {
+        try (InputStream in = html) {
+            return htmlModifier.modifyHtml(in, charset, request.proxyUriWithTarget(), request.target().value());
+        } catch (IOException e) {
+            throw new ProxyException("Error reading upstream response: " + e.getMessage(), e);
+        }
+    }
 
-        if (contentType.contains("text/html")) {
-            String html = new String(body, StandardCharsets.UTF_8);
-            String proxyUriWithTarget = uriInfo.getBaseUri().toString() + "?target=" + target;
-            String modifiedHtml = htmlModifier.modifyHtml(html, proxyUriWithTarget, target);
-            return Response.ok(modifiedHtml, contentType).build();
+    private byte[] rewriteHtml(byte[] body, Charset charset, ProxyRequest request) {
+        if (rewriteMode == RewriteMode.DOM) {
+            return rewriteDom(new ByteArrayInputStream(body), charset, request);
         }
-        return Response.ok(body, contentType).build();
+        return rewriteBytes(body, charset, (in, out) -> modifyHtml(in, out, charset, request));
+    }
+
+    /**
+     * Streaming HTML rewrite, flushing the head as soon as it is complete and learning its preloads from the
+     * responses that may be shared.
+     */
+    private void modifyHtml(Reader in, Writer out, Charset charset, ProxyRequest request) throws IOException {
+        htmlModifier.modifyHtml(in, out, charset, request.proxyUriWithTarget(), request.target().value(),
+                earlyHints.listener(request.usesSharedCache() ? request.cacheKey() : null, out));
+    }
+
+    /**
+     * Repeats the style sheets and scripts announced in a {@code 103} on the page, for clients that ignore interim
+     * responses.
+     */
+    private Response.ResponseBuilder withPreloads(Response.ResponseBuilder builder, ProxyRequest request) {
+        String link = request.usesSharedCache() ? earlyHints.link(request.cacheKey()) : null;
+        return link != null ? builder.header("Link", link) : builder;
+    }
+
+    private byte[] rewriteCss(byte[] body, Charset charset, ProxyRequest request) {
+        return rewriteBytes(body, charset, (in, out) ->
+                htmlModifier.modifyCss(in, out, request.proxyUriWithTarget(), request.target().value()));
     }
 
-    private URI buildTargetUri(UriInfo info, String target) {
+    private byte[] rewriteBytes(byte[] body, Charset charset, TextRewriter rewriter) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(body.length + body.length / 8);
         try {
-            UriBuilder builder = UriBuilder.fromUri(target);
-            if (!info.getPath().isEmpty()) {
-                builder.path(info.getPath());
+            Writer writer = new BufferedWriter(new OutputStreamWriter(result, charset), chunkSize);
+            rewriter.rewrite(new InputStreamReader(new ByteArrayInputStream(body), charset), writer);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result.toByteArray();
+    }
+
+    private StreamingOutput streamRewritten(InputStream text, Charset charset, HttpResponse<InputStream> response,
+                                            ProxyRequest request, String contentType, TextRewriter rewriter) {
+        long captureLimit = Math.max(isCacheable(response, request) ? responseCache.maxEntryBytes() : 0,
+                isShareable(response, request) ? requestCoalescer.maxPageBytes() : 0);
+        StreamingOutput entity = output -> {
+            byte[] rewritten = null;
+            try (InputStream in = text) {
+                CapturingOutputStream capture = captureLimit > 0 ? new CapturingOutputStream(output, captureLimit) : null;
+                Writer writer = new BufferedWriter(
+                        new OutputStreamWriter(capture != null ? capture : output, charset), chunkSize);
+                rewriter.rewrite(new InputStreamReader(in, charset), writer);
+                writer.flush();
+                rewritten = capture != null ? capture.captured() : null;
+            } finally {
+                if (rewritten != null) {
+                    publish(response, request, contentType, rewritten);
+                } else {
+                    request.share(null);
+                }
             }
+        };
+        if (request.shared() == null) {
+            return entity;
+        }
+        return releasedIfUnwritten(entity, () -> {
+            request.share(null);
+            closeQuietly(text);
+        });
+    }
+
+    private boolean isCacheable(HttpResponse<?> response, ProxyRequest request) {
+        return response.statusCode() == 200 && request.usesSharedCache() && responseCache.isCacheable(request.targetUri(), response.headers());
+    }
+
+    /**
+     * A page is handed to the followers of a flight under the rules that keep it out of the cache, so none of them
+     * gets a page meant for the leader's client alone.
+     */
+    private boolean isShareable(HttpResponse<?> response, ProxyRequest request) {
+        return response.statusCode() == 200 && request.shared() != null
+                && !ResponseCache.isPrivate(response.headers());
+    }
+
+    private void publish(HttpResponse<?> response, ProxyRequest request, String contentType, byte[] body) {
+        if (isCacheable(response, request)) {
+            responseCache.put(request.cacheKey(), request.targetUri(), response.headers(), contentType, body);
+        }
+        boolean shareable = isShareable(response, request) && body.length <= requestCoalescer.maxPageBytes();
+        request.share(shareable ? new RewrittenPage(contentType, body) : null);
+    }
 
-            MultivaluedMap<String, String> queryParams = info.getQueryParameters();
-            queryParams.forEach((key, values) -> {
-                if (!"target".equals(key)) {
-                    values.forEach(value -> builder.queryParam(key, value));
+    /**
+     * @param recorder receives a copy of the body for the disk cache, which keeps it only once the whole body
+     *                 went through
+     */
+    private StreamingOutput streamBody(InputStream body, String contentEncoding, DiskCache.Recorder recorder) {
+        StreamingOutput entity = output -> {
+            boolean complete = false;
+            try (InputStream in = ContentCoding.decode(body, contentEncoding)) {
+                copy(in, output, recorder);
+                complete = true;
+            } finally {
+                if (recorder != null && complete) {
+                    recorder.commit();
+                } else if (recorder != null) {
+                    recorder.abort();
                 }
-            });
+            }
+        };
+        if (recorder == null) {
+            return entity;
+        }
+        return releasedIfUnwritten(entity, () -> {
+            recorder.abort();
+            closeQuietly(body);
+        });
+    }
+
+    /**
+     * Runs {@code release} instead when the entity has not started being written within the write start timeout, as
+     * for a HEAD request, a failing response filter or a client gone before writing started, so a flight, a disk
+     * cache recording or a pinned disk entry is not held forever. The timer is cancelled once writing starts.
+     */
+    private StreamingOutput releasedIfUnwritten(StreamingOutput entity, Runnable release) {
+        CompletableFuture<Boolean> started = new CompletableFuture<>();
+        started.completeOnTimeout(false, writeStartTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .thenAccept(written -> {
+                    if (!written) {
+                        release.run();
+                    }
+                });
+        return output -> {
+            if (!started.complete(true)) {
+                throw new IOException("Upstream body was released before the response was written");
+            }
+            entity.write(output);
+        };
+    }
+
+    private void copy(InputStream in, OutputStream out, DiskCache.Recorder recorder) throws IOException {
+        byte[] buffer = new byte[chunkSize];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            out.flush();
+            if (recorder != null) {
+                recorder.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private void closeBody(HttpResponse<InputStream> response) {
+        // the upstream body is not forwarded, only release the connection
+        closeQuietly(response.body());
+    }
+
+    private void closeQuietly(InputStream body) {
+        if (body == null) {
+            return;
+        }
+        try {
+            body.close();
+        } catch (IOException e) {
+            // nothing left to clean up
+        }
+    }
+
+    URI buildTargetUri(UriInfo info, String target) {
+        return buildTargetUri(info, targets.resolve(target));
+    }
 
-            return builder.build();
-        } catch (Exception e) {
+    /**
+     * Appends the request path and query, except the {@code target} parameter, to the target as they were encoded.
+     */
+    private URI buildTargetUri(UriInfo info, Target target) {
+        try {
+            return target.resolve(info.getPath(false), info.getRequestUri().getRawQuery());
+        } catch (IllegalArgumentException e) {
             throw new ProxyException("Error building target URI", e);
         }
     }
 
-    private String rewriteRedirect(String originalLocation, String proxyBaseUri, String target) {
-        return originalLocation.replaceFirst(Pattern.quote(target), removeTrailingSlash(proxyBaseUri)) +
-                (originalLocation.contains("?") ? "&" : "?") + "target=" + target;
+    @FunctionalInterface
+    private interface TextRewriter {
+        void rewrite(Reader in, Writer out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface BodyPart {
+        void write(OutputStream out, long first, long count) throws IOException;
     }
 
-    private String removeTrailingSlash(String uri) {
-        return uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+    /**
+     * @param shared completed with the rewritten page for coalesced followers when this request leads a flight
+     */
+    private record ProxyRequest(URI targetUri, String proxyBaseUri, Target target, String acceptEncoding,
+                                RangeRequest range, ForwardedRequest forwarded,
+                                CompletableFuture<RewrittenPage> shared) {
+
+        ProxyRequest sharingWith(CompletableFuture<RewrittenPage> result) {
+            return new ProxyRequest(targetUri, proxyBaseUri, target, acceptEncoding, range, forwarded, result);
+        }
+
+        /**
+         * Only GET responses are cached, and never those to requests with cookies or credentials, which may be
+         * personalized for that client. Such requests do not read the shared caches either.
+         */
+        boolean usesSharedCache() {
+            return forwarded.isGet() && !forwarded.headers().hasCredentials();
+        }
+
+        void share(RewrittenPage page) {
+            if (shared != null) {
+                shared.complete(page);
+            }
+        }
+
+        String proxyUriWithTarget() {
+            return proxyBaseUri + "?target=" + target.value();
+        }
+
+        String cacheKey() {
+            return ResponseCache.key(targetUri, proxyBaseUri);
+        }
     }
 }
@@ -0,0 +1,98 @@
+package com.gurskiyy.resource;
+
+import java.net.URI;
+
+/**
+ * A {@code target} parameter parsed once. Target URIs and proxied redirects are assembled from its parts by string
+ * concatenation, without a {@code UriBuilder} or a regular expression per request.
+ *
+ * @param value the parameter as the client sent it, which rewritten links carry on
+ * @param base  the target without a trailing slash, which request paths are appended to
+ * @param host  the host in lower case
+ */
+record Target(String value, String base, String host) {
+
+    /**
+     * @param rawPath  the request path relative to the proxy's base, still percent-encoded
+     * @param rawQuery the request query, still percent-encoded, or {@code null}
+     */
+    URI resolve(String rawPath, String rawQuery) {
+        String query = withoutTargetParameter(rawQuery);
+        boolean noPath = rawPath == null || rawPath.isEmpty();
+        if (noPath && query.isEmpty()) {
+            return URI.create(value);
+        }
+        StringBuilder uri = new StringBuilder(value.length() + (noPath ? 0 : rawPath.length()) + query.length() + 2);
+        if (noPath) {
+            uri.append(value);
+        } else {
+            uri.append(base);
+            if (rawPath.charAt(0) != '/') {
+                uri.append('/');
+            }
+            uri.append(rawPath);
+        }
+        if (!query.isEmpty()) {
+            uri.append('?').append(query);
+        }
+        return URI.create(uri.toString());
+    }
+
+    /**
+     * Points a redirect to a location of this target back through the proxy.
+     *
+     * @return the rewritten location, or {@code null} when {@code location} lies outside the target
+     */
+    String redirect(String location, String proxyBaseUri) {
+        if (!location.startsWith(base)) {
+            return null;
+        }
+        int end = base.length();
+        if (end < location.length() && "/?#".indexOf(location.charAt(end)) < 0) {
+            // another host or path that merely starts the same, such as example.com.evil
+            return null;
+        }
+        int proxyEnd = proxyBaseUri.endsWith("/") ? proxyBaseUri.length() - 1 : proxyBaseUri.length();
+        int fragment = location.indexOf('#', end);
+        int restEnd = fragment >= 0 ? fragment : location.length();
+        StringBuilder result = new StringBuilder(proxyEnd + location.length() - end + value.length() + 8)
+                .append(proxyBaseUri, 0, proxyEnd)
+                .append(location, end, restEnd)
+                .append(location.indexOf('?', end) >= 0 && location.indexOf('?', end) < restEnd ? '&' : '?')
+                .append("target=").append(value);
+        if (fragment >= 0) {
+            result.append(location, fragment, location.length());
+        }
+        return result.toString();
+    }
+
+    /**
+     * Drops the proxy's own {@code target} parameter from a raw query, leaving everything else as it was encoded.
+     */
+    static String withoutTargetParameter(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+        if (!rawQuery.contains("target")) {
+            return rawQuery;
+        }
+        StringBuilder query = new StringBuilder(rawQuery.length());
+        int start = 0;
+        while (start <= rawQuery.length()) {
+            int end = rawQuery.indexOf('&', start);
+            if (end < 0) {
+                end = rawQuery.length();
+            }
+            boolean target = rawQuery.startsWith("target", start)
+                    && (start + 6 == end || rawQuery.charAt(start + 6) == '=');
+            if (!target && end > start) {
+                if (!query.isEmpty()) {
+                    query.append('&');
+                }
+                query.append(rawQuery, start, end);
+            }
+            start = end + 1;
+        }
+        return query.toString();
+    }
+}
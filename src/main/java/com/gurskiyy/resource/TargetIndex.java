@@ -0,0 +1,138 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.exception.ForbiddenTargetException;
+import com.gurskiyy.exception.InvalidTargetException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The targets the proxy may fetch from. {@code proxy.targets.allowed} lists hosts, or {@code *.example.com} for
+ * every subdomain of one, and is read once into hash sets, so a host is checked with one lookup per label. Without
+ * the list any host is allowed. The default target is always allowed. Targets are parsed once and kept, up to
+ * {@code proxy.targets.max-parsed} of them.
+ */
+@ApplicationScoped
+public class TargetIndex {
+
+    private final Set<String> hosts;
+    private final Set<String> wildcardSuffixes;
+    private final int maxParsed;
+    private final Map<String, Target> parsed = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+
+    @Inject
+    public TargetIndex(@ConfigProperty(name = "proxy.targets.allowed") Optional<List<String>> allowed,
+                       @ConfigProperty(name = "proxy.targets.max-parsed", defaultValue = "1024") int maxParsed,
+                       MeterRegistry registry) {
+        this.maxParsed = maxParsed;
+        if (allowed.isPresent()) {
+            Set<String> exact = new HashSet<>();
+            Set<String> suffixes = new HashSet<>();
+            exact.add(URI.create(ProxyResource.DEFAULT_TARGET).getHost());
+            for (String entry : allowed.get()) {
+                String host = allowedHost(entry);
+                if (host.startsWith("*.")) {
+                    suffixes.add(host.substring(2));
+                } else if (!host.isEmpty()) {
+                    exact.add(host);
+                }
+            }
+            this.hosts = Set.copyOf(exact);
+            this.wildcardSuffixes = Set.copyOf(suffixes);
+        } else {
+            this.hosts = null;
+            this.wildcardSuffixes = null;
+        }
+        FunctionCounter.builder("proxy.targets.rejected", rejected, LongAdder::sum)
+                .description("Requests for targets that are invalid or not allowed")
+                .register(registry);
+    }
+
+    /**
+     * An index that allows every target, for components created outside the container.
+     */
+    public static TargetIndex any() {
+        return new TargetIndex(Optional.empty(), 1024, new CompositeMeterRegistry());
+    }
+
+    /**
+     * @throws InvalidTargetException   when {@code target} is not an absolute {@code http} or {@code https} URI
+     *                                  without query or fragment
+     * @throws ForbiddenTargetException when its host is not allowed
+     */
+    Target resolve(String target) {
+        Target resolved = parsed.get(target);
+        if (resolved != null) {
+            return resolved;
+        }
+        resolved = parse(target);
+        if (!isAllowed(resolved.host())) {
+            rejected.increment();
+            throw new ForbiddenTargetException("Target not allowed: " + resolved.host());
+        }
+        if (parsed.size() < maxParsed) {
+            parsed.putIfAbsent(target, resolved);
+        }
+        return resolved;
+    }
+
+    boolean isAllowed(String host) {
+        if (hosts == null || hosts.contains(host)) {
+            return true;
+        }
+        for (int dot = host.indexOf('.'); dot >= 0; dot = host.indexOf('.', dot + 1)) {
+            if (wildcardSuffixes.contains(host.substring(dot + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Target parse(String target) {
+        URI uri;
+        try {
+            uri = URI.create(target);
+        } catch (IllegalArgumentException e) {
+            rejected.increment();
+            throw new InvalidTargetException("Invalid target: " + target, e);
+        }
+        String scheme = uri.getScheme();
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme) || uri.getHost() == null
+                || uri.getRawQuery() != null || uri.getRawFragment() != null) {
+            rejected.increment();
+            throw new InvalidTargetException("Invalid target: " + target, null);
+        }
+        String base = target.endsWith("/") ? target.substring(0, target.length() - 1) : target;
+        return new Target(target, base, uri.getHost().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Entries may be written as origins, {@code https://example.com}, as well as bare hosts.
+     */
+    private static String allowedHost(String entry) {
+        String host = entry.trim().toLowerCase(Locale.ROOT);
+        int scheme = host.indexOf("://");
+        if (scheme >= 0) {
+            host = host.substring(scheme + 3);
+        }
+        int end = 0;
+        while (end < host.length() && "/:".indexOf(host.charAt(end)) < 0) {
+            end++;
+        }
+        return host.substring(0, end);
+    }
+}
@@ -0,0 +1,103 @@
+package com.gurskiyy.admission;
+
+import com.gurskiyy.exception.ServiceUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControllerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "/                          | PAGE",
+            "/docs/guides               | PAGE",
+            "/blog/2024/01/release.html | PAGE",
+            "/assets/site.css           | PAGE",
+            "/v1.2/docs                 | PAGE",
+            "/assets/app.min.js         | ASSET",
+            "/img/Logo.PNG              | ASSET",
+            "/fonts/inter.woff2         | ASSET",
+    })
+    void givenPath_whenClassified_thenRewrittenPagesAndAssetsSeparated(String path, AdmissionController.Lane lane) {
+        assertEquals(lane, AdmissionController.Lane.of(path));
+    }
+
+    @Test
+    void givenFullLane_whenNoSlotFreed_thenRejectedAfterWait() {
+        AdmissionController admission = new AdmissionController(true, 2, 2, 2, Duration.ofMillis(20), registry);
+        admission.admit(AdmissionController.Lane.PAGE);
+        admission.admit(AdmissionController.Lane.PAGE);
+
+        ServiceUnavailableException rejected = assertThrows(ServiceUnavailableException.class,
+                () -> admission.admit(AdmissionController.Lane.PAGE));
+
+        assertEquals(Duration.ofSeconds(1), rejected.retryAfter());
+        assertEquals(1, registry.get("proxy.admission.rejected").tag("lane", "page").functionCounter().count());
+        assertEquals(2, registry.get("proxy.admission.in.flight").tag("lane", "page").gauge().value());
+        assertDoesNotThrow(() -> admission.admit(AdmissionController.Lane.ASSET).release(true));
+    }
+
+    @Test
+    void givenFullLane_whenSlotReleasedWhileWaiting_thenAdmitted() throws Exception {
+        AdmissionController admission = new AdmissionController(true, 1, 1, 1, Duration.ofSeconds(5), registry);
+        AdmissionController.Ticket first = admission.admit(AdmissionController.Lane.ASSET);
+
+        CompletableFuture<AdmissionController.Ticket> second = CompletableFuture.supplyAsync(
+                () -> admission.admit(AdmissionController.Lane.ASSET));
+        Thread.sleep(50);
+        first.release(true);
+        first.release(true);
+
+        second.get(5, TimeUnit.SECONDS).release(true);
+        assertEquals(0, registry.get("proxy.admission.in.flight").tag("lane", "asset").gauge().value());
+        assertTrue(registry.get("proxy.admission.queue.duration").tag("lane", "asset").timer()
+                .max(TimeUnit.MILLISECONDS) >= 40);
+    }
+
+    @Test
+    void givenFullLane_whenAdmittedWithoutBlocking_thenQueuedUntilSlotFreed() throws Exception {
+        AdmissionController admission = new AdmissionController(true, 1, 1, 1, Duration.ofSeconds(5), registry);
+        AdmissionController.Ticket first = admission.tryAdmit(AdmissionController.Lane.PAGE).join();
+
+        CompletableFuture<AdmissionController.Ticket> second = admission.tryAdmit(AdmissionController.Lane.PAGE);
+        assertFalse(second.isDone());
+        first.release(true);
+
+        second.get(5, TimeUnit.SECONDS).release(true);
+        assertEquals(0, registry.get("proxy.admission.in.flight").tag("lane", "page").gauge().value());
+    }
+
+    @Test
+    void givenFullLane_whenQueuedRequestGetsNoSlot_thenRejectedAfterWait() {
+        AdmissionController admission = new AdmissionController(true, 1, 1, 1, Duration.ofMillis(20), registry);
+        admission.tryAdmit(AdmissionController.Lane.PAGE).join();
+
+        CompletableFuture<AdmissionController.Ticket> queued = admission.tryAdmit(AdmissionController.Lane.PAGE);
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(ServiceUnavailableException.class, rejected.getCause());
+        // a queue as long as the limit is full
+        CompletableFuture<AdmissionController.Ticket> waiting = admission.tryAdmit(AdmissionController.Lane.PAGE);
+        assertTrue(admission.tryAdmit(AdmissionController.Lane.PAGE).isCompletedExceptionally());
+        assertThrows(ExecutionException.class, () -> waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(3, registry.get("proxy.admission.rejected").tag("lane", "page").functionCounter().count());
+    }
+
+    @Test
+    void givenDisabled_whenOverLimit_thenEveryRequestAdmitted() {
+        AdmissionController admission = AdmissionController.disabled();
+
+        for (int i = 0; i < 100; i++) {
+            admission.admit(AdmissionController.Lane.PAGE);
+        }
+    }
+}
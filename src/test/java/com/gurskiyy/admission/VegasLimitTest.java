@@ -0,0 +1,44 @@
+package com.gurskiyy.admission;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VegasLimitTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    void givenSteadyLatency_whenLimitUsed_thenGrows() {
+        VegasLimit limit = new VegasLimit(20, 10, 1000);
+
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(10 * MILLIS, limit.limit());
+        }
+
+        assertTrue(limit.limit() > 100, "limit " + limit.limit());
+    }
+
+    @Test
+    void givenSteadyLatency_whenLimitMostlyIdle_thenUnchanged() {
+        VegasLimit limit = new VegasLimit(100, 10, 1000);
+
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(10 * MILLIS, 5);
+        }
+
+        assertEquals(100, limit.limit());
+    }
+
+    @Test
+    void givenLatencyGrowingWithLoad_whenSampled_thenShrinksToMinimum() {
+        VegasLimit limit = new VegasLimit(200, 10, 1000);
+        limit.onSample(10 * MILLIS, 200);
+
+        for (int i = 0; i < 500; i++) {
+            limit.onSample(40 * MILLIS, limit.limit());
+        }
+
+        assertEquals(10, limit.limit());
+    }
+}
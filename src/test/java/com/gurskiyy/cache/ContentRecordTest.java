@@ -0,0 +1,57 @@
+package com.gurskiyy.cache;
+
+import com.gurskiyy.client.Validators;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentRecordTest {
+
+    private static final byte[] BODY = "<p>Simple\u2122 page</p>".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void givenResponseWithValidators_whenEncoded_thenDecodedAsItWas() {
+        CachedResponse cached = new CachedResponse("text/html; charset=UTF-8", BODY, 1_000, 61_000,
+                new Validators("\"v1\"", "Wed, 01 Jan 2025 00:00:00 GMT"));
+
+        CachedResponse decoded = ContentRecord.decode(ContentRecord.encode(cached));
+
+        assertEquals(cached.contentType(), decoded.contentType());
+        assertArrayEquals(BODY, decoded.body());
+        assertEquals(1_000, decoded.storedAt());
+        assertEquals(61_000, decoded.expiresAt());
+        assertEquals(cached.validators(), decoded.validators());
+    }
+
+    @Test
+    void givenResponseWithoutValidators_whenEncoded_thenOnlyFixedFieldsAdded() {
+        CachedResponse cached = new CachedResponse("text/css", BODY, 1_000, 61_000, Validators.NONE);
+
+        byte[] record = ContentRecord.encode(cached);
+
+        assertEquals(24 + "text/css".length() + BODY.length, record.length);
+        assertEquals(Validators.NONE, ContentRecord.decode(record).validators());
+    }
+
+    @Test
+    void givenTruncatedOrForeignRecord_whenDecoded_thenNothing() {
+        byte[] record = ContentRecord.encode(new CachedResponse("text/html", BODY, 1_000, 61_000, Validators.NONE));
+        byte[] foreign = record.clone();
+        foreign[0] = 2;
+
+        assertNull(ContentRecord.decode(Arrays.copyOf(record, record.length - 1)));
+        assertNull(ContentRecord.decode(Arrays.copyOf(record, 10)));
+        assertNull(ContentRecord.decode(foreign));
+        assertNull(ContentRecord.decode(new byte[0]));
+    }
+
+    @Test
+    void givenHeaderTooLongForRecord_whenEncoded_thenNothing() {
+        String etag = "\"" + "v".repeat(70_000) + "\"";
+
+        assertNull(ContentRecord.encode(new CachedResponse("text/html", BODY, 0, 0, new Validators(etag, null))));
+    }
+}
@@ -0,0 +1,325 @@
+package com.gurskiyy.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiskCacheTest {
+
+    private static final URI LOGO = URI.create("https://example.com/logo.png");
+    private static final URI FONT = URI.create("https://example.com/font.woff2");
+    private static final URI SCRIPT = URI.create("https://example.com/app.js");
+
+    @TempDir
+    Path directory;
+
+    private MutableClock clock;
+    private SimpleMeterRegistry registry;
+    private ResponseCache freshness;
+    private DiskCache cache;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+        registry = new SimpleMeterRegistry();
+        freshness = new ResponseCache(true, 1024, 1024, Duration.ofSeconds(60), Map.of(), clock,
+                new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    @Test
+    void givenStoredBody_whenGet_thenWholeBodyAndRangesAreRead() throws IOException {
+        cache = open(1 << 20, 1 << 20);
+        byte[] body = body(1000);
+
+        assertNull(cache.get(LOGO));
+        cache.put(LOGO, headers(), "image/png", null, body);
+        DiskCache.Entry entry = cache.get(LOGO);
+
+        assertEquals("image/png", entry.contentType());
+        assertNull(entry.contentEncoding());
+        assertArrayEquals(body, transfer(entry, 0, entry.length()));
+        assertArrayEquals(Arrays.copyOfRange(body, 100, 150), transfer(entry, 100, 50));
+        try (InputStream in = entry.openStream()) {
+            assertArrayEquals(body, in.readAllBytes());
+        }
+        assertEquals(1, registry.get("proxy.disk.cache.requests").tag("result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("proxy.disk.cache.requests").tag("result", "miss").functionCounter().count());
+        assertEquals(1, registry.get("proxy.disk.cache.entries").gauge().value());
+    }
+
+    @Test
+    void givenRecordedBody_whenCacheReopened_thenEntryIsRecovered() throws IOException {
+        cache = open(1 << 20, 1 << 20);
+        byte[] body = body(5000);
+        DiskCache.Recorder recorder = cache.record(FONT, headers("Content-Length", "5000"), "font/woff2", "br");
+        recorder.write(body, 0, 3000);
+        recorder.write(body, 3000, 2000);
+        recorder.commit();
+        cache.close();
+
+        cache = open(1 << 20, 1 << 20);
+        DiskCache.Entry entry = cache.get(FONT);
+
+        assertEquals("br", entry.contentEncoding());
+        assertArrayEquals(body, transfer(entry, 0, entry.length()));
+    }
+
+    @Test
+    void givenTornTail_whenCacheReopened_thenIntactRecordsAreKept() throws IOException {
+        cache = open(1 << 20, 1 << 20);
+        cache.put(LOGO, headers(), "image/png", null, body(100));
+        cache.close();
+        try (FileChannel segment = FileChannel.open(onlySegment(), StandardOpenOption.APPEND)) {
+            // the header of a record whose body never made it to disk
+            segment.write(ByteBuffer.allocate(24).putInt(0x50585931).putInt(7).putInt(10).putInt(10).putLong(1000)
+                    .flip());
+        }
+
+        cache = open(1 << 20, 1 << 20);
+
+        assertNotNull(cache.get(LOGO));
+        assertEquals(24, registry.get("proxy.disk.cache.discarded").functionCounter().count());
+    }
+
+    @Test
+    void givenSkippedRecord_whenCacheReopened_thenRecordsAfterItAreKept() throws IOException {
+        cache = open(1 << 20, 1 << 20);
+        cache.put(LOGO, headers(), "image/png", null, body(100));
+        cache.close();
+        Path segment = onlySegment();
+        byte[] record = Files.readAllBytes(segment);
+        // the range of an append that failed before the record after it
+        ByteBuffer skipped = ByteBuffer.allocate(24 + 50 + record.length)
+                .putInt(0x50585930).putInt(0).putInt(0).putInt(0).putLong(50).put(new byte[50]).put(record);
+        Files.write(segment, skipped.array());
+
+        cache = open(1 << 20, 1 << 20);
+
+        try (DiskCache.Entry entry = cache.get(LOGO)) {
+            assertArrayEquals(body(100), transfer(entry, 0, 100));
+        }
+        assertEquals(74, registry.get("proxy.disk.cache.discarded").functionCounter().count());
+    }
+
+    @Test
+    void givenCacheNotRecoveredYet_whenUsed_thenMissesAndStoresNothing() throws IOException {
+        cache = open(1 << 20, 1 << 20);
+        cache.put(LOGO, headers(), "image/png", null, body(100));
+        cache.close();
+
+        cache = new DiskCache(true, directory, 1 << 20, 1 << 20, 1 << 20, freshness, clock, new SimpleMeterRegistry());
+        assertNull(cache.get(LOGO));
+        assertNull(cache.record(FONT, headers(), "font/woff2", null));
+        cache.put(FONT, headers(), "font/woff2", null, body(100));
+
+        cache.recover();
+        try (DiskCache.Entry entry = cache.get(LOGO)) {
+            assertArrayEquals(body(100), transfer(entry, 0, 100));
+        }
+        assertNull(cache.get(FONT));
+    }
+
+    @Test
+    void givenCorruptedBody_whenCacheReopened_thenRecordIsDropped() throws IOException {
+        cache = open(1 << 20, 1 << 20);
+        cache.put(LOGO, headers(), "image/png", null, body(100));
+        cache.close();
+        Path segment = onlySegment();
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segment, bytes);
+
+        cache = open(1 << 20, 1 << 20);
+
+        assertNull(cache.get(LOGO));
+        assertEquals(bytes.length, registry.get("proxy.disk.cache.discarded").functionCounter().count());
+    }
+
+    @Test
+    void givenFullCache_whenStoring_thenOldestSegmentIsDroppedButReadEntriesSurvive() throws IOException {
+        // one record per segment, two segments fit
+        cache = open(400, 200);
+        cache.put(LOGO, headers(), "image/png", null, body(100));
+        cache.put(FONT, headers(), "font/woff2", null, body(100));
+        cache.get(LOGO).close();
+
+        cache.put(SCRIPT, headers(), "text/javascript", null, body(100));
+
+        try (DiskCache.Entry entry = cache.get(LOGO)) {
+            assertArrayEquals(body(100), transfer(entry, 0, 100));
+        }
+        cache.get(SCRIPT).close();
+        assertNull(cache.get(FONT));
+        assertEquals(2, registry.get("proxy.disk.cache.evictions").functionCounter().count());
+        assertTrue(registry.get("proxy.disk.cache.size").gauge().value() <= 400);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.filter(path -> path.toString().endsWith(".seg")).count());
+        }
+    }
+
+    @Test
+    void givenEntryBeingRead_whenItsSegmentIsEvicted_thenItIsReadToTheEndAndDeletedAfter() throws IOException {
+        cache = open(400, 200);
+        cache.put(LOGO, headers("Cache-Control", "max-age=1"), "image/png", null, body(100));
+        DiskCache.Entry entry = cache.get(LOGO);
+        clock.advance(Duration.ofSeconds(1));
+
+        // the expired entry is dropped with its segment rather than copied forward
+        cache.put(FONT, headers(), "font/woff2", null, body(100));
+        cache.put(SCRIPT, headers(), "text/javascript", null, body(100));
+
+        assertArrayEquals(body(100), transfer(entry, 0, 100));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(3, files.filter(path -> path.toString().endsWith(".seg")).count());
+        }
+        entry.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.filter(path -> path.toString().endsWith(".seg")).count());
+        }
+    }
+
+    @Test
+    void givenBodyOverEntryLimit_whenRecorded_thenNothingIsStored() {
+        cache = new DiskCache(true, directory, 1 << 20, 1 << 20, 1000, freshness, clock, registry);
+        cache.recover();
+        DiskCache.Recorder recorder = cache.record(LOGO, headers(), "image/png", null);
+
+        recorder.write(body(800), 0, 800);
+        recorder.write(body(800), 0, 800);
+        recorder.commit();
+
+        assertNull(cache.get(LOGO));
+        assertNull(cache.record(LOGO, headers("Content-Length", "5000"), "image/png", null));
+    }
+
+    @Test
+    void givenResponseThatMustNotBeStored_whenPut_thenNotCached() {
+        cache = open(1 << 20, 1 << 20);
+
+        cache.put(LOGO, headers("Cache-Control", "no-store"), "image/png", null, body(10));
+        cache.put(FONT, headers("Cache-Control", "no-cache"), "font/woff2", null, body(10));
+
+        assertNull(cache.get(LOGO));
+        assertNull(cache.get(FONT));
+    }
+
+    @Test
+    void givenResponseSelectedByClientHeaders_whenRecorded_thenNotCached() {
+        cache = open(1 << 20, 1 << 20);
+
+        assertNull(cache.record(LOGO, headers("Vary", "Accept-Language"), "image/png", null));
+        cache.put(FONT, headers("Vary", "Cookie"), "font/woff2", null, body(10));
+
+        assertNull(cache.get(FONT));
+        assertNotNull(cache.record(LOGO, headers("Vary", "Accept-Encoding"), "image/png", null));
+    }
+
+    @Test
+    void givenMaxAge_whenClockPassesIt_thenEntryExpires() {
+        cache = open(1 << 20, 1 << 20);
+        cache.put(LOGO, headers("Cache-Control", "max-age=10"), "image/png", null, body(10));
+
+        clock.advance(Duration.ofSeconds(9));
+        assertNotNull(cache.get(LOGO));
+        clock.advance(Duration.ofSeconds(1));
+        assertNull(cache.get(LOGO));
+    }
+
+    /**
+     * Each opened cache gets a registry of its own, meters are bound to the instance that registered them first.
+     */
+    private DiskCache open(long maxBytes, long segmentBytes) {
+        registry = new SimpleMeterRegistry();
+        DiskCache opened = new DiskCache(true, directory, maxBytes, segmentBytes, maxBytes, freshness, clock, registry);
+        opened.recover();
+        return opened;
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".seg")).findFirst().orElseThrow();
+        }
+    }
+
+    private static byte[] transfer(DiskCache.Entry entry, long position, long count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry.transferTo(position, count, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte) ("0123456789abcdef".charAt(i % 16));
+        }
+        return body;
+    }
+
+    private static HttpHeaders headers(String... namesAndValues) {
+        Map<String, List<String>> headers = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+        }
+        return HttpHeaders.of(headers, (k, v) -> true);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
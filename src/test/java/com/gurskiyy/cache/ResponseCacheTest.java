@@ -0,0 +1,332 @@
+package com.gurskiyy.cache;
+
+import com.gurskiyy.support.InMemoryContentStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    private static final URI TARGET = URI.create("https://example.com/page");
+    private static final String PROXY_BASE = "http://localhost:8080/";
+
+    private MutableClock clock;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+        registry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void givenFreshEntry_whenGet_thenHitRecorded() {
+        ResponseCache cache = newCache(1024, Map.of());
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+
+        assertNull(cache.get(key));
+        cache.put(key, TARGET, headers(), "text/html", bytes("<p>cached</p>"));
+        CachedResponse cached = cache.get(key);
+
+        assertNotNull(cached);
+        assertEquals("<p>cached</p>", new String(cached.body(), StandardCharsets.UTF_8));
+        assertEquals(1, registry.get("proxy.cache.requests").tag("result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("proxy.cache.requests").tag("result", "miss").functionCounter().count());
+        assertEquals(1, registry.get("proxy.cache.entries").gauge().value());
+    }
+
+    @Test
+    void givenDefaultTtl_whenClockPassesIt_thenEntryExpires() {
+        ResponseCache cache = newCache(1024, Map.of());
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        cache.put(key, TARGET, headers(), "text/html", bytes("page"));
+
+        clock.advance(Duration.ofSeconds(59));
+        assertNotNull(cache.get(key));
+        clock.advance(Duration.ofSeconds(1));
+        assertNull(cache.get(key));
+        assertEquals(0, registry.get("proxy.cache.size").gauge().value());
+    }
+
+    @Test
+    void givenMaxAge_whenPut_thenItWinsOverDefaultTtl() {
+        ResponseCache cache = newCache(1024, Map.of());
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        cache.put(key, TARGET, headers("Cache-Control", "public, max-age=5"), "text/html", bytes("page"));
+
+        clock.advance(Duration.ofSeconds(5));
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void givenExpiresHeader_whenPut_thenTtlIsRelativeToDate() {
+        ResponseCache cache = newCache(1024, Map.of());
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        ZonedDateTime date = ZonedDateTime.ofInstant(clock.instant(), ZoneOffset.UTC);
+        cache.put(key, TARGET, headers(
+                "Date", DateTimeFormatter.RFC_1123_DATE_TIME.format(date),
+                "Expires", DateTimeFormatter.RFC_1123_DATE_TIME.format(date.plusSeconds(120))), "text/html", bytes("page"));
+
+        clock.advance(Duration.ofSeconds(119));
+        assertNotNull(cache.get(key));
+        clock.advance(Duration.ofSeconds(1));
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void givenUncacheableHeaders_whenChecked_thenNotCacheable() {
+        ResponseCache cache = newCache(1024, Map.of("example.com", Duration.ofMinutes(10)));
+
+        assertFalse(cache.isCacheable(TARGET, headers("Cache-Control", "no-store")));
+        assertFalse(cache.isCacheable(TARGET, headers("Cache-Control", "private, max-age=60")));
+        assertFalse(cache.isCacheable(TARGET, headers("Set-Cookie", "session=1")));
+        assertFalse(cache.isCacheable(TARGET, headers("Vary", "*")));
+        assertFalse(cache.isCacheable(TARGET, headers("Vary", "Accept-Language")));
+        assertFalse(cache.isCacheable(TARGET, headers("Vary", "Accept-Encoding, Cookie")));
+        assertTrue(cache.isCacheable(TARGET, headers("Vary", "accept-encoding")));
+        assertTrue(cache.isCacheable(TARGET, headers("Cache-Control", "no-cache")));
+        assertFalse(cache.isCacheable(URI.create("https://other.com/"), headers("Cache-Control", "no-cache")));
+    }
+
+    @Test
+    void givenHostOverride_whenPut_thenOverrideWinsOverMaxAge() {
+        ResponseCache cache = newCache(1024, Map.of("example.com", Duration.ofMinutes(10)));
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        cache.put(key, TARGET, headers("Cache-Control", "max-age=1"), "text/html", bytes("page"));
+
+        clock.advance(Duration.ofMinutes(9));
+        assertNotNull(cache.get(key));
+    }
+
+    @Test
+    void givenFullCache_whenPut_thenLeastRecentlyUsedEvicted() {
+        ResponseCache cache = newCache(3 * (100 + "text/html".length()), Map.of());
+        for (String page : List.of("a", "b", "c")) {
+            cache.put(page, TARGET, headers(), "text/html", new byte[100]);
+        }
+        assertNotNull(cache.get("a"));
+
+        cache.put("d", TARGET, headers(), "text/html", new byte[100]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(1, registry.get("proxy.cache.evictions").functionCounter().count());
+    }
+
+    @Test
+    void givenEntryLargerThanLimit_whenPut_thenNotStored() {
+        ResponseCache cache = new ResponseCache(true, 1024, 64, Duration.ofMinutes(1), Map.of(), clock, registry);
+
+        cache.put("big", TARGET, headers(), "text/html", new byte[128]);
+
+        assertNull(cache.get("big"));
+    }
+
+    @Test
+    void givenDisabledCache_whenPut_thenNothingStored() {
+        ResponseCache cache = new ResponseCache(false, 1024, 1024, Duration.ofMinutes(1), Map.of(), clock, registry);
+
+        cache.put("page", TARGET, headers(), "text/html", bytes("page"));
+
+        assertNull(cache.get("page"));
+        assertFalse(cache.isCacheable(TARGET, headers()));
+    }
+
+    @Test
+    void givenStaleEntryWithEtag_whenRevalidated_thenFreshAgain() {
+        ResponseCache cache = newCache(1024, Map.of());
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        cache.put(key, TARGET, headers("ETag", "\"v1\"", "Cache-Control", "max-age=10"), "text/html", bytes("page"));
+        clock.advance(Duration.ofSeconds(10));
+
+        assertNull(cache.get(key));
+        CachedResponse stale = cache.getStale(key);
+        assertEquals("\"v1\"", stale.validators().etag());
+
+        CachedResponse refreshed = cache.revalidate(key, TARGET, headers("Cache-Control", "max-age=30"), stale);
+
+        assertEquals("\"v1\"", refreshed.validators().etag());
+        assertSame(refreshed, cache.get(key));
+        assertEquals(1, registry.get("proxy.cache.requests").tag("result", "revalidated").functionCounter().count());
+    }
+
+    @Test
+    void givenNoCacheWithValidator_whenPut_thenStoredForRevalidationOnly() {
+        ResponseCache cache = newCache(1024, Map.of());
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        HttpHeaders headers = headers("Cache-Control", "no-cache", "Last-Modified", "Wed, 01 Jan 2025 00:00:00 GMT");
+
+        assertTrue(cache.isCacheable(TARGET, headers));
+        cache.put(key, TARGET, headers, "text/html", bytes("page"));
+
+        assertNull(cache.get(key));
+        assertEquals("Wed, 01 Jan 2025 00:00:00 GMT", cache.getStale(key).validators().lastModified());
+    }
+
+    @Test
+    void givenStaleEntryWithoutValidators_whenGet_thenRemoved() {
+        ResponseCache cache = newCache(1024, Map.of());
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        cache.put(key, TARGET, headers(), "text/html", bytes("page"));
+        clock.advance(Duration.ofMinutes(1));
+
+        assertNull(cache.get(key));
+        assertNull(cache.getStale(key));
+    }
+
+    @Test
+    void givenPageStoredByOneReplica_whenOtherMisses_thenServedFromSharedStore() {
+        InMemoryContentStore store = new InMemoryContentStore(clock);
+        ResponseCache first = newSharedCache(store, registry);
+        SimpleMeterRegistry secondRegistry = new SimpleMeterRegistry();
+        ResponseCache second = newSharedCache(store, secondRegistry);
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+
+        first.put(key, TARGET, headers(), "text/html", bytes("<p>shared</p>"));
+        CachedResponse shared = second.get(key);
+        CachedResponse near = second.get(key);
+
+        assertEquals("<p>shared</p>", new String(shared.body(), StandardCharsets.UTF_8));
+        assertSame(shared, near);
+        assertEquals(1, store.reads());
+        assertEquals(1, secondRegistry.get("proxy.cache.requests").tag("result", "shared-hit").functionCounter()
+                .count());
+        assertEquals(1, secondRegistry.get("proxy.cache.requests").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void givenNearCopy_whenOtherReplicaReplacesOrInvalidatesPage_thenCopyDropped() {
+        InMemoryContentStore store = new InMemoryContentStore(clock);
+        ResponseCache first = newSharedCache(store, registry);
+        ResponseCache second = newSharedCache(store, new SimpleMeterRegistry());
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        first.put(key, TARGET, headers(), "text/html", bytes("v1"));
+        assertNotNull(second.get(key));
+
+        first.put(key, TARGET, headers(), "text/html", bytes("v2"));
+        assertEquals("v2", new String(second.get(key).body(), StandardCharsets.UTF_8));
+
+        second.invalidate(key);
+        assertNull(first.get(key));
+        assertNull(store.record(key));
+    }
+
+    @Test
+    void givenStalePageWithEtagInSharedStore_whenOtherReplicaMisses_thenItCanRevalidate() {
+        InMemoryContentStore store = new InMemoryContentStore(clock);
+        ResponseCache first = newSharedCache(store, registry);
+        ResponseCache second = newSharedCache(store, new SimpleMeterRegistry());
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        first.put(key, TARGET, headers("ETag", "\"v1\"", "Cache-Control", "max-age=10"), "text/html", bytes("page"));
+        clock.advance(Duration.ofSeconds(10));
+
+        assertNull(second.get(key));
+        CachedResponse stale = second.getStale(key);
+        assertEquals("\"v1\"", stale.validators().etag());
+
+        second.revalidate(key, TARGET, headers("Cache-Control", "max-age=30"), stale);
+        assertNotNull(first.get(key));
+    }
+
+    @Test
+    void givenPageOnlyInSharedStore_whenLookedUpAsync_thenStoreIsReadOnExecutor() {
+        InMemoryContentStore store = new InMemoryContentStore(clock);
+        ResponseCache first = newSharedCache(store, registry);
+        ResponseCache second = newSharedCache(store, new SimpleMeterRegistry());
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        first.put(key, TARGET, headers(), "text/html", bytes("page"));
+        List<Runnable> tasks = new ArrayList<>();
+
+        CompletableFuture<CachedResponse> shared = second.getAsync(key, tasks::add);
+        assertFalse(shared.isDone());
+        assertEquals(0, store.reads());
+        tasks.forEach(Runnable::run);
+
+        assertEquals("page", new String(shared.join().body(), StandardCharsets.UTF_8));
+        assertTrue(second.getAsync(key, tasks::add).isDone());
+        assertEquals(1, tasks.size());
+    }
+
+    @Test
+    void givenUnreachableSharedStore_whenUsed_thenLocalCacheStillServes() {
+        InMemoryContentStore store = new InMemoryContentStore(clock);
+        ResponseCache cache = newSharedCache(store, registry);
+        String key = ResponseCache.key(TARGET, PROXY_BASE);
+        store.failing(true);
+
+        assertNull(cache.get("other"));
+        cache.put(key, TARGET, headers(), "text/html", bytes("page"));
+
+        assertNotNull(cache.get(key));
+        assertEquals(2, registry.get("proxy.cache.shared.errors").functionCounter().count());
+    }
+
+    private ResponseCache newCache(long maxBytes, Map<String, Duration> overrides) {
+        return new ResponseCache(true, maxBytes, maxBytes, Duration.ofSeconds(60), overrides, clock, registry);
+    }
+
+    private ResponseCache newSharedCache(InMemoryContentStore store, SimpleMeterRegistry registry) {
+        return new ResponseCache(true, 1024, 1024, Duration.ofSeconds(60), Map.of(), clock, store.replica(),
+                Duration.ofMinutes(10), registry);
+    }
+
+    private static HttpHeaders headers(String... namesAndValues) {
+        Map<String, List<String>> headers = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+        }
+        return HttpHeaders.of(headers, (k, v) -> true);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.gurskiyy.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void givenFlightInProgress_whenSameKeyJoins_thenFollowerSharesLeaderResult() {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+
+        SingleFlight.Flight<String> leader = flights.join("page");
+        SingleFlight.Flight<String> follower = flights.join("page");
+        leader.result().complete("rewritten");
+
+        assertTrue(leader.leader());
+        assertFalse(follower.leader());
+        assertEquals("rewritten", follower.result().join());
+        assertEquals(1, flights.leaders());
+        assertEquals(1, flights.collapsed());
+    }
+
+    @Test
+    void givenDifferentKeys_whenJoined_thenEachLeadsItsOwnFlight() {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+
+        assertTrue(flights.join("a").leader());
+        assertTrue(flights.join("b").leader());
+        assertEquals(0, flights.collapsed());
+    }
+
+    @Test
+    void givenCompletedFlight_whenSameKeyJoinsAgain_thenNewLeaderStarts() {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        flights.join("page").result().completeExceptionally(new IllegalStateException("upstream failed"));
+
+        assertTrue(flights.join("page").leader());
+    }
+
+    @Test
+    void givenFollower_whenItCompletesItsResult_thenLeaderResultIsUnaffected() {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        SingleFlight.Flight<String> leader = flights.join("page");
+
+        flights.join("page").result().complete("follower");
+
+        assertFalse(leader.result().isDone());
+        assertFalse(flights.join("page").leader());
+    }
+}
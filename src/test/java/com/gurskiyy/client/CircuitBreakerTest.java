@@ -0,0 +1,71 @@
+package com.gurskiyy.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    @Test
+    void givenFailureRateReached_whenWindowFull_thenOpens() {
+        CircuitBreaker breaker = new CircuitBreaker(new CircuitBreaker.Settings(4, 50, Duration.ofMinutes(1)));
+
+        breaker.record(true, false);
+        breaker.record(true, false);
+        breaker.record(false, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.record(false, false);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(CircuitBreaker.Admission.REJECTED, breaker.tryAcquire());
+        assertEquals(60, breaker.retryAfter().toSeconds());
+    }
+
+    @Test
+    void givenOldFailuresLeaveWindow_whenRecorded_thenStaysClosed() {
+        CircuitBreaker breaker = new CircuitBreaker(new CircuitBreaker.Settings(4, 50, Duration.ofMinutes(1)));
+
+        breaker.record(true, false);
+        for (int i = 0; i < 10; i++) {
+            breaker.record(false, false);
+        }
+        breaker.record(true, false);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(CircuitBreaker.Admission.ALLOWED, breaker.tryAcquire());
+    }
+
+    @Test
+    void givenOpenDurationElapsed_whenAcquired_thenSingleProbeDecides() {
+        CircuitBreaker breaker = new CircuitBreaker(new CircuitBreaker.Settings(2, 50, Duration.ZERO));
+        breaker.record(true, false);
+        breaker.record(true, false);
+
+        assertEquals(CircuitBreaker.Admission.PROBE, breaker.tryAcquire());
+        assertEquals(CircuitBreaker.Admission.REJECTED, breaker.tryAcquire());
+        breaker.record(true, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        assertEquals(CircuitBreaker.Admission.PROBE, breaker.tryAcquire());
+        breaker.cancel(true);
+        assertEquals(CircuitBreaker.Admission.PROBE, breaker.tryAcquire());
+        breaker.record(false, true);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.record(true, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void givenDisabled_whenEverythingFails_thenAlwaysAllowed() {
+        CircuitBreaker breaker = new CircuitBreaker(CircuitBreaker.Settings.DISABLED);
+
+        for (int i = 0; i < 100; i++) {
+            breaker.record(true, false);
+        }
+
+        assertEquals(CircuitBreaker.Admission.ALLOWED, breaker.tryAcquire());
+    }
+}
@@ -0,0 +1,102 @@
+package com.gurskiyy.client;
+
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ForwardedHeadersTest {
+
+    private static final String PROXY = "http://localhost:8080";
+    private static final String TARGET = "https://example.com";
+
+    @Test
+    void givenHopByHopHeaders_whenForwarded_thenOnlyEndToEndHeadersRemain() {
+        MultivaluedHashMap<String, String> client = new MultivaluedHashMap<>();
+        client.add("Connection", "keep-alive, X-Trace");
+        client.add("X-Trace", "abc");
+        client.add("Keep-Alive", "timeout=5");
+        client.add("transfer-encoding", "chunked");
+        client.add("Host", "localhost:8080");
+        client.add("Accept-Encoding", "gzip");
+        client.add("Accept-Language", "en");
+        client.add("Cookie", "example.com~a=1");
+        client.add("Cookie", "example.com~b=2");
+
+        ForwardedHeaders headers = ForwardedHeaders.from(client, PROXY, TARGET);
+
+        assertEquals(3, headers.size());
+        assertEquals("en", headers.first("accept-language"));
+        assertNull(headers.first("X-Trace"));
+        assertNull(headers.first("Host"));
+        assertTrue(headers.isChunked());
+        assertTrue(headers.hasCredentials());
+        assertFalse(headers.hasAuthorization());
+        HttpRequest request = build(headers, true);
+        assertEquals(List.of("a=1", "b=2"), request.headers().allValues("Cookie"));
+    }
+
+    @Test
+    void givenCookiesOfSeveralTargets_whenForwarded_thenOnlyTargetsOwnSentUnderTheirNames() {
+        ForwardedHeaders headers = ForwardedHeaders.from(Map.of("Cookie", List.of(
+                "example.com~sid=1; other.org~sid=2; example.com~lang=en; theme=dark", "other.org~x=1")), PROXY, TARGET);
+
+        assertEquals(List.of("sid=1; lang=en"), build(headers, true).headers().allValues("Cookie"));
+        assertFalse(ForwardedHeaders.from(Map.of("Cookie", List.of("other.org~sid=2")), PROXY, TARGET)
+                .hasCredentials());
+    }
+
+    @Test
+    void givenAuthorization_whenForwarded_thenOnlySentToTargetWhoseChallengeWasAnswered() {
+        ForwardedHeaders authorized = ForwardedHeaders.from(Map.of("Authorization", List.of("Basic YTpi"),
+                "Cookie", List.of(TargetCookies.AUTHORIZED_TARGET + "=" + TARGET)), PROXY, TARGET);
+        ForwardedHeaders elsewhere = ForwardedHeaders.from(Map.of("Authorization", List.of("Basic YTpi"),
+                "Cookie", List.of(TargetCookies.AUTHORIZED_TARGET + "=https://other.org")), PROXY, TARGET);
+        ForwardedHeaders unknown = ForwardedHeaders.from(Map.of("Authorization", List.of("Basic YTpi")),
+                PROXY, TARGET);
+
+        assertEquals("Basic YTpi", authorized.first("Authorization"));
+        assertNull(authorized.first("Cookie"));
+        assertNull(elsewhere.first("Authorization"));
+        assertNull(unknown.first("Authorization"));
+    }
+
+    @Test
+    void givenProxyOrigin_whenForwarded_thenReplacedWithTargetOrigin() {
+        ForwardedHeaders fromProxy = ForwardedHeaders.from(Map.of("Origin", List.of(PROXY)), PROXY, TARGET);
+        ForwardedHeaders fromElsewhere = ForwardedHeaders.from(Map.of("Origin", List.of("https://other.org")),
+                PROXY, TARGET);
+
+        assertEquals(TARGET, fromProxy.first("Origin"));
+        assertEquals("https://other.org", fromElsewhere.first("Origin"));
+    }
+
+    @Test
+    void givenProxyValidators_whenApplied_thenClientConditionalsAreLeftOut() {
+        ForwardedHeaders headers = ForwardedHeaders.from(Map.of("If-None-Match", List.of("\"client\""),
+                "Content-Length", List.of("42")), PROXY, TARGET);
+
+        assertEquals(42, headers.contentLength());
+        assertFalse(headers.isChunked());
+        assertEquals("\"client\"", build(headers, true).headers().firstValue("If-None-Match").orElseThrow());
+        assertTrue(build(headers, false).headers().firstValue("If-None-Match").isEmpty());
+    }
+
+    @Test
+    void givenNoHeaders_whenForwarded_thenNone() {
+        assertSame(ForwardedHeaders.NONE, ForwardedHeaders.from(null, PROXY, TARGET));
+        assertSame(ForwardedHeaders.NONE, ForwardedHeaders.from(Map.of(), PROXY, TARGET));
+        assertEquals(-1, ForwardedHeaders.NONE.contentLength());
+    }
+
+    private static HttpRequest build(ForwardedHeaders headers, boolean conditionals) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(TARGET));
+        headers.applyTo(builder, conditionals);
+        return builder.build();
+    }
+}
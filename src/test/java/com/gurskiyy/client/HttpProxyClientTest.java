@@ -1,13 +1,18 @@
 package com.gurskiyy.client;
 
 import com.gurskiyy.exception.ProxyException;
+import com.gurskiyy.metrics.ProxyMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpHeaders;
@@ -15,9 +20,13 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -26,7 +35,9 @@ class HttpProxyClientTest {
     @Mock
     private HttpClient mockHttpClient;
     @Mock
-    private HttpResponse<byte[]> mockHttpResponse;
+    private HttpResponse<InputStream> mockHttpResponse;
+    @Mock
+    private HttpResponse<byte[]> mockBufferedResponse;
 
     private HttpProxyClient httpProxyClient;
 
@@ -39,15 +50,15 @@ class HttpProxyClientTest {
     void shouldReturnSuccessfulResponse() throws Exception {
         byte[] expectedBody = "Hello World".getBytes();
         when(mockHttpResponse.statusCode()).thenReturn(200);
-        when(mockHttpResponse.body()).thenReturn(expectedBody);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream(expectedBody));
         when(mockHttpClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
                 .thenReturn(mockHttpResponse);
 
         URI requestUri = URI.create("https://example.com");
-        HttpResponse<byte[]> response = httpProxyClient.sendRequest(requestUri);
+        HttpResponse<InputStream> response = httpProxyClient.sendRequest(requestUri);
 
         assertEquals(200, response.statusCode());
-        assertArrayEquals(expectedBody, response.body());
+        assertArrayEquals(expectedBody, response.body().readAllBytes());
     }
 
     @SuppressWarnings("unchecked")
@@ -70,16 +81,16 @@ class HttpProxyClientTest {
         byte[] expectedBody = "Multiple Choices".getBytes();
 
         when(mockHttpResponse.statusCode()).thenReturn(300);
-        when(mockHttpResponse.body()).thenReturn(expectedBody);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream(expectedBody));
         when(mockHttpClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
                 .thenReturn(mockHttpResponse);
 
         URI requestUri = URI.create("https://example.com");
 
-        HttpResponse<byte[]> response = httpProxyClient.sendRequest(requestUri);
+        HttpResponse<InputStream> response = httpProxyClient.sendRequest(requestUri);
 
         assertEquals(300, response.statusCode());
-        assertArrayEquals(expectedBody, response.body());
+        assertArrayEquals(expectedBody, response.body().readAllBytes());
     }
 
     @Test
@@ -91,7 +102,7 @@ class HttpProxyClientTest {
 
         URI requestUri = URI.create("https://example.com");
 
-        HttpResponse<byte[]> response = httpProxyClient.sendRequest(requestUri);
+        HttpResponse<InputStream> response = httpProxyClient.sendRequest(requestUri);
 
         assertEquals(302, response.statusCode());
         assertEquals("https://redirected.com", response.headers().firstValue("Location").orElse(""));
@@ -100,31 +111,31 @@ class HttpProxyClientTest {
     @Test
     void shouldHandleClientErrorResponse() throws Exception {
         when(mockHttpResponse.statusCode()).thenReturn(404);
-        when(mockHttpResponse.body()).thenReturn("Not Found".getBytes());
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Not Found".getBytes()));
         when(mockHttpClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
                 .thenReturn(mockHttpResponse);
 
         URI requestUri = URI.create("https://example.com");
 
-        HttpResponse<byte[]> response = httpProxyClient.sendRequest(requestUri);
+        HttpResponse<InputStream> response = httpProxyClient.sendRequest(requestUri);
 
         assertEquals(404, response.statusCode());
-        assertEquals("Not Found", new String(response.body()));
+        assertEquals("Not Found", new String(response.body().readAllBytes()));
     }
 
     @Test
     void shouldHandleServerErrorResponse() throws Exception {
         when(mockHttpResponse.statusCode()).thenReturn(500);
-        when(mockHttpResponse.body()).thenReturn("Server Error".getBytes());
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Server Error".getBytes()));
         when(mockHttpClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
                 .thenReturn(mockHttpResponse);
 
         URI requestUri = URI.create("https://example.com");
 
-        HttpResponse<byte[]> response = httpProxyClient.sendRequest(requestUri);
+        HttpResponse<InputStream> response = httpProxyClient.sendRequest(requestUri);
 
         assertEquals(500, response.statusCode());
-        assertEquals("Server Error", new String(response.body()));
+        assertEquals("Server Error", new String(response.body().readAllBytes()));
     }
 
     @Test
@@ -141,4 +152,159 @@ class HttpProxyClientTest {
         assertTrue(exception.getMessage().contains("Interrupted: Request was interrupted"));
         assertTrue(Thread.currentThread().isInterrupted());
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldReturnSuccessfulResponseAsync() throws Exception {
+        byte[] expectedBody = "Hello World".getBytes();
+        when(mockBufferedResponse.statusCode()).thenReturn(200);
+        when(mockBufferedResponse.body()).thenReturn(expectedBody);
+        when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+
+        HttpResponse<byte[]> response = httpProxyClient.sendRequestAsync(URI.create("https://example.com")).get();
+
+        assertEquals(200, response.statusCode());
+        assertArrayEquals(expectedBody, response.body());
+        verify(mockHttpClient, never()).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldCompleteAsyncWithProxyExceptionOnNetworkFailure() {
+        when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IOException("Network error")));
+
+        CompletableFuture<HttpResponse<byte[]>> future = httpProxyClient.sendRequestAsync(URI.create("https://example.com"));
+
+        ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(ProxyException.class, exception.getCause());
+        assertTrue(exception.getCause().getMessage().contains("Error forwarding request: Network error"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldSendConditionalHeadersForValidators() throws Exception {
+        when(mockHttpResponse.statusCode()).thenReturn(304);
+        when(mockHttpClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockHttpResponse);
+
+        HttpResponse<InputStream> response = httpProxyClient.sendRequest(URI.create("https://example.com"),
+                new Validators("\"v1\"", "Wed, 01 Jan 2025 00:00:00 GMT"));
+
+        ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(mockHttpClient).send(request.capture(), any(HttpResponse.BodyHandler.class));
+        assertEquals(304, response.statusCode());
+        assertEquals("\"v1\"", request.getValue().headers().firstValue("If-None-Match").orElseThrow());
+        assertEquals("Wed, 01 Jan 2025 00:00:00 GMT",
+                request.getValue().headers().firstValue("If-Modified-Since").orElseThrow());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldSendPlainGetWithoutValidators() throws Exception {
+        when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+
+        httpProxyClient.sendRequestAsync(URI.create("https://example.com")).get();
+
+        ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(mockHttpClient).sendAsync(request.capture(), any(HttpResponse.BodyHandler.class));
+        assertTrue(request.getValue().headers().firstValue("If-None-Match").isEmpty());
+        assertTrue(request.getValue().headers().firstValue("If-Modified-Since").isEmpty());
+        assertTrue(request.getValue().headers().firstValue("Range").isEmpty());
+        assertEquals("gzip, deflate", request.getValue().headers().firstValue("Accept-Encoding").orElseThrow());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldForwardRangeAndAskForIdentityCoding() throws Exception {
+        when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+
+        httpProxyClient.sendRequestAsync(URI.create("https://example.com/video.mp4"), Validators.NONE,
+                RangeRequest.of("bytes=0-1023", "\"v1\"")).get();
+
+        ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(mockHttpClient).sendAsync(request.capture(), any(HttpResponse.BodyHandler.class));
+        assertEquals("bytes=0-1023", request.getValue().headers().firstValue("Range").orElseThrow());
+        assertEquals("\"v1\"", request.getValue().headers().firstValue("If-Range").orElseThrow());
+        assertEquals("identity", request.getValue().headers().firstValue("Accept-Encoding").orElseThrow());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldForwardMethodHeadersAndStreamedBody() throws Exception {
+        when(mockHttpResponse.statusCode()).thenReturn(201);
+        when(mockHttpClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockHttpResponse);
+        InputStream upload = spy(new ByteArrayInputStream(new byte[4096]));
+        ForwardedHeaders headers = ForwardedHeaders.from(Map.of("Content-Type", List.of("application/octet-stream"),
+                "Content-Length", List.of("4096"), "Cookie", List.of("example.com~session=1")), "http://localhost:8080",
+                "https://example.com");
+
+        httpProxyClient.sendRequest(URI.create("https://example.com/upload"),
+                new ForwardedRequest("POST", headers, upload), Validators.NONE, RangeRequest.NONE);
+
+        ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(mockHttpClient).send(request.capture(), any(HttpResponse.BodyHandler.class));
+        assertEquals("POST", request.getValue().method());
+        assertEquals("session=1", request.getValue().headers().firstValue("Cookie").orElseThrow());
+        assertEquals(4096, request.getValue().bodyPublisher().orElseThrow().contentLength());
+        // the body is read by the HTTP client as it sends it, never up front
+        verify(upload, never()).read(any(byte[].class), anyInt(), anyInt());
+        verify(upload, never()).readAllBytes();
+    }
+
+    @Test
+    void shouldSendNoBodyWhenClientDeclaredNone() throws Exception {
+        when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+
+        httpProxyClient.sendRequestAsync(URI.create("https://example.com/item/1"),
+                new ForwardedRequest("DELETE", ForwardedHeaders.NONE, new ByteArrayInputStream(new byte[0])),
+                Validators.NONE, RangeRequest.NONE).get();
+
+        ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(mockHttpClient).sendAsync(request.capture(), any(HttpResponse.BodyHandler.class));
+        assertEquals("DELETE", request.getValue().method());
+        assertEquals(0, request.getValue().bodyPublisher().orElseThrow().contentLength());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldSendBodyWithoutDeclaredLengthOrChunking() throws Exception {
+        when(mockHttpResponse.statusCode()).thenReturn(201);
+        when(mockHttpClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockHttpResponse);
+
+        // over HTTP/2 a client may send a body framed by neither Content-Length nor chunking
+        httpProxyClient.sendRequest(URI.create("https://example.com/upload"),
+                new ForwardedRequest("POST", ForwardedHeaders.NONE, new ByteArrayInputStream(new byte[]{1, 2, 3})),
+                Validators.NONE, RangeRequest.NONE);
+
+        ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(mockHttpClient).send(request.capture(), any(HttpResponse.BodyHandler.class));
+        assertEquals(-1, request.getValue().bodyPublisher().orElseThrow().contentLength());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldTimeUpstreamRequestsByHostAndOutcome() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HttpProxyClient client = new HttpProxyClient(UpstreamClients.shared(mockHttpClient),
+                new ProxyMetrics(registry, Optional.empty(), 10));
+        when(mockHttpResponse.statusCode()).thenReturn(404);
+        when(mockHttpClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(mockHttpResponse)
+                .thenThrow(new IOException("Network error"));
+
+        client.sendRequest(URI.create("https://example.com/missing"));
+        assertThrows(ProxyException.class, () -> client.sendRequest(URI.create("https://example.com/down")));
+
+        assertEquals(1, registry.get("proxy.upstream.duration").tag("host", "example.com").tag("outcome", "4xx")
+                .timer().count());
+        assertEquals(1, registry.get("proxy.upstream.duration").tag("host", "example.com").tag("outcome", "error")
+                .timer().count());
+    }
 }
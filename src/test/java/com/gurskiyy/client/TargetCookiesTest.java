@@ -0,0 +1,26 @@
+package com.gurskiyy.client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TargetCookiesTest {
+
+    @Test
+    void givenTargetCookie_whenSentToClient_thenNamePrefixedAndDomainDropped() {
+        assertEquals("example.com~sid=1; Path=/; HttpOnly",
+                TargetCookies.toClient("sid=1; Domain=.example.com; Path=/; HttpOnly", "Example.com"));
+        assertEquals("___1_~sid=1", TargetCookies.toClient("sid=1", "[::1]"));
+    }
+
+    @Test
+    void givenClientCookies_whenSentUpstream_thenOnlyThoseOfTheTarget() {
+        String cookies = "example.com~sid=1;other.org~sid=2; sub.example.com~a=3; example.com~lang=en; "
+                + TargetCookies.AUTHORIZED_TARGET + "=https://example.com";
+
+        assertEquals("sid=1; lang=en", TargetCookies.toUpstream(cookies, "example.com"));
+        assertNull(TargetCookies.toUpstream("theme=dark", "example.com"));
+        assertEquals("https://example.com", TargetCookies.authorizedTarget(cookies));
+        assertNull(TargetCookies.authorizedTarget(TargetCookies.AUTHORIZED_TARGET + "x=https://example.com"));
+    }
+}
@@ -0,0 +1,184 @@
+package com.gurskiyy.client;
+
+import com.gurskiyy.exception.ProxyException;
+import com.gurskiyy.exception.UpstreamUnavailableException;
+import com.gurskiyy.support.StubResponse;
+import com.gurskiyy.support.StubUpstream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpstreamClientsTest {
+
+    private StubUpstream upstream;
+    private SimpleMeterRegistry registry;
+    private UpstreamClients clients;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        upstream = StubUpstream.start();
+        upstream.route("/page", StubResponse.html("<p>page</p>"));
+        upstream.route("/slow", StubResponse.html("<p>slow</p>").withDelay(Duration.ofSeconds(2)));
+        registry = new SimpleMeterRegistry();
+        clients = new UpstreamClients(host -> HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build(),
+                1, Duration.ofMillis(100), Duration.ofMillis(500), 2, registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        clients.close();
+        upstream.close();
+    }
+
+    @Test
+    void givenBodyClosed_whenRequestCompletes_thenConnectionReturnedToPool() throws Exception {
+        HttpProxyClient client = new HttpProxyClient(clients);
+        URI page = URI.create(upstream.baseUrl() + "/page");
+
+        HttpResponse<InputStream> response = client.sendRequest(page);
+        HostPool pool = clients.forHost(page);
+        assertEquals(1, pool.active());
+        assertEquals(1, registry.get("proxy.upstream.connections").tag("host", page.getHost())
+                .tag("state", "active").gauge().value());
+
+        try (InputStream body = response.body()) {
+            assertEquals("<p>page</p>", new String(body.readAllBytes()));
+        }
+        assertEquals(0, pool.active());
+    }
+
+    @Test
+    void givenStreamedAsyncBody_whenClosed_thenConnectionReturnedToPool() throws Exception {
+        HttpProxyClient client = new HttpProxyClient(clients);
+        URI page = URI.create(upstream.baseUrl() + "/page");
+        HostPool pool = clients.forHost(page);
+
+        HttpResponse<Object> streamed = client.sendRequestAsync(page, ForwardedRequest.GET, Validators.NONE,
+                RangeRequest.NONE, headers -> false).get();
+        assertEquals(1, pool.active());
+        try (InputStream body = assertInstanceOf(InputStream.class, streamed.body())) {
+            assertEquals("<p>page</p>", new String(body.readAllBytes()));
+        }
+        assertEquals(0, pool.active());
+
+        HttpResponse<Object> buffered = client.sendRequestAsync(page, ForwardedRequest.GET, Validators.NONE,
+                RangeRequest.NONE, headers -> true).get();
+        assertEquals(0, pool.active());
+        assertEquals("<p>page</p>", new String(assertInstanceOf(byte[].class, buffered.body())));
+    }
+
+    @Test
+    void givenSaturatedHost_whenOtherHostRequested_thenOnlySaturatedHostRejected() throws Exception {
+        HttpProxyClient client = new HttpProxyClient(clients);
+        URI slow = URI.create(upstream.baseUrl() + "/slow");
+        URI sameHost = URI.create(upstream.baseUrl() + "/page");
+        URI otherHost = URI.create(upstream.baseUrl().replace("127.0.0.1", "localhost") + "/page");
+        CompletableFuture<HttpResponse<byte[]>> inFlight = client.sendRequestAsync(slow);
+
+        ProxyException exception = assertThrows(ProxyException.class, () -> client.sendRequest(sameHost));
+        assertTrue(exception.getMessage().contains("Too many concurrent requests"));
+        ExecutionException asyncFailure = assertThrows(ExecutionException.class,
+                () -> client.sendRequestAsync(sameHost).get());
+        assertInstanceOf(ProxyException.class, asyncFailure.getCause());
+        try (InputStream body = client.sendRequest(otherHost).body()) {
+            assertEquals("<p>page</p>", new String(body.readAllBytes()));
+        }
+        assertThrows(ExecutionException.class, inFlight::get);
+    }
+
+    @Test
+    void givenSlowUpstream_whenRequestTimeoutExceeded_thenProxyException() {
+        HttpProxyClient client = new HttpProxyClient(clients);
+        URI slow = URI.create(upstream.baseUrl() + "/slow");
+
+        ProxyException exception = assertThrows(ProxyException.class, () -> client.sendRequest(slow));
+
+        assertTrue(exception.getMessage().contains("Error forwarding request"));
+        assertEquals(0, clients.forHost(slow).active());
+    }
+
+    @Test
+    void givenUnavailableHost_whenFailureRateReached_thenFailsFastUntilProbeSucceeds() throws Exception {
+        AtomicInteger status = new AtomicInteger(503);
+        upstream.route("/flaky", exchange -> StubResponse.status(status.get()));
+        UpstreamClients breaking = new UpstreamClients(host -> HttpClient.newHttpClient(), 4, Duration.ofMillis(100),
+                Duration.ofSeconds(1), 2, new CircuitBreaker.Settings(4, 50, Duration.ofMillis(300)), null, registry);
+        HttpProxyClient client = new HttpProxyClient(breaking);
+        URI flaky = URI.create(upstream.baseUrl() + "/flaky");
+        try (breaking) {
+            for (int i = 0; i < 4; i++) {
+                client.sendRequest(flaky).body().close();
+            }
+
+            UpstreamUnavailableException rejected = assertThrows(UpstreamUnavailableException.class,
+                    () -> client.sendRequest(flaky));
+            assertTrue(rejected.getMessage().contains("Circuit open"));
+            assertEquals(1, rejected.retryAfter().toSeconds());
+            assertEquals(4, upstream.requestCount());
+            assertEquals(1, registry.get("proxy.upstream.circuit").tag("host", flaky.getHost()).tag("state", "open")
+                    .gauge().value());
+            assertEquals(1, registry.get("proxy.upstream.rejected").tag("reason", "circuit_open")
+                    .functionCounter().count());
+
+            Thread.sleep(400);
+            status.set(200);
+            client.sendRequest(flaky).body().close();
+
+            assertEquals(CircuitBreaker.State.CLOSED, breaking.forHost(flaky).circuit());
+        }
+    }
+
+    @Test
+    void givenSlowResponse_whenHedgingEnabled_thenSecondAttemptAnswers() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        upstream.route("/hedged", exchange -> calls.incrementAndGet() == LatencyWindow.MIN_SAMPLES + 1
+                ? StubResponse.html("<p>slow</p>").withDelay(Duration.ofSeconds(3))
+                : StubResponse.html("<p>fast</p>").withDelay(Duration.ofMillis(5)));
+        UpstreamClients hedging = new UpstreamClients(host -> HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1).build(), 4, Duration.ofMillis(100), Duration.ofSeconds(5), 2,
+                CircuitBreaker.Settings.DISABLED, Duration.ofMillis(50), registry);
+        HttpProxyClient client = new HttpProxyClient(hedging);
+        URI hedged = URI.create(upstream.baseUrl() + "/hedged");
+        try (hedging) {
+            for (int i = 0; i < LatencyWindow.MIN_SAMPLES; i++) {
+                client.sendRequest(hedged).body().close();
+            }
+
+            long start = System.nanoTime();
+            HttpResponse<InputStream> response = client.sendRequest(hedged);
+            try (InputStream body = response.body()) {
+                assertEquals("<p>fast</p>", new String(body.readAllBytes()));
+            }
+
+            assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2_000);
+            assertEquals(1, registry.get("proxy.upstream.hedges").tag("result", "sent").functionCounter().count());
+            assertEquals(1, registry.get("proxy.upstream.hedges").tag("result", "won").functionCounter().count());
+            assertEquals(0, hedging.forHost(hedged).active());
+        }
+    }
+
+    @Test
+    void givenMoreHostsThanLimit_whenRequested_thenExtraHostsShareOverflowPool() {
+        HostPool first = clients.forHost(URI.create("https://a.example"));
+        HostPool second = clients.forHost(URI.create("https://b.example"));
+        HostPool third = clients.forHost(URI.create("https://c.example"));
+        HostPool fourth = clients.forHost(URI.create("https://d.example"));
+
+        assertNotSame(first, second);
+        assertSame(third, fourth);
+        assertSame(first, clients.forHost(URI.create("https://a.example/other")));
+        assertNotNull(registry.find("proxy.upstream.connections").tag("host", UpstreamClients.OVERFLOW_HOST).gauge());
+    }
+}
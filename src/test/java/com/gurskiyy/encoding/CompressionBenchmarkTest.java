@@ -0,0 +1,83 @@
+package com.gurskiyy.encoding;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reports the CPU cost and the bytes saved when gzipping a rewritten page at different levels, written in
+ * 8 KiB chunks with a sync flush after each one as the proxy streams it.
+ */
+@Tag("load")
+class CompressionBenchmarkTest {
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int ITERATIONS = 200;
+    private static final byte[] PAGE = page(256 * 1024);
+
+    @ParameterizedTest
+    @ValueSource(ints = {Deflater.BEST_SPEED, 4, 6, Deflater.BEST_COMPRESSION})
+    void givenRewrittenPage_whenGzipped_thenReportCpuAndRatio(int level) throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < ITERATIONS / 4; i++) {
+            compress(level);
+        }
+
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        int compressedSize = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            compressedSize = compress(level);
+        }
+        long cpuNanos = threads.getCurrentThreadCpuTime() - cpuStart;
+
+        double megabytes = (double) PAGE.length * ITERATIONS / (1024 * 1024);
+        System.out.printf("level=%2d  ratio=%5.1f%%  saved=%6d bytes/page  cpu=%6.2f ms/page  throughput=%6.1f MB/s%n",
+                level, 100.0 * compressedSize / PAGE.length, PAGE.length - compressedSize,
+                cpuNanos / 1e6 / ITERATIONS, megabytes / (cpuNanos / 1e9));
+        assertTrue(compressedSize < PAGE.length);
+    }
+
+    private static int compress(int level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(PAGE.length / 2);
+        try (OutputStream out = new GZIPOutputStream(bytes, CHUNK_SIZE, true) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            for (int offset = 0; offset < PAGE.length; offset += CHUNK_SIZE) {
+                out.write(PAGE, offset, Math.min(CHUNK_SIZE, PAGE.length - offset));
+                out.flush();
+            }
+        }
+        return bytes.size();
+    }
+
+    private static byte[] page(int size) {
+        String[] words = {"quarkus", "native", "extension", "reactive", "config", "simple", "guides", "kubernetes",
+                "build", "container", "startup", "memory", "framework", "deploy", "stream", "client", "server"};
+        Random random = new Random(42);
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Guide</title></head><body>\n");
+        while (html.length() < size) {
+            html.append("<section id=\"s").append(random.nextInt(100_000)).append("\"><h2>")
+                    .append(words[random.nextInt(words.length)]).append("</h2><p>");
+            for (int i = 0; i < 40; i++) {
+                html.append(words[random.nextInt(words.length)]).append(i % 7 == 0 ? "™ " : " ");
+            }
+            html.append("<a href=\"http://localhost:8080/guides/").append(random.nextInt(1000))
+                    .append("?target=https%3A%2F%2Fquarkus.io\">more</a></p></section>\n");
+        }
+        return html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
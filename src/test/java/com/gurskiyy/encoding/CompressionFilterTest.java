@@ -0,0 +1,147 @@
+package com.gurskiyy.encoding;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CompressionFilterTest {
+
+    @Mock
+    private ContainerRequestContext request;
+    @Mock
+    private ContainerResponseContext response;
+    @Mock
+    private WriterInterceptorContext writer;
+
+    private final MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+    private CompressionFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        filter = new CompressionFilter(true, 6, List.of("text/html", "text/css"));
+    }
+
+    @Test
+    void givenHtmlAndGzipClient_whenFiltered_thenMarkedForCompression() {
+        givenResponse(MediaType.TEXT_HTML_TYPE, "gzip, br");
+        headers.putSingle("Content-Length", "123");
+
+        filter.filter(request, response);
+
+        assertEquals("gzip", headers.getFirst("Content-Encoding"));
+        assertEquals("Accept-Encoding", headers.getFirst("Vary"));
+        assertFalse(headers.containsKey("Content-Length"));
+        verify(request).setProperty(any(), eq(Boolean.TRUE));
+    }
+
+    @Test
+    void givenAlreadyEncodedBody_whenFiltered_thenLeftAlone() {
+        when(response.hasEntity()).thenReturn(true);
+        when(response.getHeaders()).thenReturn(headers);
+        headers.putSingle("Content-Encoding", "br");
+
+        filter.filter(request, response);
+
+        assertEquals("br", headers.getFirst("Content-Encoding"));
+        verify(request, never()).setProperty(any(), any());
+    }
+
+    @Test
+    void givenPartialContent_whenFiltered_thenNotCompressed() {
+        when(response.hasEntity()).thenReturn(true);
+        when(response.getStatus()).thenReturn(206);
+
+        filter.filter(request, response);
+
+        assertFalse(headers.containsKey("Content-Encoding"));
+        verify(request, never()).setProperty(any(), any());
+    }
+
+    @Test
+    void givenImageOrClientWithoutGzip_whenFiltered_thenNotCompressed() {
+        givenResponse(new MediaType("image", "png"), "gzip");
+        filter.filter(request, response);
+
+        givenResponse(MediaType.TEXT_HTML_TYPE, "br");
+        filter.filter(request, response);
+
+        assertFalse(headers.containsKey("Content-Encoding"));
+        verify(request, never()).setProperty(any(), any());
+    }
+
+    @Test
+    void givenHtmlAndClientWithoutGzip_whenFiltered_thenStillVariesOnAcceptEncoding() {
+        givenResponse(MediaType.TEXT_HTML_TYPE, null);
+
+        filter.filter(request, response);
+
+        assertEquals(List.of("Accept-Encoding"), headers.get("Vary"));
+        assertFalse(headers.containsKey("Content-Encoding"));
+    }
+
+    @Test
+    void givenImage_whenFiltered_thenNoVary() {
+        givenResponse(new MediaType("image", "png"), "gzip");
+
+        filter.filter(request, response);
+
+        assertFalse(headers.containsKey("Vary"));
+    }
+
+    @Test
+    void givenMarkedResponse_whenWritten_thenBodyIsGzipped() throws IOException {
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        OutputStream[] current = {client};
+        when(writer.getProperty(any())).thenReturn(Boolean.TRUE);
+        when(writer.getOutputStream()).thenAnswer(invocation -> current[0]);
+        doAnswer(invocation -> current[0] = invocation.getArgument(0)).when(writer).setOutputStream(any());
+        doAnswer(invocation -> {
+            current[0].write("<p>Simple page</p>".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(writer).proceed();
+
+        filter.aroundWriteTo(writer);
+
+        assertSame(client, current[0]);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(client.toByteArray()))) {
+            assertEquals("<p>Simple page</p>", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void givenUnmarkedResponse_whenWritten_thenPassedThrough() throws IOException {
+        filter.aroundWriteTo(writer);
+
+        verify(writer).proceed();
+        verify(writer, never()).setOutputStream(any());
+    }
+
+    private void givenResponse(MediaType mediaType, String acceptEncoding) {
+        when(response.hasEntity()).thenReturn(true);
+        when(response.getHeaders()).thenReturn(headers);
+        when(response.getMediaType()).thenReturn(mediaType);
+        lenient().when(request.getHeaderString("Accept-Encoding")).thenReturn(acceptEncoding);
+    }
+}
@@ -0,0 +1,92 @@
+package com.gurskiyy.encoding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentCharsetTest {
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', quoteCharacter = '`', value = {
+            "text/html                         | <p>Simple</p>                                                | UTF-8",
+            "text/html; charset=Shift_JIS      | <meta charset=utf-8>                                          | Shift_JIS",
+            "text/html;charset=\"iso-8859-1\"  | <p>Simple</p>                                                | windows-1252",
+            "text/html; charset=unknown        | <meta charset='koi8-r'>                                       | KOI8-R",
+            "text/html                         | <head><META CHARSET=\"EUC-KR\"/></head>                       | EUC-KR",
+            "text/html                         | <meta http-equiv=Content-Type content='text/html; charset=iso-8859-2'> | ISO-8859-2",
+            "text/html                         | <meta content=\"text/html; charset=gbk\" http-equiv=\"content-type\">  | GBK",
+            "text/html                         | <meta content=\"text/html; charset=gbk\">                     | UTF-8",
+            "text/html                         | <!-- <meta charset=koi8-r> --><meta charset=windows-1251>     | windows-1251",
+            "text/html                         | <meta charset=utf-16>                                         | UTF-8",
+            "text/html                         | <metadata charset=koi8-r>                                     | UTF-8",
+            "text/css                          | @charset \"iso-8859-15\"; a{}                                 | ISO-8859-15",
+            "text/css                          | <meta charset=koi8-r>                                         | UTF-8",
+            "text/css                          | @CHARSET \"koi8-r\"; a{}                                      | UTF-8",
+    })
+    void givenDeclarations_whenDetected_thenHeaderBeforeDocument(String contentType, String body, String expected) {
+        assertEquals(expected, ContentCharset.detect(body.getBytes(StandardCharsets.US_ASCII), contentType).name());
+    }
+
+    @Test
+    void givenByteOrderMark_whenDetected_thenItWinsOverHeader() {
+        assertEquals(StandardCharsets.UTF_16LE, ContentCharset.detect(new byte[]{(byte) 0xFF, (byte) 0xFE, '<', 0},
+                "text/html; charset=windows-1252"));
+        assertEquals(StandardCharsets.UTF_16BE, ContentCharset.detect(new byte[]{(byte) 0xFE, (byte) 0xFF},
+                "text/html"));
+        assertEquals(StandardCharsets.UTF_8, ContentCharset.detect(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF},
+                "text/css; charset=koi8-r"));
+    }
+
+    @Test
+    void givenDeclarationAfterPrescanWindow_whenDetected_thenIgnored() {
+        String page = " ".repeat(ContentCharset.PRESCAN_BYTES) + "<meta charset=koi8-r>";
+
+        assertEquals(StandardCharsets.UTF_8, ContentCharset.detect(page.getBytes(StandardCharsets.US_ASCII),
+                "text/html"));
+    }
+
+    @Test
+    void givenStream_whenDetected_thenNothingConsumed() throws IOException {
+        byte[] page = ("<meta charset=koi8-r>" + "<p>Simple</p>".repeat(200)).getBytes(StandardCharsets.US_ASCII);
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(page), 16);
+
+        assertEquals("KOI8-R", ContentCharset.detect(in, "text/html").name());
+        assertArrayEquals(page, in.readAllBytes());
+    }
+
+    @Test
+    void givenDeclaredCharset_whenDetectedFromStream_thenOnlyByteOrderMarkAwaited() throws IOException {
+        // a slow upstream that has sent the start of its head so far
+        InputStream upstream = new ByteArrayInputStream("<he".getBytes(StandardCharsets.US_ASCII)) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                if (available() == 0) {
+                    throw new IllegalStateException("blocked waiting for the rest of the page");
+                }
+                return super.read(buffer, offset, length);
+            }
+        };
+        InputStream in = new BufferedInputStream(upstream);
+
+        assertEquals("windows-1252", ContentCharset.detect(in, "text/html; charset=iso-8859-1").name());
+        assertEquals("<he", new String(in.readNBytes(3), StandardCharsets.US_ASCII));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "text/html                          | text/html; charset=UTF-8",
+            "text/html;charset=latin1           | text/html; charset=UTF-8",
+            "text/css; Charset=x; level=1       | text/css; level=1; charset=UTF-8",
+    })
+    void givenContentType_whenCharsetSet_thenOldCharsetReplaced(String contentType, String expected) {
+        assertEquals(expected, ContentCharset.withCharset(contentType, StandardCharsets.UTF_8));
+    }
+}
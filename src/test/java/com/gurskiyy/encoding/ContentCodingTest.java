@@ -0,0 +1,74 @@
+package com.gurskiyy.encoding;
+
+import com.gurskiyy.exception.ProxyException;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentCodingTest {
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "gzip, deflate, br | gzip | true",
+            "deflate, br       | gzip | false",
+            "gzip;q=0, *       | gzip | false",
+            "*;q=0.5           | gzip | true",
+            "*;q=0             | gzip | false",
+            "x-gzip            | gzip | true",
+            "GZIP;q=0.8        | gzip | true",
+            "br;q=1.0, gzip;q=0| br   | true",
+    })
+    void givenAcceptEncoding_whenCodingChecked_thenQualityAndWildcardHonoured(String acceptEncoding, String coding,
+                                                                             boolean expected) {
+        assertEquals(expected, ContentCoding.accepts(acceptEncoding, coding));
+    }
+
+    @Test
+    void givenNoAcceptEncoding_whenChecked_thenNothingAccepted() {
+        assertFalse(ContentCoding.accepts(null, "gzip"));
+    }
+
+    @Test
+    void givenGzipAndDeflateBodies_whenDecoded_thenOriginalBytes() throws IOException {
+        byte[] original = "<p>Simple page</p>".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(original, decode(compress(original, GZIPOutputStream::new), "gzip"));
+        assertArrayEquals(original, decode(compress(original, DeflaterOutputStream::new), "deflate"));
+        assertArrayEquals(original, decode(original, "identity"));
+        assertArrayEquals(original, decode(original, null));
+    }
+
+    @Test
+    void givenUnknownCoding_whenDecoded_thenProxyException() {
+        assertThrows(ProxyException.class, () -> ContentCoding.decode(InputStream.nullInputStream(), "br"));
+    }
+
+    private static byte[] decode(byte[] body, String contentEncoding) throws IOException {
+        try (InputStream in = ContentCoding.decode(new ByteArrayInputStream(body), contentEncoding)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] compress(byte[] body, Compressor compressor) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = compressor.wrap(bytes)) {
+            out.write(body);
+        }
+        return bytes.toByteArray();
+    }
+
+    private interface Compressor {
+        OutputStream wrap(OutputStream out) throws IOException;
+    }
+}
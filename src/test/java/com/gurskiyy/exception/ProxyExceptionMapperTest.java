@@ -0,0 +1,44 @@
+package com.gurskiyy.exception;
+
+import com.gurskiyy.metrics.ProxyMetrics;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProxyExceptionMapperTest {
+
+    private final ProxyExceptionMapper mapper = new ProxyExceptionMapper(ProxyMetrics.disabled());
+
+    @Test
+    void givenRefusedUpstream_whenMapped_thenServiceUnavailableWithRetryAfter() {
+        Response response = mapper.toResponse(new UpstreamUnavailableException("Circuit open for quarkus.io",
+                Duration.ofSeconds(7)));
+
+        assertEquals(503, response.getStatus());
+        assertEquals("7", response.getHeaderString("Retry-After"));
+    }
+
+    @Test
+    void givenUpstreamTimeout_whenMapped_thenGatewayTimeout() {
+        Response response = mapper.toResponse(new ProxyException("Error forwarding request: timed out",
+                new HttpTimeoutException("request timed out")));
+
+        assertEquals(504, response.getStatus());
+    }
+
+    @Test
+    void givenTargetOutsideAllowList_whenMapped_thenForbidden() {
+        assertEquals(403, mapper.toResponse(new ForbiddenTargetException("Target not allowed: evil.example"))
+                .getStatus());
+        assertEquals(400, mapper.toResponse(new InvalidTargetException("Invalid target: ftp://x", null)).getStatus());
+    }
+
+    @Test
+    void givenOtherFailure_whenMapped_thenInternalServerError() {
+        assertEquals(500, mapper.toResponse(new ProxyException("Error building target URI", null)).getStatus());
+    }
+}
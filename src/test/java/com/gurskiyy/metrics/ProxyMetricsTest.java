@@ -0,0 +1,75 @@
+package com.gurskiyy.metrics;
+
+import com.gurskiyy.exception.ProxyException;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProxyMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void givenNoAllowList_whenMoreHostsThanLimit_thenLaterHostsTaggedOther() {
+        ProxyMetrics metrics = new ProxyMetrics(registry, Optional.empty(), 2);
+
+        assertEquals("a.example", metrics.hostTag("a.example"));
+        assertEquals("b.example", metrics.hostTag("b.example"));
+        assertEquals("other", metrics.hostTag("c.example"));
+        assertEquals("a.example", metrics.hostTag("a.example"));
+        assertEquals("other", metrics.hostTag(null));
+    }
+
+    @Test
+    void givenAllowList_whenHostTagged_thenOnlyListedHostsKept() {
+        ProxyMetrics metrics = new ProxyMetrics(registry, Optional.of(List.of("quarkus.io")), 100);
+
+        assertEquals("quarkus.io", metrics.hostTag("quarkus.io"));
+        assertEquals("other", metrics.hostTag("github.com"));
+    }
+
+    @Test
+    void givenResponses_whenRecorded_thenCountedByStatusClassAndSizeBucket() {
+        ProxyMetrics metrics = new ProxyMetrics(registry, Optional.empty(), 10);
+
+        metrics.recordResponse("quarkus.io", 200, "text/html; charset=UTF-8", 500);
+        metrics.recordResponse("quarkus.io", 204, "text/html", 20_000);
+        metrics.recordResponse("quarkus.io", 502, null, 0);
+
+        assertEquals(2, registry.get("proxy.responses").tag("host", "quarkus.io").tag("status", "2xx")
+                .tag("content_type", "html").counter().count());
+        assertEquals(1, registry.get("proxy.responses").tag("status", "5xx").tag("content_type", "none")
+                .counter().count());
+        CountAtBucket[] buckets = registry.get("proxy.response.size").tag("content_type", "html")
+                .summary().takeSnapshot().histogramCounts();
+        assertEquals(1024, buckets[0].bucket());
+        assertEquals(1, buckets[0].count());
+        assertEquals(1, buckets[1].count());
+        assertEquals(2, buckets[2].count());
+    }
+
+    @Test
+    void givenProxyException_whenRecorded_thenCountedByCause() {
+        ProxyMetrics metrics = new ProxyMetrics(registry, Optional.empty(), 10);
+
+        metrics.recordError(new ProxyException("Error forwarding request", new IOException("reset")));
+        metrics.recordError(new ProxyException("Too many concurrent requests to host", null));
+
+        assertEquals(1, registry.get("proxy.errors").tag("cause", "IOException").counter().count());
+        assertEquals(1, registry.get("proxy.errors").tag("cause", "none").counter().count());
+    }
+
+    @Test
+    void givenContentTypes_whenTagged_thenGroupedIntoFewValues() {
+        assertEquals("css", ProxyMetrics.contentTypeTag("text/css"));
+        assertEquals("javascript", ProxyMetrics.contentTypeTag("application/javascript; charset=utf-8"));
+        assertEquals("image", ProxyMetrics.contentTypeTag("image/webp"));
+        assertEquals("other", ProxyMetrics.contentTypeTag("application/x-custom-" + System.nanoTime()));
+    }
+}
@@ -0,0 +1,87 @@
+package com.gurskiyy.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.UriInfo;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ResponseMetricsFilterTest {
+
+    @Mock
+    private ContainerRequestContext request;
+    @Mock
+    private ContainerResponseContext response;
+    @Mock
+    private UriInfo uriInfo;
+    @Mock
+    private WriterInterceptorContext writer;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private ResponseMetricsFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        filter = new ResponseMetricsFilter(new ProxyMetrics(registry, Optional.empty(), 10));
+        MultivaluedHashMap<String, String> query = new MultivaluedHashMap<>();
+        query.putSingle("target", "https://quarkus.io");
+        when(request.getUriInfo()).thenReturn(uriInfo);
+        when(uriInfo.getQueryParameters()).thenReturn(query);
+    }
+
+    @Test
+    void givenResponseWithoutEntity_whenFiltered_thenRecordedImmediately() {
+        when(response.getStatus()).thenReturn(302);
+
+        filter.filter(request, response);
+
+        assertEquals(1, registry.get("proxy.responses").tag("host", "quarkus.io").tag("status", "3xx")
+                .counter().count());
+        verify(request, never()).setProperty(any(), any());
+    }
+
+    @Test
+    void givenResponseWithEntity_whenWritten_thenBytesOnTheWireRecorded() throws Exception {
+        when(response.getStatus()).thenReturn(200);
+        when(response.getHeaderString("Content-Type")).thenReturn("text/html");
+        when(response.hasEntity()).thenReturn(true);
+        filter.filter(request, response);
+        ArgumentCaptor<Object> info = ArgumentCaptor.forClass(Object.class);
+        verify(request).setProperty(any(), info.capture());
+        assertTrue(registry.find("proxy.responses").counters().isEmpty());
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        when(writer.getProperty(any())).thenReturn(info.getValue());
+        when(writer.getOutputStream()).thenReturn(body);
+        doAnswer(invocation -> {
+            ArgumentCaptor<OutputStream> counting = ArgumentCaptor.forClass(OutputStream.class);
+            verify(writer).setOutputStream(counting.capture());
+            counting.getValue().write(new byte[1500]);
+            return null;
+        }).when(writer).proceed();
+
+        filter.aroundWriteTo(writer);
+
+        assertEquals(1500, body.size());
+        assertEquals(1500, registry.get("proxy.response.size").tag("content_type", "html").summary().totalAmount());
+        assertEquals(1, registry.get("proxy.responses").tag("status", "2xx").counter().count());
+        verify(writer).setOutputStream(eq(body));
+    }
+}
@@ -0,0 +1,53 @@
+package com.gurskiyy.metrics;
+
+import com.gurskiyy.resource.ExecutionMode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualThreadPinningMonitorTest {
+
+    private final Object lock = new Object();
+
+    @Test
+    void givenVirtualMode_whenThreadPinnedInsideSynchronized_thenPinningRecorded() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        VirtualThreadPinningMonitor monitor =
+                new VirtualThreadPinningMonitor(registry, ExecutionMode.VIRTUAL, Duration.ofMillis(1));
+        try {
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (monitor.pinnedCount() == 0 && System.nanoTime() < deadline) {
+                Thread.ofVirtual().start(this::sleepWhileHoldingMonitor).join();
+                Thread.sleep(100);
+            }
+
+            assertTrue(monitor.pinnedCount() > 0);
+            assertEquals(monitor.pinnedCount(), registry.get("proxy.virtual.thread.pinned").timer().count());
+        } finally {
+            monitor.close();
+        }
+    }
+
+    @Test
+    void givenWorkerMode_whenCreated_thenMetricRegisteredWithoutRecording() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        VirtualThreadPinningMonitor monitor =
+                new VirtualThreadPinningMonitor(registry, ExecutionMode.WORKER, Duration.ofMillis(20));
+
+        assertEquals(0, registry.get("proxy.virtual.thread.pinned").timer().count());
+        monitor.close();
+    }
+
+    private void sleepWhileHoldingMonitor() {
+        synchronized (lock) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
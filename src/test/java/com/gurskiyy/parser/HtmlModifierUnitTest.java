@@ -2,10 +2,22 @@ package com.gurskiyy.parser;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.gurskiyy.metrics.ProxyMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
 
 class HtmlModifierUnitTest {
 
@@ -61,6 +73,48 @@ class HtmlModifierUnitTest {
         assertTrue(modifiedHtml.contains(expectedHref("https://pt.quarkus.io", "/help")));
     }
 
+    @Test
+    void givenMetrics_whenModifyHtml_thenEveryStageTimed() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HtmlModifier modifier = new HtmlModifier(new ProxyMetrics(registry, Optional.empty(), 10),
+                LinkCache.disabled());
+
+        modifier.modifyHtml("<p>Simple <a href=\"/docs\">page</a></p>", PROXY_BASE_URI, TARGET_DOMAIN);
+        modifier.modifyHtml(new StringReader("<p>Simple</p>"), new StringWriter(), PROXY_BASE_URI, TARGET_DOMAIN);
+
+        for (String stage : List.of("parse", "rewrite", "serialize", "stream")) {
+            assertEquals(1, registry.get("proxy.rewrite.duration").tag("stage", stage).timer().count(), stage);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"article.html", "assets.html", "markup-edge-cases.html", "styles.html"})
+    void givenPageAboveParallelThreshold_whenModifyHtml_thenSameOutputAsSequential(String name) throws IOException {
+        // every page is repeated so it spans many leaf tasks
+        String html = resource(name).repeat(100);
+        HtmlModifier parallel = new HtmlModifier(ProxyMetrics.disabled(), LinkCache.disabled(), 1, 4);
+        try {
+            assertEquals(HTML_MODIFIER.modifyHtml(html, PROXY_BASE_URI, TARGET_DOMAIN),
+                    parallel.modifyHtml(html, PROXY_BASE_URI, TARGET_DOMAIN));
+            byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+            assertArrayEquals(HTML_MODIFIER.modifyHtml(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8,
+                            PROXY_BASE_URI, TARGET_DOMAIN),
+                    parallel.modifyHtml(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8, PROXY_BASE_URI,
+                            TARGET_DOMAIN));
+        } finally {
+            parallel.close();
+        }
+    }
+
+    @Test
+    void givenPageBelowParallelThreshold_whenModifyHtml_thenRewrittenAsSequential() {
+        String html = "<p>Simple <a href=\"/docs\">page</a></p>";
+        HtmlModifier parallel = new HtmlModifier(ProxyMetrics.disabled(), LinkCache.disabled(), 10_000, 0);
+
+        assertEquals(HTML_MODIFIER.modifyHtml(html, PROXY_BASE_URI, TARGET_DOMAIN),
+                parallel.modifyHtml(html, PROXY_BASE_URI, TARGET_DOMAIN));
+    }
+
     private void assertProcessedText(String input, String expected) {
         assertEquals(expected, HTML_MODIFIER.processText(input));
     }
@@ -74,4 +128,13 @@ class HtmlModifierUnitTest {
         String encodedDomain = URLEncoder.encode(domain, StandardCharsets.UTF_8);
         return "href=\"http://localhost:8080" + path + "?target=" + encodedDomain;
     }
+
+    private String resource(String name) {
+        try (InputStream in = getClass().getResourceAsStream("/golden/" + name)) {
+            assertNotNull(in, name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+package com.gurskiyy.parser;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinkCacheTest {
+
+    private static final String PROXY_BASE_URI = "http://localhost:8080/?target=https://quarkus.io";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void givenSameLinkOnTwoPages_whenRewritten_thenSecondIsHit() {
+        LinkCache cache = new LinkCache(100, registry);
+        RewriteContext first = new RewriteContext(PROXY_BASE_URI, "https://quarkus.io", cache);
+        RewriteContext second = new RewriteContext(PROXY_BASE_URI, "https://pt.quarkus.io", cache);
+
+        String rewritten = first.rewriteUrl("https://github.com/docs?a=1");
+
+        assertSame(rewritten, second.rewriteUrl("https://github.com/docs?a=1"));
+        assertEquals("http://localhost:8080/docs?a=1&target=https%3A%2F%2Fgithub.com", rewritten);
+        assertEquals(1, requests("links", "hit"));
+        assertEquals(1, requests("links", "miss"));
+        assertEquals(0.5, registry.get("proxy.link.cache.hit.ratio").tag("cache", "links").gauge().value());
+    }
+
+    @Test
+    void givenOtherProxyBase_whenRewritten_thenNotShared() {
+        LinkCache cache = new LinkCache(100, registry);
+
+        new RewriteContext(PROXY_BASE_URI, "https://quarkus.io", cache).rewriteUrl("https://github.com/");
+        String rewritten = new RewriteContext("https://proxy.example.org/", "https://quarkus.io", cache)
+                .rewriteUrl("https://github.com/");
+
+        assertEquals("https://proxy.example.org/?target=https%3A%2F%2Fgithub.com", rewritten);
+        assertEquals(0, requests("links", "hit"));
+    }
+
+    @Test
+    void givenRelativeLinks_whenRewritten_thenNotRemembered() {
+        LinkCache cache = new LinkCache(100, registry);
+        RewriteContext context = new RewriteContext(PROXY_BASE_URI, "https://quarkus.io", cache);
+
+        context.rewriteUrl("/docs");
+        context.rewriteUrl("/docs");
+
+        assertEquals(0, requests("links", "hit") + requests("links", "miss"));
+        assertEquals(1, requests("origins", "miss"));
+    }
+
+    @Test
+    void givenMoreLinksThanBound_whenRewritten_thenReadLinksSurviveEviction() {
+        LinkCache cache = new LinkCache(100, registry);
+        RewriteContext context = new RewriteContext(PROXY_BASE_URI, "https://quarkus.io", cache);
+        context.rewriteUrl("https://quarkus.io/hot");
+
+        for (int i = 0; i < 1_000; i++) {
+            context.rewriteUrl("https://quarkus.io/cold/" + i);
+            context.rewriteUrl("https://quarkus.io/hot");
+        }
+
+        double entries = registry.get("proxy.link.cache.entries").tag("cache", "links").gauge().value();
+        assertTrue(entries <= 101, "entries " + entries);
+        assertTrue(registry.get("proxy.link.cache.evictions").tag("cache", "links").functionCounter().count() > 800);
+        assertEquals(1, requests("links", "miss") - 1_000);
+    }
+
+    @Test
+    void givenDisabledCache_whenRewritten_thenSameResult() {
+        RewriteContext cached = new RewriteContext(PROXY_BASE_URI, "https://quarkus.io", new LinkCache(0, registry));
+        RewriteContext uncached = new RewriteContext(PROXY_BASE_URI, "https://quarkus.io");
+
+        assertEquals(uncached.rewriteUrl("//cdn.example.org/lib.js"), cached.rewriteUrl("//cdn.example.org/lib.js"));
+        assertEquals("https://bad host/", cached.rewriteUrl("https://bad host/"));
+        assertEquals(0, requests("links", "miss"));
+    }
+
+    private double requests(String cache, String result) {
+        return registry.get("proxy.link.cache.requests").tags("cache", cache, "result", result).functionCounter()
+                .count();
+    }
+}
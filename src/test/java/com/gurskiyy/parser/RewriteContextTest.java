@@ -0,0 +1,50 @@
+package com.gurskiyy.parser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RewriteContextTest {
+
+    private static final String TARGET = "?target=https%3A%2F%2Fquarkus.io";
+    private final RewriteContext context = new RewriteContext("http://localhost:8080/?target=https://quarkus.io",
+            "https://quarkus.io");
+
+    @Test
+    void givenUrls_whenRewritten_thenOnlyAbsoluteAndRootRelativeProxied() {
+        assertEquals("http://localhost:8080/docs" + TARGET, context.rewriteUrl("/docs"));
+        assertEquals("http://localhost:8080/docs?a=1&target=https%3A%2F%2Fgithub.com",
+                context.rewriteUrl("https://github.com/docs?a=1#top"));
+        assertEquals("http://localhost:8080/lib.js?target=https%3A%2F%2Fcdn.example.org",
+                context.rewriteUrl("//cdn.example.org/lib.js"));
+        assertEquals("relative/path", context.rewriteUrl("relative/path"));
+        assertEquals("data:image/png;base64,AAAA", context.rewriteUrl("data:image/png;base64,AAAA"));
+        assertEquals("https://bad host/", context.rewriteUrl("https://bad host/"));
+    }
+
+    @Test
+    void givenSrcset_whenRewritten_thenDescriptorsAndSeparatorsKept() {
+        assertEquals("http://localhost:8080/a.png" + TARGET + " 1x,\n  http://localhost:8080/b.png" + TARGET + " 2x",
+                context.rewriteSrcset("/a.png 1x,\n  /b.png 2x"));
+        assertEquals("http://localhost:8080/a.png" + TARGET + " 1x,http://localhost:8080/b.png" + TARGET + " 2x",
+                context.rewriteSrcset("/a.png 1x,/b.png 2x"));
+        assertEquals("http://localhost:8080/a.png" + TARGET + ", http://localhost:8080/b.png" + TARGET + " 100w",
+                context.rewriteSrcset("/a.png, /b.png 100w"));
+        assertEquals("data:image/png;base64,AA== 1x, http://localhost:8080/c.png" + TARGET,
+                context.rewriteSrcset("data:image/png;base64,AA== 1x, /c.png"));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "5; url=/next|5; url=http://localhost:8080/next" + TARGET,
+            "0;URL='/next?a=1'|0;URL='http://localhost:8080/next?a=1&target=https%3A%2F%2Fquarkus.io'",
+            "3, /next |3, http://localhost:8080/next" + TARGET + " ",
+            "10|10",
+            "soon; url=/next|soon; url=/next"
+    })
+    void givenRefreshContent_whenRewritten_thenOnlyUrlReplaced(String content, String expected) {
+        assertEquals(expected, context.rewriteRefresh(content));
+    }
+}
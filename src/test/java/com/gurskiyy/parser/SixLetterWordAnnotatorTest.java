@@ -0,0 +1,91 @@
+package com.gurskiyy.parser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.CharBuffer;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SixLetterWordAnnotatorTest {
+
+    private static final Pattern SIX_LETTER_WORD_PATTERN = Pattern.compile("\\b([A-Za-z]{6})\\b");
+    private static final int SAMPLES = 20_000;
+
+    /**
+     * Fragments that sit on either side of the regex word boundary: ASCII word characters, non-ASCII letters and
+     * digits, non-spacing marks (including a supplementary one), surrogate pairs and lone surrogates.
+     */
+    private static final String[] FRAGMENTS = {
+            "a", "Z", "q", "abcdef", "ABCDEF", "Sample", "random", "abcde", "abcdefg", "7", "_", " ", "\t", "\n",
+            ".", "-", "'", "<", "&", "\u00e9", "\u00c9", "\u0661", "\u00b2", "\u0301", "\u0308", "\u20dd",
+            "\ud834\udd67", "\ud835\udc00", "\ud83d\ude00", "\ud800", "\udc00", "\u2122", "\u00a0", "\u200b"
+    };
+
+    @ParameterizedTest
+    @ValueSource(longs = {1, 2, 3, 42, 2024})
+    void givenRandomText_whenAnnotated_thenMatchesRegex(long seed) {
+        Random random = new Random(seed);
+        SixLetterWordAnnotator annotator = new SixLetterWordAnnotator();
+
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            String text = randomText(random);
+
+            assertEquals(regex(text), annotator.annotate(text), () -> "input: " + escape(text));
+        }
+    }
+
+    @Test
+    void givenNoSixLetterWord_whenAnnotated_thenSameInstanceReturned() {
+        SixLetterWordAnnotator annotator = new SixLetterWordAnnotator();
+        String text = "short words, a longest sentence and abc123def456";
+        CharBuffer chars = CharBuffer.wrap(text.toCharArray());
+
+        assertSame(text, annotator.annotate(text));
+        assertSame(chars, annotator.annotate(chars));
+    }
+
+    @Test
+    void givenReusedAnnotator_whenAnnotatedTwice_thenBufferHoldsLatestResult() {
+        SixLetterWordAnnotator annotator = new SixLetterWordAnnotator();
+
+        assertEquals("Sample\u2122 text", annotator.annotate((CharSequence) "Sample text").toString());
+        assertEquals("xx random\u2122", annotator.annotate((CharSequence) "xx random").toString());
+    }
+
+    @Test
+    void givenBoundaryEdgeCases_whenAnnotated_thenMatchesRegex() {
+        SixLetterWordAnnotator annotator = new SixLetterWordAnnotator();
+        String[] cases = {
+                "", "abcdef", "abcdef abcdef", "abcdef_", "_abcdef", "1abcdef", "abcdef1", "\u00e9abcdef",
+                "abcdef\u00e9", "abcdef\u0301", "\u0301abcdef", "e\u0301abcdef", " \u0301abcdef", "\u00e9\u0301abcdef",
+                "\ud834\udd67abcdef", "a\ud834\udd67abcdef", "abcdef\ud834\udd67", "\ud835\udc00abcdef",
+                "\u0661\u0301abcdef", "abcdef\u2122", "abcdefabcdef"
+        };
+        for (String text : cases) {
+            assertEquals(regex(text), annotator.annotate(text), () -> "input: " + escape(text));
+        }
+    }
+
+    private static String regex(String text) {
+        return SIX_LETTER_WORD_PATTERN.matcher(text).replaceAll("$1\u2122");
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int fragments = random.nextInt(12);
+        for (int i = 0; i < fragments; i++) {
+            text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        text.chars().forEach(c -> escaped.append(c < 128 ? String.valueOf((char) c) : String.format("\\u%04x", c)));
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package com.gurskiyy.parser;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reports the CPU time and allocation of the regex replacement against {@link SixLetterWordAnnotator} over the text
+ * nodes of the golden pages, the same work {@link HtmlModifier#modifyHtml(String, String, String)} does per page.
+ */
+@Tag("load")
+class SixLetterWordBenchmarkTest {
+
+    private static final Pattern SIX_LETTER_WORD_PATTERN = Pattern.compile("\\b([A-Za-z]{6})\\b");
+    private static final String[] PAGES = {"article.html", "markup-edge-cases.html"};
+    private static final int ITERATIONS = 20_000;
+
+    @Test
+    void givenGoldenPages_whenAnnotated_thenReportRegexAgainstScanner() throws IOException {
+        List<String> texts = textNodes();
+        SixLetterWordAnnotator annotator = new SixLetterWordAnnotator();
+
+        measure("regex", texts, text -> SIX_LETTER_WORD_PATTERN.matcher(text).replaceAll("$1\u2122"));
+        measure("scanner", texts, annotator::annotate);
+
+        for (String text : texts) {
+            assertEquals(SIX_LETTER_WORD_PATTERN.matcher(text).replaceAll("$1\u2122"), annotator.annotate(text));
+        }
+    }
+
+    private static void measure(String name, List<String> texts, Function<String, CharSequence> annotate) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sink = 0;
+        for (int i = 0; i < ITERATIONS / 4; i++) {
+            sink += run(texts, annotate);
+        }
+
+        long threadId = Thread.currentThread().threadId();
+        long allocatedStart = threads.getThreadAllocatedBytes(threadId);
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += run(texts, annotate);
+        }
+        long cpuNanos = threads.getCurrentThreadCpuTime() - cpuStart;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedStart;
+
+        System.out.printf("%-8s nodes=%4d  cpu=%8.2f us/page-set  allocated=%8d bytes/page-set  (sink %d)%n",
+                name, texts.size(), cpuNanos / 1e3 / ITERATIONS, allocated / ITERATIONS, sink);
+    }
+
+    private static long run(List<String> texts, Function<String, CharSequence> annotate) {
+        long length = 0;
+        for (String text : texts) {
+            length += annotate.apply(text).length();
+        }
+        return length;
+    }
+
+    private List<String> textNodes() throws IOException {
+        List<String> texts = new ArrayList<>();
+        for (String page : PAGES) {
+            try (InputStream in = getClass().getResourceAsStream("/golden/" + page)) {
+                assertNotNull(in, page);
+                NodeTraversor.traverse((node, depth) -> {
+                    if (node instanceof TextNode textNode) {
+                        texts.add(textNode.getWholeText());
+                    }
+                }, Jsoup.parse(new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+            }
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,130 @@
+package com.gurskiyy.parser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingCssRewriterTest {
+
+    private static final String PROXY = "http://localhost:8080";
+    private static final String TARGET = "?target=https%3A%2F%2Fquarkus.io";
+    private final RewriteContext context = new RewriteContext("http://localhost:8080/?target=https://quarkus.io",
+            "https://quarkus.io");
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', quoteCharacter = '`', value = {
+            "a{b:url(/x.png)}                | a{b:url(" + PROXY + "/x.png" + TARGET + ")}",
+            "a{b:URL( '/x.png' )}            | a{b:URL( '" + PROXY + "/x.png" + TARGET + "' )}",
+            "a{b:url(\"/x.png\")}            | a{b:url(\"" + PROXY + "/x.png" + TARGET + "\")}",
+            "@import \"/a.css\";             | @import \"" + PROXY + "/a.css" + TARGET + "\";",
+            "@import/**/'/a.css';            | @import/**/'" + PROXY + "/a.css" + TARGET + "';",
+            "@import url(/a.css) screen;     | @import url(" + PROXY + "/a.css" + TARGET + ") screen;",
+            "a{b:url(/a\\)b.png)}            | a{b:url(" + PROXY + "/a\\)b.png" + TARGET + ")}",
+            "a{b:url('/it\\'s.png')}         | a{b:url('" + PROXY + "/it\\'s.png" + TARGET + "')}",
+            "a{b:url(/a\\20 b.png)}          | a{b:url(" + PROXY + "/a\\20 b.png" + TARGET + ")}",
+    })
+    void givenReference_whenRewritten_thenProxiedAndEscaped(String css, String expected) {
+        assertEquals(expected, StreamingCssRewriter.rewrite(css, context));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', quoteCharacter = '`', value = {
+            "a{b:url(relative.png)}",
+            "a{b:url(data:image/png;base64,AAAA)}",
+            "a{b:myurl(/x.png)}",
+            "a{content:\"url(/x.png)\"}",
+            "/* url(/x.png) @import '/a.css'; */",
+            "@media screen{a{content:'/x.png'}}",
+            "a{b:url(/bad\"url.png)}",
+            "a{b:url()}",
+            "color: red",
+            "a{b:url(/unterminated.png",
+    })
+    void givenNoRewritableReference_whenRewritten_thenUnchanged(String css) {
+        assertSame(css, StreamingCssRewriter.rewrite(css, context));
+    }
+
+    @Test
+    void givenUrlLongerThanLimit_whenRewritten_thenCopiedVerbatim() {
+        String css = "a{b:url(/" + "a".repeat(StreamingCssRewriter.MAX_URL_LENGTH) + ".png)}";
+
+        assertEquals(css, StreamingCssRewriter.rewrite(css, context));
+    }
+
+    @Test
+    void givenEscapes_whenUnescaped_thenDecodedAsCss() {
+        assertEquals("/a b", StreamingCssRewriter.unescape("/a\\20 b"));
+        assertEquals("/a)b", StreamingCssRewriter.unescape("/a\\)b"));
+        assertEquals("/\u00e9", StreamingCssRewriter.unescape("/\\0000e9"));
+        assertEquals("/\uFFFD", StreamingCssRewriter.unescape("/\\0"));
+    }
+
+    @Test
+    void givenLargeSheetInSmallReads_whenStreamed_thenSameAsWholeRewrite() throws IOException {
+        StringBuilder css = new StringBuilder();
+        Random random = new Random(7);
+        for (int i = 0; i < 2_000; i++) {
+            switch (random.nextInt(4)) {
+                case 0 -> css.append(".r").append(i).append("{background:url(/img/").append(i).append(".png)}\n");
+                case 1 -> css.append("@font-face{src:url(data:font/woff2;base64,")
+                        .append("A".repeat(random.nextInt(10_000))).append(")}\n");
+                case 2 -> css.append("/* comment ").append(i).append(" */\n");
+                default -> css.append("@import '/sheet").append(i).append(".css';\n");
+            }
+        }
+        String expected = StreamingCssRewriter.rewrite(css.toString(), context);
+        StringWriter out = new StringWriter();
+
+        new StreamingCssRewriter(out, context).rewrite(new TrickleReader(css.toString()));
+
+        assertEquals(expected, out.toString());
+        assertTrue(expected.contains("url(" + PROXY + "/img/"));
+    }
+
+    @Test
+    void givenStyleSheet_whenModified_thenStreamedThroughContext() throws IOException {
+        Writer out = new StringWriter();
+
+        new HtmlModifier().modifyCss(new StringReader("a{b:url(/x.png)}"), out,
+                "http://localhost:8080/?target=https://quarkus.io", "https://quarkus.io");
+
+        assertEquals("a{b:url(" + PROXY + "/x.png" + TARGET + ")}", out.toString());
+    }
+
+    /**
+     * Hands out at most three characters per read, so references are split across reads.
+     */
+    private static final class TrickleReader extends Reader {
+
+        private final String text;
+        private int position;
+
+        TrickleReader(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == text.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, 3), text.length() - position);
+            text.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
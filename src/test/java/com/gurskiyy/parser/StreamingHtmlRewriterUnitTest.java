@@ -0,0 +1,149 @@
+package com.gurskiyy.parser;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+class StreamingHtmlRewriterUnitTest {
+
+    private static final String PROXY_BASE_URI = "http://localhost:8080/?target=https://quarkus.io";
+    private static final String TARGET_DOMAIN = "https://quarkus.io";
+    private static final HtmlModifier HTML_MODIFIER = new HtmlModifier();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"article", "markup-edge-cases", "assets", "styles"})
+    void givenGoldenPage_whenModifiedInBothModes_thenOutputMatchesGolden(String page) {
+        String html = resource(page + ".html");
+        String expected = resource(page + ".expected.html");
+
+        assertEquals(expected, normalize(HTML_MODIFIER.modifyHtml(html, PROXY_BASE_URI, TARGET_DOMAIN)));
+        assertEquals(expected, normalize(stream(html)));
+    }
+
+    @Test
+    void givenText_whenStreamed_thenMarkupKeptAndTrademarkAppended() {
+        assertEquals("<p class=\"random\">Sample™ text with random™ words.</p>",
+                stream("<p class=\"random\">Sample text with random words.</p>"));
+    }
+
+    @Test
+    void givenBoundaryEdgeCases_whenStreamed_thenMatchesAnnotator() {
+        String[] cases = {
+                "abcdef", "abcdef_", "_abcdef", "1abcdef", "\u00e9abcdef", "abcdef\u0301", "\u0301abcdef",
+                "e\u0301abcdef", " \u0301abcdef", "\u00e9\u0301abcdef", "\u00e9\u0301\u0308abcdef", "_\u0301abcdef",
+                "\u0661\u0301abcdef", "\ud834\udd67abcdef", "a\ud834\udd67abcdef", "abcdef\ud834\udd67",
+                "\ud835\udc00\u0301abcdef", "&eacute;\u0301abcdef", "abcdef&#x1d167;", "\u00e9<b>\u0301abcdef</b>",
+                "abcdef\ud834<b>\udd67</b>"
+        };
+        for (String text : cases) {
+            String html = "<p>" + text + "</p>";
+
+            assertEquals(normalize(HTML_MODIFIER.modifyHtml(html, PROXY_BASE_URI, TARGET_DOMAIN)),
+                    normalize(stream(html)), () -> "input: " + html);
+        }
+    }
+
+    @Test
+    void givenScriptAndStyle_whenStreamed_thenContentUntouched() {
+        String html = "<script>var sample = '</p>random';</script><style>.button{}</style>";
+
+        assertEquals(html, stream(html));
+    }
+
+    @Test
+    void givenRelativeLink_whenStreamed_thenOnlyHrefRewritten() {
+        assertEquals("<a id=x href=\"http://localhost:8080/docs?a=1&amp;target=https%3A%2F%2Fquarkus.io\">Docs</a>",
+                stream("<a id=x href=/docs?a=1>Docs</a>"));
+    }
+
+    @Test
+    void givenTagLongerThanLimit_whenStreamed_thenCopiedVerbatim() {
+        String html = "<div data-x=\"" + "a".repeat(20_000) + "\">Stream</div>";
+
+        assertEquals(html.replace("Stream<", "Stream™<"), stream(html));
+    }
+
+    @Test
+    void givenHead_whenStreamed_thenStyleSheetsAndScriptsReportedBeforeHeadEnds() throws IOException {
+        String html = "<html><head><title>Docs</title>"
+                + "<link rel=\"stylesheet\" href=\"/css/main.css\">"
+                + "<link rel='alternate stylesheet' href=/css/print.css>"
+                + "<link rel=icon href=/favicon.ico>"
+                + "<script src=\"https://quarkus.io/js/app.js\" defer></script>"
+                + "<script type=module src=/js/module.js></script>"
+                + "<script src=\"data:text/javascript,1\"></script>"
+                + "</head><body><link rel=stylesheet href=/late.css><p>Body</p></body></html>";
+        StringWriter out = new StringWriter();
+        List<String> events = new ArrayList<>();
+
+        HTML_MODIFIER.modifyHtml(new StringReader(html), out, StandardCharsets.UTF_8, PROXY_BASE_URI, TARGET_DOMAIN,
+                new HeadListener() {
+                    @Override
+                    public void preload(String url, String destination) {
+                        events.add(destination + " " + url);
+                    }
+
+                    @Override
+                    public void end() {
+                        events.add("end " + out.toString().endsWith("</head>"));
+                    }
+                });
+
+        assertEquals(List.of(
+                "style http://localhost:8080/css/main.css?target=https%3A%2F%2Fquarkus.io",
+                "script http://localhost:8080/js/app.js?target=https%3A%2F%2Fquarkus.io",
+                "end true"), events);
+        assertEquals(stream(html), out.toString());
+    }
+
+    @Test
+    void givenPageWithoutHeadTags_whenStreamed_thenHeadEndsAtFirstBodyElement() throws IOException {
+        StringWriter out = new StringWriter();
+        List<String> ends = new ArrayList<>();
+
+        HTML_MODIFIER.modifyHtml(new StringReader("<meta charset=utf-8><title>Docs</title><div>Body</div><p>More</p>"),
+                out, StandardCharsets.UTF_8, PROXY_BASE_URI, TARGET_DOMAIN, new HeadListener() {
+                    @Override
+                    public void end() {
+                        ends.add(out.toString());
+                    }
+                });
+
+        assertEquals(List.of("<meta charset=utf-8><title>Docs</title><div>"), ends);
+    }
+
+    private String stream(String html) {
+        StringWriter out = new StringWriter();
+        try {
+            HTML_MODIFIER.modifyHtml(new StringReader(html), out, PROXY_BASE_URI, TARGET_DOMAIN);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    private String normalize(String html) {
+        return Jsoup.parse(html, TARGET_DOMAIN).outerHtml();
+    }
+
+    private String resource(String name) {
+        try (InputStream in = getClass().getResourceAsStream("/golden/" + name)) {
+            assertNotNull(in, name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
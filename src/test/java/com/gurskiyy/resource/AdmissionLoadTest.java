@@ -0,0 +1,115 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.admission.AdmissionController;
+import com.gurskiyy.client.HttpProxyClient;
+import com.gurskiyy.exception.ServiceUnavailableException;
+import com.gurskiyy.support.ProxyResourceBuilder;
+import com.gurskiyy.support.StubResponse;
+import com.gurskiyy.support.StubUpstream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.core.UriInfo;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Offers an upstream that serves at most two requests at a time several times the load it can take. Without
+ * admission control every request queues and latency grows for as long as the overload lasts; with it the excess
+ * is refused with {@code 503} and the requests that are admitted keep a bounded latency.
+ */
+@Tag("load")
+class AdmissionLoadTest {
+
+    private static final Duration SERVICE_TIME = Duration.ofMillis(20);
+    private static final int REQUESTS_PER_SECOND = 400;
+    private static final int WARM_UP_REQUESTS_PER_SECOND = 50;
+    private static final Duration DURATION = Duration.ofSeconds(3);
+
+    @Test
+    void givenOverloadedUpstream_whenAdmissionEnabled_thenAdmittedLatencyStaysBounded() throws Exception {
+        try (StubUpstream upstream = StubUpstream.start()) {
+            upstream.route("/page", exchange -> {
+                LockSupport.parkNanos(SERVICE_TIME.toNanos());
+                return StubResponse.html("<p>Page of a busy origin</p>");
+            });
+
+            run("warm-up", upstream, AdmissionController.disabled(), WARM_UP_REQUESTS_PER_SECOND);
+
+            AdmissionController admission = new AdmissionController(true, 20, 4, 200, Duration.ofMillis(50),
+                    new SimpleMeterRegistry());
+            Result limited = run("admission", upstream, admission, REQUESTS_PER_SECOND);
+            Result unlimited = run("unlimited", upstream, AdmissionController.disabled(), REQUESTS_PER_SECOND);
+
+            System.out.printf("%s%n%s%n", unlimited, limited);
+            assertEquals(0, unlimited.rejected());
+            assertTrue(limited.rejected() > 0, limited.toString());
+            assertTrue(limited.p99().compareTo(unlimited.p99().dividedBy(2)) < 0, limited + " vs " + unlimited);
+        }
+    }
+
+    private Result run(String name, StubUpstream upstream, AdmissionController admission, int requestsPerSecond)
+            throws Exception {
+        HttpProxyClient client = new HttpProxyClient(HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build());
+        ExecutorService rewriters = Executors.newFixedThreadPool(2);
+        ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor();
+        ProxyResource resource = ProxyResourceBuilder.proxying(client).admission(admission)
+                .executionMode(ExecutionMode.ASYNC).rewriteExecutor(rewriters).build();
+        UriInfo uriInfo = ProxyResourceBuilder.uriInfo("page");
+
+        int total = (int) (requestsPerSecond * DURATION.toSeconds());
+        long interval = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        AtomicInteger rejected = new AtomicInteger();
+        CompletableFuture<?>[] requests = new CompletableFuture<?>[total];
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < total; i++) {
+                LockSupport.parkNanos(start + i * interval - System.nanoTime());
+                long sent = System.nanoTime();
+                // admission may wait for a slot, each request gets its own thread so arrivals do not slow down
+                requests[i] = CompletableFuture.supplyAsync(
+                                () -> resource.proxyGet(upstream.baseUrl(), null, null, null, null, uriInfo).toCompletableFuture(), callers)
+                        .thenCompose(stage -> stage)
+                        .handle((response, error) -> {
+                            if (error == null) {
+                                assertEquals(200, response.getStatus());
+                                latencies.add(System.nanoTime() - sent);
+                            } else if (error instanceof CompletionException
+                                    && error.getCause() instanceof ServiceUnavailableException) {
+                                rejected.incrementAndGet();
+                            } else {
+                                fail(error);
+                            }
+                            return null;
+                        });
+            }
+            CompletableFuture.allOf(requests).get(2, TimeUnit.MINUTES);
+        } finally {
+            rewriters.shutdownNow();
+            callers.shutdownNow();
+        }
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        return new Result(name, sorted.length, rejected.get(),
+                Duration.ofNanos(sorted[(int) Math.ceil(sorted.length * 0.99) - 1]));
+    }
+
+    private record Result(String name, int admitted, int rejected, Duration p99) {
+
+        @Override
+        public String toString() {
+            return String.format("%-9s admitted=%5d  rejected=%5d  p99=%6d ms", name, admitted, rejected, p99.toMillis());
+        }
+    }
+}
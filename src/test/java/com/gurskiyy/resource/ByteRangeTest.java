@@ -0,0 +1,48 @@
+package com.gurskiyy.resource;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteRangeTest {
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "bytes=0-499    | 0   | 499",
+            "bytes=500-     | 500 | 999",
+            "bytes=-200     | 800 | 999",
+            "bytes=-5000    | 0   | 999",
+            "bytes=900-1500 | 900 | 999",
+            "Bytes= 10 - 19 | 10  | 19",
+    })
+    void givenRange_whenParsed_thenResolvedAgainstLength(String header, long first, long last) {
+        assertEquals(new ByteRange(first, last), ByteRange.parse(header, 1000));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"bytes=1000-", "bytes=1000-1001", "bytes=-0"})
+    void givenRangePastEnd_whenParsed_thenUnsatisfiable(String header) {
+        ByteRange range = ByteRange.parse(header, 1000);
+
+        assertFalse(range.isSatisfiable());
+        assertEquals("bytes */1000", range.contentRange(1000));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"items=0-1", "bytes=0-1,5-6", "bytes=5-1", "bytes=a-1", "bytes=-", "bytes=1-b", "bytes=0"})
+    void givenUnsupportedOrMalformedRange_whenParsed_thenIgnored(String header) {
+        assertNull(ByteRange.parse(header, 1000));
+    }
+
+    @Test
+    void givenRange_whenDescribed_thenContentRangeAndLength() {
+        ByteRange range = ByteRange.parse("bytes=0-499", 1000);
+
+        assertEquals("bytes 0-499/1000", range.contentRange(1000));
+        assertEquals(500, range.length());
+        assertFalse(ByteRange.parse("bytes=0-", 0).isSatisfiable());
+    }
+}
@@ -0,0 +1,127 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.client.HttpProxyClient;
+import com.gurskiyy.support.ProxyResourceBuilder;
+import com.gurskiyy.support.StubResponse;
+import com.gurskiyy.support.StubUpstream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.UriInfo;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Times how soon a client sees the first byte and the complete head of a page whose upstream sends the head at once
+ * and the body {@link #BODY_DELAY} later, with and without flushing the head early. The head is the earliest a
+ * browser can start fetching style sheets and rendering, so it stands in for first paint. With early hints the
+ * style sheets are known when the response headers are written, before any of the page.
+ */
+@Tag("load")
+class EarlyFlushLoadTest {
+
+    private static final Duration BODY_DELAY = Duration.ofMillis(300);
+    private static final int REQUESTS = 20;
+    private static final String HEAD = "<!doctype html><html><head><title>Guides</title>"
+            + "<link rel=stylesheet href=/assets/site.css><script src=/assets/app.js defer></script></head>";
+
+    @Test
+    void givenSlowUpstream_whenHeadFlushedEarly_thenClientSeesHeadBeforeBodyArrives() throws Exception {
+        try (StubUpstream upstream = StubUpstream.start()) {
+            String body = "<body>" + "<p>Guides for building cloud native applications</p>".repeat(400)
+                    + "</body></html>";
+            upstream.route("/guides", StubResponse.html(HEAD).withTail(body, BODY_DELAY));
+
+            Result buffered = run("buffered", new EarlyHints(false, false, 8, 16, () -> link -> {
+            }, new SimpleMeterRegistry()), upstream);
+            Result flushed = run("flush-head", new EarlyHints(true, false, 8, 16, () -> link -> {
+            }, new SimpleMeterRegistry()), upstream);
+            List<String> sent = new ArrayList<>();
+            Result hinted = run("flush-head+hints", new EarlyHints(true, true, 8, 16, () -> sent::add,
+                    new SimpleMeterRegistry()), upstream);
+
+            System.out.printf("%s%n%s%n%s%n", buffered, flushed, hinted);
+            assertTrue(flushed.headMillis() < BODY_DELAY.toMillis(), flushed.toString());
+            assertTrue(buffered.headMillis() >= BODY_DELAY.toMillis(), buffered.toString());
+            assertEquals(REQUESTS - 1, sent.size());
+        }
+    }
+
+    private Result run(String name, EarlyHints earlyHints, StubUpstream upstream) throws IOException {
+        HttpProxyClient client = new HttpProxyClient(HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build());
+        ProxyResource resource = ProxyResourceBuilder.proxying(client).earlyHints(earlyHints).build();
+        UriInfo uriInfo = ProxyResourceBuilder.uriInfo("guides");
+
+        long[] firstByte = new long[REQUESTS];
+        long[] head = new long[REQUESTS];
+        long[] complete = new long[REQUESTS];
+        int linked = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            long start = System.nanoTime();
+            try (Response response = resource.proxyGet(upstream.baseUrl(), null, null, null, null, uriInfo)
+                    .toCompletableFuture().join()) {
+                if (response.getHeaderString("Link") != null) {
+                    linked++;
+                }
+                TimingOutputStream out = new TimingOutputStream(start);
+                ((StreamingOutput) response.getEntity()).write(out);
+                firstByte[i] = out.firstByte;
+                head[i] = out.head;
+                complete[i] = System.nanoTime() - start;
+            }
+        }
+        return new Result(name, median(firstByte), median(head), median(complete), linked);
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return Duration.ofNanos(sorted[sorted.length / 2]).toMillis();
+    }
+
+    /**
+     * Records when the first bytes and the end of the head reached the client's stream.
+     */
+    private static final class TimingOutputStream extends ByteArrayOutputStream {
+
+        private final long start;
+        private long firstByte = -1;
+        private long head = -1;
+
+        TimingOutputStream(long start) {
+            this.start = start;
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            super.write(bytes, offset, length);
+            long now = System.nanoTime() - start;
+            if (firstByte < 0) {
+                firstByte = now;
+            }
+            if (head < 0 && toString(StandardCharsets.UTF_8).contains("</head>")) {
+                head = now;
+            }
+        }
+    }
+
+    private record Result(String name, long firstByteMillis, long headMillis, long completeMillis, int linked) {
+
+        @Override
+        public String toString() {
+            return String.format("%-17s median first byte %4d ms, head %4d ms, complete %4d ms, Link header on %d/%d",
+                    name, firstByteMillis, headMillis, completeMillis, linked, REQUESTS);
+        }
+    }
+}
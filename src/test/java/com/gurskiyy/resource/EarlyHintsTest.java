@@ -0,0 +1,100 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.parser.HeadListener;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EarlyHintsTest {
+
+    private static final String PAGE = "https://example.com/docs|http://localhost:8080/";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<String> sent = new ArrayList<>();
+
+    @Test
+    void givenLearnedHead_whenPageRequestedAgain_thenPreloadsAnnounced() throws IOException {
+        EarlyHints hints = new EarlyHints(false, true, 8, 16, () -> sent::add, registry);
+        assertNull(hints.link(PAGE));
+        hints.announce(PAGE, hints.client());
+
+        HeadListener head = hints.listener(PAGE, new StringWriter());
+        head.preload("http://localhost:8080/main.css?target=x", "style");
+        head.preload("http://localhost:8080/app.js?target=x", "script");
+        head.end();
+        hints.announce(PAGE, hints.client());
+
+        String link = "<http://localhost:8080/main.css?target=x>; rel=preload; as=style, "
+                + "<http://localhost:8080/app.js?target=x>; rel=preload; as=script";
+        assertEquals(link, hints.link(PAGE));
+        assertEquals(List.of(link), sent);
+        assertEquals(1, registry.get("proxy.early.hints.sent").functionCounter().count());
+    }
+
+    @Test
+    void givenHeadWithoutLinks_whenEnded_thenEarlierLinksForgotten() throws IOException {
+        EarlyHints hints = new EarlyHints(false, true, 8, 16, () -> sent::add, registry);
+        HeadListener first = hints.listener(PAGE, new StringWriter());
+        first.preload("http://localhost:8080/main.css?target=x", "style");
+        first.end();
+
+        hints.listener(PAGE, new StringWriter()).end();
+
+        assertNull(hints.link(PAGE));
+    }
+
+    @Test
+    void givenLimits_whenLearning_thenLinksAndPagesBounded() throws IOException {
+        EarlyHints hints = new EarlyHints(false, true, 1, 1, () -> sent::add, registry);
+        HeadListener head = hints.listener(PAGE, new StringWriter());
+        head.preload("http://localhost:8080/a.css?target=x", "style");
+        head.preload("http://localhost:8080/b.css?target=x", "style");
+        head.preload("http://localhost:8080/c d.css?target=x", "style");
+        head.end();
+        HeadListener other = hints.listener("other", new StringWriter());
+        other.preload("http://localhost:8080/a.css?target=x", "style");
+        other.end();
+
+        assertEquals("<http://localhost:8080/a.css?target=x>; rel=preload; as=style", hints.link(PAGE));
+        assertNull(hints.link("other"));
+    }
+
+    @Test
+    void givenFlushHead_whenHeadEnds_thenOutputFlushedButNothingLearnedForUnsharedPages() throws IOException {
+        EarlyHints hints = new EarlyHints(true, true, 8, 16, () -> sent::add, registry);
+        FlushCountingWriter out = new FlushCountingWriter();
+
+        HeadListener head = hints.listener(null, out);
+        head.preload("http://localhost:8080/main.css?target=x", "style");
+        head.end();
+
+        assertEquals(1, out.flushes);
+        assertSame(HeadListener.NONE, EarlyHints.disabled().listener(PAGE, out));
+        assertSame(HeadListener.NONE, new EarlyHints(false, true, 8, 16, () -> sent::add, registry).listener(null, out));
+    }
+
+    private static final class FlushCountingWriter extends Writer {
+
+        private int flushes;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
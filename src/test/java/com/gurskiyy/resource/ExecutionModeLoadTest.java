@@ -0,0 +1,111 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.client.HttpProxyClient;
+import com.gurskiyy.support.ProxyResourceBuilder;
+import com.gurskiyy.support.StubResponse;
+import com.gurskiyy.support.StubUpstream;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.UriInfo;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the blocking worker pool model with virtual threads against a slow upstream. The worker pool is
+ * sized like the Quarkus default of 200 threads. Running 10k concurrent requests needs an open file limit
+ * of at least 20k, since the stub upstream lives in the same JVM.
+ */
+@Tag("load")
+class ExecutionModeLoadTest {
+
+    private static final Duration UPSTREAM_DELAY = Duration.ofMillis(200);
+    private static final int WORKER_THREADS = 200;
+    private static final int WARM_UP_REQUESTS = 500;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 5_000, 10_000})
+    void givenSlowUpstream_whenComparingModes_thenAllRequestsServed(int concurrency) throws Exception {
+        try (StubUpstream upstream = StubUpstream.start()) {
+            upstream.route("/slow", StubResponse.html("<p>Simple page behind a slow origin</p>")
+                    .withHeader("Connection", "close")
+                    .withDelay(UPSTREAM_DELAY));
+            run(ExecutionMode.WORKER, upstream, WARM_UP_REQUESTS);
+            run(ExecutionMode.VIRTUAL, upstream, WARM_UP_REQUESTS);
+
+            Result worker = run(ExecutionMode.WORKER, upstream, concurrency);
+            Result virtual = run(ExecutionMode.VIRTUAL, upstream, concurrency);
+
+            System.out.printf("concurrency=%d%n  %s%n  %s%n", concurrency, worker, virtual);
+        }
+    }
+
+    private Result run(ExecutionMode mode, StubUpstream upstream, int concurrency) throws Exception {
+        HttpProxyClient client = new HttpProxyClient(HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build());
+        ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS);
+        ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+        ProxyResource resource = ProxyResourceBuilder.proxying(client).executionMode(mode)
+                .virtualExecutor(virtualThreads).build();
+        UriInfo uriInfo = ProxyResourceBuilder.uriInfo("slow");
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int baseline = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        long[] latencies = new long[concurrency];
+        CompletableFuture<?>[] requests = new CompletableFuture<?>[concurrency];
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                int index = i;
+                requests[i] = CompletableFuture.supplyAsync(
+                                () -> resource.proxyGet(upstream.baseUrl(), null, null, null, null, uriInfo).toCompletableFuture(), workers)
+                        .thenCompose(stage -> stage)
+                        .thenAccept(response -> {
+                            drain(response);
+                            latencies[index] = System.nanoTime() - start;
+                        });
+            }
+            CompletableFuture.allOf(requests).get(5, TimeUnit.MINUTES);
+        } finally {
+            workers.shutdownNow();
+            virtualThreads.shutdownNow();
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        Arrays.sort(latencies);
+        return new Result(mode, elapsed, Duration.ofNanos(latencies[(int) (concurrency * 0.99) - 1]),
+                threads.getPeakThreadCount() - baseline);
+    }
+
+    private void drain(Response response) {
+        assertEquals(200, response.getStatus());
+        try {
+            ((StreamingOutput) response.getEntity()).write(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record Result(ExecutionMode mode, Duration elapsed, Duration p99, int extraThreads) {
+
+        @Override
+        public String toString() {
+            return String.format("%-7s elapsed=%6d ms  p99=%6d ms  peak extra threads=%d",
+                    mode, elapsed.toMillis(), p99.toMillis(), extraThreads);
+        }
+    }
+}
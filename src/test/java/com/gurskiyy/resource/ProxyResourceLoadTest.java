@@ -0,0 +1,76 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.client.HttpProxyClient;
+import com.gurskiyy.support.ProxyResourceBuilder;
+import com.gurskiyy.support.StubResponse;
+import com.gurskiyy.support.StubUpstream;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.UriInfo;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Tag("load")
+class ProxyResourceLoadTest {
+
+    private static final int CONCURRENT_REQUESTS = 2_000;
+    private static final Duration UPSTREAM_DELAY = Duration.ofMillis(500);
+    private static final int CLIENT_THREADS = 4;
+    private static final int REWRITE_THREADS = 2;
+    private static final int MAX_EXTRA_THREADS = 32;
+
+    @Test
+    void givenSlowUpstream_whenThousandsOfAsyncRequests_thenServedByFixedThreadCount() throws Exception {
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(CLIENT_THREADS);
+        ExecutorService rewriteExecutor = Executors.newFixedThreadPool(REWRITE_THREADS);
+        try (StubUpstream upstream = StubUpstream.start()) {
+            upstream.route("/slow", StubResponse.html("<p>Simple page behind a slow origin</p>")
+                    .withHeader("Connection", "close")
+                    .withDelay(UPSTREAM_DELAY));
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(clientExecutor)
+                    .build();
+            ProxyResource resource = ProxyResourceBuilder.proxying(new HttpProxyClient(httpClient))
+                    .executionMode(ExecutionMode.ASYNC).rewriteExecutor(rewriteExecutor).build();
+            UriInfo uriInfo = ProxyResourceBuilder.uriInfo("slow");
+
+            resource.proxyGet(upstream.baseUrl(), null, null, null, null, uriInfo).toCompletableFuture().get(10, TimeUnit.SECONDS).close();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            int baseline = threads.getThreadCount();
+            threads.resetPeakThreadCount();
+
+            long start = System.nanoTime();
+            List<CompletableFuture<Response>> responses = IntStream.range(0, CONCURRENT_REQUESTS)
+                    .mapToObj(i -> resource.proxyGet(upstream.baseUrl(), null, null, null, null, uriInfo).toCompletableFuture())
+                    .toList();
+            CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).get(60, TimeUnit.SECONDS);
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+            int extraThreads = threads.getPeakThreadCount() - baseline;
+
+            System.out.printf("%d requests, %d in flight upstream, %d ms, %d extra threads%n",
+                    CONCURRENT_REQUESTS, upstream.maxInFlight(), elapsed.toMillis(), extraThreads);
+            for (CompletableFuture<Response> response : responses) {
+                assertEquals(200, response.join().getStatus());
+            }
+            assertTrue(upstream.maxInFlight() > CONCURRENT_REQUESTS / 4);
+            assertTrue(elapsed.compareTo(UPSTREAM_DELAY.multipliedBy(CONCURRENT_REQUESTS / 100)) < 0);
+            assertTrue(extraThreads <= MAX_EXTRA_THREADS, "unexpected thread growth: " + extraThreads);
+        } finally {
+            clientExecutor.shutdownNow();
+            rewriteExecutor.shutdownNow();
+        }
+    }
+}
@@ -1,45 +1,95 @@
 package com.gurskiyy.resource;
 
 
+import com.gurskiyy.admission.AdmissionController;
+import com.gurskiyy.cache.DiskCache;
+import com.gurskiyy.cache.RequestCoalescer;
+import com.gurskiyy.cache.ResponseCache;
+import com.gurskiyy.client.ForwardedRequest;
 import com.gurskiyy.client.HttpProxyClient;
+import com.gurskiyy.client.RangeRequest;
+import com.gurskiyy.client.TargetCookies;
+import com.gurskiyy.client.Validators;
+import com.gurskiyy.exception.ProxyException;
+import com.gurskiyy.exception.ServiceUnavailableException;
 import com.gurskiyy.parser.HtmlModifier;
+import com.gurskiyy.parser.RewriteMode;
+import com.gurskiyy.support.InMemoryContentStore;
+import com.gurskiyy.support.ProxyResourceBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.enterprise.context.ContextNotActiveException;
 import jakarta.ws.rs.core.MultivaluedHashMap;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import jakarta.ws.rs.core.UriInfo;
+import org.jboss.resteasy.specimpl.ResteasyHttpHeaders;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpHeaders;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class ProxyResourceUnitTest {
 
+    private static final int CHUNK_SIZE = 16;
+
     @Mock
     private HttpProxyClient mockHttpProxyClient;
     @Mock
     private UriInfo mockUriInfo;
     @Mock
-    private HttpResponse<byte[]> mockHttpResponse;
+    private HttpResponse<InputStream> mockHttpResponse;
+    @Mock
+    private HttpResponse<Object> mockBufferedResponse;
 
     private ProxyResource proxyResource;
+    private ResponseCache responseCache;
+    private RequestCoalescer requestCoalescer;
 
     @BeforeEach
     void setUp() {
-        proxyResource = new ProxyResource(new HtmlModifier(), mockHttpProxyClient);
-        when(mockUriInfo.getPath()).thenReturn("");
+        responseCache = new ResponseCache(true, 1 << 20, 1 << 16, Duration.ofMinutes(1), Map.of(), Clock.systemUTC(),
+                new SimpleMeterRegistry());
+        requestCoalescer = new RequestCoalescer(true, 1 << 16, Duration.ofSeconds(5), new SimpleMeterRegistry());
+        proxyResource = newProxyResource(RewriteMode.STREAMING, ExecutionMode.WORKER);
+        when(mockUriInfo.getPath(false)).thenReturn("");
         when(mockUriInfo.getBaseUri()).thenReturn(URI.create("http://localhost:8080/"));
-        when(mockUriInfo.getQueryParameters()).thenReturn(new MultivaluedHashMap<>());
+        when(mockUriInfo.getRequestUri()).thenReturn(URI.create("http://localhost:8080/"));
     }
 
     @Test
@@ -48,9 +98,9 @@ class ProxyResourceUnitTest {
         when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
                 Map.of("Location", List.of("https://example.com/redirected")), (k, v) -> true)
         );
-        when(mockHttpProxyClient.sendRequest(any())).thenReturn(mockHttpResponse);
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
 
-        try (Response response = proxyResource.proxyGet("https://example.com", mockUriInfo)) {
+        try (Response response = proxyGet("https://example.com")) {
             assertEquals(302, response.getStatus());
             assertEquals("http://localhost:8080/redirected?target=https://example.com", response.getHeaderString("Location"));
         }
@@ -62,41 +112,935 @@ class ProxyResourceUnitTest {
         when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
                 Map.of("Location", List.of("https://example.com/page?param=value")), (k, v) -> true)
         );
-        when(mockHttpProxyClient.sendRequest(any())).thenReturn(mockHttpResponse);
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
 
-        try (Response response = proxyResource.proxyGet("https://example.com", mockUriInfo)) {
+        try (Response response = proxyGet("https://example.com")) {
             assertEquals(302, response.getStatus());
             assertEquals("http://localhost:8080/page?param=value&target=https://example.com", response.getHeaderString("Location"));
         }
     }
 
     @Test
-    void shouldHandleEmptyQueryParameters() {
+    void shouldHandleEmptyQueryParameters() throws IOException {
         when(mockHttpResponse.statusCode()).thenReturn(200);
-        when(mockHttpResponse.body()).thenReturn("Valid response".getBytes());
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Valid response".getBytes()));
         when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
                 Map.of("Content-Type", List.of("text/html")), (k, v) -> true)
         );
-        when(mockHttpProxyClient.sendRequest(any())).thenReturn(mockHttpResponse);
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
 
-        try (Response response = proxyResource.proxyGet("https://example.com", mockUriInfo)) {
+        try (Response response = proxyGet("https://example.com")) {
             assertEquals(200, response.getStatus());
-            assertTrue(response.getEntity().toString().contains("Valid response"));
+            assertTrue(entityAsString(response).contains("Valid response"));
+        }
+    }
+
+    @Test
+    void shouldRemoveTrailingSlashCorrectly() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Test response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        try (Response response = proxyGet("https://example.com/")) {
+            assertEquals(200, response.getStatus());
+            assertTrue(entityAsString(response).contains("Test response"));
+        }
+    }
+
+    @Test
+    void shouldRewriteHtmlInDomMode() throws IOException {
+        proxyResource = newProxyResource(RewriteMode.DOM, ExecutionMode.WORKER);
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("<p>Simple <a href=\"/docs\">page</a></p>".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        try (Response response = proxyGet("https://example.com")) {
+            assertInstanceOf(byte[].class, response.getEntity());
+            String body = entityAsString(response);
+            assertTrue(body.contains("Simple\u2122"));
+            assertTrue(body.contains("href=\"http://localhost:8080/docs?target=https%3A%2F%2Fexample.com\""));
         }
     }
 
     @Test
-    void shouldRemoveTrailingSlashCorrectly() {
+    void shouldStreamNonHtmlBodyWithoutBuffering() throws IOException {
+        byte[] image = new byte[CHUNK_SIZE * 10 + 3];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+        InputStream upstream = spy(new ByteArrayInputStream(image));
         when(mockHttpResponse.statusCode()).thenReturn(200);
-        when(mockHttpResponse.body()).thenReturn("Test response".getBytes());
+        when(mockHttpResponse.body()).thenReturn(upstream);
         when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("image/png"), "Content-Length", List.of(String.valueOf(image.length))),
+                (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals(200, response.getStatus());
+            assertEquals(String.valueOf(image.length), response.getHeaderString("Content-Length"));
+            StreamingOutput output = assertInstanceOf(StreamingOutput.class, response.getEntity());
+            verify(upstream, never()).read(any(byte[].class));
+
+            ByteArrayOutputStream client = spy(new ByteArrayOutputStream());
+            output.write(client);
+
+            assertArrayEquals(image, client.toByteArray());
+            verify(client, times(11)).write(any(byte[].class), eq(0), anyInt());
+            verify(upstream).close();
+        }
+    }
+
+    @Test
+    void shouldRewriteHtmlInAsyncMode() throws IOException {
+        proxyResource = newProxyResource(RewriteMode.STREAMING, ExecutionMode.ASYNC);
+        when(mockBufferedResponse.statusCode()).thenReturn(200);
+        when(mockBufferedResponse.body()).thenReturn("<p>Simple <a href=\"/docs\">page</a></p>".getBytes());
+        when(mockBufferedResponse.headers()).thenReturn(HttpHeaders.of(
                 Map.of("Content-Type", List.of("text/html")), (k, v) -> true)
         );
-        when(mockHttpProxyClient.sendRequest(any())).thenReturn(mockHttpResponse);
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals(200, response.getStatus());
+            String body = entityAsString(response);
+            assertTrue(body.contains("<p>Simple\u2122"));
+            assertTrue(body.contains("href=\"http://localhost:8080/docs?target=https%3A%2F%2Fexample.com\""));
+        }
+        verify(mockHttpProxyClient, never()).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldFailAsyncRequestWithProxyException() {
+        proxyResource = newProxyResource(RewriteMode.STREAMING, ExecutionMode.ASYNC);
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), any())).thenReturn(
+                CompletableFuture.failedFuture(new ProxyException("Error forwarding request: timeout", null)));
+
+        CompletionStage<Response> stage = proxyResource.proxyGet("https://example.com", null, null, null, null, mockUriInfo);
+
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> stage.toCompletableFuture().get());
+        assertInstanceOf(ProxyException.class, exception.getCause());
+    }
+
+    @Test
+    void shouldRejectRequestOverAdmissionLimitWithRetryAfter() {
+        proxyResource = proxy().admission(new AdmissionController(true, 1, 1, 1, Duration.ZERO, new SimpleMeterRegistry()))
+                .executionMode(ExecutionMode.ASYNC).build();
+        CompletableFuture<HttpResponse<Object>> pending = new CompletableFuture<>();
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), any())).thenReturn(pending);
+
+        CompletionStage<Response> first = proxyResource.proxyGet("https://example.com/a", null, null, null, null, mockUriInfo);
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> proxyResource.proxyGet("https://example.com/b", null, null, null, null, mockUriInfo)
+                        .toCompletableFuture().get());
+
+        ServiceUnavailableException rejected = assertInstanceOf(ServiceUnavailableException.class, failure.getCause());
+        assertEquals(Duration.ofSeconds(1), rejected.retryAfter());
+        assertFalse(first.toCompletableFuture().isDone());
+        pending.completeExceptionally(new ProxyException("Error forwarding request: timeout", null));
+        assertThrows(ExecutionException.class, () -> first.toCompletableFuture().get());
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), any())).thenReturn(new CompletableFuture<>());
+        assertDoesNotThrow(() -> proxyResource.proxyGet("https://example.com/c", null, null, null, null, mockUriInfo));
+    }
+
+    @Test
+    void shouldRunBlockingRequestOnVirtualThread() throws IOException {
+        ExecutorService virtualExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        proxyResource = proxy().executionMode(ExecutionMode.VIRTUAL).virtualExecutor(virtualExecutor).build();
+        AtomicBoolean virtual = new AtomicBoolean();
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenAnswer(invocation -> {
+            virtual.set(Thread.currentThread().isVirtual());
+            return mockHttpResponse;
+        });
+
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals(200, response.getStatus());
+            assertTrue(entityAsString(response).contains("Simple\u2122 response"));
+        } finally {
+            virtualExecutor.shutdown();
+        }
+        assertTrue(virtual.get());
+    }
+
+    @Test
+    void shouldServeRepeatedHtmlRequestFromCache() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("max-age=300")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        try (Response first = proxyGet("https://example.com")) {
+            assertTrue(entityAsString(first).contains("Simple\u2122 response"));
+        }
+        try (Response second = proxyGet("https://example.com")) {
+            assertEquals(200, second.getStatus());
+            assertEquals("text/html; charset=UTF-8", second.getHeaderString("Content-Type"));
+            assertEquals("Simple\u2122 response", entityAsString(second));
+        }
+        verify(mockHttpProxyClient, times(1)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldServePageRewrittenByAnotherReplicaFromSharedStore() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("max-age=300")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+        InMemoryContentStore store = new InMemoryContentStore(Clock.systemUTC());
+        responseCache = new ResponseCache(true, 1 << 20, 1 << 16, Duration.ofMinutes(1), Map.of(), Clock.systemUTC(),
+                store.replica(), Duration.ofMinutes(10), new SimpleMeterRegistry());
+        ProxyResource first = newProxyResource(RewriteMode.STREAMING, ExecutionMode.WORKER);
+        responseCache = new ResponseCache(true, 1 << 20, 1 << 16, Duration.ofMinutes(1), Map.of(), Clock.systemUTC(),
+                store.replica(), Duration.ofMinutes(10), new SimpleMeterRegistry());
+        proxyResource = newProxyResource(RewriteMode.STREAMING, ExecutionMode.WORKER);
+
+        try (Response response = first.proxyGet("https://example.com", null, null, null, null, mockUriInfo)
+                .toCompletableFuture().join()) {
+            assertEquals("Simple\u2122 response", entityAsString(response));
+        }
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals("text/html; charset=UTF-8", response.getHeaderString("Content-Type"));
+            assertEquals("Simple\u2122 response", entityAsString(response));
+        }
+        verify(mockHttpProxyClient, times(1)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldNotCacheNoStoreResponse() throws IOException {
+        proxyResource = newProxyResource(RewriteMode.DOM, ExecutionMode.WORKER);
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenAnswer(invocation -> new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("no-store")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        proxyGet("https://example.com").close();
+        proxyGet("https://example.com").close();
+
+        verify(mockHttpProxyClient, times(2)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldServeCachedBodyWhenUpstreamNotModified() throws IOException {
+        HtmlModifier htmlModifier = spy(new HtmlModifier());
+        proxyResource = proxy().htmlModifier(htmlModifier).rewriteMode(RewriteMode.DOM).build();
+        HttpResponse<InputStream> notModified = mock(HttpResponse.class);
+        when(notModified.statusCode()).thenReturn(304);
+        when(notModified.body()).thenReturn(InputStream.nullInputStream());
+        when(notModified.headers()).thenReturn(HttpHeaders.of(Map.of("ETag", List.of("\"v1\"")), (k, v) -> true));
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(Map.of(
+                "Content-Type", List.of("text/html"), "Cache-Control", List.of("no-cache"), "ETag", List.of("\"v1\"")),
+                (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), eq(Validators.NONE), any())).thenReturn(mockHttpResponse);
+        when(mockHttpProxyClient.sendRequest(any(), any(), eq(new Validators("\"v1\"", null)), any())).thenReturn(notModified);
+
+        String first;
+        try (Response response = proxyGet("https://example.com")) {
+            first = entityAsString(response);
+        }
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals(200, response.getStatus());
+            assertEquals(first, entityAsString(response));
+        }
+        verify(htmlModifier, times(1)).modifyHtml(any(InputStream.class), any(), anyString(), anyString());
+        verify(notModified).body();
+    }
+
+    @Test
+    void shouldPassNotModifiedThroughWithoutCachedEntry() {
+        when(mockHttpResponse.statusCode()).thenReturn(304);
+        when(mockHttpResponse.body()).thenReturn(InputStream.nullInputStream());
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(Map.of(), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals(304, response.getStatus());
+            assertNull(response.getHeaderString("Location"));
+            assertNull(response.getEntity());
+        }
+    }
+
+    @Test
+    void shouldCollapseConcurrentAsyncRequestsIntoOneFetch() throws IOException {
+        proxyResource = newProxyResource(RewriteMode.STREAMING, ExecutionMode.ASYNC);
+        CompletableFuture<HttpResponse<Object>> upstream = new CompletableFuture<>();
+        when(mockBufferedResponse.statusCode()).thenReturn(200);
+        when(mockBufferedResponse.body()).thenReturn("<p>Simple page</p>".getBytes());
+        when(mockBufferedResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("no-cache")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), any())).thenReturn(upstream);
+
+        List<CompletableFuture<Response>> responses = IntStream.range(0, 5)
+                .mapToObj(i -> proxyResource.proxyGet("https://example.com", null, null, null, null, mockUriInfo).toCompletableFuture())
+                .toList();
+        upstream.complete(mockBufferedResponse);
+
+        for (CompletableFuture<Response> response : responses) {
+            assertEquals("<p>Simple\u2122 page</p>", entityAsString(response.join()));
+        }
+        verify(mockHttpProxyClient, times(1)).sendRequestAsync(any(), any(), any(), any(), any());
+        assertEquals(4, requestCoalescer.collapsed());
+    }
+
+    @Test
+    void shouldShareStreamedPageOnceLeaderHasWrittenIt() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("no-cache")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        Response leader = proxyGet("https://example.com");
+        CompletableFuture<Response> follower = proxyResource.proxyGet("https://example.com", null, null, null, null, mockUriInfo)
+                .toCompletableFuture();
+        assertFalse(follower.isDone());
+
+        assertEquals("Simple\u2122 response", entityAsString(leader));
+        assertEquals("Simple\u2122 response", entityAsString(follower.join()));
+        verify(mockHttpProxyClient, times(1)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldLetFollowersFetchThemselvesWhenLeaderPageSetsCookie() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenAnswer(invocation -> new ByteArrayInputStream("<form>token</form>".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Set-Cookie", List.of("csrf=abc; HttpOnly")),
+                (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        Response leader = proxyGet("https://example.com");
+        CompletableFuture<Response> follower = proxyResource.proxyGet("https://example.com", null, null, null, null, mockUriInfo)
+                .toCompletableFuture();
+        assertEquals("<form>token</form>", entityAsString(leader));
+
+        try (Response own = follower.join()) {
+            assertEquals("<form>token</form>", entityAsString(own));
+            assertEquals("example.com~csrf=abc; HttpOnly", own.getHeaderString("Set-Cookie"));
+        }
+        verify(mockHttpProxyClient, times(2)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldReleaseFlightAndBodyWhenLeaderResponseIsNeverWritten() throws Exception {
+        requestCoalescer = new RequestCoalescer(true, 1 << 16, Duration.ofSeconds(5), new SimpleMeterRegistry());
+        proxyResource = proxy().writeStartTimeout(Duration.ofMillis(50)).build();
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream dropped = new ByteArrayInputStream("Simple response".getBytes()) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(dropped, new ByteArrayInputStream("Simple response".getBytes()),
+                new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("no-cache")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        Response unwritten = proxyGet("https://example.com");
+        CompletableFuture<Response> follower = proxyResource.proxyGet("https://example.com", null, null, null, null, mockUriInfo)
+                .toCompletableFuture();
+
+        assertEquals("Simple\u2122 response", entityAsString(follower.get(5, TimeUnit.SECONDS)));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!closed.get() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(closed.get());
+        try (Response next = proxyGet("https://example.com")) {
+            assertEquals("Simple\u2122 response", entityAsString(next));
+        }
+        assertThrows(IOException.class, () -> ((StreamingOutput) unwritten.getEntity()).write(new ByteArrayOutputStream()));
+        verify(mockHttpProxyClient, times(3)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldWriteResponseHoldingNothingSharedWhateverTheDelay() throws Exception {
+        requestCoalescer = new RequestCoalescer(false, 0, Duration.ZERO, new SimpleMeterRegistry());
+        proxyResource = proxy().writeStartTimeout(Duration.ofMillis(10)).build();
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        try (Response response = proxyGet("https://example.com")) {
+            Thread.sleep(100);
+            assertEquals("Simple\u2122 response", entityAsString(response));
+        }
+    }
+
+    @Test
+    void shouldLetFollowersFetchThemselvesWhenLeaderCannotShare() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenAnswer(invocation -> new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("image/png")), (k, v) -> true)
+        );
+        List<CompletionStage<Response>> followers = new ArrayList<>();
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenAnswer(invocation -> {
+            if (followers.isEmpty()) {
+                followers.add(proxyResource.proxyGet("https://example.com", null, null, null, null, mockUriInfo));
+            }
+            return mockHttpResponse;
+        });
+
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals("image/png", response.getMediaType().toString());
+        }
+        Response follower = followers.get(0).toCompletableFuture().join();
+        assertEquals("image/png", follower.getMediaType().toString());
+        verify(mockHttpProxyClient, times(2)).sendRequest(any(), any(), any(), any());
+        assertEquals(1, requestCoalescer.collapsed());
+    }
+
+    @Test
+    void shouldDecodeGzipHtmlBeforeRewriting() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream(gzip("<p>Simple page</p>")));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Content-Encoding", List.of("gzip")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        try (Response response = proxyGet("https://example.com")) {
+            assertNull(response.getHeaderString("Content-Encoding"));
+            assertEquals("<p>Simple\u2122 page</p>", entityAsString(response));
+        }
+    }
+
+    @Test
+    void shouldPassCompressedNonHtmlThroughWhenClientAcceptsIt() throws IOException {
+        byte[] compressed = gzip("var sample = 1;");
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream(compressed));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(Map.of("Content-Type", List.of("application/javascript"),
+                "Content-Encoding", List.of("gzip"), "Content-Length", List.of(String.valueOf(compressed.length))),
+                (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        try (Response response = proxyResource.proxyGet("https://example.com", "gzip, br", null, null, null, mockUriInfo)
+                .toCompletableFuture().join()) {
+            assertEquals("gzip", response.getHeaderString("Content-Encoding"));
+            assertEquals(String.valueOf(compressed.length), response.getHeaderString("Content-Length"));
+            ByteArrayOutputStream client = new ByteArrayOutputStream();
+            ((StreamingOutput) response.getEntity()).write(client);
+            assertArrayEquals(compressed, client.toByteArray());
+        }
+    }
+
+    @Test
+    void shouldDecodeCompressedNonHtmlForClientWithoutGzip() throws IOException {
+        proxyResource = newProxyResource(RewriteMode.STREAMING, ExecutionMode.ASYNC);
+        byte[] compressed = gzip("var sample = 1;");
+        when(mockBufferedResponse.statusCode()).thenReturn(200);
+        when(mockBufferedResponse.body()).thenReturn(new ByteArrayInputStream(compressed));
+        when(mockBufferedResponse.headers()).thenReturn(HttpHeaders.of(Map.of("Content-Type", List.of("application/javascript"),
+                "Content-Encoding", List.of("gzip"), "Content-Length", List.of(String.valueOf(compressed.length))),
+                (k, v) -> true));
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+
+        try (Response response = proxyGet("https://example.com")) {
+            assertNull(response.getHeaderString("Content-Encoding"));
+            assertNull(response.getHeaderString("Content-Length"));
+            assertEquals("var sample = 1;", entityAsString(response));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void shouldStreamAssetFromVirtualThreadInAsyncMode() throws IOException {
+        List<String> pools = new ArrayList<>();
+        proxyResource = proxy().executionMode(ExecutionMode.ASYNC)
+                .rewriteExecutor(task -> { pools.add("rewrite"); task.run(); })
+                .virtualExecutor(task -> { pools.add("virtual"); task.run(); }).build();
+        when(mockBufferedResponse.statusCode()).thenReturn(200);
+        when(mockBufferedResponse.body()).thenReturn(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        when(mockBufferedResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("image/png")), (k, v) -> true));
+        ArgumentCaptor<Predicate<HttpHeaders>> buffered = ArgumentCaptor.forClass(Predicate.class);
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), buffered.capture()))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+
+        try (Response response = proxyGet("https://example.com/logo.png")) {
+            assertInstanceOf(StreamingOutput.class, response.getEntity());
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ((StreamingOutput) response.getEntity()).write(output);
+            assertArrayEquals(new byte[]{1, 2, 3}, output.toByteArray());
+        }
+        assertEquals(List.of("virtual"), pools);
+        assertFalse(buffered.getValue().test(HttpHeaders.of(Map.of("Content-Type", List.of("image/png")), (k, v) -> true)));
+        assertTrue(buffered.getValue().test(HttpHeaders.of(Map.of("Content-Type", List.of("text/html")), (k, v) -> true)));
+        assertTrue(buffered.getValue().test(HttpHeaders.of(Map.of("Content-Type", List.of("text/css")), (k, v) -> true)));
+    }
+
+    @Test
+    void shouldStreamAndCacheRewrittenStyleSheet() throws IOException {
+        byte[] compressed = gzip("body { background: url(/bg.png) }");
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream(compressed));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(Map.of("Content-Type", List.of("text/css"),
+                "Content-Encoding", List.of("gzip"), "Content-Length", List.of(String.valueOf(compressed.length))),
+                (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+        String expected = "body { background: url(http://localhost:8080/bg.png?target=https%3A%2F%2Fexample.com) }";
+
+        try (Response response = proxyResource.proxyGet("https://example.com", "gzip", null, null, null, mockUriInfo)
+                .toCompletableFuture().join()) {
+            assertNull(response.getHeaderString("Content-Encoding"));
+            assertNull(response.getHeaderString("Content-Length"));
+            assertInstanceOf(StreamingOutput.class, response.getEntity());
+            assertEquals(expected, entityAsString(response));
+        }
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals(expected, entityAsString(response));
+        }
+        verify(mockHttpProxyClient, times(1)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldRewriteStyleSheetInAsyncMode() throws IOException {
+        proxyResource = newProxyResource(RewriteMode.DOM, ExecutionMode.ASYNC);
+        when(mockBufferedResponse.statusCode()).thenReturn(200);
+        when(mockBufferedResponse.body()).thenReturn("@import '/print.css';".getBytes());
+        when(mockBufferedResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/css; charset=utf-8")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
 
-        try (Response response = proxyResource.proxyGet("https://example.com/", mockUriInfo)) {
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals("@import 'http://localhost:8080/print.css?target=https%3A%2F%2Fexample.com';",
+                    entityAsString(response));
+        }
+    }
+
+    @Test
+    void shouldRewriteLegacyEncodedPageInItsOwnCharsetInBothModes() throws IOException {
+        byte[] page = "<meta charset=iso-8859-2><p>Sample \u017C\u00F3\u0142w <a href=\"/d\u00E9j\u00E1\">Random</a></p>"
+                .getBytes("ISO-8859-2");
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenAnswer(invocation -> new ByteArrayInputStream(page));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("no-store")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        for (RewriteMode mode : RewriteMode.values()) {
+            proxyResource = newProxyResource(mode, ExecutionMode.WORKER);
+            try (Response response = proxyGet("https://example.com")) {
+                assertEquals("text/html; charset=ISO-8859-2", response.getHeaderString("Content-Type"), mode.name());
+                String body = new String(entityAsBytes(response), "ISO-8859-2");
+                assertTrue(body.contains("Sample&#x2122; \u017C\u00F3\u0142w"), mode + ": " + body);
+                assertTrue(body.contains("/d\u00E9j\u00E1?target=https%3A%2F%2Fexample.com\">Random&"), mode + ": " + body);
+            }
+        }
+    }
+
+    @Test
+    void shouldKeepCharsetDeclaredByUpstreamForStyleSheet() throws IOException {
+        proxyResource = newProxyResource(RewriteMode.STREAMING, ExecutionMode.ASYNC);
+        when(mockBufferedResponse.statusCode()).thenReturn(200);
+        when(mockBufferedResponse.body()).thenReturn(".caf\u00E9 { background: url(/caf\u00E9.png) }".getBytes("windows-1252"));
+        when(mockBufferedResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/css;charset=latin1")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals("text/css; charset=windows-1252", response.getHeaderString("Content-Type"));
+            assertEquals(".caf\u00E9 { background: url(http://localhost:8080/caf\u00E9.png?target=https%3A%2F%2Fexample.com) }",
+                    new String(entityAsBytes(response), "windows-1252"));
+        }
+    }
+
+    @Test
+    void shouldServeRangeOfCachedPageWithoutGoingUpstream() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("max-age=300")), (k, v) -> true)
+        );
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+        try (Response first = proxyGet("https://example.com")) {
+            assertEquals("Simple\u2122 response", entityAsString(first));
+        }
+
+        try (Response response = proxyGetRange("bytes=-8", null)) {
+            assertEquals(206, response.getStatus());
+            assertEquals("bytes 10-17/18", response.getHeaderString("Content-Range"));
+            assertEquals("8", response.getHeaderString("Content-Length"));
+            assertEquals("response", entityAsString(response));
+        }
+        try (Response response = proxyGetRange("bytes=18-", null)) {
+            assertEquals(416, response.getStatus());
+            assertEquals("bytes */18", response.getHeaderString("Content-Range"));
+        }
+        try (Response response = proxyGetRange("bytes=0-5", "\"v1\"")) {
             assertEquals(200, response.getStatus());
-            assertTrue(response.getEntity().toString().contains("Test response"));
+            assertEquals("Simple\u2122 response", entityAsString(response));
+        }
+        verify(mockHttpProxyClient, times(1)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldStreamPartialContentOfPassThroughAsset() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(206);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream("0123".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(Map.of("Content-Type", List.of("video/mp4"),
+                "Content-Range", List.of("bytes 0-3/1000"), "Content-Length", List.of("4"),
+                "Accept-Ranges", List.of("bytes"), "ETag", List.of("\"v1\"")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), eq(new RangeRequest("bytes=0-3", "\"v1\""))))
+                .thenReturn(mockHttpResponse);
+
+        try (Response response = proxyGetRange("bytes=0-3", "\"v1\"")) {
+            assertEquals(206, response.getStatus());
+            assertEquals("bytes 0-3/1000", response.getHeaderString("Content-Range"));
+            assertEquals("4", response.getHeaderString("Content-Length"));
+            assertEquals("bytes", response.getHeaderString("Accept-Ranges"));
+            assertEquals("\"v1\"", response.getHeaderString("ETag"));
+            assertEquals("0123", entityAsString(response));
+        }
+    }
+
+    @Test
+    void shouldFetchWholePageWhenUpstreamAnswersRangeOfHtml() throws IOException {
+        proxyResource = newProxyResource(RewriteMode.STREAMING, ExecutionMode.ASYNC);
+        HttpResponse<Object> partial = mock();
+        when(partial.statusCode()).thenReturn(206);
+        when(partial.headers()).thenReturn(HttpHeaders.of(Map.of("Content-Type", List.of("text/html"),
+                "Content-Range", List.of("bytes 0-5/15")), (k, v) -> true));
+        when(mockBufferedResponse.statusCode()).thenReturn(200);
+        when(mockBufferedResponse.body()).thenReturn("Simple response".getBytes());
+        when(mockBufferedResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), eq(RangeRequest.of("bytes=0-5", null)), any()))
+                .thenReturn(CompletableFuture.completedFuture(partial));
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), eq(RangeRequest.NONE), any()))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+
+        try (Response response = proxyGetRange("bytes=0-5", null)) {
+            assertEquals(200, response.getStatus());
+            assertNull(response.getHeaderString("Content-Range"));
+            assertEquals("Simple\u2122 response", entityAsString(response));
+        }
+    }
+
+    @Test
+    void shouldPassOnUnsatisfiableRange() {
+        when(mockHttpResponse.statusCode()).thenReturn(416);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Range", List.of("bytes */1000")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        try (Response response = proxyGetRange("bytes=2000-", null)) {
+            assertEquals(416, response.getStatus());
+            assertEquals("bytes */1000", response.getHeaderString("Content-Range"));
+            assertFalse(response.hasEntity());
+        }
+    }
+
+    @Test
+    void shouldServeRepeatedAssetFromDiskCache(@TempDir Path directory) throws IOException {
+        byte[] compressed = gzip("var sample = 1;");
+        proxyResource = withDiskCache(directory);
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenReturn(new ByteArrayInputStream(compressed));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(Map.of("Content-Type", List.of("application/javascript"),
+                "Content-Encoding", List.of("gzip"), "Cache-Control", List.of("max-age=600")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+        try (Response first = proxyResource.proxyGet("https://example.com", "gzip", null, null, null, mockUriInfo)
+                .toCompletableFuture().join()) {
+            assertArrayEquals(compressed, entityAsBytes(first));
+        }
+
+        try (Response stored = proxyResource.proxyGet("https://example.com", "gzip", null, null, null, mockUriInfo)
+                .toCompletableFuture().join()) {
+            assertEquals("gzip", stored.getHeaderString("Content-Encoding"));
+            assertEquals(String.valueOf(compressed.length), stored.getHeaderString("Content-Length"));
+            assertArrayEquals(compressed, entityAsBytes(stored));
+        }
+        try (Response decoded = proxyGet("https://example.com")) {
+            assertNull(decoded.getHeaderString("Content-Encoding"));
+            assertEquals("var sample = 1;", entityAsString(decoded));
+        }
+        verify(mockHttpProxyClient, times(1)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldServeRangeOfAssetFromDiskCache(@TempDir Path directory) throws IOException {
+        when(mockBufferedResponse.statusCode()).thenReturn(200);
+        when(mockBufferedResponse.body()).thenReturn(new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8)));
+        when(mockBufferedResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("application/octet-stream")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+        proxyResource = withDiskCache(directory, ExecutionMode.ASYNC);
+        try (Response filled = proxyGet("https://example.com")) {
+            assertEquals("0123456789", entityAsString(filled));
+        }
+
+        try (Response part = proxyGetRange("bytes=2-4", null)) {
+            assertEquals(206, part.getStatus());
+            assertEquals("bytes 2-4/10", part.getHeaderString("Content-Range"));
+            assertEquals("bytes", part.getHeaderString("Accept-Ranges"));
+            assertEquals("234", entityAsString(part));
+        }
+        try (Response conditional = proxyGetRange("bytes=2-4", "\"v1\"")) {
+            assertEquals(200, conditional.getStatus());
+            assertEquals("0123456789", entityAsString(conditional));
+        }
+        try (Response outside = proxyGetRange("bytes=20-", null)) {
+            assertEquals(416, outside.getStatus());
+            assertEquals("bytes */10", outside.getHeaderString("Content-Range"));
+        }
+        verify(mockHttpProxyClient, times(1)).sendRequestAsync(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldForwardPostWithHeadersAndBodyAndRewriteReturnedPage() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenAnswer(invocation -> new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(Map.of("Content-Type", List.of("text/html"),
+                "Cache-Control", List.of("max-age=300"),
+                "Set-Cookie", List.of("sid=1; Domain=.example.com; Path=/; HttpOnly")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+        InputStream form = new ByteArrayInputStream("q=1".getBytes(StandardCharsets.UTF_8));
+        MultivaluedHashMap<String, String> headers = new MultivaluedHashMap<>();
+        headers.add("Content-Type", "application/x-www-form-urlencoded");
+        headers.add("Content-Length", "3");
+        headers.add("Connection", "keep-alive");
+        headers.add("Origin", "http://localhost:8080");
+
+        try (Response response = proxyResource.proxyPost("https://example.com", null,
+                new ResteasyHttpHeaders(headers), mockUriInfo, form).toCompletableFuture().join()) {
+            assertEquals("Simple\u2122 response", entityAsString(response));
+            assertEquals("example.com~sid=1; Path=/; HttpOnly", response.getHeaderString("Set-Cookie"));
+        }
+        ArgumentCaptor<ForwardedRequest> forwarded = ArgumentCaptor.forClass(ForwardedRequest.class);
+        verify(mockHttpProxyClient).sendRequest(any(), forwarded.capture(), eq(Validators.NONE),
+                eq(RangeRequest.NONE));
+        assertEquals("POST", forwarded.getValue().method());
+        assertSame(form, forwarded.getValue().body());
+        assertEquals("https://example.com", forwarded.getValue().headers().first("Origin"));
+        assertNull(forwarded.getValue().headers().first("Connection"));
+    }
+
+    @Test
+    void shouldNotCacheResponsesToAuthorizedRequests() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenAnswer(invocation -> new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("max-age=300")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+        MultivaluedHashMap<String, String> headers = new MultivaluedHashMap<>();
+        headers.add("Authorization", "Bearer token");
+        headers.add("Cookie", TargetCookies.AUTHORIZED_TARGET + "=https://example.com");
+
+        for (int i = 0; i < 2; i++) {
+            try (Response response = proxyResource.proxyGet("https://example.com", null, null, null,
+                    new ResteasyHttpHeaders(headers), mockUriInfo).toCompletableFuture().join()) {
+                assertEquals("Simple\u2122 response", entityAsString(response));
+            }
+        }
+        verify(mockHttpProxyClient, times(2)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldNeitherCacheNorServeCachedPagesForRequestsWithCookies() throws IOException {
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenAnswer(invocation -> new ByteArrayInputStream("Simple response".getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+        MultivaluedHashMap<String, String> headers = new MultivaluedHashMap<>();
+        headers.add("Cookie", "example.com~session=alice");
+
+        try (Response response = proxyResource.proxyGet("https://example.com", null, null, null,
+                new ResteasyHttpHeaders(headers), mockUriInfo).toCompletableFuture().join()) {
+            assertEquals("Simple\u2122 response", entityAsString(response));
+        }
+        try (Response anonymous = proxyGet("https://example.com")) {
+            assertEquals("Simple\u2122 response", entityAsString(anonymous));
+        }
+        try (Response response = proxyResource.proxyGet("https://example.com", null, null, null,
+                new ResteasyHttpHeaders(headers), mockUriInfo).toCompletableFuture().join()) {
+            assertEquals("Simple\u2122 response", entityAsString(response));
+        }
+        verify(mockHttpProxyClient, times(3)).sendRequest(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldLetCredentialsThroughOnlyToTargetThatAskedForThem() {
+        when(mockHttpResponse.statusCode()).thenReturn(401);
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("WWW-Authenticate", List.of("Basic realm=\"docs\"")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+
+        try (Response response = proxyGet("https://example.com")) {
+            assertEquals("Basic realm=\"docs\"", response.getHeaderString("WWW-Authenticate"));
+            assertEquals(TargetCookies.authorizing("https://example.com"), response.getHeaderString("Set-Cookie"));
+        }
+    }
+
+    @Test
+    void shouldFlushHeadAndAnnounceItsStyleSheetsOnNextRequest() throws IOException {
+        List<String> earlyHints = new ArrayList<>();
+        proxyResource = proxy()
+                .earlyHints(new EarlyHints(true, true, 8, 16, () -> earlyHints::add, new SimpleMeterRegistry()))
+                .build();
+        String page = "<html><head><link rel=stylesheet href=/main.css></head><body><p>Simple body</p></body></html>";
+        when(mockHttpResponse.statusCode()).thenReturn(200);
+        when(mockHttpResponse.body()).thenAnswer(invocation -> new ByteArrayInputStream(page.getBytes()));
+        when(mockHttpResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("no-store")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequest(any(), any(), any(), any())).thenReturn(mockHttpResponse);
+        String link = "<http://localhost:8080/main.css?target=https%3A%2F%2Fexample.com>; rel=preload; as=style";
+
+        try (Response first = proxyGet("https://example.com")) {
+            List<String> flushed = new ArrayList<>();
+            ByteArrayOutputStream written = new ByteArrayOutputStream() {
+                @Override
+                public void flush() {
+                    flushed.add(toString(StandardCharsets.UTF_8));
+                }
+            };
+            ((StreamingOutput) first.getEntity()).write(written);
+
+            assertNull(first.getHeaderString("Link"));
+            assertTrue(flushed.get(0).endsWith("</head>"), flushed.get(0));
+        }
+        assertEquals(List.of(), earlyHints);
+        try (Response second = proxyGet("https://example.com")) {
+            assertEquals(link, second.getHeaderString("Link"));
+            assertTrue(entityAsString(second).contains("Simple\u2122 body"));
+        }
+        assertEquals(List.of(link), earlyHints);
+    }
+
+    @Test
+    void shouldAnnounceStyleSheetsWhenSharedStoreIsLookedUpOnAnotherThread() throws Exception {
+        Thread requestThread = Thread.currentThread();
+        List<String> earlyHints = new ArrayList<>();
+        EarlyHints hints = new EarlyHints(true, true, 8, 16, () -> {
+            // the request context is only active on the thread the request arrived on
+            if (Thread.currentThread() != requestThread) {
+                throw new ContextNotActiveException();
+            }
+            return earlyHints::add;
+        }, new SimpleMeterRegistry());
+        responseCache = new ResponseCache(true, 1 << 20, 1 << 16, Duration.ofMinutes(1), Map.of(), Clock.systemUTC(),
+                new InMemoryContentStore(Clock.systemUTC()).replica(), Duration.ofMinutes(10), new SimpleMeterRegistry());
+        ExecutorService virtualExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        proxyResource = proxy().earlyHints(hints).executionMode(ExecutionMode.ASYNC).virtualExecutor(virtualExecutor)
+                .build();
+        String page = "<html><head><link rel=stylesheet href=/main.css></head><body><p>Simple body</p></body></html>";
+        when(mockBufferedResponse.statusCode()).thenReturn(200);
+        when(mockBufferedResponse.body()).thenReturn(page.getBytes());
+        when(mockBufferedResponse.headers()).thenReturn(HttpHeaders.of(
+                Map.of("Content-Type", List.of("text/html"), "Cache-Control", List.of("no-store")), (k, v) -> true));
+        when(mockHttpProxyClient.sendRequestAsync(any(), any(), any(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(mockBufferedResponse));
+        String link = "<http://localhost:8080/main.css?target=https%3A%2F%2Fexample.com>; rel=preload; as=style";
+
+        try {
+            entityAsString(proxyResource.proxyGet("https://example.com", null, null, null, null, mockUriInfo)
+                    .toCompletableFuture().get(5, TimeUnit.SECONDS));
+            try (Response second = proxyResource.proxyGet("https://example.com", null, null, null, null, mockUriInfo)
+                    .toCompletableFuture().get(5, TimeUnit.SECONDS)) {
+                assertEquals(link, second.getHeaderString("Link"));
+            }
+        } finally {
+            virtualExecutor.shutdown();
+        }
+        assertEquals(List.of(link), earlyHints);
+    }
+
+    private ProxyResource withDiskCache(Path directory) {
+        return withDiskCache(directory, ExecutionMode.WORKER);
+    }
+
+    private ProxyResource withDiskCache(Path directory, ExecutionMode executionMode) {
+        DiskCache diskCache = new DiskCache(true, directory, 1 << 20, 1 << 20, 1 << 20, responseCache,
+                Clock.systemUTC(), new SimpleMeterRegistry());
+        diskCache.recover();
+        return proxy().diskCache(diskCache).executionMode(executionMode).build();
+    }
+
+    private ProxyResource newProxyResource(RewriteMode rewriteMode, ExecutionMode executionMode) {
+        return proxy().rewriteMode(rewriteMode).executionMode(executionMode).build();
+    }
+
+    /**
+     * Uses the mocked upstream and the caches of the test.
+     */
+    private ProxyResourceBuilder proxy() {
+        return ProxyResourceBuilder.proxying(mockHttpProxyClient).responseCache(responseCache)
+                .requestCoalescer(requestCoalescer).chunkSize(CHUNK_SIZE);
+    }
+
+    private Response proxyGet(String target) {
+        return proxyResource.proxyGet(target, null, null, null, null, mockUriInfo).toCompletableFuture().join();
+    }
+
+    private Response proxyGetRange(String range, String ifRange) {
+        return proxyResource.proxyGet("https://example.com", null, range, ifRange, null, mockUriInfo).toCompletableFuture()
+                .join();
+    }
+
+    private static byte[] entityAsBytes(Response response) throws IOException {
+        if (response.getEntity() instanceof StreamingOutput output) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            output.write(bytes);
+            return bytes.toByteArray();
+        }
+        return assertInstanceOf(byte[].class, response.getEntity());
+    }
+
+    private static String entityAsString(Response response) throws IOException {
+        if (response.getEntity() instanceof StreamingOutput output) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            output.write(bytes);
+            return bytes.toString(StandardCharsets.UTF_8);
+        }
+        if (response.getEntity() instanceof byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return response.getEntity().toString();
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
         }
+        return bytes.toByteArray();
     }
 }
@@ -0,0 +1,77 @@
+package com.gurskiyy.resource;
+
+import com.gurskiyy.exception.ForbiddenTargetException;
+import com.gurskiyy.exception.InvalidTargetException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TargetIndexTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final TargetIndex index = new TargetIndex(
+            Optional.of(List.of("example.com", "*.cdn.example.net", "https://Docs.Example.org/")), 16, registry);
+
+    @ParameterizedTest
+    @ValueSource(strings = {"https://example.com", "http://EXAMPLE.com/", "https://a.cdn.example.net",
+            "https://a.b.cdn.example.net/assets/", "https://docs.example.org", "https://quarkus.io"})
+    void givenAllowedHost_whenResolved_thenAccepted(String target) {
+        assertEquals(target, index.resolve(target).value());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"https://evil.com", "https://example.com.evil.com", "https://cdn.example.net",
+            "https://www.example.com"})
+    void givenHostNotOnList_whenResolved_thenForbidden(String target) {
+        assertThrows(ForbiddenTargetException.class, () -> index.resolve(target));
+        assertEquals(1, registry.get("proxy.targets.rejected").functionCounter().count());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"ftp://example.com", "example.com", "file:///etc/passwd", "https://example.com?x=1",
+            "https://example.com/#top", "https://exa mple.com"})
+    void givenMalformedTarget_whenResolved_thenInvalid(String target) {
+        InvalidTargetException exception = assertThrows(InvalidTargetException.class,
+                () -> TargetIndex.any().resolve(target));
+        assertFalse(exception instanceof ForbiddenTargetException);
+    }
+
+    @Test
+    void givenSameTarget_whenResolvedTwice_thenParsedOnce() {
+        assertSame(index.resolve("https://example.com"), index.resolve("https://example.com"));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "https://example.com       | ''                 | ''                                  | https://example.com",
+            "https://example.com/      | /                  | ''                                  | https://example.com/",
+            "https://example.com/docs/ | ''                 | lang=en&target=https://example.com  | https://example.com/docs/?lang=en",
+            "https://example.com/docs/ | guides/a%20b       | ''                                  | https://example.com/docs/guides/a%20b",
+            "https://example.com       | /search            | target=x&q=a%26b&target&page=2      | https://example.com/search?q=a%26b&page=2",
+            "https://example.com       | /search            | targets=1&target=x                  | https://example.com/search?targets=1",
+    })
+    void givenRequestPathAndQuery_whenResolved_thenAppendedAsEncodedWithoutTarget(String target, String rawPath,
+                                                                                   String rawQuery, String expected) {
+        assertEquals(URI.create(expected), index.resolve(target).resolve(rawPath, rawQuery));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "https://example.com/a?b=1#c   | http://localhost:8080/a?b=1&target=https://example.com#c",
+            "https://example.com           | http://localhost:8080?target=https://example.com",
+            "https://example.com.evil.com/ | ",
+            "https://other.com/            | ",
+    })
+    void givenRedirectLocation_whenRewritten_thenPointsBackThroughProxyWhenOnTarget(String location,
+                                                                                   String expected) {
+        assertEquals(expected, index.resolve("https://example.com").redirect(location, "http://localhost:8080/"));
+    }
+}
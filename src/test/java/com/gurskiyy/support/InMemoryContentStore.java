@@ -0,0 +1,104 @@
+package com.gurskiyy.support;
+
+import com.gurskiyy.cache.RewrittenContentStore;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * In-process stand-in for a shared store such as Redis. Each {@link #replica()} is the connection of one proxy
+ * replica: records it writes are seen by all, and invalidations reach the listeners of the other replicas only, as
+ * with keyspace notifications. Records are copied in and out, as they would cross the network.
+ */
+public final class InMemoryContentStore {
+
+    private final Clock clock;
+    private final Map<String, Stored> records = new ConcurrentHashMap<>();
+    private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+    private final AtomicInteger reads = new AtomicInteger();
+    private volatile boolean failing;
+
+    public InMemoryContentStore(Clock clock) {
+        this.clock = clock;
+    }
+
+    public RewrittenContentStore replica() {
+        Replica replica = new Replica();
+        replicas.add(replica);
+        return replica;
+    }
+
+    /**
+     * Makes every call fail, as when the store cannot be reached.
+     */
+    public void failing(boolean failing) {
+        this.failing = failing;
+    }
+
+    public byte[] record(String key) {
+        Stored stored = records.get(key);
+        return stored != null ? stored.record().clone() : null;
+    }
+
+    public int reads() {
+        return reads.get();
+    }
+
+    private record Stored(byte[] record, long expiresAt) {
+    }
+
+    private final class Replica implements RewrittenContentStore {
+
+        private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+        @Override
+        public byte[] get(String key) {
+            check();
+            reads.incrementAndGet();
+            Stored stored = records.get(key);
+            if (stored == null || clock.millis() >= stored.expiresAt()) {
+                return null;
+            }
+            return stored.record().clone();
+        }
+
+        @Override
+        public void put(String key, byte[] record, Duration timeToLive) {
+            check();
+            records.put(key, new Stored(record.clone(), clock.millis() + timeToLive.toMillis()));
+            invalidateOthers(key);
+        }
+
+        @Override
+        public void remove(String key) {
+            check();
+            records.remove(key);
+            invalidateOthers(key);
+        }
+
+        @Override
+        public void onInvalidated(Consumer<String> listener) {
+            listeners.add(listener);
+        }
+
+        private void invalidateOthers(String key) {
+            for (Replica replica : replicas) {
+                if (replica != this) {
+                    replica.listeners.forEach(listener -> listener.accept(key));
+                }
+            }
+        }
+
+        private void check() {
+            if (failing) {
+                throw new IllegalStateException("Shared store unavailable");
+            }
+        }
+    }
+}
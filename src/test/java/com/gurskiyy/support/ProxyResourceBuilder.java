@@ -0,0 +1,138 @@
+package com.gurskiyy.support;
+
+import com.gurskiyy.admission.AdmissionController;
+import com.gurskiyy.cache.DiskCache;
+import com.gurskiyy.cache.RequestCoalescer;
+import com.gurskiyy.cache.ResponseCache;
+import com.gurskiyy.client.HttpProxyClient;
+import com.gurskiyy.parser.HtmlModifier;
+import com.gurskiyy.parser.RewriteMode;
+import com.gurskiyy.resource.EarlyHints;
+import com.gurskiyy.resource.ExecutionMode;
+import com.gurskiyy.resource.ProxyResource;
+import com.gurskiyy.resource.TargetIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.core.UriInfo;
+
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Builds a {@link ProxyResource} outside the container. Every collaborator starts out disabled or as its plain
+ * default, with no caching, coalescing or admission control, and rewriting streamed on the calling thread, so a test
+ * only sets the ones it is about.
+ */
+public final class ProxyResourceBuilder {
+
+    private final HttpProxyClient client;
+    private HtmlModifier htmlModifier = new HtmlModifier();
+    private ResponseCache responseCache = new ResponseCache(false, 0, 0, Duration.ZERO, Map.of(), Clock.systemUTC(),
+            new SimpleMeterRegistry());
+    private DiskCache diskCache = DiskCache.disabled();
+    private RequestCoalescer requestCoalescer = new RequestCoalescer(false, 0, Duration.ZERO,
+            new SimpleMeterRegistry());
+    private AdmissionController admission = AdmissionController.disabled();
+    private TargetIndex targets = TargetIndex.any();
+    private EarlyHints earlyHints = EarlyHints.disabled();
+    private RewriteMode rewriteMode = RewriteMode.STREAMING;
+    private int chunkSize = 8192;
+    private Duration writeStartTimeout = Duration.ofSeconds(30);
+    private ExecutionMode executionMode = ExecutionMode.WORKER;
+    private Executor rewriteExecutor = Runnable::run;
+    private Executor virtualExecutor = Runnable::run;
+
+    private ProxyResourceBuilder(HttpProxyClient client) {
+        this.client = client;
+    }
+
+    public static ProxyResourceBuilder proxying(HttpProxyClient client) {
+        return new ProxyResourceBuilder(client);
+    }
+
+    /**
+     * @return request information for {@code path} under a proxy served from {@code http://localhost:8080/}
+     */
+    public static UriInfo uriInfo(String path) {
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getPath(false)).thenReturn(path);
+        when(uriInfo.getBaseUri()).thenReturn(URI.create("http://localhost:8080/"));
+        when(uriInfo.getRequestUri()).thenReturn(URI.create("http://localhost:8080/" + path));
+        return uriInfo;
+    }
+
+    public ProxyResourceBuilder htmlModifier(HtmlModifier htmlModifier) {
+        this.htmlModifier = htmlModifier;
+        return this;
+    }
+
+    public ProxyResourceBuilder responseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    public ProxyResourceBuilder diskCache(DiskCache diskCache) {
+        this.diskCache = diskCache;
+        return this;
+    }
+
+    public ProxyResourceBuilder requestCoalescer(RequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+        return this;
+    }
+
+    public ProxyResourceBuilder admission(AdmissionController admission) {
+        this.admission = admission;
+        return this;
+    }
+
+    public ProxyResourceBuilder targets(TargetIndex targets) {
+        this.targets = targets;
+        return this;
+    }
+
+    public ProxyResourceBuilder earlyHints(EarlyHints earlyHints) {
+        this.earlyHints = earlyHints;
+        return this;
+    }
+
+    public ProxyResourceBuilder rewriteMode(RewriteMode rewriteMode) {
+        this.rewriteMode = rewriteMode;
+        return this;
+    }
+
+    public ProxyResourceBuilder chunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public ProxyResourceBuilder writeStartTimeout(Duration writeStartTimeout) {
+        this.writeStartTimeout = writeStartTimeout;
+        return this;
+    }
+
+    public ProxyResourceBuilder executionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+        return this;
+    }
+
+    public ProxyResourceBuilder rewriteExecutor(Executor rewriteExecutor) {
+        this.rewriteExecutor = rewriteExecutor;
+        return this;
+    }
+
+    public ProxyResourceBuilder virtualExecutor(Executor virtualExecutor) {
+        this.virtualExecutor = virtualExecutor;
+        return this;
+    }
+
+    public ProxyResource build() {
+        return new ProxyResource(htmlModifier, client, responseCache, diskCache, requestCoalescer, admission, targets,
+                earlyHints, rewriteMode, chunkSize, writeStartTimeout, executionMode, rewriteExecutor, virtualExecutor);
+    }
+}
@@ -0,0 +1,43 @@
+package com.gurskiyy.support;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @param tail sent {@code tailDelay} after {@code body}, like an upstream that is slow to produce the rest of a page
+ */
+public record StubResponse(int status, Map<String, List<String>> headers, byte[] body, Duration delay, byte[] tail,
+                           Duration tailDelay) {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    public static StubResponse ok(String contentType, byte[] body) {
+        return new StubResponse(200, Map.of("Content-Type", List.of(contentType)), body, Duration.ZERO, EMPTY,
+                Duration.ZERO);
+    }
+
+    public static StubResponse html(String body) {
+        return ok("text/html; charset=UTF-8", body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static StubResponse status(int status) {
+        return new StubResponse(status, Map.of(), EMPTY, Duration.ZERO, EMPTY, Duration.ZERO);
+    }
+
+    public StubResponse withHeader(String name, String value) {
+        Map<String, List<String>> copy = new LinkedHashMap<>(headers);
+        copy.put(name, List.of(value));
+        return new StubResponse(status, copy, body, delay, tail, tailDelay);
+    }
+
+    public StubResponse withDelay(Duration delay) {
+        return new StubResponse(status, headers, body, delay, tail, tailDelay);
+    }
+
+    public StubResponse withTail(String tail, Duration tailDelay) {
+        return new StubResponse(status, headers, body, delay, tail.getBytes(StandardCharsets.UTF_8), tailDelay);
+    }
+}
@@ -0,0 +1,125 @@
+package com.gurskiyy.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Local HTTP server standing in for a proxied site. Delayed responses are completed from a scheduler, so
+ * thousands of slow requests can be in flight without holding a server thread each.
+ */
+public final class StubUpstream implements AutoCloseable {
+
+    private static final StubResponse NOT_FOUND = StubResponse.status(404);
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Function<HttpExchange, StubResponse>> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private StubUpstream(HttpServer server) {
+        this.server = server;
+        this.handlers = Executors.newFixedThreadPool(2, Thread.ofPlatform().name("stub-upstream-", 0).daemon(true).factory());
+        this.scheduler = Executors.newScheduledThreadPool(2, Thread.ofPlatform().name("stub-delay-", 0).daemon(true).factory());
+    }
+
+    public static StubUpstream start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4096);
+        StubUpstream upstream = new StubUpstream(server);
+        server.createContext("/", upstream::handle);
+        server.setExecutor(upstream.handlers);
+        server.start();
+        return upstream;
+    }
+
+    public StubUpstream route(String path, StubResponse response) {
+        return route(path, exchange -> response);
+    }
+
+    public StubUpstream route(String path, Function<HttpExchange, StubResponse> handler) {
+        routes.put(path, handler);
+        return this;
+    }
+
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public int requestCount() {
+        return requestCount.get();
+    }
+
+    public int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    private void handle(HttpExchange exchange) {
+        requestCount.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        StubResponse response = routes.getOrDefault(exchange.getRequestURI().getPath(), e -> NOT_FOUND).apply(exchange);
+        if (response.delay().isZero()) {
+            write(exchange, response);
+        } else {
+            scheduler.schedule(() -> write(exchange, response), response.delay().toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void write(HttpExchange exchange, StubResponse response) {
+        boolean done = true;
+        try {
+            response.headers().forEach((name, values) -> exchange.getResponseHeaders().put(name, values));
+            byte[] body = response.body();
+            byte[] tail = response.tail();
+            boolean withoutBody = body.length + tail.length == 0 || "HEAD".equals(exchange.getRequestMethod());
+            exchange.sendResponseHeaders(response.status(), withoutBody ? -1 : body.length + tail.length);
+            if (!withoutBody) {
+                exchange.getResponseBody().write(body);
+            }
+            if (!withoutBody && tail.length > 0) {
+                exchange.getResponseBody().flush();
+                scheduler.schedule(() -> writeTail(exchange, tail), response.tailDelay().toMillis(),
+                        TimeUnit.MILLISECONDS);
+                done = false;
+            }
+        } catch (IOException e) {
+            // the proxy gave up on this request
+        } finally {
+            if (done) {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        }
+    }
+
+    private void writeTail(HttpExchange exchange, byte[] tail) {
+        try {
+            exchange.getResponseBody().write(tail);
+        } catch (IOException e) {
+            // the proxy gave up on this request
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        scheduler.shutdownNow();
+        handlers.shutdownNow();
+    }
+}